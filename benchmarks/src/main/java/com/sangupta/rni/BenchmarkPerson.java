@@ -0,0 +1,109 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A <code>Person</code>-like value object, available in several sizes so that
+ * benchmarks cover both call overhead and payload-bound costs.
+ *
+ * @author sangupta
+ *
+ */
+public class BenchmarkPerson {
+
+    public String id;
+
+    public String name;
+
+    public int age;
+
+    public String address;
+
+    public List<String> tags;
+
+    public Map<String, String> attributes;
+
+    public List<BenchmarkPerson> friends;
+
+    /**
+     * Create a person of the given size.
+     *
+     * @param size one of <code>small</code> (a few fields, under 100 bytes as
+     *            JSON), <code>medium</code> (with tags and attributes, about
+     *            700 bytes) or <code>large</code> (with 25 friends, about
+     *            18 KB)
+     *
+     * @return the person
+     */
+    public static BenchmarkPerson ofSize(String size) {
+        switch(size) {
+            case "small":
+                return create(0, 0, 0, 0);
+
+            case "medium":
+                return create(0, 10, 20, 0);
+
+            case "large":
+                return create(0, 10, 20, 25);
+
+            default:
+                throw new IllegalArgumentException("Unknown size: " + size);
+        }
+    }
+
+    private static BenchmarkPerson create(int index, int tags, int attributes, int friends) {
+        BenchmarkPerson person = new BenchmarkPerson();
+        person.id = "person-" + index;
+        person.name = "Person Number " + index;
+        person.age = 20 + index % 50;
+        person.address = index + " Some Street, Some City";
+
+        if(tags > 0) {
+            person.tags = new ArrayList<>();
+            for(int tag = 0; tag < tags; tag++) {
+                person.tags.add("tag-" + tag);
+            }
+        }
+
+        if(attributes > 0) {
+            person.attributes = new LinkedHashMap<>();
+            for(int attribute = 0; attribute < attributes; attribute++) {
+                person.attributes.put("attribute-" + attribute, "value-" + attribute);
+            }
+        }
+
+        if(friends > 0) {
+            person.friends = new ArrayList<>();
+            for(int friend = 1; friend <= friends; friend++) {
+                person.friends.add(create(index + friend, tags, attributes, 0));
+            }
+        }
+
+        return person;
+    }
+
+}
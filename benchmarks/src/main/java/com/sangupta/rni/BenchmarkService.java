@@ -0,0 +1,48 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * The interface served and called in the benchmarks.
+ *
+ * @author sangupta
+ *
+ */
+public interface BenchmarkService {
+
+    /**
+     * A call with no arguments and a tiny result, to measure fixed overhead.
+     *
+     * @return always the same value
+     */
+    public int ping();
+
+    /**
+     * A call whose cost grows with the size of the argument and result.
+     *
+     * @param person the person to send
+     *
+     * @return the same person
+     */
+    public BenchmarkPerson echo(BenchmarkPerson person);
+
+}
@@ -0,0 +1,52 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * Helpers shared by the benchmarks.
+ *
+ * @author sangupta
+ *
+ */
+class Benchmarks {
+
+    /**
+     * Get a codec by its short name, as used in benchmark parameters.
+     *
+     * @param name either <code>json</code> or <code>binary</code>
+     *
+     * @return the codec
+     */
+    static RniCodec codec(String name) {
+        switch(name) {
+            case "json":
+                return RniCodecs.JSON;
+
+            case "binary":
+                return RniCodecs.BINARY;
+
+            default:
+                throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding and decoding of arguments and results with each codec,
+ * for payloads of several sizes. Streams are in memory.
+ *
+ * @author sangupta
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({ "json", "binary" })
+    public String codec;
+
+    @Param({ "small", "medium", "large" })
+    public String size;
+
+    private RniCodec rniCodec;
+
+    private RniMethod method;
+
+    private Object[] args;
+
+    private Object result;
+
+    private byte[] encodedParams;
+
+    private byte[] encodedResult;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setup() throws Exception {
+        this.rniCodec = Benchmarks.codec(this.codec);
+        this.method = new RniMethod(BenchmarkService.class, BenchmarkService.class.getMethod("echo", BenchmarkPerson.class));
+        this.rniCodec.prepare(this.method);
+
+        this.result = BenchmarkPerson.ofSize(this.size);
+        this.args = new Object[] { this.result };
+
+        this.out.reset();
+        this.rniCodec.writeParams(this.method, this.args, this.out);
+        this.encodedParams = this.out.toByteArray();
+
+        this.out.reset();
+        this.rniCodec.writeResult(this.method, this.result, this.out);
+        this.encodedResult = this.out.toByteArray();
+    }
+
+    @Benchmark
+    public int writeParams() throws IOException {
+        this.out.reset();
+        this.rniCodec.writeParams(this.method, this.args, this.out);
+        return this.out.size();
+    }
+
+    @Benchmark
+    public Object[] readParams() throws IOException {
+        return this.rniCodec.readParams(this.method, new ByteArrayInputStream(this.encodedParams));
+    }
+
+    @Benchmark
+    public int writeResult() throws IOException {
+        this.out.reset();
+        this.rniCodec.writeResult(this.method, this.result, this.out);
+        return this.out.size();
+    }
+
+    @Benchmark
+    public Object readResult() throws IOException {
+        return this.rniCodec.readResult(this.method, new ByteArrayInputStream(this.encodedResult));
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sangupta.jerry.constants.HttpStatusCode;
+
+/**
+ * Measures {@link RPCReceivingServlet} serving a call in isolation, against
+ * an in-memory request and response: method lookup, codec negotiation,
+ * decoding the arguments, invoking the implementation and encoding the
+ * result.
+ *
+ * @author sangupta
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({ "json", "binary" })
+    public String codec;
+
+    @Param({ "small", "large" })
+    public String size;
+
+    private final RPCReceivingServlet servlet = new RPCReceivingServlet();
+
+    private final MockServletResponse response = new MockServletResponse();
+
+    private MockServletRequest ping;
+
+    private MockServletRequest echo;
+
+    @Setup
+    public void setup() throws Exception {
+        RPCReceivingServlet.recieveCalls(BenchmarkService.class, new BenchmarkServiceImpl());
+
+        final RniCodec rniCodec = Benchmarks.codec(this.codec);
+        this.ping = request(rniCodec, new RniMethod(BenchmarkService.class, BenchmarkService.class.getMethod("ping")), new byte[0]);
+
+        final RniMethod method = new RniMethod(BenchmarkService.class, BenchmarkService.class.getMethod("echo", BenchmarkPerson.class));
+        final ByteArrayOutputStream params = new ByteArrayOutputStream();
+        rniCodec.writeParams(method, new Object[] { BenchmarkPerson.ofSize(this.size) }, params);
+        this.echo = request(rniCodec, method, params.toByteArray());
+
+        // make sure the calls are actually served
+        if(this.ping() != HttpStatusCode.OK || this.echo() != HttpStatusCode.OK) {
+            throw new IllegalStateException("Call not served, status: " + this.response.getStatus());
+        }
+    }
+
+    private static MockServletRequest request(RniCodec codec, RniMethod method, byte[] body) {
+        return new MockServletRequest("/rni/" + method.getPath(), body)
+                .header(RniUtils.REQUEST_HEADER_FOR_METHOD_ID, method.getIdHeader())
+                .header(RniUtils.HEADER_CONTENT_TYPE, codec.getContentType())
+                .header(RniUtils.HEADER_ACCEPT, codec.getContentType());
+    }
+
+    @Benchmark
+    public int ping() throws ServletException, IOException {
+        return this.serve(this.ping);
+    }
+
+    @Benchmark
+    public int echo() throws ServletException, IOException {
+        return this.serve(this.echo);
+    }
+
+    private int serve(MockServletRequest request) throws ServletException, IOException {
+        request.reset();
+        this.response.reset();
+        this.servlet.service(request, this.response);
+        return this.response.getStatus();
+    }
+
+}
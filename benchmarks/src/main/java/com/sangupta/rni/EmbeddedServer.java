@@ -0,0 +1,105 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import com.sangupta.jerry.constants.HttpStatusCode;
+
+/**
+ * Embedded Jetty server on the loopback interface, serving
+ * {@link BenchmarkService} via {@link RPCReceivingServlet} under
+ * {@link #CONTEXT}.
+ *
+ * @author sangupta
+ *
+ */
+class EmbeddedServer {
+
+    static final String CONTEXT = "rni";
+
+    static final String HOST = "127.0.0.1";
+
+    private final Server server = new Server();
+
+    private final ServerConnector connector = new ServerConnector(this.server);
+
+    /**
+     * Start the server on a free port.
+     *
+     * @throws Exception if the server cannot be started
+     */
+    void start() throws Exception {
+        RPCReceivingServlet.recieveCalls(BenchmarkService.class, new BenchmarkServiceImpl());
+
+        this.connector.setHost(HOST);
+        this.connector.setPort(0);
+        this.server.addConnector(this.connector);
+        this.server.setHandler(new RniHandler(new RPCReceivingServlet()));
+        this.server.start();
+    }
+
+    void stop() throws Exception {
+        this.server.stop();
+    }
+
+    int getPort() {
+        return this.connector.getLocalPort();
+    }
+
+    /**
+     * Hands all requests under the context to the servlet.
+     *
+     */
+    private static class RniHandler extends AbstractHandler {
+
+        private static final String PREFIX = "/" + CONTEXT + "/";
+
+        private final RPCReceivingServlet servlet;
+
+        RniHandler(RPCReceivingServlet servlet) {
+            this.servlet = servlet;
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+            if(!request.getRequestURI().startsWith(PREFIX)) {
+                response.sendError(HttpStatusCode.NOT_FOUND);
+            } else {
+                this.servlet.service(request, response);
+            }
+
+            baseRequest.setHandled(true);
+        }
+
+    }
+
+}
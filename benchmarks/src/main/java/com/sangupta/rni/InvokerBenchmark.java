@@ -0,0 +1,80 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares invoking the implementation through the precompiled
+ * {@link MethodInvoker} with plain reflection, without any decoding or
+ * encoding around the call.
+ *
+ * @author sangupta
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+    private MethodInvoker reflective;
+
+    private MethodInvoker precompiled;
+
+    private Object[] args;
+
+    @Setup
+    public void setup() throws Exception {
+        final BenchmarkService instance = new BenchmarkServiceImpl();
+        final Method method = BenchmarkService.class.getMethod("echo", BenchmarkPerson.class);
+
+        this.reflective = MethodInvoker.reflective(instance, method);
+        this.precompiled = MethodInvoker.forMethod(instance, method);
+        this.args = new Object[] { BenchmarkPerson.ofSize("small") };
+    }
+
+    @Benchmark
+    public Object reflective() throws Throwable {
+        return this.reflective.invoke(this.args);
+    }
+
+    @Benchmark
+    public Object precompiled() throws Throwable {
+        return this.precompiled.invoke(this.args);
+    }
+
+}
@@ -0,0 +1,413 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test tool that starts an embedded server and drives a client proxy
+ * against it, in one of two modes:
+ *
+ * <ul>
+ * <li><b>closed</b> - a fixed number of workers each make one call after the
+ * other. With <code>--rate</code>, workers follow a schedule instead of
+ * calling back to back.</li>
+ * <li><b>open</b> - calls are started at a fixed rate, no matter how many are
+ * still in flight, as real independent users would.</li>
+ * </ul>
+ *
+ * Whenever there is a schedule, latency is measured from the time a call was
+ * meant to start rather than when it actually started. A slow call then also
+ * counts against the calls it delayed, which corrects for coordinated
+ * omission. Service time, from the actual start, is reported alongside.
+ *
+ * The report can be saved as a JSON baseline, and a later run compared to it;
+ * the process exits with status 1 if the run regressed beyond the tolerance.
+ *
+ * @author sangupta
+ *
+ */
+public class LoadGenerator {
+
+    private static final String USAGE = "Usage: LoadGenerator [options]\n"
+            + "  --mode=closed|open      closed: fixed workers, open: fixed arrival rate (default closed)\n"
+            + "  --workers=N             workers in closed mode (default 8)\n"
+            + "  --rate=N                calls per second; required in open mode, paces workers in closed mode\n"
+            + "  --max-concurrency=N     threads making calls in open mode (default 256)\n"
+            + "  --duration=SECONDS      measured duration (default 30)\n"
+            + "  --warmup=SECONDS        unmeasured warm-up before it (default 5)\n"
+            + "  --call=echo|ping        the call to make (default echo)\n"
+            + "  --codec=json|binary     the codec to use (default json)\n"
+            + "  --size=small|medium|large  the payload size for echo (default small)\n"
+            + "  --baseline-out=FILE     save the report as a baseline\n"
+            + "  --baseline=FILE         compare the report to a saved baseline\n"
+            + "  --tolerance=PERCENT     allowed regression against the baseline (default 10)";
+
+    /**
+     * Longest time to wait for calls still in flight once the run is over
+     */
+    private static final long DRAIN_SECONDS = 60;
+
+    private final LoadReport.Settings settings;
+
+    private final int maxConcurrency;
+
+    private final BenchmarkService client;
+
+    private final BenchmarkPerson person;
+
+    private final LatencyHistogram responseTime = new LatencyHistogram();
+
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+    private final LongAdder calls = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAccumulator lastEnd = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    /**
+     * Calls meant to start before this time are part of the warm-up
+     */
+    private long measureStart;
+
+    /**
+     * No calls are started at or after this time
+     */
+    private long measureEnd;
+
+    LoadGenerator(LoadReport.Settings settings, int maxConcurrency, BenchmarkService client) {
+        this.settings = settings;
+        this.maxConcurrency = maxConcurrency;
+        this.client = client;
+        this.person = BenchmarkPerson.ofSize(settings.size);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options;
+        try {
+            options = Options.parse(args);
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        final EmbeddedServer server = new EmbeddedServer();
+        server.start();
+
+        final int connections = Math.max(options.settings.workers, options.maxConcurrency);
+        final HttpTransport transport = new HttpTransport(new HttpTransportConfig().setMaxConnections(connections).setMaxConnectionsPerRoute(connections));
+        final RniClientConfig config = new RniClientConfig().setCodec(Benchmarks.codec(options.settings.codec)).setTransport(transport);
+        final BenchmarkService client = WebClientGenerator.createWebClient(BenchmarkService.class, EmbeddedServer.HOST, server.getPort(), EmbeddedServer.CONTEXT, config);
+
+        int status = 0;
+        try {
+            System.out.println("Running " + options.settings + " for " + options.warmupSeconds + "s warm-up and " + options.durationSeconds + "s measured...");
+            LoadReport report = new LoadGenerator(options.settings, options.maxConcurrency, client).run(options.warmupSeconds, options.durationSeconds);
+            report.print(System.out);
+
+            if(options.baselineOut != null) {
+                report.writeBaseline(options.baselineOut);
+                System.out.println("Baseline written to " + options.baselineOut);
+            }
+
+            if(options.baseline != null) {
+                List<String> regressions = report.compareTo(LoadReport.readBaseline(options.baseline), options.tolerance);
+                if(regressions.isEmpty()) {
+                    System.out.println("No regression against baseline " + options.baseline);
+                } else {
+                    System.out.println("Regressions against baseline " + options.baseline + ":");
+                    for(String regression : regressions) {
+                        System.out.println("  " + regression);
+                    }
+
+                    status = 1;
+                }
+            }
+        } finally {
+            transport.close();
+            server.stop();
+        }
+
+        System.exit(status);
+    }
+
+    /**
+     * Run the load and collect the results.
+     *
+     * @param warmupSeconds the time to run before measuring
+     *
+     * @param durationSeconds the time to measure for
+     *
+     * @return the report
+     *
+     * @throws InterruptedException if interrupted while waiting for calls
+     */
+    LoadReport run(int warmupSeconds, int durationSeconds) throws InterruptedException {
+        final long start = System.nanoTime();
+        this.measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.measureEnd = this.measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        long unfinished;
+        if(this.settings.isOpen()) {
+            unfinished = this.runOpen(start);
+        } else {
+            unfinished = this.runClosed(start);
+        }
+
+        final long elapsed = Math.max(this.measureEnd, this.lastEnd.get()) - this.measureStart;
+        return new LoadReport(this.settings, this.calls.sum() + unfinished, this.errors.sum() + unfinished, elapsed, this.responseTime, this.serviceTime);
+    }
+
+    private long runClosed(final long start) throws InterruptedException {
+        final int workers = this.settings.workers;
+
+        // each worker gets an equal share of the rate, staggered
+        final long interval = this.settings.rate > 0 ? (long) (1e9 * workers / this.settings.rate) : 0;
+
+        List<Thread> threads = new ArrayList<>();
+        for(int index = 0; index < workers; index++) {
+            final long offset = interval / workers * index;
+            Thread thread = new Thread(() -> {
+                long intended = start + offset;
+                while(true) {
+                    if(interval > 0) {
+                        parkUntil(intended);
+                    } else {
+                        intended = System.nanoTime();
+                    }
+
+                    if(intended >= this.measureEnd) {
+                        return;
+                    }
+
+                    this.call(intended);
+
+                    // a late call does not move the schedule
+                    intended += interval;
+                }
+            }, "rni-load-worker-" + index);
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        return 0;
+    }
+
+    private long runOpen(long start) throws InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(this.maxConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, "rni-load-caller");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // calls queue up in the pool when all callers are busy, and their
+        // latency still counts from when they were meant to start
+        final double interval = 1e9 / this.settings.rate;
+        for(long index = 0; ; index++) {
+            final long intended = start + (long) (index * interval);
+            if(intended >= this.measureEnd) {
+                break;
+            }
+
+            parkUntil(intended);
+            pool.execute(() -> this.call(intended));
+        }
+
+        pool.shutdown();
+        if(pool.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+            return 0;
+        }
+
+        // calls that never started count as failed
+        return pool.shutdownNow().size();
+    }
+
+    private void call(long intended) {
+        final long start = System.nanoTime();
+
+        boolean failed;
+        try {
+            if("ping".equals(this.settings.call)) {
+                failed = this.client.ping() != 42;
+            } else {
+                failed = this.client.echo(this.person) == null;
+            }
+        } catch(RuntimeException e) {
+            // includes the null result of a failed ping
+            failed = true;
+        }
+
+        final long end = System.nanoTime();
+        if(intended < this.measureStart) {
+            return;
+        }
+
+        this.calls.increment();
+        if(failed) {
+            this.errors.increment();
+        }
+
+        this.responseTime.record(end - intended);
+        this.serviceTime.record(end - start);
+        this.lastEnd.accumulate(end);
+    }
+
+    private static void parkUntil(long deadline) {
+        long remaining;
+        while((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Command line options.
+     *
+     */
+    private static class Options {
+
+        final LoadReport.Settings settings = new LoadReport.Settings();
+
+        int maxConcurrency = 256;
+
+        int durationSeconds = 30;
+
+        int warmupSeconds = 5;
+
+        File baselineOut;
+
+        File baseline;
+
+        double tolerance = 10;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for(String arg : args) {
+                int equals = arg.indexOf('=');
+                if(!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Invalid option: " + arg);
+                }
+
+                final String name = arg.substring(2, equals);
+                final String value = arg.substring(equals + 1);
+                switch(name) {
+                    case "mode":
+                        options.settings.mode = oneOf(name, value, "closed", "open");
+                        break;
+
+                    case "workers":
+                        options.settings.workers = positive(name, value);
+                        break;
+
+                    case "rate":
+                        options.settings.rate = positive(name, value);
+                        break;
+
+                    case "max-concurrency":
+                        options.maxConcurrency = positive(name, value);
+                        break;
+
+                    case "duration":
+                        options.durationSeconds = positive(name, value);
+                        break;
+
+                    case "warmup":
+                        options.warmupSeconds = Integer.parseInt(value);
+                        break;
+
+                    case "call":
+                        options.settings.call = oneOf(name, value, "echo", "ping");
+                        break;
+
+                    case "codec":
+                        options.settings.codec = oneOf(name, value, "json", "binary");
+                        break;
+
+                    case "size":
+                        options.settings.size = oneOf(name, value, "small", "medium", "large");
+                        break;
+
+                    case "baseline-out":
+                        options.baselineOut = new File(value);
+                        break;
+
+                    case "baseline":
+                        options.baseline = new File(value);
+                        break;
+
+                    case "tolerance":
+                        options.tolerance = Double.parseDouble(value);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+
+            if(options.settings.isOpen() && options.settings.rate == 0) {
+                throw new IllegalArgumentException("Open mode needs a --rate");
+            }
+
+            if(options.settings.isOpen()) {
+                options.settings.workers = 0;
+            }
+
+            return options;
+        }
+
+        private static String oneOf(String name, String value, String... allowed) {
+            for(String candidate : allowed) {
+                if(candidate.equals(value)) {
+                    return value;
+                }
+            }
+
+            throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+        }
+
+        private static int positive(String name, String value) {
+            final int number = Integer.parseInt(value);
+            if(number <= 0) {
+                throw new IllegalArgumentException("--" + name + " must be positive");
+            }
+
+            return number;
+        }
+
+    }
+
+}
@@ -0,0 +1,257 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Results of a {@link LoadGenerator} run, which can be saved as a JSON
+ * baseline and compared to one. Latencies are kept in microseconds.
+ *
+ * @author sangupta
+ *
+ */
+class LoadReport {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    private static final double ERROR_RATE_SLACK = 0.001;
+
+    private final Settings settings;
+
+    private final long calls;
+
+    private final long errors;
+
+    private final double throughput;
+
+    /**
+     * Response time percentiles and maximum, from the intended start
+     */
+    private final long[] responseMicros;
+
+    /**
+     * Service time percentiles and maximum, from the actual start
+     */
+    private final long[] serviceMicros;
+
+    LoadReport(Settings settings, long calls, long errors, long elapsedNanos, LatencyHistogram responseTime, LatencyHistogram serviceTime) {
+        this.settings = settings;
+        this.calls = calls;
+        this.errors = errors;
+        this.throughput = elapsedNanos > 0 ? calls * 1e9 / elapsedNanos : 0;
+        this.responseMicros = micros(responseTime);
+        this.serviceMicros = micros(serviceTime);
+    }
+
+    private LoadReport(JsonObject json) {
+        this.settings = new Settings();
+        this.settings.mode = json.get("mode").getAsString();
+        this.settings.workers = json.get("workers").getAsInt();
+        this.settings.rate = json.get("rate").getAsInt();
+        this.settings.call = json.get("call").getAsString();
+        this.settings.codec = json.get("codec").getAsString();
+        this.settings.size = json.get("size").getAsString();
+
+        this.calls = json.get("calls").getAsLong();
+        this.errors = json.get("errors").getAsLong();
+        this.throughput = json.get("throughput").getAsDouble();
+        this.responseMicros = readMicros(json.getAsJsonObject("responseTime"));
+        this.serviceMicros = readMicros(json.getAsJsonObject("serviceTime"));
+    }
+
+    private static long[] micros(LatencyHistogram histogram) {
+        long[] micros = new long[PERCENTILES.length + 1];
+        for(int index = 0; index < PERCENTILES.length; index++) {
+            micros[index] = histogram.getPercentileNanos(PERCENTILES[index]) / 1000;
+        }
+
+        micros[PERCENTILES.length] = histogram.getMaxNanos() / 1000;
+        return micros;
+    }
+
+    private static long[] readMicros(JsonObject json) {
+        long[] micros = new long[PERCENTILES.length + 1];
+        for(int index = 0; index < PERCENTILES.length; index++) {
+            micros[index] = json.get(PERCENTILE_NAMES[index]).getAsLong();
+        }
+
+        micros[PERCENTILES.length] = json.get("max").getAsLong();
+        return micros;
+    }
+
+    double getErrorRate() {
+        return this.calls == 0 ? 0 : (double) this.errors / this.calls;
+    }
+
+    void print(PrintStream out) {
+        out.println();
+        out.println(this.settings);
+        out.println(String.format(Locale.ROOT, "calls: %d, errors: %d (%.3f%%), throughput: %.1f calls/s", this.calls, this.errors, this.getErrorRate() * 100, this.throughput));
+
+        if(this.settings.isScheduled()) {
+            out.println("response time, corrected for coordinated omission (us): " + format(this.responseMicros));
+        } else {
+            out.println("response time, not corrected as calls are unscheduled (us): " + format(this.responseMicros));
+        }
+
+        out.println("service time (us): " + format(this.serviceMicros));
+    }
+
+    private static String format(long[] micros) {
+        StringBuilder builder = new StringBuilder();
+        for(int index = 0; index < PERCENTILES.length; index++) {
+            builder.append(PERCENTILE_NAMES[index]).append('=').append(micros[index]).append(", ");
+        }
+
+        return builder.append("max=").append(micros[PERCENTILES.length]).toString();
+    }
+
+    void writeBaseline(File file) throws IOException {
+        try(Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            JsonWriter json = new JsonWriter(writer);
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("mode").value(this.settings.mode);
+            json.name("workers").value(this.settings.workers);
+            json.name("rate").value(this.settings.rate);
+            json.name("call").value(this.settings.call);
+            json.name("codec").value(this.settings.codec);
+            json.name("size").value(this.settings.size);
+            json.name("calls").value(this.calls);
+            json.name("errors").value(this.errors);
+            json.name("throughput").value(this.throughput);
+            writeMicros(json, "responseTime", this.responseMicros);
+            writeMicros(json, "serviceTime", this.serviceMicros);
+            json.endObject();
+            json.flush();
+        }
+    }
+
+    private static void writeMicros(JsonWriter json, String name, long[] micros) throws IOException {
+        json.name(name).beginObject();
+        for(int index = 0; index < PERCENTILES.length; index++) {
+            json.name(PERCENTILE_NAMES[index]).value(micros[index]);
+        }
+
+        json.name("max").value(micros[PERCENTILES.length]);
+        json.endObject();
+    }
+
+    static LoadReport readBaseline(File file) throws IOException {
+        try(Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return new LoadReport(JsonParser.parseReader(reader).getAsJsonObject());
+        }
+    }
+
+    /**
+     * Compare this report to a baseline. Throughput may not drop, and the
+     * p50, p99 and p999 response times may not grow, by more than the
+     * tolerance; the error rate may not grow by more than 0.1 percentage
+     * points. The maximum is too noisy to compare.
+     *
+     * @param baseline the baseline report
+     *
+     * @param tolerancePercent the allowed regression, in percent
+     *
+     * @return the regressions found, empty if none
+     */
+    List<String> compareTo(LoadReport baseline, double tolerancePercent) {
+        final double tolerance = tolerancePercent / 100;
+
+        List<String> regressions = new ArrayList<>();
+        if(!this.settings.toString().equals(baseline.settings.toString())) {
+            regressions.add("settings differ, baseline has " + baseline.settings);
+            return regressions;
+        }
+
+        if(this.throughput < baseline.throughput * (1 - tolerance)) {
+            regressions.add(String.format(Locale.ROOT, "throughput %.1f calls/s, baseline %.1f calls/s", this.throughput, baseline.throughput));
+        }
+
+        if(this.getErrorRate() > baseline.getErrorRate() + ERROR_RATE_SLACK) {
+            regressions.add(String.format(Locale.ROOT, "error rate %.3f%%, baseline %.3f%%", this.getErrorRate() * 100, baseline.getErrorRate() * 100));
+        }
+
+        for(int index : new int[] { 0, 2, 3 }) {
+            if(this.responseMicros[index] > baseline.responseMicros[index] * (1 + tolerance)) {
+                regressions.add(PERCENTILE_NAMES[index] + " response time " + this.responseMicros[index] + "us, baseline " + baseline.responseMicros[index] + "us");
+            }
+        }
+
+        return regressions;
+    }
+
+    /**
+     * What a run does, which has to match for two runs to be compared.
+     *
+     */
+    static class Settings {
+
+        String mode = "closed";
+
+        int workers = 8;
+
+        int rate;
+
+        String call = "echo";
+
+        String codec = "json";
+
+        String size = "small";
+
+        boolean isOpen() {
+            return "open".equals(this.mode);
+        }
+
+        /**
+         * @return whether calls follow a schedule, so that latency can be
+         *         measured from when each call was meant to start
+         */
+        boolean isScheduled() {
+            return this.rate > 0;
+        }
+
+        @Override
+        public String toString() {
+            String load = this.isOpen() ? "open loop at " + this.rate + " calls/s" : "closed loop with " + this.workers + " workers" + (this.rate > 0 ? " at " + this.rate + " calls/s" : "");
+            return load + ", call=" + this.call + ", codec=" + this.codec + ", size=" + this.size;
+        }
+
+    }
+
+}
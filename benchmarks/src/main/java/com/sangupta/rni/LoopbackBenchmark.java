@@ -0,0 +1,95 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures full round trips from a client proxy to {@link RPCReceivingServlet}
+ * running in an embedded Jetty server on the loopback interface. Run with
+ * <code>-t</code> to add concurrent callers.
+ *
+ * @author sangupta
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    @Param({ "json", "binary" })
+    public String codec;
+
+    @Param({ "small", "large" })
+    public String size;
+
+    private final EmbeddedServer server = new EmbeddedServer();
+
+    private BenchmarkService client;
+
+    private BenchmarkPerson person;
+
+    @Setup
+    public void setup() throws Exception {
+        this.server.start();
+
+        this.person = BenchmarkPerson.ofSize(this.size);
+        this.client = WebClientGenerator.createWebClient(BenchmarkService.class, EmbeddedServer.HOST, this.server.getPort(), EmbeddedServer.CONTEXT, new RniClientConfig().setCodec(Benchmarks.codec(this.codec)));
+
+        // make sure the calls are actually served
+        if(this.client.ping() != 42 || this.client.echo(this.person) == null) {
+            throw new IllegalStateException("Call not served by the embedded server");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.server.stop();
+    }
+
+    @Benchmark
+    public int ping() {
+        return this.client.ping();
+    }
+
+    @Benchmark
+    public BenchmarkPerson echo() {
+        return this.client.echo(this.person);
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Minimal in-memory request, enough for {@link RPCReceivingServlet} to serve
+ * a synchronous call. The body can be read again after {@link #reset()}. Any
+ * method not implemented here throws {@link UnsupportedOperationException},
+ * so that a benchmark never silently measures a half-working request.
+ *
+ * @author sangupta
+ *
+ */
+class MockServletRequest extends HttpServletRequestWrapper {
+
+    private static final HttpServletRequest UNSUPPORTED = (HttpServletRequest) Proxy.newProxyInstance(MockServletRequest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+        throw new UnsupportedOperationException("Not supported by the mock request: " + method.getName());
+    });
+
+    private final String uri;
+
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    private final BodyStream body;
+
+    MockServletRequest(String uri, byte[] body) {
+        super(UNSUPPORTED);
+        this.uri = uri;
+        this.body = new BodyStream(body);
+    }
+
+    MockServletRequest header(String name, String value) {
+        this.headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Rewind the body so that the request can be served again.
+     */
+    void reset() {
+        this.body.bytes.reset();
+    }
+
+    @Override
+    public String getMethod() {
+        return "POST";
+    }
+
+    @Override
+    public String getRequestURI() {
+        return this.uri;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return this.headers.get(name);
+    }
+
+    @Override
+    public String getContentType() {
+        return this.headers.get(RniUtils.HEADER_CONTENT_TYPE);
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        return this.body;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    private static class BodyStream extends ServletInputStream {
+
+        final ByteArrayInputStream bytes;
+
+        BodyStream(byte[] body) {
+            this.bytes = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int read() {
+            return this.bytes.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            return this.bytes.read(buffer, offset, length);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return this.bytes.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
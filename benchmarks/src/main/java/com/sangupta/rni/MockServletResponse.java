@@ -0,0 +1,143 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Minimal in-memory response, enough for {@link RPCReceivingServlet} to
+ * answer a synchronous call. Headers are accepted and dropped. Any method not
+ * implemented here throws {@link UnsupportedOperationException}.
+ *
+ * @author sangupta
+ *
+ */
+class MockServletResponse extends HttpServletResponseWrapper {
+
+    private static final HttpServletResponse UNSUPPORTED = (HttpServletResponse) Proxy.newProxyInstance(MockServletResponse.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+        throw new UnsupportedOperationException("Not supported by the mock response: " + method.getName());
+    });
+
+    private final BodyStream body = new BodyStream();
+
+    private int status;
+
+    MockServletResponse() {
+        super(UNSUPPORTED);
+    }
+
+    /**
+     * Clear the status and body so that the response can be used again.
+     */
+    @Override
+    public void reset() {
+        this.status = 0;
+        this.body.bytes.reset();
+    }
+
+    int getBodySize() {
+        return this.body.bytes.size();
+    }
+
+    @Override
+    public int getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void sendError(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void sendError(int status, String message) {
+        this.status = status;
+    }
+
+    @Override
+    public void setContentType(String type) {
+        // dropped
+    }
+
+    @Override
+    public void setContentLength(int length) {
+        // dropped
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+        // dropped
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        // dropped
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        // dropped
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return this.body;
+    }
+
+    private static class BodyStream extends ServletOutputStream {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+
+        @Override
+        public void write(int value) {
+            this.bytes.write(value);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            this.bytes.write(buffer, offset, length);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
@@ -0,0 +1,190 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sangupta.jerry.constants.HttpStatusCode;
+
+/**
+ * Measures the overhead of a client proxy created by
+ * {@link WebClientGenerator}, without any I/O: the transport encodes the
+ * arguments into memory and answers with a result encoded up front. The
+ * <code>direct</code> benchmark calls the implementation itself, as a
+ * baseline.
+ *
+ * @author sangupta
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+
+    @Param({ "json", "binary" })
+    public String codec;
+
+    @Param({ "small", "large" })
+    public String size;
+
+    private final BenchmarkService direct = new BenchmarkServiceImpl();
+
+    private BenchmarkService proxy;
+
+    private BenchmarkPerson person;
+
+    @Setup
+    public void setup() throws Exception {
+        final RniCodec rniCodec = Benchmarks.codec(this.codec);
+        this.person = BenchmarkPerson.ofSize(this.size);
+
+        final LocalTransport transport = new LocalTransport(rniCodec);
+        transport.answer(new RniMethod(BenchmarkService.class, BenchmarkService.class.getMethod("ping")), this.direct.ping());
+        transport.answer(new RniMethod(BenchmarkService.class, BenchmarkService.class.getMethod("echo", BenchmarkPerson.class)), this.person);
+
+        this.proxy = WebClientGenerator.createWebClient(BenchmarkService.class, "localhost", 8080, "rni", new RniClientConfig().setCodec(rniCodec).setTransport(transport));
+
+        // make sure the calls are actually answered
+        if(this.proxy.ping() != this.direct.ping() || this.proxy.echo(this.person) == null) {
+            throw new IllegalStateException("Call not answered by the local transport");
+        }
+    }
+
+    @Benchmark
+    public int directPing() {
+        return this.direct.ping();
+    }
+
+    @Benchmark
+    public BenchmarkPerson directEcho() {
+        return this.direct.echo(this.person);
+    }
+
+    @Benchmark
+    public int proxyPing() {
+        return this.proxy.ping();
+    }
+
+    @Benchmark
+    public BenchmarkPerson proxyEcho() {
+        return this.proxy.echo(this.person);
+    }
+
+    /**
+     * Transport that answers every call in memory with the result set for
+     * its method.
+     *
+     */
+    private static class LocalTransport implements RniTransport {
+
+        private final RniCodec codec;
+
+        private final Map<Integer, byte[]> results = new HashMap<>();
+
+        private final ByteArrayOutputStream sink = new ByteArrayOutputStream(64 * 1024);
+
+        LocalTransport(RniCodec codec) {
+            this.codec = codec;
+        }
+
+        void answer(RniMethod method, Object result) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            this.codec.prepare(method);
+            this.codec.writeResult(method, result, out);
+            this.results.put(method.getId(), out.toByteArray());
+        }
+
+        @Override
+        public RniResponse execute(RniRequest request) throws IOException {
+            if(request.getBody() != null) {
+                this.sink.reset();
+                request.getBody().writeTo(this.sink);
+            }
+
+            final byte[] result = this.results.get(request.getMethod().getId());
+            final String contentType = this.codec.getContentType();
+            return new RniResponse() {
+
+                @Override
+                public int getStatus() {
+                    return HttpStatusCode.OK;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return RniUtils.HEADER_CONTENT_TYPE.equalsIgnoreCase(name) ? contentType : null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(result);
+                }
+
+                @Override
+                public void close() {
+                    // nothing to release
+                }
+
+            };
+        }
+
+        @Override
+        public CompletableFuture<RniResponse> executeAsync(RniRequest request) {
+            try {
+                return CompletableFuture.completedFuture(this.execute(request));
+            } catch(IOException e) {
+                CompletableFuture<RniResponse> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+
+        @Override
+        public void close() {
+            // nothing to release
+        }
+
+    }
+
+}
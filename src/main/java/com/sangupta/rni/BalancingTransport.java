@@ -0,0 +1,559 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport that spreads calls over many endpoints, sending each call through
+ * another transport to the endpoint picked by the configured
+ * {@link RniLoadBalancer}.
+ *
+ * Endpoints are ejected passively, based on the calls sent to them: after a
+ * number of consecutive failures, or when their average latency grows well
+ * beyond that of the other endpoints. An ejected endpoint gets no calls for a
+ * while, longer each time it is ejected again without a success in between.
+ * The last healthy endpoint is never ejected. A call that could not connect
+ * is retried once on another endpoint, as it was never sent.
+ *
+ * @author sangupta
+ *
+ */
+class BalancingTransport implements RniTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BalancingTransport.class);
+
+    /**
+     * Host the client plans are built with; replaced on every call by the
+     * endpoint picked
+     */
+    static final String PLACEHOLDER_HOST = "rni.endpoints";
+
+    static final int PLACEHOLDER_PORT = 80;
+
+    /**
+     * Weight of the latest sample in the average latency
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    /**
+     * Samples needed before an endpoint can be ejected for latency
+     */
+    private static final int LATENCY_MIN_SAMPLES = 20;
+
+    /**
+     * Latency is compared to other endpoints once per this many samples
+     */
+    private static final int LATENCY_CHECK_INTERVAL = 16;
+
+    private static final int MAX_EJECTION_MULTIPLIER = 8;
+
+    private final RniTransport delegate;
+
+    private final Supplier<? extends Collection<RniEndpoint>> supplier;
+
+    private final RniLoadBalancer balancer;
+
+    private final int maxFailures;
+
+    private final double latencyFactor;
+
+    private final long ejectionNanos;
+
+    private final long refreshNanos;
+
+    private final ConcurrentMap<RniEndpoint, EndpointState> states = new ConcurrentHashMap<>();
+
+    private volatile EndpointState[] endpoints = new EndpointState[0];
+
+    private final AtomicLong nextRefresh = new AtomicLong();
+
+    BalancingTransport(RniTransport delegate, Supplier<? extends Collection<RniEndpoint>> supplier, RniClientConfig config) {
+        this.delegate = delegate;
+        this.supplier = supplier;
+        this.balancer = config.getLoadBalancer();
+        this.maxFailures = config.getEjectionFailures();
+        this.latencyFactor = config.getEjectionLatencyFactor();
+        this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos(config.getEjectionMillis());
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(config.getEndpointRefreshMillis());
+
+        this.nextRefresh.set(System.nanoTime() + this.refreshNanos);
+        this.refresh();
+    }
+
+    @Override
+    public RniResponse execute(RniRequest request) throws IOException {
+        final EndpointState state = this.pick(null);
+        try {
+            return this.execute(state, request);
+        } catch(ConnectException e) {
+            final EndpointState other = this.pick(state);
+            if(other == null) {
+                throw e;
+            }
+
+            return this.execute(other, request);
+        }
+    }
+
+    private RniResponse execute(EndpointState state, RniRequest request) throws IOException {
+        final long start = state.begin();
+        final RniResponse response;
+        try {
+            response = this.delegate.execute(state.target(request));
+        } catch(IOException | RuntimeException e) {
+            state.release();
+            this.record(state, start, false);
+            throw e;
+        }
+
+        this.record(state, start, response.getStatus() < 500);
+        return new TrackedResponse(response, state);
+    }
+
+    @Override
+    public CompletableFuture<RniResponse> executeAsync(final RniRequest request) {
+        final EndpointState state;
+        try {
+            state = this.pick(null);
+        } catch(IOException e) {
+            CompletableFuture<RniResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        final CompletableFuture<RniResponse> result = new CompletableFuture<>();
+        this.executeAsync(state, request).whenComplete((response, error) -> {
+            if(error == null) {
+                result.complete(response);
+                return;
+            }
+
+            EndpointState other = null;
+            if(unwrap(error) instanceof ConnectException) {
+                try {
+                    other = this.pick(state);
+                } catch(IOException e) {
+                    // fail with the original error
+                }
+            }
+
+            if(other == null) {
+                result.completeExceptionally(error);
+                return;
+            }
+
+            this.executeAsync(other, request).whenComplete((retried, retryError) -> {
+                if(retryError != null) {
+                    result.completeExceptionally(retryError);
+                } else {
+                    result.complete(retried);
+                }
+            });
+        });
+
+        return result;
+    }
+
+    private CompletableFuture<RniResponse> executeAsync(final EndpointState state, RniRequest request) {
+        final long start = state.begin();
+        final CompletableFuture<RniResponse> future;
+        try {
+            future = this.delegate.executeAsync(state.target(request));
+        } catch(RuntimeException e) {
+            state.release();
+            this.record(state, start, false);
+            throw e;
+        }
+
+        return future.handle((response, error) -> {
+            if(error != null) {
+                state.release();
+                this.record(state, start, false);
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+
+            this.record(state, start, response.getStatus() < 500);
+            return new TrackedResponse(response, state);
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while(error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+
+        return error;
+    }
+
+    /**
+     * Pick the endpoint for a call.
+     *
+     * @param exclude an endpoint not to pick, may be <code>null</code>
+     *
+     * @return the endpoint, or <code>null</code> if there is none but the
+     *         excluded one
+     *
+     * @throws IOException if there are no endpoints at all
+     */
+    private EndpointState pick(EndpointState exclude) throws IOException {
+        this.refreshIfDue();
+
+        final EndpointState[] all = this.endpoints;
+        if(all.length == 0) {
+            throw new IOException("No endpoints to send calls to");
+        }
+
+        final long now = System.nanoTime();
+        final List<EndpointState> candidates = new ArrayList<>(all.length);
+        for(EndpointState state : all) {
+            if(state != exclude && !state.isEjected(now)) {
+                candidates.add(state);
+            }
+        }
+
+        if(candidates.isEmpty()) {
+            // better to try an ejected endpoint than to fail outright
+            for(EndpointState state : all) {
+                if(state != exclude) {
+                    candidates.add(state);
+                }
+            }
+        }
+
+        final int size = candidates.size();
+        if(size <= 1) {
+            return size == 0 ? null : candidates.get(0);
+        }
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if(this.balancer == RniLoadBalancer.POWER_OF_TWO_CHOICES) {
+            final int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if(second >= first) {
+                second++;
+            }
+
+            EndpointState one = candidates.get(first);
+            EndpointState two = candidates.get(second);
+            return one.getCost() <= two.getCost() ? one : two;
+        }
+
+        // least outstanding, choosing uniformly among ties
+        EndpointState best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        int ties = 0;
+        for(EndpointState state : candidates) {
+            final int outstanding = state.outstanding.get();
+            if(outstanding < bestOutstanding) {
+                best = state;
+                bestOutstanding = outstanding;
+                ties = 1;
+            } else if(outstanding == bestOutstanding && random.nextInt(++ties) == 0) {
+                best = state;
+            }
+        }
+
+        return best;
+    }
+
+    private void record(EndpointState state, long start, boolean success) {
+        final long now = System.nanoTime();
+        if(!success) {
+            if(state.failed() >= this.maxFailures) {
+                this.eject(state, now, "after " + this.maxFailures + " consecutive failures");
+            }
+
+            return;
+        }
+
+        final long samples = state.succeeded(now - start);
+        if(this.latencyFactor > 0 && samples >= LATENCY_MIN_SAMPLES && samples % LATENCY_CHECK_INTERVAL == 0) {
+            this.checkLatency(state, now);
+        }
+    }
+
+    /**
+     * Eject the endpoint if its average latency is beyond the configured
+     * factor of the median of the other healthy endpoints.
+     *
+     * @param state the endpoint to check
+     *
+     * @param now the current time in nanoseconds
+     */
+    private void checkLatency(EndpointState state, long now) {
+        final EndpointState[] all = this.endpoints;
+        final double[] others = new double[all.length];
+        int count = 0;
+        for(EndpointState other : all) {
+            if(other != state && !other.isEjected(now) && other.getSamples() > 0) {
+                others[count++] = other.getLatency();
+            }
+        }
+
+        // too few to tell what normal is
+        if(count < 2) {
+            return;
+        }
+
+        Arrays.sort(others, 0, count);
+        final double median = count % 2 == 1 ? others[count / 2] : (others[count / 2 - 1] + others[count / 2]) / 2;
+        if(state.getLatency() > median * this.latencyFactor) {
+            this.eject(state, now, "for latency " + (long) (state.getLatency() / 1000) + "us against a median of " + (long) (median / 1000) + "us");
+        }
+    }
+
+    private void eject(EndpointState state, long now, String reason) {
+        for(EndpointState other : this.endpoints) {
+            if(other != state && !other.isEjected(now)) {
+                long duration = state.eject(now, this.ejectionNanos);
+                LOGGER.warn("Ejecting endpoint {} for {} ms {}", state.endpoint, TimeUnit.NANOSECONDS.toMillis(duration), reason);
+                return;
+            }
+        }
+    }
+
+    private void refreshIfDue() {
+        final long due = this.nextRefresh.get();
+        final long now = System.nanoTime();
+        if(now - due < 0 || !this.nextRefresh.compareAndSet(due, now + this.refreshNanos)) {
+            return;
+        }
+
+        this.refresh();
+    }
+
+    /**
+     * Get the current endpoints from the supplier. Endpoints that remain keep
+     * their state. If the supplier fails or returns no endpoints, the
+     * previous endpoints are kept.
+     */
+    private void refresh() {
+        final Collection<RniEndpoint> current;
+        try {
+            current = this.supplier.get();
+        } catch(RuntimeException e) {
+            LOGGER.warn("Unable to get endpoints, keeping the previous ones", e);
+            return;
+        }
+
+        if(current == null || current.isEmpty()) {
+            LOGGER.warn("No endpoints supplied, keeping the previous ones");
+            return;
+        }
+
+        final List<EndpointState> updated = new ArrayList<>(current.size());
+        for(RniEndpoint endpoint : new HashSet<>(current)) {
+            updated.add(this.states.computeIfAbsent(endpoint, EndpointState::new));
+        }
+
+        this.states.keySet().retainAll(new HashSet<>(current));
+        this.endpoints = updated.toArray(new EndpointState[updated.size()]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the underlying transport may be shared, and is closed by its owner
+    }
+
+    /**
+     * The state kept for one endpoint.
+     *
+     */
+    private static class EndpointState {
+
+        final RniEndpoint endpoint;
+
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        /**
+         * Moving average of the latency, in nanoseconds
+         */
+        private double latency;
+
+        private long samples;
+
+        private int consecutiveFailures;
+
+        private int ejections;
+
+        private volatile boolean ejected;
+
+        private volatile long ejectedUntil;
+
+        EndpointState(RniEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        long begin() {
+            this.outstanding.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        void release() {
+            this.outstanding.decrementAndGet();
+        }
+
+        RniRequest target(RniRequest request) {
+            final URI uri = request.getUri();
+            try {
+                return new RniRequest(request, new URI(uri.getScheme(), uri.getUserInfo(), this.endpoint.getHost(), this.endpoint.getPort(), uri.getPath(), uri.getQuery(), uri.getFragment()));
+            } catch(URISyntaxException e) {
+                throw new IllegalArgumentException("Invalid endpoint: " + this.endpoint, e);
+            }
+        }
+
+        boolean isEjected(long now) {
+            return this.ejected && now - this.ejectedUntil < 0;
+        }
+
+        /**
+         * The expected latency of the next call: the average latency scaled by
+         * the calls already waiting on the endpoint. Endpoints not yet called
+         * cost nothing, so that they are tried.
+         *
+         * @return the cost
+         */
+        synchronized double getCost() {
+            return this.latency * (this.outstanding.get() + 1);
+        }
+
+        synchronized double getLatency() {
+            return this.latency;
+        }
+
+        synchronized long getSamples() {
+            return this.samples;
+        }
+
+        synchronized long succeeded(long latencyNanos) {
+            this.latency = this.samples == 0 ? latencyNanos : this.latency + LATENCY_WEIGHT * (latencyNanos - this.latency);
+            this.consecutiveFailures = 0;
+            this.ejections = 0;
+            return ++this.samples;
+        }
+
+        synchronized int failed() {
+            return ++this.consecutiveFailures;
+        }
+
+        /**
+         * Eject the endpoint, for longer if it was ejected before without a
+         * success since.
+         *
+         * @param now the current time in nanoseconds
+         *
+         * @param baseNanos the time to eject for the first time
+         *
+         * @return the time ejected for, in nanoseconds
+         */
+        synchronized long eject(long now, long baseNanos) {
+            this.ejections = Math.min(this.ejections + 1, MAX_EJECTION_MULTIPLIER);
+            this.consecutiveFailures = 0;
+
+            // the average restarts so that one slow spell is not held against it
+            this.samples = 0;
+
+            final long duration = baseNanos * this.ejections;
+            this.ejectedUntil = now + duration;
+            this.ejected = true;
+            return duration;
+        }
+
+    }
+
+    /**
+     * Response that frees its slot on the endpoint once closed, which for
+     * streamed results is only after they have been read.
+     *
+     */
+    private static class TrackedResponse implements RniResponse {
+
+        private final RniResponse response;
+
+        private final EndpointState state;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        TrackedResponse(RniResponse response, EndpointState state) {
+            this.response = response;
+            this.state = state;
+        }
+
+        @Override
+        public int getStatus() {
+            return this.response.getStatus();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return this.response.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return this.response.getBody();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(this.released.compareAndSet(false, true)) {
+                this.state.release();
+            }
+
+            this.response.close();
+        }
+
+        @Override
+        public void abort() throws IOException {
+            if(this.released.compareAndSet(false, true)) {
+                this.state.release();
+            }
+
+            this.response.abort();
+        }
+
+    }
+
+}
@@ -0,0 +1,418 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.MalformedJsonException;
+import com.sangupta.jerry.constants.HttpStatusCode;
+import com.sangupta.rni.RPCReceivingServlet.MappedInvocationMethod;
+
+/**
+ * Serves a batch of calls sent in one request by a batching client. The
+ * request body is the number of calls followed by, for each call, the method
+ * ID, the length of the encoded arguments and the arguments themselves. The
+ * response body is the number of results followed by, for each call in the
+ * same order, the HTTP status of the call, the length of the encoded result
+ * and the result itself. All numbers are 4-byte big-endian integers.
+ *
+ * Arguments and results are encoded with the codec named in the
+ * <code>codec</code> parameter of the content type, and the codec negotiated
+ * via the <code>Accept</code> header respectively.
+ *
+ * Each call runs as per the {@link RniExecutionPolicy} of its method, within
+ * its bounds, and the batch waits for it; a call the policy rejects fails on
+ * its own with <code>503 Service Unavailable</code>.
+ *
+ * @author sangupta
+ *
+ */
+class BatchCallHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchCallHandler.class);
+
+    /**
+     * Maximum size of the encoded arguments of a single call in a batch, the
+     * same as the codecs accept for a single value
+     */
+    static final int MAX_CALL_BYTES = BinaryCodec.MAX_VALUE_BYTES;
+
+    /**
+     * Maximum size of the encoded arguments of all calls in a batch
+     */
+    static final long MAX_BATCH_BYTES = 64 * 1024 * 1024;
+
+    private static final byte[] NO_BODY = new byte[0];
+
+    /**
+     * Read, run and answer all calls in the batch request.
+     *
+     * @param exchange the exchange of the batch request
+     *
+     * @param executor the executor to run calls in parallel with, or
+     *            <code>null</code> to run them one after the other
+     *
+     * @throws IOException if the request cannot be read or the response
+     *             written
+     */
+    static void handle(final RniExchange exchange, ExecutorService executor) throws IOException {
+        final String codecType = RniUtils.getContentTypeParameter(exchange.getContentType(), RniUtils.BATCH_CODEC_PARAM);
+        final RniCodec requestCodec = codecType == null ? RniCodecs.JSON : RniCodecs.forContentType(codecType);
+        if(requestCodec == null) {
+            LOGGER.debug("No codec for batch content type: {}", codecType);
+            RPCReceivingServlet.sendError(exchange, HttpStatusCode.UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+
+        final RniCodec responseCodec = RniCodecs.forAccept(exchange.getHeader(RniUtils.HEADER_ACCEPT), requestCodec);
+
+        final long deadline = RniDeadline.parse(exchange.getHeader(RniUtils.REQUEST_HEADER_FOR_TIMEOUT));
+        if(RniDeadline.hasPassed(deadline)) {
+            LOGGER.debug("Deadline passed before batch could be read");
+            RPCReceivingServlet.sendError(exchange, HttpStatusCode.GATEWAY_TIMEOUT);
+            return;
+        }
+
+        // read all calls before running any of them
+        final InputStream raw = exchange.getInputStream();
+        final BatchCall[] calls;
+        try {
+            final InputStream stream = RPCReceivingServlet.openRequestStream(exchange, raw);
+            if(stream == null) {
+                LOGGER.debug("Unsupported content encoding: {}", exchange.getHeader(RniUtils.HEADER_CONTENT_ENCODING));
+                RPCReceivingServlet.sendError(exchange, HttpStatusCode.UNSUPPORTED_MEDIA_TYPE);
+                return;
+            }
+
+            calls = readCalls(new DataInputStream(new BufferedInputStream(stream)));
+            RPCReceivingServlet.drain(stream);
+            RPCReceivingServlet.drain(raw);
+        } catch(EOFException | ContentEncoding.DecodingException | IllegalArgumentException e) {
+            LOGGER.debug("Unable to read batch request", e);
+            exchange.sendError(HttpStatusCode.BAD_REQUEST);
+            return;
+        }
+
+        Future<?>[] futures = null;
+        if(executor != null) {
+            futures = new Future<?>[calls.length];
+            for(int index = 0; index < calls.length; index++) {
+                final BatchCall call = calls[index];
+                try {
+                    futures[index] = executor.submit(() -> call.run(requestCodec, responseCodec, deadline));
+                } catch(RejectedExecutionException e) {
+                    LOGGER.debug("Batch executor rejected call: {}", Integer.toHexString(call.methodId));
+                    call.fail(HttpStatusCode.SERVICE_UNAVAILABLE);
+                }
+            }
+        }
+
+        exchange.setStatus(HttpStatusCode.OK);
+        exchange.setContentType(RniUtils.BATCH_CONTENT_TYPE + "; " + RniUtils.BATCH_CODEC_PARAM + "=" + responseCodec.getContentType());
+
+        final ContentEncoding encoding = RPCReceivingServlet.negotiateEncoding(exchange);
+        CompressingOutputStream compressing = null;
+        OutputStream body = exchange.getOutputStream();
+        if(encoding != null) {
+            compressing = new CompressingOutputStream(body, encoding, RPCReceivingServlet.getCompressionThreshold(), () -> exchange.setHeader(RniUtils.HEADER_CONTENT_ENCODING, encoding.getName()));
+            body = compressing;
+        }
+
+        // results are written in call order, as soon as each one is available
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(body));
+        out.writeInt(calls.length);
+        for(int index = 0; index < calls.length; index++) {
+            BatchCall call = calls[index];
+            if(futures == null) {
+                call.run(requestCodec, responseCodec, deadline);
+            } else if(futures[index] != null) {
+                await(futures[index], call);
+            }
+
+            out.writeInt(call.status);
+            out.writeInt(call.result.length);
+            out.write(call.result);
+        }
+
+        out.flush();
+        if(compressing != null) {
+            compressing.finish();
+        }
+    }
+
+    private static BatchCall[] readCalls(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if(count < 0 || count > RniUtils.MAX_BATCH_CALLS) {
+            throw new IllegalArgumentException("Invalid number of calls in batch: " + count);
+        }
+
+        BatchCall[] calls = new BatchCall[count];
+        long total = 0;
+        for(int index = 0; index < count; index++) {
+            int methodId = in.readInt();
+            int length = in.readInt();
+            if(length < 0 || length > MAX_CALL_BYTES) {
+                throw new IllegalArgumentException("Invalid argument length in batch: " + length);
+            }
+
+            total += length;
+            if(total > MAX_BATCH_BYTES) {
+                throw new IllegalArgumentException("Arguments of batch larger than " + MAX_BATCH_BYTES + " bytes");
+            }
+
+            byte[] params = new byte[length];
+            in.readFully(params);
+
+            calls[index] = new BatchCall(methodId, params);
+        }
+
+        return calls;
+    }
+
+    private static void await(Future<?> future, BatchCall call) {
+        try {
+            future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.fail(HttpStatusCode.SERVICE_UNAVAILABLE);
+        } catch(ExecutionException e) {
+            LOGGER.error("Error running batched call", e.getCause());
+            call.fail(HttpStatusCode.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * A single call within a batch, along with its outcome once run.
+     *
+     */
+    private static class BatchCall {
+
+        final int methodId;
+
+        final byte[] params;
+
+        int status;
+
+        byte[] result = NO_BODY;
+
+        BatchCall(int methodId, byte[] params) {
+            this.methodId = methodId;
+            this.params = params;
+        }
+
+        void run(RniCodec requestCodec, RniCodec responseCodec, long deadline) {
+            final long start = System.nanoTime();
+            final MappedInvocationMethod mappedMethod = RPCReceivingServlet.getMappedMethod(this.methodId);
+            if(mappedMethod == null) {
+                LOGGER.debug("Batched method ID not mapped to any instance: {}", Integer.toHexString(this.methodId));
+                this.fail(HttpStatusCode.NOT_FOUND);
+                return;
+            }
+
+            if(!mappedMethod.rniMethod.isBatchable()) {
+                LOGGER.debug("Method cannot be batched: {}", mappedMethod.rniMethod);
+                this.fail(HttpStatusCode.BAD_REQUEST);
+                return;
+            }
+
+            final RniEndpointMetrics metrics = mappedMethod.metrics;
+            metrics.recordBytesIn(this.params.length);
+            if(this.expired(deadline, metrics, start)) {
+                return;
+            }
+
+            final ConcurrencyLimiter limiter = mappedMethod.limiter;
+            final ConcurrencyLimiter.Permit permit = limiter != null ? limiter.tryAcquire() : null;
+            if(limiter != null && permit == null) {
+                metrics.recordShed();
+                this.fail(HttpStatusCode.SERVICE_UNAVAILABLE, metrics, start);
+                return;
+            }
+
+            boolean accepted = true;
+            try {
+                final RniExecutionPolicy policy = mappedMethod.policy;
+                if(policy == null || policy.isCallerRuns()) {
+                    this.invoke(mappedMethod, requestCodec, responseCodec, deadline, start);
+                } else {
+                    accepted = this.dispatch(policy, mappedMethod, requestCodec, responseCodec, deadline, start);
+                }
+            } finally {
+                if(permit != null) {
+                    permit.release(accepted && this.status >= HttpStatusCode.INTERNAL_SERVER_ERROR);
+                }
+            }
+        }
+
+        /**
+         * Run the call on its execution policy, and wait for it to complete.
+         * A call the policy rejects fails with
+         * <code>503 Service Unavailable</code>, as it would unbatched.
+         *
+         * @return <code>false</code> if the policy rejected the call
+         */
+        private boolean dispatch(RniExecutionPolicy policy, final MappedInvocationMethod mappedMethod, final RniCodec requestCodec, final RniCodec responseCodec, final long deadline, final long start) {
+            final CountDownLatch done = new CountDownLatch(1);
+            final boolean accepted = policy.execute(() -> {
+                try {
+                    this.invoke(mappedMethod, requestCodec, responseCodec, deadline, start);
+                } finally {
+                    done.countDown();
+                }
+            });
+
+            if(!accepted) {
+                LOGGER.debug("Execution policy is full for batched method: {}", mappedMethod.rniMethod);
+                mappedMethod.metrics.recordShed();
+                this.fail(HttpStatusCode.SERVICE_UNAVAILABLE, mappedMethod.metrics, start);
+                return false;
+            }
+
+            try {
+                done.await();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.fail(HttpStatusCode.SERVICE_UNAVAILABLE);
+            }
+
+            return true;
+        }
+
+        private void invoke(MappedInvocationMethod mappedMethod, RniCodec requestCodec, RniCodec responseCodec, long deadline, long start) {
+            final RniMethod rniMethod = mappedMethod.rniMethod;
+            final RniEndpointMetrics metrics = mappedMethod.metrics;
+
+            Object[] args;
+            try {
+                args = requestCodec.readParams(rniMethod, new ByteArrayInputStream(this.params));
+            } catch(JsonParseException | IllegalStateException | MalformedJsonException | EOFException e) {
+                LOGGER.debug("Unable to read arguments for batched method: {}", rniMethod, e);
+                this.fail(HttpStatusCode.BAD_REQUEST, metrics, start);
+                return;
+            } catch(IOException e) {
+                this.fail(HttpStatusCode.BAD_REQUEST, metrics, start);
+                return;
+            }
+
+            final long invokeStart = System.nanoTime();
+            metrics.recordDecode(invokeStart - start);
+            if(this.expired(deadline, metrics, start)) {
+                return;
+            }
+
+            Object value;
+            final Long previousDeadline = RniDeadline.enter(deadline);
+            try {
+                value = mappedMethod.invoker.invoke(args);
+                if(rniMethod.isAsync() && value != null) {
+                    value = ((CompletionStage<?>) value).toCompletableFuture().get();
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.fail(HttpStatusCode.SERVICE_UNAVAILABLE, metrics, start);
+                return;
+            } catch(ExecutionException e) {
+                LOGGER.error("Error completing batched method: {}", rniMethod, e.getCause());
+                this.fail(HttpStatusCode.INTERNAL_SERVER_ERROR, metrics, start);
+                return;
+            } catch(Throwable t) {
+                LOGGER.error("Error invoking batched method: {}", rniMethod, t);
+                this.fail(HttpStatusCode.INTERNAL_SERVER_ERROR, metrics, start);
+                return;
+            } finally {
+                RniDeadline.restore(previousDeadline);
+            }
+
+            final long encodeStart = System.nanoTime();
+            metrics.recordInvoke(encodeStart - invokeStart);
+
+            if(value == null) {
+                this.status = HttpStatusCode.NO_CONTENT;
+                metrics.recordCall(System.nanoTime() - start);
+                return;
+            }
+
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                responseCodec.writeResult(rniMethod, value, out);
+                this.result = out.toByteArray();
+                this.status = HttpStatusCode.OK;
+            } catch(IOException | RuntimeException e) {
+                LOGGER.error("Error encoding result of batched method: {}", rniMethod, e);
+                this.fail(HttpStatusCode.INTERNAL_SERVER_ERROR, metrics, start);
+                return;
+            }
+
+            final long end = System.nanoTime();
+            metrics.recordEncode(end - encodeStart);
+            metrics.recordBytesOut(this.result.length);
+            metrics.recordCall(end - start);
+        }
+
+        /**
+         * Fail the call if its deadline has passed.
+         *
+         * @return <code>true</code> if the call was failed
+         */
+        boolean expired(long deadline, RniEndpointMetrics metrics, long start) {
+            if(!RniDeadline.hasPassed(deadline)) {
+                return false;
+            }
+
+            metrics.recordExpired();
+            this.fail(HttpStatusCode.GATEWAY_TIMEOUT, metrics, start);
+            return true;
+        }
+
+        void fail(int status, RniEndpointMetrics metrics, long start) {
+            this.fail(status);
+            metrics.recordError();
+            metrics.recordCall(System.nanoTime() - start);
+        }
+
+        void fail(int status) {
+            this.status = status;
+            this.result = NO_BODY;
+        }
+
+    }
+
+}
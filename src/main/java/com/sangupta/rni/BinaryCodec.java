@@ -0,0 +1,182 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.sangupta.jerry.util.GsonUtils;
+
+/**
+ * A compact, tagged binary codec. Values are mapped using the same Gson
+ * type adapters as the {@link JsonCodec}, so any type that can be sent as JSON
+ * can also be sent in binary, but:
+ *
+ * <ul>
+ * <li>integral numbers are written as zig-zag variable length integers, and
+ * floating point numbers as 8 byte IEEE values</li>
+ * <li>strings are length prefixed, and need no escaping</li>
+ * <li>property names are written once per stream and then referred to by
+ * index, which helps lists of objects a lot</li>
+ * <li>arguments are written positionally instead of as named properties</li>
+ * </ul>
+ *
+ * The format is described in {@link BinaryWriter}.
+ *
+ * @author sangupta
+ *
+ */
+public class BinaryCodec implements RniCodec {
+
+    /**
+     * The MIME type for this codec
+     */
+    public static final String CONTENT_TYPE = "application/x-rni-binary";
+
+    /**
+     * Maximum length or count read from the peer for a single value: a
+     * string, a property name, the elements of an array, or the scalar
+     * arguments of a call
+     */
+    static final int MAX_VALUE_BYTES = 16 * 1024 * 1024;
+
+    static final int TAG_NULL = 0x00;
+
+    static final int TAG_FALSE = 0x01;
+
+    static final int TAG_TRUE = 0x02;
+
+    static final int TAG_LONG = 0x03;
+
+    static final int TAG_DOUBLE = 0x04;
+
+    static final int TAG_STRING = 0x05;
+
+    static final int TAG_BIG_NUMBER = 0x06;
+
+    static final int TAG_BEGIN_ARRAY = 0x07;
+
+    static final int TAG_END_ARRAY = 0x08;
+
+    static final int TAG_BEGIN_OBJECT = 0x09;
+
+    static final int TAG_END_OBJECT = 0x0A;
+
+    private final Gson gson;
+
+    public BinaryCodec() {
+        this(GsonUtils.getGson());
+    }
+
+    public BinaryCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void prepare(RniMethod method) {
+        method.getAdapters(this.gson);
+    }
+
+    @Override
+    public void writeParams(RniMethod method, Object[] args, OutputStream out) throws IOException {
+        final MethodAdapters adapters = method.getAdapters(this.gson);
+        BinaryWriter writer = this.newWriter(out);
+
+        final int count = args == null ? 0 : args.length;
+        writer.writeCount(count);
+        for(int index = 0; index < count; index++) {
+            Object arg = args[index];
+            if(arg == null) {
+                writer.nullValue();
+                continue;
+            }
+
+            adapters.paramWriter(index, arg).write(writer, arg);
+        }
+
+        writer.flush();
+    }
+
+    @Override
+    public Object[] readParams(RniMethod method, InputStream in) throws IOException {
+        final MethodAdapters adapters = method.getAdapters(this.gson);
+        final Object[] args = new Object[adapters.getParameterCount()];
+
+        BinaryReader reader = new BinaryReader(in);
+        if(reader.isAtEnd()) {
+            return args;
+        }
+
+        final int count = reader.readCount();
+        for(int index = 0; index < count; index++) {
+            JsonElement element = reader.readElement();
+            if(index < args.length) {
+                args[index] = adapters.paramReader(index).fromJsonTree(element);
+            }
+        }
+
+        return args;
+    }
+
+    @Override
+    public void writeResult(RniMethod method, Object result, OutputStream out) throws IOException {
+        BinaryWriter writer = this.newWriter(out);
+        method.getAdapters(this.gson).resultWriter(result).write(writer, result);
+        writer.flush();
+    }
+
+    @Override
+    public Object readResult(RniMethod method, InputStream in) throws IOException {
+        final TypeAdapter<Object> adapter = method.getAdapters(this.gson).resultReader();
+        BinaryReader reader = new BinaryReader(in);
+        if(adapter == null || reader.isAtEnd()) {
+            return null;
+        }
+
+        return adapter.fromJsonTree(reader.readElement());
+    }
+
+    /**
+     * Create a writer configured the way {@link Gson} configures the writers
+     * it creates, as adapters are used directly.
+     *
+     * @param out the stream to write to
+     *
+     * @return the writer
+     */
+    private BinaryWriter newWriter(OutputStream out) {
+        BinaryWriter writer = new BinaryWriter(out);
+        writer.setLenient(true);
+        writer.setSerializeNulls(this.gson.serializeNulls());
+        return writer;
+    }
+
+}
@@ -0,0 +1,407 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * Sends <code>byte[]</code>, {@link ByteBuffer} and {@link InputStream}
+ * arguments and results as raw bytes, rather than through the codecs.
+ *
+ * Calls with binary arguments are sent with the
+ * {@link RniUtils#PARTS_CONTENT_TYPE} content type, the codec of the other
+ * arguments being named in its <code>codec</code> parameter. The body is the
+ * length of the encoded arguments as a 4-byte big-endian integer, the
+ * arguments encoded with the binary ones left <code>null</code>, and then
+ * each binary argument in order as its length in an 8-byte big-endian
+ * integer followed by its bytes. A length of <code>-1</code> stands for a
+ * <code>null</code> argument, and a length of <code>-2</code> for a stream
+ * argument that runs to the end of the body, which is only allowed for the
+ * last binary argument.
+ *
+ * Binary results are sent as the whole response body, with the
+ * <code>application/octet-stream</code> content type.
+ *
+ * @author sangupta
+ *
+ */
+class BinaryParts {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryParts.class);
+
+    static final String RESULT_CONTENT_TYPE = "application/octet-stream";
+
+    private static final long NULL_PART = -1;
+
+    private static final long PART_TO_END = -2;
+
+    /**
+     * Size up to which buffers for parts are allocated at once; larger parts
+     * grow their buffer as bytes arrive, so that a bogus length cannot
+     * exhaust memory
+     */
+    private static final int MAX_PREALLOCATE_BYTES = 16 * 1024 * 1024;
+
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+    private BinaryParts() {
+        // static methods only
+    }
+
+    /**
+     * Write the arguments of a call with binary arguments. Byte arrays and
+     * buffers are written straight from their backing memory. A stream given
+     * as the last binary argument is copied to the request as it is read, and
+     * any other is read into memory first to learn its length. Streams are
+     * not closed.
+     *
+     * @param codec the codec to encode the other arguments with
+     *
+     * @param method the method being called
+     *
+     * @param args the arguments to the call
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    static void writeParams(RniCodec codec, RniMethod method, Object[] args, OutputStream out) throws IOException {
+        final Object[] encoded = args.clone();
+        int last = -1;
+        for(int index = 0; index < args.length; index++) {
+            if(method.isBinaryParam(index)) {
+                encoded[index] = null;
+                last = index;
+            }
+        }
+
+        final ByteArrayOutputStream scalars = new ByteArrayOutputStream();
+        codec.writeParams(method, encoded, scalars);
+
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(scalars.size());
+        scalars.writeTo(data);
+
+        for(int index = 0; index <= last; index++) {
+            if(!method.isBinaryParam(index)) {
+                continue;
+            }
+
+            final Object arg = args[index];
+            if(arg == null) {
+                data.writeLong(NULL_PART);
+            } else if(arg instanceof byte[]) {
+                byte[] bytes = (byte[]) arg;
+                data.writeLong(bytes.length);
+                data.write(bytes);
+            } else if(arg instanceof ByteBuffer) {
+                ByteBuffer buffer = (ByteBuffer) arg;
+                data.writeLong(buffer.remaining());
+                write(buffer, data);
+            } else if(index == last) {
+                data.writeLong(PART_TO_END);
+                copy((InputStream) arg, data);
+            } else {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                copy((InputStream) arg, bytes);
+                data.writeLong(bytes.size());
+                bytes.writeTo(data);
+            }
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Read the arguments of a call with binary arguments. A stream argument
+     * running to the end of the body is handed the request stream itself, to
+     * be read by the implementation.
+     *
+     * @param codec the codec the other arguments are encoded with
+     *
+     * @param method the method being called
+     *
+     * @param in the stream to read from
+     *
+     * @return the arguments, one per method parameter
+     *
+     * @throws IOException if reading fails
+     *
+     * @throws JsonParseException if the body is not valid for the method
+     */
+    static Object[] readParams(RniCodec codec, RniMethod method, InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        final int length = data.readInt();
+        if(length < 0 || length > BinaryCodec.MAX_VALUE_BYTES) {
+            throw new JsonParseException("Invalid length of arguments: " + length);
+        }
+
+        final byte[] scalars = new byte[length];
+        data.readFully(scalars);
+        final Object[] args = codec.readParams(method, new ByteArrayInputStream(scalars));
+
+        final Class<?>[] types = method.getParameterTypes();
+        for(int index = 0; index < args.length; index++) {
+            if(!method.isBinaryParam(index)) {
+                continue;
+            }
+
+            final long size = data.readLong();
+            if(size == NULL_PART) {
+                args[index] = null;
+                continue;
+            }
+
+            if(size == PART_TO_END) {
+                if(types[index] != InputStream.class) {
+                    throw new JsonParseException("Only a stream argument can run to the end of the body");
+                }
+
+                // nothing can follow, as the implementation reads the rest
+                args[index] = in;
+                return args;
+            }
+
+            if(size < 0 || size > Integer.MAX_VALUE - 8) {
+                throw new JsonParseException("Invalid length of binary argument: " + size);
+            }
+
+            args[index] = toType(types[index], readBytes(data, (int) size));
+        }
+
+        return args;
+    }
+
+    /**
+     * Write a binary result, closing it if it is a stream.
+     *
+     * @param result the non-<code>null</code> result
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    static void writeResult(Object result, OutputStream out) throws IOException {
+        if(result instanceof byte[]) {
+            out.write((byte[]) result);
+        } else if(result instanceof ByteBuffer) {
+            write((ByteBuffer) result, out);
+        } else {
+            try(InputStream stream = (InputStream) result) {
+                copy(stream, out);
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Read a binary result into memory.
+     *
+     * @param method the method that was called
+     *
+     * @param in the stream to read from
+     *
+     * @param length the length of the result if known, or <code>-1</code>
+     *
+     * @return the result, of the type declared by the method
+     *
+     * @throws IOException if reading fails
+     */
+    static Object readResult(RniMethod method, InputStream in, long length) throws IOException {
+        final byte[] bytes;
+        if(length >= 0 && length <= Integer.MAX_VALUE - 8) {
+            bytes = readBytes(new DataInputStream(in), (int) length);
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(in, out);
+            bytes = out.toByteArray();
+        }
+
+        return toType((Class<?>) method.getResultType(), bytes);
+    }
+
+    /**
+     * Open a stream result, which reads the response as the caller reads the
+     * stream. The response is released once the stream is closed, and the
+     * connection dropped if it was not read to the end.
+     *
+     * @param method the method that was called
+     *
+     * @param response the response, owned by the stream from now on
+     *
+     * @param body the body of the response
+     *
+     * @param metrics the metrics to record bytes in
+     *
+     * @return the stream
+     *
+     * @throws IOException if the response cannot be read
+     */
+    static InputStream openResult(RniMethod method, RniResponse response, InputStream body, RniEndpointMetrics metrics) throws IOException {
+        final CountingInputStream counting = new CountingInputStream(body);
+        final InputStream stream = ContentEncoding.decompress(counting, response.getHeader(RniUtils.HEADER_CONTENT_ENCODING));
+        return new ResultStream(method, response, stream, counting, metrics);
+    }
+
+    private static Object toType(Class<?> type, byte[] bytes) {
+        if(type == ByteBuffer.class) {
+            return ByteBuffer.wrap(bytes);
+        }
+
+        if(type == InputStream.class) {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        return bytes;
+    }
+
+    private static byte[] readBytes(DataInputStream in, int size) throws IOException {
+        if(size <= MAX_PREALLOCATE_BYTES) {
+            byte[] bytes = new byte[size];
+            in.readFully(bytes);
+            return bytes;
+        }
+
+        byte[] bytes = new byte[MAX_PREALLOCATE_BYTES];
+        int read = 0;
+        while(read < size) {
+            if(read == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(size, 2L * bytes.length));
+            }
+
+            int count = in.read(bytes, read, bytes.length - read);
+            if(count < 0) {
+                throw new EOFException("Binary part ended after " + read + " of " + size + " bytes");
+            }
+
+            read += count;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Write the remaining bytes of the buffer without moving its position.
+     */
+    private static void write(ByteBuffer buffer, OutputStream out) throws IOException {
+        if(buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+
+        ByteBuffer view = buffer.duplicate();
+        Channels.newChannel(out).write(view);
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int count;
+        while((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+    /**
+     * A stream result as seen by the client.
+     *
+     */
+    private static class ResultStream extends FilterInputStream {
+
+        private final RniMethod method;
+
+        private final RniResponse response;
+
+        private final CountingInputStream counting;
+
+        private final RniEndpointMetrics metrics;
+
+        private boolean ended;
+
+        private boolean closed;
+
+        ResultStream(RniMethod method, RniResponse response, InputStream in, CountingInputStream counting, RniEndpointMetrics metrics) {
+            super(in);
+            this.method = method;
+            this.response = response;
+            this.counting = counting;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if(value < 0) {
+                this.ended = true;
+            }
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int count = super.read(bytes, offset, length);
+            if(count < 0) {
+                this.ended = true;
+            }
+
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(this.closed) {
+                return;
+            }
+
+            this.closed = true;
+            this.metrics.recordBytesIn(this.counting.getCount());
+            try {
+                if(this.ended) {
+                    this.response.close();
+                } else {
+                    this.response.abort();
+                }
+            } catch(IOException e) {
+                LOGGER.debug("Unable to release response for method: {}", this.method, e);
+            }
+        }
+
+    }
+
+}
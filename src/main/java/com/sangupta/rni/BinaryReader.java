@@ -0,0 +1,286 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Reads values written by the {@link BinaryWriter} into {@link JsonElement}s,
+ * which are then bound using the regular Gson type adapters.
+ * 
+ * Lengths and counts come from the peer, and are checked against
+ * {@link BinaryCodec#MAX_VALUE_BYTES} before anything is allocated, as is
+ * the nesting of arrays and objects against {@link #MAX_DEPTH}. Bad values
+ * throw a {@link JsonParseException}.
+ *
+ * @author sangupta
+ *
+ */
+class BinaryReader {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Maximum nesting of arrays and objects
+     */
+    static final int MAX_DEPTH = 256;
+
+    /**
+     * Size up to which buffers for strings are allocated at once; longer
+     * strings grow their buffer as bytes arrive, so that a bogus length cannot
+     * exhaust memory
+     */
+    private static final int MAX_PREALLOCATE_BYTES = 64 * 1024;
+
+    private final InputStream in;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    private int depth = 0;
+
+    /**
+     * Names read so far, in the order they were first seen
+     */
+    private final List<String> names = new ArrayList<>();
+
+    BinaryReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Check if there is nothing more to read.
+     *
+     * @return <code>true</code> if the stream has been fully read
+     *
+     * @throws IOException if reading fails
+     */
+    boolean isAtEnd() throws IOException {
+        return this.position == this.limit && !this.fill();
+    }
+
+    /**
+     * Read an unsigned count, as written by {@link BinaryWriter#writeCount(int)}.
+     *
+     * @return the count
+     *
+     * @throws IOException if reading fails
+     */
+    int readCount() throws IOException {
+        long count = this.readVarint();
+        if(count < 0 || count > BinaryCodec.MAX_VALUE_BYTES) {
+            throw new JsonParseException("Invalid count: " + count);
+        }
+
+        return (int) count;
+    }
+
+    /**
+     * Read the next complete value.
+     *
+     * @return the value as a JSON element
+     *
+     * @throws IOException if reading fails
+     */
+    JsonElement readElement() throws IOException {
+        return this.readElement(this.readByte());
+    }
+
+    private JsonElement readElement(int tag) throws IOException {
+        switch(tag) {
+            case BinaryCodec.TAG_NULL:
+                return JsonNull.INSTANCE;
+
+            case BinaryCodec.TAG_FALSE:
+                return new JsonPrimitive(Boolean.FALSE);
+
+            case BinaryCodec.TAG_TRUE:
+                return new JsonPrimitive(Boolean.TRUE);
+
+            case BinaryCodec.TAG_LONG:
+                long raw = this.readVarint();
+                return new JsonPrimitive((raw >>> 1) ^ -(raw & 1));
+
+            case BinaryCodec.TAG_DOUBLE:
+                return new JsonPrimitive(Double.longBitsToDouble(this.readLong()));
+
+            case BinaryCodec.TAG_STRING:
+                return new JsonPrimitive(this.readString(this.readLength()));
+
+            case BinaryCodec.TAG_BIG_NUMBER:
+                return new JsonPrimitive(new BigDecimal(this.readString(this.readLength())));
+
+            case BinaryCodec.TAG_BEGIN_ARRAY:
+                this.enter();
+                JsonArray array = new JsonArray();
+                int next;
+                while((next = this.readByte()) != BinaryCodec.TAG_END_ARRAY) {
+                    array.add(this.readElement(next));
+                }
+                this.depth--;
+                return array;
+
+            case BinaryCodec.TAG_BEGIN_OBJECT:
+                this.enter();
+                JsonObject object = new JsonObject();
+                while(!this.isEndObject()) {
+                    String name = this.readName();
+                    object.add(name, this.readElement());
+                }
+                this.depth--;
+                return object;
+
+            default:
+                throw new JsonParseException("Unknown binary tag: " + tag);
+        }
+    }
+
+    private void enter() {
+        if(++this.depth > MAX_DEPTH) {
+            throw new JsonParseException("Nesting deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+
+    private boolean isEndObject() throws IOException {
+        if(this.position == this.limit && !this.fill()) {
+            throw new EOFException("End of input inside object");
+        }
+
+        if((this.buffer[this.position] & 0xFF) == BinaryCodec.TAG_END_OBJECT) {
+            this.position++;
+            return true;
+        }
+
+        return false;
+    }
+
+    private String readName() throws IOException {
+        long value = this.readVarint();
+        if((value & 1) == 1) {
+            long index = value >>> 1;
+            if(index >= this.names.size()) {
+                throw new JsonParseException("Unknown name reference: " + index);
+            }
+
+            return this.names.get((int) index);
+        }
+
+        long length = value >>> 1;
+        if(length > BinaryCodec.MAX_VALUE_BYTES) {
+            throw new JsonParseException("Invalid name length: " + length);
+        }
+
+        String name = this.readString((int) length);
+        this.names.add(name);
+        return name;
+    }
+
+    private int readLength() throws IOException {
+        return this.readCount();
+    }
+
+    private String readString(int length) throws IOException {
+        if(length <= this.limit - this.position) {
+            String value = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+            this.position += length;
+            return value;
+        }
+
+        byte[] bytes = new byte[Math.min(length, MAX_PREALLOCATE_BYTES)];
+        int read = 0;
+        while(read < length) {
+            if(this.position == this.limit && !this.fill()) {
+                throw new EOFException("End of input inside string");
+            }
+
+            if(read == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+            }
+
+            int count = Math.min(bytes.length - read, this.limit - this.position);
+            System.arraycopy(this.buffer, this.position, bytes, read, count);
+            this.position += count;
+            read += count;
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int current = this.readByte();
+            value |= (long) (current & 0x7F) << shift;
+            if((current & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new JsonParseException("Malformed varint");
+    }
+
+    private long readLong() throws IOException {
+        long value = 0;
+        for(int index = 0; index < 8; index++) {
+            value = (value << 8) | this.readByte();
+        }
+
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        if(this.position == this.limit && !this.fill()) {
+            throw new EOFException("Unexpected end of input");
+        }
+
+        return this.buffer[this.position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int read = this.in.read(this.buffer, 0, this.buffer.length);
+        if(read <= 0) {
+            return false;
+        }
+
+        this.position = 0;
+        this.limit = read;
+        return true;
+    }
+
+}
@@ -0,0 +1,338 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.sangupta.jerry.util.GsonUtils;
+
+/**
+ * A {@link JsonWriter} that emits the tagged binary format of the
+ * {@link BinaryCodec} instead of JSON text. This lets the regular Gson type
+ * adapters write straight into the binary stream. The format is:
+ *
+ * <pre>
+ * value   = NULL | FALSE | TRUE
+ *         | LONG varint(zigzag)
+ *         | DOUBLE 8-bytes(big-endian IEEE 754)
+ *         | STRING varint(length) utf-8-bytes
+ *         | BIG_NUMBER varint(length) utf-8-bytes
+ *         | BEGIN_ARRAY value* END_ARRAY
+ *         | BEGIN_OBJECT (name value)* END_OBJECT
+ * name    = varint(length &lt;&lt; 1) utf-8-bytes     first use of a name
+ *         | varint(index &lt;&lt; 1 | 1)               later uses of a name
+ * </pre>
+ *
+ * Each tag is a single byte. The name table is local to a single writer.
+ *
+ * @author sangupta
+ *
+ */
+class BinaryWriter extends JsonWriter {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Passed to the super class, which must never write anything
+     */
+    private static final Writer UNUSED_WRITER = new Writer() {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // nothing to do
+        }
+
+        @Override
+        public void close() throws IOException {
+            // nothing to do
+        }
+
+    };
+
+    private final OutputStream out;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position = 0;
+
+    /**
+     * Names written so far, mapped to their index
+     */
+    private final Map<String, Integer> names = new HashMap<>();
+
+    /**
+     * Name waiting for its value, dropped if the value is a
+     * <code>null</code> that is not to be serialized
+     */
+    private String deferredName;
+
+    BinaryWriter(OutputStream out) {
+        super(UNUSED_WRITER);
+        this.out = out;
+    }
+
+    /**
+     * Write an unsigned count, such as the number of arguments.
+     *
+     * @param count the count to write
+     *
+     * @throws IOException if writing fails
+     */
+    void writeCount(int count) throws IOException {
+        this.writeVarint(count);
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        this.writeDeferredName();
+        this.writeByte(BinaryCodec.TAG_BEGIN_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        this.writeByte(BinaryCodec.TAG_END_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        this.writeDeferredName();
+        this.writeByte(BinaryCodec.TAG_BEGIN_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        this.writeByte(BinaryCodec.TAG_END_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if(name == null) {
+            throw new NullPointerException("name == null");
+        }
+
+        if(this.deferredName != null) {
+            throw new IllegalStateException("Name already pending: " + this.deferredName);
+        }
+
+        this.deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if(value == null) {
+            return this.nullValue();
+        }
+
+        this.writeDeferredName();
+        this.writeByte(BinaryCodec.TAG_STRING);
+        this.writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter jsonValue(String value) throws IOException {
+        if(value == null) {
+            return this.nullValue();
+        }
+
+        JsonElement element = JsonParser.parseString(value);
+        GsonUtils.getGson().toJson(element, this);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if(this.deferredName != null) {
+            if(!this.getSerializeNulls()) {
+                this.deferredName = null;
+                return this;
+            }
+
+            this.writeDeferredName();
+        }
+
+        this.writeByte(BinaryCodec.TAG_NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        this.writeDeferredName();
+        this.writeByte(value ? BinaryCodec.TAG_TRUE : BinaryCodec.TAG_FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        if(value == null) {
+            return this.nullValue();
+        }
+
+        return this.value(value.booleanValue());
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        this.writeDeferredName();
+        this.writeByte(BinaryCodec.TAG_DOUBLE);
+        this.writeLong(Double.doubleToRawLongBits(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        this.writeDeferredName();
+        this.writeByte(BinaryCodec.TAG_LONG);
+        this.writeVarint((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if(value == null) {
+            return this.nullValue();
+        }
+
+        if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicInteger || value instanceof AtomicLong) {
+            return this.value(value.longValue());
+        }
+
+        if(value instanceof Double || value instanceof Float) {
+            return this.value(value.doubleValue());
+        }
+
+        if(value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            return this.value(value.longValue());
+        }
+
+        // BigDecimal, large BigInteger and anything else is kept as text
+        this.writeDeferredName();
+        this.writeByte(BinaryCodec.TAG_BIG_NUMBER);
+        this.writeString(value.toString());
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.flushBuffer();
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // never close the underlying stream
+        this.flush();
+    }
+
+    private void writeDeferredName() throws IOException {
+        if(this.deferredName == null) {
+            return;
+        }
+
+        final String name = this.deferredName;
+        this.deferredName = null;
+
+        Integer index = this.names.get(name);
+        if(index != null) {
+            this.writeVarint(((long) index << 1) | 1);
+            return;
+        }
+
+        this.names.put(name, this.names.size());
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        this.writeVarint((long) bytes.length << 1);
+        this.writeBytes(bytes);
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        this.writeVarint(bytes.length);
+        this.writeBytes(bytes);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            this.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        this.writeByte((int) value);
+    }
+
+    private void writeLong(long value) throws IOException {
+        for(int shift = 56; shift >= 0; shift -= 8) {
+            this.writeByte((int) (value >>> shift));
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        if(this.position == this.buffer.length) {
+            this.flushBuffer();
+        }
+
+        this.buffer[this.position++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if(bytes.length > this.buffer.length - this.position) {
+            this.flushBuffer();
+
+            if(bytes.length > this.buffer.length) {
+                this.out.write(bytes);
+                return;
+            }
+        }
+
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if(this.position > 0) {
+            this.out.write(this.buffer, 0, this.position);
+            this.position = 0;
+        }
+    }
+
+}
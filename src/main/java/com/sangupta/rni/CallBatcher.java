@@ -0,0 +1,343 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import com.sangupta.jerry.util.UriUtils;
+import com.sangupta.jerry.util.UrlManipulator;
+
+/**
+ * Collects the calls made on one client proxy within a small window and sends
+ * them to the server as a single batch request. See {@link BatchCallHandler}
+ * for the wire format.
+ *
+ * A batch is sent once it holds the configured number of calls, or once the
+ * configured window has passed since the first call was added to it. A batch
+ * holding a single call is sent as a regular call.
+ *
+ * @author sangupta
+ *
+ */
+class CallBatcher {
+
+    private final RniTransport transport;
+
+    private final RniCodec codec;
+
+    private final URI uri;
+
+    private final String[] headers;
+
+    private final int maxBatchSize;
+
+    private final int windowMillis;
+
+    private final int timeoutMillis;
+
+    /**
+     * Calls waiting to be sent, guarded by <code>this</code>
+     */
+    private List<PendingCall> pending = new ArrayList<>();
+
+    CallBatcher(RniClientConfig config, RniTransport transport, String host, int port, String context) {
+        this.transport = transport;
+        this.codec = config.getCodec();
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.windowMillis = config.getBatchWindowMillis();
+        this.timeoutMillis = config.getTimeoutMillis();
+
+        String url = new UrlManipulator(host, port, context).constructURL();
+        this.uri = URI.create(UriUtils.addWebPaths(url, RniUtils.BATCH_PATH));
+
+        if(config.isCompression()) {
+            this.headers = new String[] {
+                RniUtils.HEADER_ACCEPT, this.codec.getContentType(),
+                RniUtils.HEADER_ACCEPT_ENCODING, ContentEncoding.ACCEPT_HEADER
+            };
+        } else {
+            this.headers = new String[] {
+                RniUtils.HEADER_ACCEPT, this.codec.getContentType()
+            };
+        }
+    }
+
+    /**
+     * Add a call to the current batch.
+     *
+     * @param plan the plan for the method being called
+     *
+     * @param args the call arguments
+     *
+     * @return a future that completes with the decoded result, with
+     *         <code>null</code> on a non-successful call, or exceptionally if
+     *         the batch could not be sent
+     */
+    CompletableFuture<Object> submit(InvocationPlan plan, Object[] args) {
+        final PendingCall call = new PendingCall(plan, args);
+
+        List<PendingCall> full = null;
+        synchronized(this) {
+            this.pending.add(call);
+            if(this.pending.size() >= this.maxBatchSize) {
+                full = this.pending;
+                this.pending = new ArrayList<>();
+            } else if(this.pending.size() == 1) {
+                RniTimer.SCHEDULER.schedule(this::flush, this.windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if(full != null) {
+            this.send(full);
+        }
+
+        return call.future;
+    }
+
+    /**
+     * Send whatever calls are waiting. A timer set for an earlier batch that
+     * was already sent for being full may send the next batch a bit early,
+     * which is harmless.
+     */
+    private void flush() {
+        List<PendingCall> calls;
+        synchronized(this) {
+            if(this.pending.isEmpty()) {
+                return;
+            }
+
+            calls = this.pending;
+            this.pending = new ArrayList<>();
+        }
+
+        this.send(calls);
+    }
+
+    private void send(final List<PendingCall> calls) {
+        if(calls.size() == 1) {
+            PendingCall call = calls.get(0);
+            RniRequest request;
+            try {
+                request = call.plan.newRequest(call.args, null, call.deadline);
+            } catch(IOException | RuntimeException e) {
+                call.future.completeExceptionally(e);
+                return;
+            }
+
+            this.transport.executeAsync(request).whenComplete((response, error) -> {
+                if(error != null) {
+                    call.future.completeExceptionally(error);
+                    return;
+                }
+
+                try(RniResponse closeable = response) {
+                    call.future.complete(call.plan.decode(closeable));
+                } catch(IOException | RuntimeException e) {
+                    call.future.completeExceptionally(e);
+                }
+            });
+            return;
+        }
+
+        RniRequest request = new RniRequest(null, this.uri, this.headers, new BatchBody(this.codec, calls), this.timeoutMillis);
+        final long deadline = latestDeadline(calls);
+        if(deadline > 0) {
+            request.addHeader(RniUtils.REQUEST_HEADER_FOR_TIMEOUT, RniDeadline.format(deadline));
+        }
+
+        this.transport.executeAsync(request).whenComplete((response, error) -> {
+            if(error != null) {
+                fail(calls, error);
+                return;
+            }
+
+            try(RniResponse closeable = response) {
+                complete(calls, closeable);
+            } catch(IOException | RuntimeException e) {
+                fail(calls, e);
+            }
+        });
+    }
+
+    /**
+     * Read the results of the batch and complete each call with its own.
+     *
+     * @param calls the calls in the batch
+     *
+     * @param response the batch response
+     *
+     * @throws IOException if the response cannot be read
+     */
+    private static void complete(List<PendingCall> calls, RniResponse response) throws IOException {
+        final int status = response.getStatus();
+        if(status < 200 || status >= 300) {
+            // same as for a single call that does not succeed
+            for(PendingCall call : calls) {
+                call.future.complete(null);
+            }
+
+            return;
+        }
+
+        final String contentType = RniUtils.getContentTypeParameter(response.getHeader(RniUtils.HEADER_CONTENT_TYPE), RniUtils.BATCH_CODEC_PARAM);
+
+        InputStream body = ContentEncoding.decompress(response.getBody(), response.getHeader(RniUtils.HEADER_CONTENT_ENCODING));
+        if(body == null) {
+            throw new IOException("No body in batch response");
+        }
+
+        try(DataInputStream in = new DataInputStream(body)) {
+            final int count = in.readInt();
+            if(count != calls.size()) {
+                throw new IOException("Batch response has " + count + " results for " + calls.size() + " calls");
+            }
+
+            for(PendingCall call : calls) {
+                int callStatus = in.readInt();
+                byte[] result = new byte[in.readInt()];
+                in.readFully(result);
+
+                try {
+                    call.plan.metrics.recordBytesIn(result.length);
+                    InputStream stream = result.length == 0 ? null : new ByteArrayInputStream(result);
+                    call.future.complete(call.plan.decode(callStatus, contentType, stream));
+                } catch(IOException | RuntimeException e) {
+                    call.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private static void fail(List<PendingCall> calls, Throwable error) {
+        for(PendingCall call : calls) {
+            if(!call.future.isDone()) {
+                call.future.completeExceptionally(error instanceof CompletionException ? error : new CompletionException(error));
+            }
+        }
+    }
+
+    /**
+     * Find the deadline for a batch, which is the latest deadline of its
+     * calls; a batch is only given up on when no call in it can complete in
+     * time.
+     *
+     * @param calls the calls in the batch
+     *
+     * @return the deadline, or zero if any call has none
+     */
+    private static long latestDeadline(List<PendingCall> calls) {
+        long latest = 0;
+        for(PendingCall call : calls) {
+            if(call.deadline <= 0) {
+                return 0;
+            }
+
+            latest = Math.max(latest, call.deadline);
+        }
+
+        return latest;
+    }
+
+    /**
+     * A call waiting to be sent.
+     *
+     */
+    private static class PendingCall {
+
+        final InvocationPlan plan;
+
+        final Object[] args;
+
+        /**
+         * The deadline of the call, taken when it was made
+         */
+        final long deadline;
+
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+
+        PendingCall(InvocationPlan plan, Object[] args) {
+            this.plan = plan;
+            this.args = args;
+            this.deadline = plan.deadline();
+        }
+
+    }
+
+    /**
+     * Request body that encodes all calls in a batch when written.
+     *
+     */
+    private static class BatchBody implements RniRequest.Body {
+
+        private final RniCodec codec;
+
+        private final List<PendingCall> calls;
+
+        BatchBody(RniCodec codec, List<PendingCall> calls) {
+            this.codec = codec;
+            this.calls = calls;
+        }
+
+        @Override
+        public String getContentType() {
+            return RniUtils.BATCH_CONTENT_TYPE + "; " + RniUtils.BATCH_CODEC_PARAM + "=" + this.codec.getContentType();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(this.calls.size());
+
+            ByteArrayOutputStream params = new ByteArrayOutputStream();
+            for(PendingCall call : this.calls) {
+                final long start = System.nanoTime();
+                params.reset();
+                if(call.plan.rniMethod.getParameterCount() > 0) {
+                    this.codec.writeParams(call.plan.rniMethod, call.args, params);
+                }
+
+                call.plan.metrics.recordEncode(System.nanoTime() - start);
+                call.plan.metrics.recordBytesOut(params.size());
+
+                data.writeInt(call.plan.rniMethod.getId());
+                data.writeInt(params.size());
+                params.writeTo(data);
+            }
+
+            data.flush();
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Identifies a call to a method by its arguments, as encoded by the client
+ * codec. Equal arguments thus map to equal keys without relying on
+ * <code>equals</code> and <code>hashCode</code> of the argument classes.
+ *
+ * @author sangupta
+ *
+ */
+class CallKey {
+
+    private static final CallKey EMPTY = new CallKey(new byte[0]);
+
+    private final byte[] bytes;
+
+    private final int hash;
+
+    private CallKey(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Build the key for a call.
+     *
+     * @param method the method being called
+     *
+     * @param codec the codec the client encodes arguments with
+     *
+     * @param args the call arguments
+     *
+     * @return the key, or <code>null</code> if the arguments cannot be encoded
+     */
+    static CallKey of(RniMethod method, RniCodec codec, Object[] args) {
+        if(method.getParameterCount() == 0) {
+            return EMPTY;
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            codec.writeParams(method, args, out);
+            return new CallKey(out.toByteArray());
+        } catch(IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+
+        if(!(obj instanceof CallKey)) {
+            return false;
+        }
+
+        CallKey other = (CallKey) obj;
+        return this.hash == other.hash && Arrays.equals(this.bytes, other.bytes);
+    }
+
+}
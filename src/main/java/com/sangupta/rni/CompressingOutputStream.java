@@ -0,0 +1,162 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses what is written to it once it grows beyond a threshold, and
+ * passes it through unchanged otherwise. Bytes are held in memory only until
+ * the threshold is reached; after that they are compressed and streamed as
+ * they are written. Flushing before the decision is made is a no-op, so that
+ * encoders flushing after every value do not force an early decision.
+ *
+ * {@link #finish()} must be called once everything has been written.
+ *
+ * @author sangupta
+ *
+ */
+class CompressingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+
+    private final ContentEncoding encoding;
+
+    private final int threshold;
+
+    /**
+     * Called just before the first compressed byte is written, to announce
+     * the encoding, may be <code>null</code>
+     */
+    private final Runnable onCompress;
+
+    /**
+     * Bytes held until the threshold is reached, <code>null</code> once the
+     * decision has been made
+     */
+    private byte[] buffer;
+
+    private int count;
+
+    /**
+     * The compressing stream, once the threshold has been reached
+     */
+    private OutputStream compressor;
+
+    private boolean finished;
+
+    CompressingOutputStream(OutputStream out, ContentEncoding encoding, int threshold, Runnable onCompress) {
+        this.out = out;
+        this.encoding = encoding;
+        this.threshold = threshold;
+        this.onCompress = onCompress;
+        this.buffer = new byte[Math.max(threshold, 1)];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(this.compressor != null) {
+            this.compressor.write(b);
+            return;
+        }
+
+        this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if(this.compressor != null) {
+            this.compressor.write(bytes, offset, length);
+            return;
+        }
+
+        if(this.buffer == null) {
+            throw new IOException("Stream already finished");
+        }
+
+        if(this.count + length < this.threshold) {
+            System.arraycopy(bytes, offset, this.buffer, this.count, length);
+            this.count += length;
+            return;
+        }
+
+        // threshold reached: start compressing with what is held so far
+        if(this.onCompress != null) {
+            this.onCompress.run();
+        }
+
+        this.compressor = this.encoding.compress(this.out);
+        this.compressor.write(this.buffer, 0, this.count);
+        this.compressor.write(bytes, offset, length);
+        this.buffer = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if(this.compressor != null) {
+            this.compressor.flush();
+        }
+    }
+
+    /**
+     * Write out whatever is held or buffered by the compressor. The
+     * underlying stream is flushed but not closed.
+     *
+     * @throws IOException if writing fails
+     */
+    void finish() throws IOException {
+        if(this.finished) {
+            return;
+        }
+
+        this.finished = true;
+        if(this.compressor != null) {
+            // finishes the compressed stream, leaving the underlying one open
+            this.compressor.close();
+            return;
+        }
+
+        if(this.buffer != null) {
+            this.out.write(this.buffer, 0, this.count);
+            this.buffer = null;
+        }
+
+        this.out.flush();
+    }
+
+    /**
+     * Check if the bytes written were compressed; valid after
+     * {@link #finish()}.
+     *
+     * @return <code>true</code> if compressed
+     */
+    boolean isCompressed() {
+        return this.compressor != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finish();
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive limit on the number of calls to one method that run at once on
+ * the server. Calls are admitted with {@link #tryAcquire()} while fewer than
+ * the current limit are in flight, and each admitted call adjusts the limit
+ * from its latency once it completes, as per the {@link RniLimitAlgorithm}.
+ *
+ * Admission is lock-free; updating the limit takes a lock on the limiter,
+ * which is cheap next to serving a call.
+ *
+ * @author sangupta
+ *
+ */
+class ConcurrencyLimiter {
+
+    static final int MIN_LIMIT = 1;
+
+    /**
+     * Weight of a new sample in the long-term average latency
+     */
+    private static final double LONG_RTT_WEIGHT = 1.0 / 500;
+
+    /**
+     * Weight of a new sample in the recent average latency
+     */
+    private static final double SHORT_RTT_WEIGHT = 1.0 / 10;
+
+    /**
+     * Weight of a new limit against the current one, for the gradient
+     * algorithm
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * Samples after which the lowest latency seen is forgotten, for the
+     * Vegas algorithm, so that it follows lasting changes
+     */
+    private static final int PROBE_SAMPLES = 1_000;
+
+    private final RniLimitAlgorithm algorithm;
+
+    private final double tolerance;
+
+    private final int maxLimit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+
+    // the fields below are guarded by this
+
+    private double longRtt;
+
+    private double shortRtt;
+
+    private double minRtt;
+
+    private int samples;
+
+    ConcurrencyLimiter(RniLimitAlgorithm algorithm, RniPriority.Level priority, int initialLimit, int maxLimit) {
+        this.algorithm = algorithm;
+        this.tolerance = priority.tolerance;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Admit a call if fewer than the limit are in flight.
+     *
+     * @return the permit to release once the call completes, or
+     *         <code>null</code> if the call is to be rejected
+     */
+    Permit tryAcquire() {
+        while(true) {
+            final int current = this.inFlight.get();
+            if(current >= (int) this.limit) {
+                return null;
+            }
+
+            if(this.inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Adjust the limit from a completed call.
+     *
+     * @param rtt the time the call took, in nanoseconds
+     *
+     * @param inFlight the calls in flight when it completed, itself included
+     *
+     * @param failed whether the call failed
+     */
+    private synchronized void update(long rtt, int inFlight, boolean failed) {
+        final double sample = Math.max(1, rtt);
+        if(this.samples++ == 0) {
+            this.longRtt = this.shortRtt = this.minRtt = sample;
+            return;
+        }
+
+        this.longRtt += (sample - this.longRtt) * LONG_RTT_WEIGHT;
+        this.shortRtt += (sample - this.shortRtt) * SHORT_RTT_WEIGHT;
+        if(sample < this.minRtt || this.samples % PROBE_SAMPLES == 0) {
+            this.minRtt = sample;
+        }
+
+        // let the long-term average recover quickly once latency drops
+        if(this.longRtt > 2 * this.shortRtt) {
+            this.longRtt *= 0.95;
+        }
+
+        double limit = this.limit;
+        final boolean saturated = inFlight * 2 >= limit;
+        switch(this.algorithm) {
+            case AIMD:
+                if(failed || sample > 2 * this.tolerance * this.longRtt) {
+                    limit *= 0.9;
+                } else if(saturated) {
+                    limit += 1;
+                }
+                break;
+
+            case VEGAS:
+                final double step = Math.max(1, Math.log10(limit));
+                if(failed) {
+                    limit -= step;
+                    break;
+                }
+
+                if(!saturated) {
+                    break;
+                }
+
+                final double queued = limit * (1 - this.minRtt / this.shortRtt);
+                if(queued < 3 * step * this.tolerance) {
+                    limit += step;
+                } else if(queued > 6 * step * this.tolerance) {
+                    limit -= step;
+                }
+                break;
+
+            case GRADIENT:
+                if(!saturated) {
+                    break;
+                }
+
+                final double gradient = Math.max(0.5, Math.min(1, this.tolerance * this.longRtt / this.shortRtt));
+                final double target = limit * gradient + Math.sqrt(limit);
+                limit = limit * (1 - SMOOTHING) + target * SMOOTHING;
+                break;
+        }
+
+        this.limit = Math.max(MIN_LIMIT, Math.min(this.maxLimit, limit));
+    }
+
+    int getLimit() {
+        return (int) this.limit;
+    }
+
+    int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * An admitted call, released exactly once however many times
+     * {@link #release(boolean)} is called.
+     *
+     */
+    class Permit {
+
+        private final long start;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(long start) {
+            this.start = start;
+        }
+
+        /**
+         * Release the permit once the call has completed.
+         *
+         * @param failed whether the call failed
+         */
+        void release(boolean failed) {
+            if(!this.released.compareAndSet(false, true)) {
+                return;
+            }
+
+            final int current = inFlight.getAndDecrement();
+            update(System.nanoTime() - this.start, current, failed);
+        }
+
+    }
+
+}
@@ -0,0 +1,381 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sangupta.jerry.util.AssertUtils;
+
+/**
+ * A compression scheme for request and response bodies, as named in the
+ * <code>Content-Encoding</code> and <code>Accept-Encoding</code> headers.
+ * <code>gzip</code> is always available; <code>lz4</code> is available when
+ * the optional <code>org.lz4:lz4-java</code> library is on the classpath.
+ *
+ * @author sangupta
+ *
+ */
+abstract class ContentEncoding {
+
+    static final ContentEncoding GZIP = new GzipEncoding();
+
+    /**
+     * LZ4 frame encoding, or <code>null</code> if the library is missing
+     */
+    static final ContentEncoding LZ4 = isLz4Available() ? new Lz4Encoding() : null;
+
+    /**
+     * Supported encodings, most preferred first
+     */
+    private static final ContentEncoding[] SUPPORTED = LZ4 != null ? new ContentEncoding[] { LZ4, GZIP } : new ContentEncoding[] { GZIP };
+
+    /**
+     * The value sent in the <code>Accept-Encoding</code> header
+     */
+    static final String ACCEPT_HEADER = LZ4 != null ? LZ4.getName() + ", " + GZIP.getName() : GZIP.getName();
+
+    /**
+     * The name used in headers.
+     *
+     * @return the name
+     */
+    abstract String getName();
+
+    /**
+     * Wrap a stream so that what is written to it is compressed. Closing the
+     * returned stream finishes compression but does not close the given one.
+     *
+     * @param out the stream to write compressed bytes to
+     *
+     * @return the stream to write uncompressed bytes to
+     *
+     * @throws IOException if the stream cannot be wrapped
+     */
+    abstract OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wrap a stream so that what is read from it is decompressed.
+     *
+     * @param in the stream to read compressed bytes from
+     *
+     * @return the stream to read uncompressed bytes from
+     *
+     * @throws IOException if the stream cannot be wrapped
+     */
+    abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * Wrap a stream received from a peer so that what is read from it is
+     * decompressed. Any failure of the decompressor, and decompressing to
+     * more than the given number of bytes, is thrown as a
+     * {@link DecodingException}.
+     *
+     * @param in the stream to read compressed bytes from
+     *
+     * @param maxBytes the most bytes the stream may decompress to
+     *
+     * @return the stream to read uncompressed bytes from
+     *
+     * @throws DecodingException if the stream does not start as expected
+     */
+    InputStream decompress(InputStream in, long maxBytes) throws DecodingException {
+        try {
+            return new DecodingInputStream(this.decompress(in), maxBytes);
+        } catch(IOException | RuntimeException e) {
+            throw new DecodingException("Unable to decode " + this.getName() + " body", e);
+        }
+    }
+
+    /**
+     * Find the encoding for a <code>Content-Encoding</code> header value.
+     *
+     * @param name the header value
+     *
+     * @return the encoding, or <code>null</code> if not supported
+     */
+    static ContentEncoding forName(String name) {
+        if(name == null) {
+            return null;
+        }
+
+        name = name.trim();
+        for(ContentEncoding encoding : SUPPORTED) {
+            if(encoding.getName().equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+
+        if(name.equalsIgnoreCase("x-gzip")) {
+            return GZIP;
+        }
+
+        return null;
+    }
+
+    /**
+     * Wrap a stream to decompress it as per a <code>Content-Encoding</code>
+     * header value.
+     *
+     * @param in the stream as received
+     *
+     * @param contentEncoding the header value, may be <code>null</code>
+     *
+     * @return the stream to read uncompressed bytes from
+     *
+     * @throws IOException if the encoding is not supported or the stream
+     *             cannot be wrapped
+     */
+    static InputStream decompress(InputStream in, String contentEncoding) throws IOException {
+        if(in == null || contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")) {
+            return in;
+        }
+
+        ContentEncoding encoding = forName(contentEncoding);
+        if(encoding == null) {
+            throw new IOException("Unsupported content encoding: " + contentEncoding);
+        }
+
+        return encoding.decompress(in);
+    }
+
+    /**
+     * Pick the most preferred supported encoding listed in an
+     * <code>Accept-Encoding</code> header value. Encodings listed with a zero
+     * quality are skipped.
+     *
+     * @param acceptEncoding the header value, may be <code>null</code>
+     *
+     * @return the encoding, or <code>null</code> if none is acceptable
+     */
+    static ContentEncoding negotiate(String acceptEncoding) {
+        if(AssertUtils.isEmpty(acceptEncoding)) {
+            return null;
+        }
+
+        ContentEncoding best = null;
+        int bestRank = SUPPORTED.length;
+        for(String token : acceptEncoding.split(",")) {
+            int semicolon = token.indexOf(';');
+            String name = semicolon < 0 ? token : token.substring(0, semicolon);
+            if(semicolon >= 0 && token.substring(semicolon + 1).replace(" ", "").matches("q=0(\\.0*)?")) {
+                continue;
+            }
+
+            ContentEncoding encoding = forName(name);
+            if(encoding == null) {
+                continue;
+            }
+
+            for(int rank = 0; rank < bestRank; rank++) {
+                if(SUPPORTED[rank] == encoding) {
+                    best = encoding;
+                    bestRank = rank;
+                    break;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Check if the LZ4 library is on the classpath. This must not touch
+     * {@link Lz4Support}, as loading it needs the library.
+     *
+     * @return <code>true</code> if the library is available
+     */
+    private static boolean isLz4Available() {
+        try {
+            Class.forName("net.jpountz.lz4.LZ4FrameOutputStream", false, ContentEncoding.class.getClassLoader());
+            return true;
+        } catch(ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static class GzipEncoding extends ContentEncoding {
+
+        @Override
+        String getName() {
+            return "gzip";
+        }
+
+        @Override
+        OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(new NonClosingOutputStream(out), 8 * 1024);
+        }
+
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, 8 * 1024);
+        }
+
+    }
+
+    private static class Lz4Encoding extends ContentEncoding {
+
+        @Override
+        String getName() {
+            return "lz4";
+        }
+
+        @Override
+        OutputStream compress(OutputStream out) throws IOException {
+            return Lz4Support.compress(new NonClosingOutputStream(out));
+        }
+
+        @Override
+        InputStream decompress(InputStream in) throws IOException {
+            return Lz4Support.decompress(in);
+        }
+
+    }
+
+    /**
+     * Thrown when a body cannot be decompressed, being corrupt or larger than
+     * allowed.
+     *
+     */
+    static class DecodingException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        DecodingException(String message) {
+            super(message);
+        }
+
+        DecodingException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
+    }
+
+    /**
+     * Counts the bytes decompressed, and wraps failures of the decompressor
+     * in a {@link DecodingException}.
+     *
+     */
+    private class DecodingInputStream extends FilterInputStream {
+
+        private final long maxBytes;
+
+        private long count;
+
+        DecodingInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value;
+            try {
+                value = this.in.read();
+            } catch(IOException | RuntimeException e) {
+                throw this.failed(e);
+            }
+
+            if(value >= 0) {
+                this.count(1);
+            }
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            final int read;
+            try {
+                read = this.in.read(bytes, offset, length);
+            } catch(IOException | RuntimeException e) {
+                throw this.failed(e);
+            }
+
+            if(read > 0) {
+                this.count(read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long length) throws IOException {
+            final long skipped;
+            try {
+                skipped = this.in.skip(length);
+            } catch(IOException | RuntimeException e) {
+                throw this.failed(e);
+            }
+
+            if(skipped > 0) {
+                this.count(skipped);
+            }
+
+            return skipped;
+        }
+
+        private void count(long bytes) throws DecodingException {
+            this.count += bytes;
+            if(this.count > this.maxBytes) {
+                throw new DecodingException(getName() + " body decodes to more than " + this.maxBytes + " bytes");
+            }
+        }
+
+        private DecodingException failed(Exception e) {
+            if(e instanceof DecodingException) {
+                return (DecodingException) e;
+            }
+
+            return new DecodingException("Unable to decode " + getName() + " body", e);
+        }
+
+    }
+
+    /**
+     * Passes everything through, except that closing only flushes.
+     *
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            this.out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.flush();
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * The default framing of streamed results, used by codecs that do not write
+ * their elements in a form that can be read one at a time by itself. Each
+ * element is prefixed with its length as a 4-byte big-endian integer, a zero
+ * length for <code>null</code> elements, and the result ends with a length of
+ * <code>-1</code>.
+ *
+ * @author sangupta
+ *
+ */
+class FramedElements {
+
+    private static final int END = -1;
+
+    /**
+     * Maximum size of a single encoded element
+     */
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    private FramedElements() {
+        // static methods only
+    }
+
+    /**
+     * Write all elements as frames, followed by the end marker. Elements are
+     * encoded one at a time in a buffer reused for the next one.
+     *
+     * @param codec the codec to encode elements with
+     *
+     * @param method the method that was called
+     *
+     * @param elements the elements to write
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    static void write(RniCodec codec, RniMethod method, Iterator<?> elements, OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        while(elements.hasNext()) {
+            Object element = elements.next();
+            if(element == null) {
+                data.writeInt(0);
+                continue;
+            }
+
+            frame.reset();
+            codec.writeResult(method, element, frame);
+            data.writeInt(frame.size());
+            frame.writeTo(data);
+        }
+
+        data.writeInt(END);
+        data.flush();
+    }
+
+    /**
+     * Reads the frames written by {@link FramedElements#write(RniCodec, RniMethod, Iterator, OutputStream)}.
+     *
+     */
+    static class Reader implements RniCodec.ElementReader {
+
+        private final RniCodec codec;
+
+        private final RniMethod method;
+
+        private final DataInputStream in;
+
+        /**
+         * Buffer for the current frame, grown as needed
+         */
+        private byte[] frame = new byte[256];
+
+        /**
+         * Length of the frame announced by the last call to {@link #hasNext()}
+         */
+        private int length;
+
+        Reader(RniCodec codec, RniMethod method, InputStream in) {
+            this.codec = codec;
+            this.method = method;
+            this.in = new DataInputStream(in);
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            this.length = this.in.readInt();
+            if(this.length == END) {
+                return false;
+            }
+
+            if(this.length < 0 || this.length > MAX_FRAME_BYTES) {
+                throw new JsonParseException("Invalid frame length: " + this.length);
+            }
+
+            return true;
+        }
+
+        @Override
+        public Object next() throws IOException {
+            if(this.length == 0) {
+                return null;
+            }
+
+            if(this.length > this.frame.length) {
+                this.frame = new byte[Math.max(this.length, this.frame.length * 2)];
+            }
+
+            this.in.readFully(this.frame, 0, this.length);
+            return this.codec.readResult(this.method, new ByteArrayInputStream(this.frame, 0, this.length));
+        }
+
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.sangupta.jerry.constants.HttpStatusCode;
+import com.sangupta.rni.FramedProtocol.Frame;
+import com.sangupta.rni.FramedProtocol.FrameWriter;
+
+/**
+ * An {@link RniExchange} over a request frame received by an
+ * {@link RniServer} serving the {@link FramedProtocol}. The response is
+ * written into its frame as it is encoded, and sent once the exchange ends,
+ * along with the responses of other calls on the same connection. Writes and
+ * ending the exchange hold its lock, so that nothing is written into the
+ * frame once it has been sealed, such as by a call still writing its result
+ * after timing out.
+ *
+ * @author sangupta
+ *
+ */
+class FramedExchange extends ServerExchange {
+
+    private final FrameWriter writer;
+
+    private final String method;
+
+    private final String path;
+
+    private final String[] requestHeaders;
+
+    private final InputStream body;
+
+    private final Frame response;
+
+    /**
+     * Response header names and values
+     */
+    private String[] headers = new String[8];
+
+    private int headerLength;
+
+    private volatile boolean committed;
+
+    /**
+     * Set, holding the lock, once the response frame has been sealed
+     */
+    private boolean ended;
+
+    private final OutputStream responseStream = new OutputStream() {
+
+        @Override
+        public void write(int value) throws IOException {
+            synchronized(FramedExchange.this) {
+                ensureNotEnded();
+                response.write(value);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            synchronized(FramedExchange.this) {
+                ensureNotEnded();
+                response.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized(FramedExchange.this) {
+                ensureNotEnded();
+            }
+        }
+
+    };
+
+    /**
+     * Parse a request frame.
+     *
+     * @param frame the frame, starting with the call ID
+     *
+     * @param contextPath the context path the server is mounted at, removed
+     *            from the request path
+     *
+     * @param writer the writer of the connection the frame was received on
+     *
+     * @throws IOException if the frame is not a valid request
+     */
+    FramedExchange(byte[] frame, String contextPath, FrameWriter writer) throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(frame);
+        final DataInputStream data = new DataInputStream(in);
+
+        final int id = data.readInt();
+        this.method = data.readByte() == FramedProtocol.POST ? "POST" : "GET";
+
+        String path = data.readUTF();
+        if(path.startsWith(contextPath)) {
+            path = path.substring(contextPath.length());
+        }
+
+        this.path = path;
+        this.requestHeaders = FramedProtocol.readHeaders(data);
+
+        // the body is the rest of the frame
+        final int available = in.available();
+        this.body = new ByteArrayInputStream(frame, frame.length - available, available);
+
+        this.writer = writer;
+        this.response = new Frame(id).startResponse();
+    }
+
+    @Override
+    public String getMethod() {
+        return this.method;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return this.path;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return FramedProtocol.getHeader(this.requestHeaders, this.requestHeaders.length, name);
+    }
+
+    @Override
+    public String getContentType() {
+        return this.getHeader(RniUtils.HEADER_CONTENT_TYPE);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.body;
+    }
+
+    @Override
+    public synchronized void setHeader(String name, String value) {
+        if(this.committed) {
+            return;
+        }
+
+        for(int index = 0; index < this.headerLength; index += 2) {
+            if(this.headers[index].equalsIgnoreCase(name)) {
+                this.headers[index + 1] = value;
+                return;
+            }
+        }
+
+        if(this.headerLength == this.headers.length) {
+            this.headers = Arrays.copyOf(this.headers, this.headerLength * 2);
+        }
+
+        this.headers[this.headerLength++] = name;
+        this.headers[this.headerLength++] = value;
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+        this.setHeader(RniUtils.HEADER_CONTENT_TYPE, contentType);
+    }
+
+    @Override
+    public void setContentLength(long length) {
+        // frames carry the length of their body
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.responseStream;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return this.committed;
+    }
+
+    @Override
+    public synchronized void sendError(int status) {
+        if(!this.discard()) {
+            throw new IllegalStateException("Response already committed");
+        }
+
+        this.setStatus(status);
+        this.committed = true;
+    }
+
+    @Override
+    protected synchronized boolean discard() {
+        if(this.committed) {
+            return false;
+        }
+
+        this.response.discardBody();
+        return true;
+    }
+
+    @Override
+    protected void end() throws IOException {
+        synchronized(this) {
+            if(this.response.isOverflow()) {
+                this.response.discardBody();
+                this.setStatus(HttpStatusCode.INTERNAL_SERVER_ERROR);
+            }
+
+            this.committed = true;
+            this.ended = true;
+            this.response.endResponse(this.getStatus(), this.headers, this.headerLength);
+            this.response.seal();
+        }
+
+        this.writer.send(this.response);
+    }
+
+    private void ensureNotEnded() throws IOException {
+        if(this.ended) {
+            throw new IOException("Response already ended");
+        }
+    }
+
+}
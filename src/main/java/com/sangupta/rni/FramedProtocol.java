@@ -0,0 +1,361 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The framing of calls sent over a persistent TCP connection by a
+ * {@link FramedTransport} to an {@link RniServer}. The client opens the
+ * connection with {@link #MAGIC}, after which both sides send frames: the
+ * length of the rest of the frame as a 4-byte big-endian integer, followed by
+ * the ID of the call the frame belongs to. Responses carry the ID of their
+ * request, so that many calls can be in flight on one connection, and be
+ * answered in any order.
+ *
+ * A request goes on with its kind, {@link #GET} or {@link #POST}, its path and
+ * headers, and the body up to the end of the frame. A response goes on with
+ * its status, the length of its body and the body, and ends with its headers,
+ * so that the body can be written before all headers are known. Headers are
+ * a 2-byte count followed by the names and values in modified UTF-8.
+ *
+ * @author sangupta
+ *
+ */
+final class FramedProtocol {
+
+    /**
+     * Sent by the client when it opens a connection, <code>RNI1</code>
+     */
+    static final int MAGIC = 0x524e4931;
+
+    static final byte GET = 0;
+
+    static final byte POST = 1;
+
+    /**
+     * Maximum size of a single frame
+     */
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Size of the buffers of the connection streams
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Where the status of a response is in its frame
+     */
+    private static final int STATUS_POSITION = 8;
+
+    /**
+     * Where the body of a response starts in its frame, after the status and
+     * the length of the body
+     */
+    static final int RESPONSE_BODY_POSITION = STATUS_POSITION + 2 + 4;
+
+    private FramedProtocol() {
+        // static methods only
+    }
+
+    /**
+     * Read the next frame, without its length.
+     *
+     * @param in the stream to read from
+     *
+     * @return the frame, starting with the call ID, or <code>null</code> if
+     *         the stream ended between frames
+     *
+     * @throws IOException if reading fails or the frame is not valid
+     */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        final int first = in.read();
+        if(first == -1) {
+            return null;
+        }
+
+        final int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if(length < 4 || length > MAX_FRAME_BYTES) {
+            throw new ProtocolException("Invalid frame length: " + length);
+        }
+
+        final byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    /**
+     * Check the magic a client opens its connection with.
+     *
+     * @param in the stream to read from
+     *
+     * @throws IOException if the connection was not opened by a
+     *             {@link FramedTransport}
+     */
+    static void readMagic(DataInputStream in) throws IOException {
+        final int magic = in.readInt();
+        if(magic != MAGIC) {
+            throw new ProtocolException("Not an RNI connection: " + Integer.toHexString(magic));
+        }
+    }
+
+    /**
+     * Read headers written by {@link Frame#writeHeaders(String[], int)}.
+     *
+     * @param in the frame to read from
+     *
+     * @return the header names and values
+     *
+     * @throws IOException if the headers cannot be read
+     */
+    static String[] readHeaders(DataInput in) throws IOException {
+        final int count = in.readUnsignedShort();
+        final String[] headers = new String[count * 2];
+        for(int index = 0; index < headers.length; index++) {
+            headers[index] = in.readUTF();
+        }
+
+        return headers;
+    }
+
+    /**
+     * Get the value of a header.
+     *
+     * @param headers the header names and values
+     *
+     * @param length the number of names and values set
+     *
+     * @param name the header name, matched ignoring case
+     *
+     * @return the value, or <code>null</code> if the header is not present
+     */
+    static String getHeader(String[] headers, int length, String name) {
+        for(int index = 0; index < length; index += 2) {
+            if(headers[index].equalsIgnoreCase(name)) {
+                return headers[index + 1];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * A frame being written, with room for its length. The frame is its own
+     * stream, so that bodies are written into it without a copy. Once sealed
+     * it can no longer be changed.
+     */
+    static final class Frame extends ByteArrayOutputStream {
+
+        final DataOutputStream data = new DataOutputStream(this);
+
+        /**
+         * Set if a write went beyond {@link FramedProtocol#MAX_FRAME_BYTES}
+         */
+        private boolean overflow;
+
+        private boolean sealed;
+
+        Frame(int id) throws IOException {
+            super(256);
+            this.data.writeInt(0);
+            this.data.writeInt(id);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            this.ensureRoom(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            this.ensureRoom(length);
+            super.write(bytes, offset, length);
+        }
+
+        void writeHeaders(String[] headers, int length) throws IOException {
+            this.data.writeShort(length / 2);
+            for(int index = 0; index < length; index++) {
+                this.data.writeUTF(headers[index]);
+            }
+        }
+
+        /**
+         * Start the response: the status and the length of the body are
+         * filled in by {@link #endResponse(int, String[], int)}.
+         *
+         * @return this frame
+         */
+        Frame startResponse() {
+            this.count = RESPONSE_BODY_POSITION;
+            return this;
+        }
+
+        /**
+         * Drop the body written so far of a response.
+         */
+        synchronized void discardBody() {
+            this.ensureNotSealed();
+            this.count = RESPONSE_BODY_POSITION;
+            this.overflow = false;
+        }
+
+        /**
+         * @return <code>true</code> if the body written so far is not
+         *         complete, as it went beyond the maximum size of a frame
+         */
+        synchronized boolean isOverflow() {
+            return this.overflow;
+        }
+
+        /**
+         * End a response once its body has been written.
+         *
+         * @param status the status of the response
+         *
+         * @param headers the header names and values
+         *
+         * @param length the number of names and values set
+         *
+         * @throws IOException if the headers cannot be written
+         */
+        synchronized void endResponse(int status, String[] headers, int length) throws IOException {
+            this.ensureNotSealed();
+            final int bodyLength = this.count - RESPONSE_BODY_POSITION;
+            this.put(STATUS_POSITION, status, 2);
+            this.put(STATUS_POSITION + 2, bodyLength, 4);
+            this.writeHeaders(headers, length);
+        }
+
+        /**
+         * Fill in the length of the frame, once written.
+         */
+        synchronized void seal() {
+            this.ensureNotSealed();
+            this.put(0, this.count - 4, 4);
+            this.sealed = true;
+        }
+
+        private void put(int position, int value, int bytes) {
+            for(int index = 0; index < bytes; index++) {
+                this.buf[position + index] = (byte) (value >>> (8 * (bytes - 1 - index)));
+            }
+        }
+
+        private void ensureNotSealed() {
+            if(this.sealed) {
+                throw new IllegalStateException("Frame already sealed");
+            }
+        }
+
+        private void ensureRoom(int length) {
+            this.ensureNotSealed();
+            if(this.count + length - 4 > MAX_FRAME_BYTES) {
+                this.overflow = true;
+                throw new FrameTooLargeException();
+            }
+        }
+
+    }
+
+    /**
+     * Thrown when a frame would go beyond {@link #MAX_FRAME_BYTES}. Unchecked,
+     * as the streams of {@link ByteArrayOutputStream} do not throw.
+     */
+    static final class FrameTooLargeException extends IllegalStateException {
+
+        private static final long serialVersionUID = 1L;
+
+        FrameTooLargeException() {
+            super("Frame larger than " + MAX_FRAME_BYTES + " bytes");
+        }
+
+    }
+
+    /**
+     * Writes the frames of many threads to one connection. The thread that
+     * finds no write in progress writes its own frame and all frames queued
+     * meanwhile by other threads, and then flushes once, so that frames are
+     * sent in batches under load without waiting for a timer when idle.
+     */
+    static final class FrameWriter {
+
+        private final OutputStream out;
+
+        private final Closeable connection;
+
+        private final ConcurrentLinkedQueue<Frame> queue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean writing = new AtomicBoolean();
+
+        /**
+         * @param out the stream of the connection, buffered
+         *
+         * @param connection closed if writing fails, as the frames queued
+         *            are lost with it
+         */
+        FrameWriter(OutputStream out, Closeable connection) {
+            this.out = out;
+            this.connection = connection;
+        }
+
+        /**
+         * Send the frame, or queue it to be sent by the thread writing.
+         *
+         * @param frame the frame, sealed
+         *
+         * @throws IOException if the connection fails while writing
+         */
+        void send(Frame frame) throws IOException {
+            this.queue.add(frame);
+
+            // check again once done, as a frame queued just before the flag
+            // was cleared would be left behind
+            while(!this.queue.isEmpty() && this.writing.compareAndSet(false, true)) {
+                try {
+                    Frame next;
+                    while((next = this.queue.poll()) != null) {
+                        next.writeTo(this.out);
+                    }
+
+                    this.out.flush();
+                } catch(IOException e) {
+                    this.connection.close();
+                    throw e;
+                } finally {
+                    this.writing.set(false);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,217 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.rni.FramedProtocol.FrameWriter;
+
+/**
+ * Serves calls sent as per the {@link FramedProtocol} for an
+ * {@link RniServer}. Each connection has a thread reading its frames, which
+ * hands every request to the worker threads as soon as it is read, so that
+ * the calls of a connection run concurrently. Responses are sent as the calls
+ * complete, in any order.
+ *
+ * @author sangupta
+ *
+ */
+class FramedServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FramedServer.class);
+
+    private static final AtomicInteger CONNECTION_NUMBER = new AtomicInteger();
+
+    private final ServerSocket serverSocket;
+
+    private final String contextPath;
+
+    private final Executor workers;
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private final Thread acceptor;
+
+    private volatile boolean stopped;
+
+    /**
+     * Bind the server, and start accepting connections.
+     *
+     * @param address the address to listen on
+     *
+     * @param backlog maximum number of connections waiting to be accepted, or
+     *            zero for the system default
+     *
+     * @param contextPath the path calls are served under
+     *
+     * @param workers the threads to serve calls on
+     *
+     * @throws IOException if the address cannot be bound
+     */
+    FramedServer(InetSocketAddress address, int backlog, String contextPath, Executor workers) throws IOException {
+        this.contextPath = contextPath;
+        this.workers = workers;
+
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(address, backlog);
+
+        // not a daemon, so that the server keeps the process running
+        this.acceptor = new Thread(this::accept, "rni-framed-acceptor-" + this.getPort());
+        this.acceptor.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return (InetSocketAddress) this.serverSocket.getLocalSocketAddress();
+    }
+
+    int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop accepting connections, and close all open ones. Returns once the
+     * threads reading connections are done, so that no more calls are handed
+     * to the workers.
+     */
+    void stop() {
+        this.stopped = true;
+        closeQuietly(this.serverSocket);
+
+        try {
+            this.acceptor.join();
+
+            // no connections are added once the acceptor is done
+            for(Connection connection : this.connections) {
+                connection.close();
+                connection.thread.join();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while(!this.stopped) {
+            final Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+            } catch(IOException e) {
+                if(!this.stopped) {
+                    LOGGER.error("Unable to accept connection", e);
+                }
+
+                continue;
+            }
+
+            try {
+                Connection connection = new Connection(socket);
+                this.connections.add(connection);
+                if(this.stopped) {
+                    connection.close();
+                    return;
+                }
+
+                connection.thread.start();
+            } catch(IOException e) {
+                LOGGER.debug("Unable to set up connection: {}", socket.getRemoteSocketAddress(), e);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch(IOException e) {
+            // already closed or broken
+        }
+    }
+
+    /**
+     * A connection from a client, reading its requests until it is closed.
+     */
+    private class Connection implements Runnable, Closeable {
+
+        private final Socket socket;
+
+        private final FrameWriter writer;
+
+        private final Thread thread;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.thread = new Thread(this, "rni-framed-" + CONNECTION_NUMBER.incrementAndGet());
+            this.thread.setDaemon(true);
+            this.socket.setTcpNoDelay(true);
+            this.writer = new FrameWriter(new BufferedOutputStream(socket.getOutputStream(), FramedProtocol.BUFFER_SIZE), this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), FramedProtocol.BUFFER_SIZE));
+                FramedProtocol.readMagic(in);
+
+                byte[] frame;
+                while((frame = FramedProtocol.readFrame(in)) != null) {
+                    final FramedExchange exchange = new FramedExchange(frame, contextPath, this.writer);
+                    try {
+                        workers.execute(exchange::serve);
+                    } catch(RejectedExecutionException e) {
+                        LOGGER.debug("No worker to serve call: {}", exchange.getRequestURI());
+                        exchange.reject();
+                    }
+                }
+            } catch(IOException e) {
+                if(!stopped && !this.socket.isClosed()) {
+                    LOGGER.debug("Closing connection: {}", this.socket.getRemoteSocketAddress(), e);
+                }
+            } finally {
+                this.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            connections.remove(this);
+            closeQuietly(this.socket);
+        }
+
+    }
+
+}
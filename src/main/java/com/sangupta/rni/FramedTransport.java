@@ -0,0 +1,476 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.rni.FramedProtocol.Frame;
+import com.sangupta.rni.FramedProtocol.FrameTooLargeException;
+import com.sangupta.rni.FramedProtocol.FrameWriter;
+
+/**
+ * An {@link RniTransport} sending calls over persistent TCP connections to an
+ * {@link RniServer} serving the {@link FramedProtocol}, rather than one HTTP
+ * request per call at a time. Each call is tagged with an ID, so that many
+ * calls are in flight on one connection and answered in any order. Frames
+ * sent by many threads at once are written in a batch, with a single flush.
+ *
+ * A few connections are kept open to each server, and replaced when they
+ * fail, failing the calls in flight on them. Responses are fully buffered,
+ * including streamed results, so blocking and non-blocking calls behave the
+ * same.
+ *
+ * @author sangupta
+ *
+ */
+public class FramedTransport implements RniTransport {
+
+    /**
+     * The URL scheme of servers serving framed connections
+     */
+    public static final String SCHEME = "rni";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FramedTransport.class);
+
+    private static final AtomicInteger CONNECTION_NUMBER = new AtomicInteger();
+
+    private final FramedTransportConfig config;
+
+    /**
+     * The connections to each server, keyed by <code>host:port</code>
+     */
+    private final Map<String, AtomicReferenceArray<Connection>> connections = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    public FramedTransport() {
+        this(new FramedTransportConfig());
+    }
+
+    public FramedTransport(FramedTransportConfig config) {
+        if(config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
+        }
+
+        this.config = config;
+    }
+
+    /**
+     * Get the transport shared by all clients that use framed connections and
+     * do not configure their own.
+     *
+     * @return the shared transport
+     */
+    public static FramedTransport getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Check if a URL scheme is the one of framed connections.
+     *
+     * @param scheme the scheme, may be <code>null</code>
+     *
+     * @return <code>true</code> if the scheme is {@link #SCHEME}
+     */
+    static boolean isFramedScheme(String scheme) {
+        return SCHEME.equalsIgnoreCase(scheme);
+    }
+
+    @Override
+    public RniResponse execute(RniRequest request) throws IOException {
+        final CompletableFuture<RniResponse> future = this.send(request);
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new InterruptedIOException("Interrupted waiting for response");
+        } catch(ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public CompletableFuture<RniResponse> executeAsync(RniRequest request) {
+        try {
+            return this.send(request);
+        } catch(IOException | RuntimeException e) {
+            CompletableFuture<RniResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        for(AtomicReferenceArray<Connection> slots : this.connections.values()) {
+            for(int index = 0; index < slots.length(); index++) {
+                Connection connection = slots.get(index);
+                if(connection != null) {
+                    connection.close();
+                }
+            }
+        }
+
+        this.connections.clear();
+    }
+
+    private CompletableFuture<RniResponse> send(RniRequest request) throws IOException {
+        if(this.closed) {
+            throw new IllegalStateException("Transport has been closed");
+        }
+
+        final URI uri = request.getUri();
+        return this.getConnection(uri.getHost(), uri.getPort()).send(request);
+    }
+
+    /**
+     * Get a connection to the given server, spreading calls over the
+     * connections kept open to it, and opening one if needed.
+     *
+     * @param host the server host
+     *
+     * @param port the server port
+     *
+     * @return an open connection
+     *
+     * @throws IOException if a connection cannot be opened
+     */
+    private Connection getConnection(String host, int port) throws IOException {
+        final AtomicReferenceArray<Connection> slots = this.connections.computeIfAbsent(host + ":" + port, key -> new AtomicReferenceArray<>(this.config.getConnectionsPerServer()));
+        final int index = Math.floorMod(this.nextConnection.getAndIncrement(), slots.length());
+
+        Connection connection = slots.get(index);
+        if(connection != null && connection.isOpen()) {
+            return connection;
+        }
+
+        synchronized(slots) {
+            connection = slots.get(index);
+            if(connection == null || !connection.isOpen()) {
+                connection = new Connection(host, port);
+                slots.set(index, connection);
+            }
+
+            return connection;
+        }
+    }
+
+    /**
+     * A connection to a server, with a thread reading the responses and
+     * completing the calls they belong to.
+     */
+    private class Connection implements Runnable, Closeable {
+
+        private final Socket socket;
+
+        private final FrameWriter writer;
+
+        /**
+         * Calls waiting for their response, keyed by call ID
+         */
+        private final Map<Integer, CompletableFuture<RniResponse>> pending = new ConcurrentHashMap<>();
+
+        private final AtomicInteger ids = new AtomicInteger();
+
+        /**
+         * Why the connection was closed, <code>null</code> while open
+         */
+        private volatile IOException failure;
+
+        Connection(String host, int port) throws IOException {
+            final Socket socket = new Socket();
+            final OutputStream out;
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.connect(new InetSocketAddress(host, port), config.getConnectTimeoutMillis());
+
+                // the magic goes out with the first batch of frames
+                out = new BufferedOutputStream(socket.getOutputStream(), FramedProtocol.BUFFER_SIZE);
+                new DataOutputStream(out).writeInt(FramedProtocol.MAGIC);
+            } catch(IOException e) {
+                socket.close();
+                throw e;
+            }
+
+            this.socket = socket;
+            this.writer = new FrameWriter(out, this);
+
+            Thread thread = new Thread(this, "rni-framed-client-" + CONNECTION_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean isOpen() {
+            return this.failure == null;
+        }
+
+        /**
+         * Send the request, returning once it has been written or queued to
+         * be written.
+         *
+         * @param request the request to send
+         *
+         * @return a future that completes with the response
+         *
+         * @throws IOException if the request cannot be encoded or sent
+         */
+        CompletableFuture<RniResponse> send(RniRequest request) throws IOException {
+            final int id = this.ids.incrementAndGet();
+            final Frame frame = new Frame(id);
+            final RniRequest.Body body = request.getBody();
+
+            frame.data.writeByte(body == null ? FramedProtocol.GET : FramedProtocol.POST);
+            frame.data.writeUTF(request.getUri().getRawPath());
+
+            final int count = request.getHeaderCount();
+            final String[] headers = new String[(count + 2) * 2];
+            int length = 0;
+            for(int index = 0; index < count; index++) {
+                headers[length++] = request.getHeaderName(index);
+                headers[length++] = request.getHeaderValue(index);
+            }
+
+            if(body != null) {
+                headers[length++] = RniUtils.HEADER_CONTENT_TYPE;
+                headers[length++] = body.getContentType();
+                if(body.getContentEncoding() != null) {
+                    headers[length++] = RniUtils.HEADER_CONTENT_ENCODING;
+                    headers[length++] = body.getContentEncoding();
+                }
+            }
+
+            frame.writeHeaders(headers, length);
+            if(body != null) {
+                try {
+                    body.writeTo(frame);
+                } catch(FrameTooLargeException e) {
+                    throw new ProtocolException(e.getMessage());
+                }
+            }
+
+            frame.seal();
+
+            final CompletableFuture<RniResponse> future = new CompletableFuture<>();
+            this.pending.put(id, future);
+
+            final int timeoutMillis = request.getTimeoutMillis() > 0 ? request.getTimeoutMillis() : config.getReadTimeoutMillis();
+            final ScheduledFuture<?> timeout;
+            if(timeoutMillis > 0) {
+                timeout = RniTimer.SCHEDULER.schedule(() -> {
+                    if(this.pending.remove(id, future)) {
+                        future.completeExceptionally(new SocketTimeoutException("Read timed out"));
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                timeout = null;
+            }
+
+            // calls cancelled or timed out are forgotten, their response
+            // dropped when it arrives
+            future.whenComplete((response, error) -> {
+                this.pending.remove(id, future);
+                if(timeout != null) {
+                    timeout.cancel(false);
+                }
+            });
+
+            // the connection may have failed before the call was added
+            final IOException failure = this.failure;
+            if(failure != null && this.pending.remove(id, future)) {
+                throw failure;
+            }
+
+            this.writer.send(frame);
+            return future;
+        }
+
+        @Override
+        public void run() {
+            IOException failure;
+            try {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), FramedProtocol.BUFFER_SIZE));
+
+                byte[] frame;
+                while((frame = FramedProtocol.readFrame(in)) != null) {
+                    this.receive(frame);
+                }
+
+                failure = new EOFException("Connection closed by server");
+            } catch(IOException e) {
+                failure = e;
+            }
+
+            this.close(failure);
+        }
+
+        /**
+         * Complete the call a response frame belongs to.
+         *
+         * @param frame the frame, starting with the call ID
+         *
+         * @throws IOException if the frame is not a valid response
+         */
+        private void receive(byte[] frame) throws IOException {
+            final ByteArrayInputStream in = new ByteArrayInputStream(frame);
+            final DataInputStream data = new DataInputStream(in);
+
+            final int id = data.readInt();
+            final int status = data.readUnsignedShort();
+            final int length = data.readInt();
+            if(length < 0 || length > in.available()) {
+                throw new ProtocolException("Invalid body length: " + length);
+            }
+
+            final int offset = frame.length - in.available();
+            in.skip(length);
+            final String[] headers = FramedProtocol.readHeaders(data);
+
+            final CompletableFuture<RniResponse> future = this.pending.remove(id);
+            if(future != null) {
+                future.complete(new FramedResponse(status, headers, frame, offset, length));
+            }
+        }
+
+        @Override
+        public void close() {
+            this.close(new IOException("Connection closed"));
+        }
+
+        /**
+         * Close the connection, failing all calls in flight on it.
+         *
+         * @param cause why the connection is closed
+         */
+        private void close(IOException cause) {
+            if(this.failure == null) {
+                this.failure = cause;
+            }
+
+            try {
+                this.socket.close();
+            } catch(IOException e) {
+                LOGGER.debug("Unable to close connection", e);
+            }
+
+            for(Integer id : this.pending.keySet()) {
+                CompletableFuture<RniResponse> future = this.pending.remove(id);
+                if(future != null) {
+                    future.completeExceptionally(this.failure);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A response read from its frame.
+     *
+     */
+    private static class FramedResponse implements RniResponse {
+
+        private final int status;
+
+        private final String[] headers;
+
+        private final byte[] frame;
+
+        private final int offset;
+
+        private final int length;
+
+        FramedResponse(int status, String[] headers, byte[] frame, int offset, int length) {
+            this.status = status;
+            this.headers = headers;
+            this.frame = frame;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int getStatus() {
+            return this.status;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return FramedProtocol.getHeader(this.headers, this.headers.length, name);
+        }
+
+        @Override
+        public InputStream getBody() {
+            if(this.length == 0) {
+                return null;
+            }
+
+            return new ByteArrayInputStream(this.frame, this.offset, this.length);
+        }
+
+        @Override
+        public void close() {
+            // the body is in memory
+        }
+
+    }
+
+    private static class DefaultHolder {
+
+        static final FramedTransport INSTANCE = new FramedTransport();
+
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * Configuration for a {@link FramedTransport}. All setters return the same
+ * instance so that calls can be chained. Timeouts are in milliseconds, with
+ * zero meaning no timeout.
+ *
+ * @author sangupta
+ *
+ */
+public class FramedTransportConfig {
+
+    /**
+     * Number of connections kept open to each server, calls being spread
+     * over them
+     */
+    private int connectionsPerServer = 2;
+
+    /**
+     * Time to wait for a connection to be established
+     */
+    private int connectTimeoutMillis = 5000;
+
+    /**
+     * Time to wait for the response to a call
+     */
+    private int readTimeoutMillis = 0;
+
+    // Usual accessors follow
+
+    public int getConnectionsPerServer() {
+        return connectionsPerServer;
+    }
+
+    public FramedTransportConfig setConnectionsPerServer(int connectionsPerServer) {
+        if(connectionsPerServer <= 0) {
+            throw new IllegalArgumentException("Connections per server must be positive");
+        }
+
+        this.connectionsPerServer = connectionsPerServer;
+        return this;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public FramedTransportConfig setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = notNegative(connectTimeoutMillis, "Connect timeout");
+        return this;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public FramedTransportConfig setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = notNegative(readTimeoutMillis, "Read timeout");
+        return this;
+    }
+
+    private static int notNegative(int value, String name) {
+        if(value < 0) {
+            throw new IllegalArgumentException(name + " cannot be negative");
+        }
+
+        return value;
+    }
+
+}
@@ -0,0 +1,262 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * An {@link RniExchange} over an exchange of the HTTP server built into the
+ * JDK, as served by an {@link RniServer}. The status and headers are sent
+ * along with the first bytes of the body. Bodies that fit the buffer are
+ * sent with a <code>Content-Length</code>, larger ones are chunked once the
+ * buffer is full.
+ *
+ * @author sangupta
+ *
+ */
+class HttpServerExchange extends ServerExchange {
+
+    /**
+     * Size of the buffer for bodies of unknown length
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final HttpExchange exchange;
+
+    /**
+     * The context path the server is mounted at, removed from the request
+     * path
+     */
+    private final String contextPath;
+
+    private final ResponseStream body = new ResponseStream();
+
+    private long contentLength = -1;
+
+    private volatile boolean committed;
+
+    HttpServerExchange(HttpExchange exchange, String contextPath) {
+        this.exchange = exchange;
+        this.contextPath = contextPath;
+    }
+
+    @Override
+    public String getMethod() {
+        return this.exchange.getRequestMethod();
+    }
+
+    @Override
+    public String getRequestURI() {
+        String path = this.exchange.getRequestURI().getRawPath();
+        if(path.startsWith(this.contextPath)) {
+            path = path.substring(this.contextPath.length());
+        }
+
+        return path;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return this.exchange.getRequestHeaders().getFirst(name);
+    }
+
+    @Override
+    public String getContentType() {
+        return this.getHeader(RniUtils.HEADER_CONTENT_TYPE);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.exchange.getRequestBody();
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if(!this.committed) {
+            this.exchange.getResponseHeaders().set(name, value);
+        }
+    }
+
+    @Override
+    public void setContentType(String contentType) {
+        this.setHeader(RniUtils.HEADER_CONTENT_TYPE, contentType);
+    }
+
+    @Override
+    public void setContentLength(long length) {
+        this.contentLength = length;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.body;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return this.committed;
+    }
+
+    @Override
+    public void sendError(int status) throws IOException {
+        synchronized(this.body) {
+            if(!this.body.reset()) {
+                throw new IllegalStateException("Response already committed");
+            }
+
+            this.setStatus(status);
+            this.body.close();
+        }
+    }
+
+    @Override
+    protected void end() throws IOException {
+        try {
+            this.body.close();
+        } finally {
+            this.exchange.close();
+        }
+    }
+
+    @Override
+    protected boolean discard() {
+        return this.body.reset();
+    }
+
+    /**
+     * The response body, buffering until the length is known or the buffer
+     * is full. Writes after the exchange has been ended fail.
+     */
+    private class ResponseStream extends OutputStream {
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private int count;
+
+        private OutputStream out;
+
+        private boolean closed;
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            this.ensureOpen();
+            if(this.out == null && this.count < this.buffer.length) {
+                this.buffer[this.count++] = (byte) b;
+                return;
+            }
+
+            this.commit(0).write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+            this.ensureOpen();
+            if(this.out == null && this.count + length <= this.buffer.length) {
+                System.arraycopy(bytes, offset, this.buffer, this.count, length);
+                this.count += length;
+                return;
+            }
+
+            this.commit(0).write(bytes, offset, length);
+        }
+
+        /**
+         * Codecs flush once done writing, which leaves a body that fits the
+         * buffer to be sent with its length on close.
+         */
+        @Override
+        public synchronized void flush() throws IOException {
+            this.ensureOpen();
+            if(this.out != null) {
+                this.out.flush();
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if(this.closed) {
+                return;
+            }
+
+            this.closed = true;
+            this.commit(this.count == 0 ? -1 : this.count).close();
+        }
+
+        /**
+         * Send the status and headers if not sent yet, followed by whatever
+         * has been buffered.
+         *
+         * @param length the length of the body if known, zero to chunk it,
+         *            or <code>-1</code> if there is none
+         *
+         * @return the stream to write the rest of the body to
+         *
+         * @throws IOException if the response cannot be sent
+         */
+        private OutputStream commit(long length) throws IOException {
+            if(this.out != null) {
+                return this.out;
+            }
+
+            if(length == 0 && contentLength > 0) {
+                length = contentLength;
+            }
+
+            committed = true;
+            exchange.sendResponseHeaders(getStatus(), length);
+            this.out = exchange.getResponseBody();
+            if(this.count > 0) {
+                this.out.write(this.buffer, 0, this.count);
+                this.count = 0;
+            }
+
+            return this.out;
+        }
+
+        /**
+         * Discard whatever has been buffered, if the response has not been
+         * sent yet.
+         *
+         * @return <code>false</code> if the response has been sent already
+         */
+        synchronized boolean reset() {
+            if(this.out != null) {
+                return false;
+            }
+
+            this.count = 0;
+            return true;
+        }
+
+        private void ensureOpen() throws IOException {
+            if(this.closed) {
+                throw new IOException("Response already ended");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,318 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * The default {@link RniTransport}, built on Apache HttpClient. Connections
+ * are kept alive and pooled, with bounded total and per-server limits, and
+ * idle connections are evicted in the background. Blocking calls stream the
+ * request body; non-blocking calls use a separate pool that is created when
+ * the first such call is made.
+ *
+ * @author sangupta
+ *
+ */
+public class HttpTransport implements RniTransport {
+
+    private final HttpTransportConfig config;
+
+    private final RequestConfig defaultRequestConfig;
+
+    private final CloseableHttpClient client;
+
+    private final Object asyncLock = new Object();
+
+    private volatile CloseableHttpAsyncClient asyncClient;
+
+    private volatile boolean closed;
+
+    public HttpTransport() {
+        this(new HttpTransportConfig());
+    }
+
+    public HttpTransport(HttpTransportConfig config) {
+        if(config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
+        }
+
+        this.config = config;
+        this.defaultRequestConfig = RequestConfig.custom()
+                                                 .setConnectTimeout(config.getConnectTimeoutMillis())
+                                                 .setSocketTimeout(config.getReadTimeoutMillis())
+                                                 .setConnectionRequestTimeout(config.getPoolTimeoutMillis())
+                                                 .build();
+
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+        manager.setMaxTotal(config.getMaxConnections());
+        manager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        manager.setValidateAfterInactivity(config.getValidateAfterInactivityMillis());
+        for(Entry<String, Integer> entry : config.getRouteLimits().entrySet()) {
+            manager.setMaxPerRoute(new HttpRoute(HttpHost.create(entry.getKey())), entry.getValue());
+        }
+
+        // compression is negotiated by the clients themselves, see RniClientConfig
+        this.client = HttpClients.custom()
+                                 .setConnectionManager(manager)
+                                 .setDefaultRequestConfig(this.defaultRequestConfig)
+                                 .evictExpiredConnections()
+                                 .evictIdleConnections(config.getIdleTimeoutMillis(), TimeUnit.MILLISECONDS)
+                                 .disableContentCompression()
+                                 .build();
+    }
+
+    /**
+     * Get the transport shared by all clients that do not configure their own.
+     *
+     * @return the shared transport
+     */
+    public static HttpTransport getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    @Override
+    public RniResponse execute(RniRequest request) throws IOException {
+        HttpRequestBase httpRequest = this.newHttpRequest(request);
+        if(request.getBody() != null) {
+            ((HttpPost) httpRequest).setEntity(new BodyEntity(request.getBody()));
+        }
+
+        return new HttpRniResponse(this.client.execute(httpRequest));
+    }
+
+    @Override
+    public CompletableFuture<RniResponse> executeAsync(RniRequest request) {
+        final CompletableFuture<RniResponse> future = new CompletableFuture<>();
+
+        HttpRequestBase httpRequest = this.newHttpRequest(request);
+        try {
+            RniRequest.Body body = request.getBody();
+            if(body != null) {
+                // encoding cannot block the I/O reactor, so do it upfront
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                body.writeTo(out);
+                NByteArrayEntity entity = new NByteArrayEntity(out.toByteArray(), ContentType.parse(body.getContentType()));
+                entity.setContentEncoding(body.getContentEncoding());
+                ((HttpPost) httpRequest).setEntity(entity);
+            }
+
+            this.getAsyncClient().execute(httpRequest, new FutureCallback<HttpResponse>() {
+
+                @Override
+                public void completed(HttpResponse response) {
+                    future.complete(new HttpRniResponse(response));
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    future.completeExceptionally(e);
+                }
+
+                @Override
+                public void cancelled() {
+                    future.cancel(false);
+                }
+
+            });
+        } catch(IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.asyncLock) {
+            this.closed = true;
+            if(this.asyncClient != null) {
+                this.asyncClient.close();
+            }
+        }
+
+        this.client.close();
+    }
+
+    private HttpRequestBase newHttpRequest(RniRequest request) {
+        HttpRequestBase httpRequest;
+        if(request.getBody() == null) {
+            httpRequest = new HttpGet(request.getUri());
+        } else {
+            httpRequest = new HttpPost(request.getUri());
+        }
+
+        final int headers = request.getHeaderCount();
+        for(int index = 0; index < headers; index++) {
+            httpRequest.addHeader(request.getHeaderName(index), request.getHeaderValue(index));
+        }
+
+        if(request.getTimeoutMillis() > 0) {
+            httpRequest.setConfig(RequestConfig.copy(this.defaultRequestConfig).setSocketTimeout(request.getTimeoutMillis()).build());
+        }
+
+        return httpRequest;
+    }
+
+    private CloseableHttpAsyncClient getAsyncClient() {
+        CloseableHttpAsyncClient local = this.asyncClient;
+        if(local != null) {
+            return local;
+        }
+
+        synchronized (this.asyncLock) {
+            if(this.closed) {
+                throw new IllegalStateException("Transport has been closed");
+            }
+
+            if(this.asyncClient == null) {
+                this.asyncClient = this.createAsyncClient();
+            }
+
+            return this.asyncClient;
+        }
+    }
+
+    private CloseableHttpAsyncClient createAsyncClient() {
+        PoolingNHttpClientConnectionManager manager;
+        try {
+            IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                                                           .setConnectTimeout(this.config.getConnectTimeoutMillis())
+                                                           .setSoKeepAlive(true)
+                                                           .build();
+            manager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+        } catch(IOReactorException e) {
+            throw new IllegalStateException("Unable to create I/O reactor", e);
+        }
+
+        manager.setMaxTotal(this.config.getMaxConnections());
+        manager.setDefaultMaxPerRoute(this.config.getMaxConnectionsPerRoute());
+        for(Entry<String, Integer> entry : this.config.getRouteLimits().entrySet()) {
+            manager.setMaxPerRoute(new HttpRoute(HttpHost.create(entry.getKey())), entry.getValue());
+        }
+
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                                                          .setConnectionManager(manager)
+                                                          .setDefaultRequestConfig(this.defaultRequestConfig)
+                                                          .build();
+        client.start();
+        return client;
+    }
+
+    /**
+     * Adapts an HTTP response to an {@link RniResponse}.
+     *
+     */
+    private static class HttpRniResponse implements RniResponse {
+
+        private final HttpResponse response;
+
+        HttpRniResponse(HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public int getStatus() {
+            return this.response.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            Header header = this.response.getFirstHeader(name);
+            if(header == null) {
+                return null;
+            }
+
+            return header.getValue();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            HttpEntity entity = this.response.getEntity();
+            if(entity == null) {
+                return null;
+            }
+
+            return entity.getContent();
+        }
+
+        @Override
+        public void abort() throws IOException {
+            // closing without consuming the entity shuts the connection down
+            if(this.response instanceof CloseableHttpResponse) {
+                ((CloseableHttpResponse) this.response).close();
+                return;
+            }
+
+            this.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // consuming the entity returns the connection to the pool
+            try {
+                EntityUtils.consume(this.response.getEntity());
+            } finally {
+                if(this.response instanceof CloseableHttpResponse) {
+                    ((CloseableHttpResponse) this.response).close();
+                }
+            }
+        }
+
+    }
+
+    private static class DefaultHolder {
+
+        static final HttpTransport INSTANCE = new HttpTransport();
+
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configuration for an {@link HttpTransport}. All setters return the same
+ * instance so that calls can be chained. Timeouts are in milliseconds, with
+ * zero meaning no timeout.
+ *
+ * @author sangupta
+ *
+ */
+public class HttpTransportConfig {
+
+    /**
+     * Maximum number of pooled connections across all servers
+     */
+    private int maxConnections = 200;
+
+    /**
+     * Maximum number of pooled connections to a single server
+     */
+    private int maxConnectionsPerRoute = 50;
+
+    /**
+     * Overrides for the maximum connections to specific servers, keyed by
+     * <code>host:port</code>
+     */
+    private final Map<String, Integer> routeLimits = new HashMap<>();
+
+    /**
+     * Time to wait for a connection to be established
+     */
+    private int connectTimeoutMillis = 5000;
+
+    /**
+     * Time to wait for data on an established connection
+     */
+    private int readTimeoutMillis = 0;
+
+    /**
+     * Time to wait for a connection to become free in the pool
+     */
+    private int poolTimeoutMillis = 30000;
+
+    /**
+     * Idle connections are closed after this time
+     */
+    private int idleTimeoutMillis = 30000;
+
+    /**
+     * Connections idle for longer than this are checked before being reused
+     */
+    private int validateAfterInactivityMillis = 2000;
+
+    // Usual accessors follow
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public HttpTransportConfig setMaxConnections(int maxConnections) {
+        this.maxConnections = positive(maxConnections, "Max connections");
+        return this;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public HttpTransportConfig setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = positive(maxConnectionsPerRoute, "Max connections per route");
+        return this;
+    }
+
+    public Map<String, Integer> getRouteLimits() {
+        return routeLimits;
+    }
+
+    /**
+     * Set the maximum number of pooled connections to a specific server.
+     *
+     * @param host the server host
+     *
+     * @param port the server port
+     *
+     * @param maxConnections the maximum number of connections
+     *
+     * @return this instance
+     */
+    public HttpTransportConfig setMaxConnectionsForRoute(String host, int port, int maxConnections) {
+        this.routeLimits.put(host + ":" + port, positive(maxConnections, "Max connections"));
+        return this;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public HttpTransportConfig setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = notNegative(connectTimeoutMillis, "Connect timeout");
+        return this;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public HttpTransportConfig setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = notNegative(readTimeoutMillis, "Read timeout");
+        return this;
+    }
+
+    public int getPoolTimeoutMillis() {
+        return poolTimeoutMillis;
+    }
+
+    public HttpTransportConfig setPoolTimeoutMillis(int poolTimeoutMillis) {
+        this.poolTimeoutMillis = notNegative(poolTimeoutMillis, "Pool timeout");
+        return this;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public HttpTransportConfig setIdleTimeoutMillis(int idleTimeoutMillis) {
+        this.idleTimeoutMillis = notNegative(idleTimeoutMillis, "Idle timeout");
+        return this;
+    }
+
+    public int getValidateAfterInactivityMillis() {
+        return validateAfterInactivityMillis;
+    }
+
+    public HttpTransportConfig setValidateAfterInactivityMillis(int validateAfterInactivityMillis) {
+        this.validateAfterInactivityMillis = notNegative(validateAfterInactivityMillis, "Validate after inactivity");
+        return this;
+    }
+
+    private static int positive(int value, String name) {
+        if(value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+
+        return value;
+    }
+
+    private static int notNegative(int value, String name) {
+        if(value < 0) {
+            throw new IllegalArgumentException(name + " cannot be negative");
+        }
+
+        return value;
+    }
+
+}
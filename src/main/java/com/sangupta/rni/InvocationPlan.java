@@ -0,0 +1,748 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.sangupta.jerry.constants.HttpStatusCode;
+import com.sangupta.jerry.util.UriUtils;
+import com.sangupta.jerry.util.UrlManipulator;
+
+/**
+ * Immutable, precomputed plan for calling one interface method from a client
+ * proxy. Everything that does not depend on the call arguments, such as the
+ * final URL, the request headers, the timeout and the codecs, is resolved
+ * once when the client is created. Making a call then only needs the
+ * arguments to be encoded and the request to be sent.
+ *
+ * @author sangupta
+ *
+ */
+class InvocationPlan {
+
+    final RniMethod rniMethod;
+
+    /**
+     * The codec to encode arguments with, and the fallback for results
+     */
+    final RniCodec codec;
+
+    /**
+     * The final URL to call
+     */
+    final URI uri;
+
+    /**
+     * Headers sent with every call, as name and value pairs
+     */
+    private final String[] headers;
+
+    /**
+     * Time to wait for the response, zero for the transport default
+     */
+    private final int timeoutMillis;
+
+    /**
+     * Cache for the results of the method, <code>null</code> unless the method
+     * is annotated with {@link RniCacheable}
+     */
+    final ResultCache cache;
+
+    /**
+     * Last results kept for revalidation, <code>null</code> unless the method
+     * is read-only
+     */
+    private final RevalidationCache validators;
+
+    /**
+     * Calls currently in flight by key, <code>null</code> unless calls to the
+     * method are coalesced
+     */
+    final ConcurrentMap<CallKey, CompletableFuture<Object>> inFlight;
+
+    /**
+     * The encoding to compress arguments with, <code>null</code> when
+     * compression is off
+     */
+    private final ContentEncoding requestEncoding;
+
+    private final int compressionThreshold;
+
+    /**
+     * Client-side metrics for the method
+     */
+    final RniEndpointMetrics metrics;
+
+    /**
+     * Percentile of latency after which calls are hedged, zero unless the
+     * method is idempotent and hedging is on
+     */
+    private final double hedgePercentile;
+
+    private final long hedgeMinDelayNanos;
+
+    /**
+     * Calls seen before the latency of the method is trusted for hedging
+     */
+    private static final int MIN_HEDGE_SAMPLES = 100;
+
+    /**
+     * Share of calls that may be hedged
+     */
+    private static final double MAX_HEDGE_RATIO = 0.1;
+
+    InvocationPlan(RniMethod rniMethod, RniClientConfig config, String host, int port, String context) {
+        this.rniMethod = rniMethod;
+        this.codec = config.getCodec();
+        this.codec.prepare(rniMethod);
+        this.metrics = RniMetrics.client().forMethod(rniMethod);
+
+        String url = new UrlManipulator(host, port, context).constructURL();
+        url = UriUtils.addWebPaths(url, rniMethod.getServiceName(), rniMethod.getMethod().getName());
+        this.uri = URI.create(url);
+
+        if(config.isCompression()) {
+            this.requestEncoding = ContentEncoding.forName(config.getCompressionEncoding());
+            this.compressionThreshold = config.getCompressionThreshold();
+            this.headers = new String[] {
+                RniUtils.REQUEST_HEADER_FOR_METHOD_ID, rniMethod.getIdHeader(),
+                RniUtils.HEADER_ACCEPT, this.codec.getContentType(),
+                RniUtils.HEADER_ACCEPT_ENCODING, ContentEncoding.ACCEPT_HEADER
+            };
+        } else {
+            this.requestEncoding = null;
+            this.compressionThreshold = -1;
+            this.headers = new String[] {
+                RniUtils.REQUEST_HEADER_FOR_METHOD_ID, rniMethod.getIdHeader(),
+                RniUtils.HEADER_ACCEPT, this.codec.getContentType()
+            };
+        }
+
+        RniTimeout timeout = rniMethod.getMethod().getAnnotation(RniTimeout.class);
+        this.timeoutMillis = timeout != null ? timeout.value() : config.getTimeoutMillis();
+
+        RniCacheable cacheable = rniMethod.getMethod().getAnnotation(RniCacheable.class);
+        this.cache = cacheable != null && rniMethod.isReadOnly() ? new ResultCache(rniMethod, cacheable) : null;
+
+        if(rniMethod.isReadOnly()) {
+            RniReadOnly readOnly = rniMethod.getMethod().getAnnotation(RniReadOnly.class);
+            int maxEntries = readOnly != null ? readOnly.maxEntries() : cacheable.maxEntries();
+            this.validators = new RevalidationCache(rniMethod, maxEntries);
+        } else {
+            this.validators = null;
+        }
+
+        this.inFlight = config.isCoalescing() && rniMethod.isReadOnly() ? new ConcurrentHashMap<CallKey, CompletableFuture<Object>>() : null;
+
+        if(config.isHedging() && rniMethod.isIdempotent() && !config.isBatching()) {
+            this.hedgePercentile = config.getHedgePercentile();
+            this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getHedgeMinDelayMillis());
+        } else {
+            this.hedgePercentile = 0;
+            this.hedgeMinDelayNanos = 0;
+        }
+    }
+
+    /**
+     * Check if calls need a key built from their arguments, for caching,
+     * revalidation or coalescing.
+     *
+     * @return <code>true</code> if calls are keyed
+     */
+    boolean isKeyed() {
+        return this.cache != null || this.validators != null || this.inFlight != null;
+    }
+
+    /**
+     * Build the key for a call.
+     *
+     * @param args the call arguments
+     *
+     * @return the key, or <code>null</code> if calls are not keyed or the
+     *         arguments cannot be encoded
+     */
+    CallKey keyFor(Object[] args) {
+        if(!this.isKeyed()) {
+            return null;
+        }
+
+        return CallKey.of(this.rniMethod, this.codec, args);
+    }
+
+    /**
+     * Create the request for a call. Arguments are encoded only when the
+     * transport sends the request, unless they may need to be compressed.
+     *
+     * @param args the call arguments
+     *
+     * @return the request to send
+     *
+     * @throws IOException if the arguments cannot be encoded
+     */
+    RniRequest newRequest(Object[] args) throws IOException {
+        return this.newRequest(args, null);
+    }
+
+    /**
+     * Create the request for a call, asking the server to revalidate the last
+     * result kept for the key, if any.
+     *
+     * @param args the call arguments
+     *
+     * @param key the key for the call, may be <code>null</code>
+     *
+     * @return the request to send
+     *
+     * @throws IOException if the arguments cannot be encoded
+     */
+    RniRequest newRequest(Object[] args, CallKey key) throws IOException {
+        return this.newRequest(args, key, this.deadline());
+    }
+
+    /**
+     * Create the request for a call that has to complete by the given
+     * deadline.
+     *
+     * @param args the call arguments
+     *
+     * @param key the key for the call, may be <code>null</code>
+     *
+     * @param deadline the deadline of the call, as returned by
+     *            {@link #deadline()}
+     *
+     * @return the request to send
+     *
+     * @throws IOException if the deadline has passed or the arguments cannot
+     *             be encoded
+     */
+    RniRequest newRequest(Object[] args, CallKey key, long deadline) throws IOException {
+        int timeout = this.timeoutMillis;
+        if(deadline > 0) {
+            final long remaining = RniDeadline.remainingMillis(deadline);
+            if(remaining <= 0) {
+                this.metrics.recordExpired();
+                throw new IOException("Deadline passed before calling method: " + this.rniMethod);
+            }
+
+            timeout = (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+
+        RniRequest.Body body = null;
+        if(this.rniMethod.getParameterCount() > 0) {
+            if(this.rniMethod.hasBinaryParams()) {
+                // binary arguments are sent as they are, and never compressed
+                body = new PartsBody(this.codec, this.rniMethod, args, this.metrics);
+            } else if(this.requestEncoding != null) {
+                body = EncodedParamsBody.encode(this.codec, this.rniMethod, args, this.requestEncoding, this.compressionThreshold, this.metrics);
+            } else {
+                body = new ParamsBody(this.codec, this.rniMethod, args, this.metrics);
+            }
+        }
+
+        RniRequest request = new RniRequest(this.rniMethod, this.uri, this.headers, body, timeout);
+        if(deadline > 0) {
+            request.addHeader(RniUtils.REQUEST_HEADER_FOR_TIMEOUT, RniDeadline.format(deadline));
+        }
+
+        if(key != null && this.validators != null) {
+            RevalidationCache.Entry entry = this.validators.get(key);
+            if(entry != null) {
+                request.revalidate(entry.etag, entry.value);
+            }
+        }
+
+        return request;
+    }
+
+    /**
+     * Work out the deadline of a call made now from the current thread: the
+     * timeout of the method from now, or the deadline the thread runs under
+     * if that is earlier.
+     *
+     * @return the deadline, as returned by {@link RniDeadline#after(long)}, or
+     *         zero if there is none
+     */
+    long deadline() {
+        final long inherited = RniDeadline.current();
+        if(this.timeoutMillis <= 0) {
+            return inherited;
+        }
+
+        return RniDeadline.earliest(inherited, RniDeadline.after(this.timeoutMillis));
+    }
+
+    /**
+     * @return <code>true</code> if calls to the method may be hedged
+     */
+    boolean isHedged() {
+        return this.hedgePercentile > 0;
+    }
+
+    /**
+     * Work out how long to wait for a call before hedging it: the configured
+     * percentile of the latency of the method, but no less than the minimum
+     * delay.
+     *
+     * @return the delay in nanoseconds
+     */
+    long hedgeDelayNanos() {
+        final LatencyHistogram total = this.metrics.getTotal();
+        if(total.getCount() < MIN_HEDGE_SAMPLES) {
+            return this.hedgeMinDelayNanos;
+        }
+
+        return Math.max(this.hedgeMinDelayNanos, total.getPercentileNanos(this.hedgePercentile));
+    }
+
+    /**
+     * Take a hedge out of the budget, if any is left.
+     *
+     * @return <code>true</code> if the call may be hedged
+     */
+    boolean tryHedge() {
+        if(this.metrics.getHedged() >= this.metrics.getCalls() * MAX_HEDGE_RATIO + 1) {
+            return false;
+        }
+
+        this.metrics.recordHedged();
+        return true;
+    }
+
+    /**
+     * Decode the result from the response, using the codec matching the
+     * response content type.
+     *
+     * @param response the response received
+     *
+     * @return the decoded result, or <code>null</code> if the call did not
+     *         succeed or returned nothing
+     *
+     * @throws IOException if the response cannot be read
+     */
+    Object decode(RniResponse response) throws IOException {
+        final InputStream body = response.getBody();
+        if(body == null) {
+            return this.decode(response.getStatus(), response.getHeader(RniUtils.HEADER_CONTENT_TYPE), null);
+        }
+
+        final String contentEncoding = response.getHeader(RniUtils.HEADER_CONTENT_ENCODING);
+        final CountingInputStream counting = new CountingInputStream(body);
+        try {
+            InputStream stream = ContentEncoding.decompress(counting, contentEncoding);
+            long length = -1;
+            if(this.rniMethod.isBinaryResult() && contentEncoding == null) {
+                length = contentLength(response);
+            }
+
+            return this.decode(response.getStatus(), response.getHeader(RniUtils.HEADER_CONTENT_TYPE), stream, length);
+        } finally {
+            this.metrics.recordBytesIn(counting.getCount());
+        }
+    }
+
+    /**
+     * Decode the result from the response, or return the result kept with
+     * the request if the server answered that it has not been modified. The
+     * result is kept with the request rather than looked up again, as it may
+     * have been evicted in the meantime.
+     *
+     * @param request the request sent
+     *
+     * @param response the response received
+     *
+     * @param key the key for the call, may be <code>null</code>
+     *
+     * @return the result, or <code>null</code> if the call did not succeed or
+     *         returned nothing
+     *
+     * @throws IOException if the response cannot be read
+     */
+    Object decode(RniRequest request, RniResponse response, CallKey key) throws IOException {
+        if(key == null || this.validators == null) {
+            return this.decode(response);
+        }
+
+        if(response.getStatus() == HttpStatusCode.NOT_MODIFIED) {
+            return request.getRevalidated();
+        }
+
+        final String etag = response.getHeader(RniUtils.HEADER_ETAG);
+        final Object value = this.decode(response);
+        if(etag != null) {
+            this.validators.put(key, etag, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Decode the result of a call, using the codec matching the given content
+     * type. The stream is closed once read.
+     *
+     * @param status the HTTP status of the call
+     *
+     * @param contentType the content type of the result, may be
+     *            <code>null</code>
+     *
+     * @param stream the encoded result, may be <code>null</code>
+     *
+     * @return the decoded result, or <code>null</code> if the call did not
+     *         succeed or returned nothing
+     *
+     * @throws IOException if the result cannot be read
+     */
+    Object decode(int status, String contentType, InputStream stream) throws IOException {
+        return this.decode(status, contentType, stream, -1);
+    }
+
+    /**
+     * Decode the result of a call. Binary results are read as they are,
+     * straight into an array of the given length if known.
+     *
+     * @param status the HTTP status of the call
+     *
+     * @param contentType the content type of the result, may be
+     *            <code>null</code>
+     *
+     * @param stream the encoded result, may be <code>null</code>
+     *
+     * @param length the length of the result, or <code>-1</code> if not
+     *            known
+     *
+     * @return the decoded result, or <code>null</code> if the call did not
+     *         succeed or returned nothing
+     *
+     * @throws IOException if the result cannot be read
+     */
+    private Object decode(int status, String contentType, InputStream stream, long length) throws IOException {
+        if(status < 200 || status >= 300) {
+            if(status >= 400) {
+                this.metrics.recordError();
+            }
+
+            return null;
+        }
+
+        if(stream == null) {
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            if(this.rniMethod.isBinaryResult()) {
+                return BinaryParts.readResult(this.rniMethod, stream, length);
+            }
+
+            return this.codecFor(contentType).readResult(this.rniMethod, stream);
+        } finally {
+            stream.close();
+            this.metrics.recordDecode(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Check if the result of a call is read as the caller asks for it, rather
+     * than before the call returns: for streaming methods, and for
+     * methods that return an {@link InputStream}.
+     *
+     * @return <code>true</code> if results are streamed
+     */
+    boolean isStreamed() {
+        return this.rniMethod.isStreaming() || (!this.rniMethod.isAsync() && this.rniMethod.getResultType() == InputStream.class);
+    }
+
+    /**
+     * Open the result of a call whose result is streamed, which is then read
+     * as the caller asks for it. The result owns the response from then on.
+     *
+     * @param response the response received
+     *
+     * @return the result as declared by the method, or <code>null</code> if
+     *         the call did not succeed or returned nothing, in which case the
+     *         response has been closed
+     *
+     * @throws IOException if the response cannot be read
+     */
+    Object openStream(RniResponse response) throws IOException {
+        final int status = response.getStatus();
+        final InputStream body = status == HttpStatusCode.NO_CONTENT ? null : response.getBody();
+        if(status < 200 || status >= 300 || body == null) {
+            if(status >= 400) {
+                this.metrics.recordError();
+            }
+
+            response.close();
+            return null;
+        }
+
+        if(this.rniMethod.isBinaryResult()) {
+            return BinaryParts.openResult(this.rniMethod, response, body, this.metrics);
+        }
+
+        final RniCodec responseCodec = this.codecFor(response.getHeader(RniUtils.HEADER_CONTENT_TYPE));
+        return StreamedResult.open(this.rniMethod, responseCodec, response, body, this.metrics);
+    }
+
+    /**
+     * Get the length of the response body, if the server sent it.
+     *
+     * @param response the response received
+     *
+     * @return the length, or <code>-1</code> if not known
+     */
+    private static long contentLength(RniResponse response) {
+        final String value = response.getHeader(RniUtils.HEADER_CONTENT_LENGTH);
+        if(value == null) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Find the codec a result is encoded with.
+     *
+     * @param contentType the content type of the result, may be
+     *            <code>null</code>
+     *
+     * @return the matching codec, or the codec of the plan if none matches
+     */
+    private RniCodec codecFor(String contentType) {
+        if(contentType != null) {
+            RniCodec negotiated = RniCodecs.forContentType(contentType);
+            if(negotiated != null) {
+                return negotiated;
+            }
+        }
+
+        return this.codec;
+    }
+
+    /**
+     * Record the time spent waiting for the server, once the response to the
+     * request has been received: the time since the call started, less the
+     * time spent encoding the arguments.
+     *
+     * @param request the request sent
+     *
+     * @param start when the call started, in nanoseconds
+     */
+    void recordInvoke(RniRequest request, long start) {
+        long elapsed = System.nanoTime() - start;
+        if(request.getBody() instanceof TimedBody) {
+            elapsed -= ((TimedBody) request.getBody()).encodeNanos;
+        }
+
+        this.metrics.recordInvoke(elapsed);
+    }
+
+    /**
+     * Record the call once the given future completes.
+     *
+     * @param future the future for the call result
+     *
+     * @param start when the call started, in nanoseconds
+     *
+     * @return a future completing the same as the given one, once the call is
+     *         recorded
+     */
+    CompletableFuture<Object> track(CompletableFuture<Object> future, final long start) {
+        return future.whenComplete((value, error) -> {
+            if(error != null) {
+                this.metrics.recordError();
+            }
+
+            this.metrics.recordCall(System.nanoTime() - start);
+        });
+    }
+
+    int getTimeoutMillis() {
+        return this.timeoutMillis;
+    }
+
+    /**
+     * Request body that remembers how long encoding the arguments took.
+     *
+     */
+    private abstract static class TimedBody implements RniRequest.Body {
+
+        volatile long encodeNanos;
+
+    }
+
+    /**
+     * Request body that encodes the call arguments when written.
+     *
+     */
+    private static class ParamsBody extends TimedBody {
+
+        private final RniCodec codec;
+
+        private final RniMethod method;
+
+        private final Object[] args;
+
+        private final RniEndpointMetrics metrics;
+
+        ParamsBody(RniCodec codec, RniMethod method, Object[] args, RniEndpointMetrics metrics) {
+            this.codec = codec;
+            this.method = method;
+            this.args = args;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public String getContentType() {
+            return this.codec.getContentType();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final long start = System.nanoTime();
+            final CountingOutputStream counting = new CountingOutputStream(out);
+            this.codec.writeParams(this.method, this.args, counting);
+
+            this.encodeNanos = System.nanoTime() - start;
+            this.metrics.recordEncode(this.encodeNanos);
+            this.metrics.recordBytesOut(counting.getCount());
+        }
+
+    }
+
+    /**
+     * Request body for calls with binary arguments, which are written as they
+     * are after the other arguments.
+     *
+     */
+    private static class PartsBody extends TimedBody {
+
+        private final RniCodec codec;
+
+        private final RniMethod method;
+
+        private final Object[] args;
+
+        private final RniEndpointMetrics metrics;
+
+        PartsBody(RniCodec codec, RniMethod method, Object[] args, RniEndpointMetrics metrics) {
+            this.codec = codec;
+            this.method = method;
+            this.args = args;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public String getContentType() {
+            return RniUtils.PARTS_CONTENT_TYPE + "; " + RniUtils.BATCH_CODEC_PARAM + "=" + this.codec.getContentType();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            for(Object arg : this.args) {
+                if(arg instanceof InputStream) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final long start = System.nanoTime();
+            final CountingOutputStream counting = new CountingOutputStream(out);
+            BinaryParts.writeParams(this.codec, this.method, this.args, counting);
+
+            this.encodeNanos = System.nanoTime() - start;
+            this.metrics.recordEncode(this.encodeNanos);
+            this.metrics.recordBytesOut(counting.getCount());
+        }
+
+    }
+
+    /**
+     * Request body holding the arguments already encoded, and compressed if
+     * they reached the threshold. The compression decision has to be made
+     * before the request headers are sent.
+     *
+     */
+    private static class EncodedParamsBody extends TimedBody {
+
+        private final String contentType;
+
+        private final String contentEncoding;
+
+        private final ByteArrayOutputStream bytes;
+
+        private final RniEndpointMetrics metrics;
+
+        private EncodedParamsBody(String contentType, String contentEncoding, ByteArrayOutputStream bytes, RniEndpointMetrics metrics) {
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.bytes = bytes;
+            this.metrics = metrics;
+        }
+
+        static EncodedParamsBody encode(RniCodec codec, RniMethod method, Object[] args, ContentEncoding encoding, int threshold, RniEndpointMetrics metrics) throws IOException {
+            final long start = System.nanoTime();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CompressingOutputStream out = new CompressingOutputStream(bytes, encoding, threshold, null);
+            codec.writeParams(method, args, out);
+            out.finish();
+
+            EncodedParamsBody body = new EncodedParamsBody(codec.getContentType(), out.isCompressed() ? encoding.getName() : null, bytes, metrics);
+            body.encodeNanos = System.nanoTime() - start;
+            metrics.recordEncode(body.encodeNanos);
+            return body;
+        }
+
+        @Override
+        public String getContentType() {
+            return this.contentType;
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return this.contentEncoding;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            this.bytes.writeTo(out);
+            this.metrics.recordBytesOut(this.bytes.size());
+        }
+
+    }
+
+}
@@ -0,0 +1,359 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.sangupta.jerry.constants.HttpMimeType;
+import com.sangupta.jerry.util.GsonUtils;
+
+/**
+ * Streaming JSON encoding of method parameters and results. Values are read
+ * from and written to the underlying streams directly, without first copying
+ * the body into a <code>byte[]</code>, a <code>String</code> or a JSON tree.
+ *
+ * Parameters are sent as a JSON object with one <code>param-N</code> property
+ * per non-null argument. Results are sent as the plain JSON value, and
+ * streamed results as a JSON array written and read one element at a time.
+ *
+ * @author sangupta
+ *
+ */
+public class JsonCodec implements RniCodec {
+
+    static final String PARAM_PREFIX = "param-";
+
+    /**
+     * Precomputed parameter names for the common parameter counts
+     */
+    private static final String[] PARAM_NAMES = new String[16];
+
+    static {
+        for(int index = 0; index < PARAM_NAMES.length; index++) {
+            PARAM_NAMES[index] = PARAM_PREFIX + index;
+        }
+    }
+
+    private final Gson gson;
+
+    public JsonCodec() {
+        this(GsonUtils.getGson());
+    }
+
+    public JsonCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public String getContentType() {
+        return HttpMimeType.JSON;
+    }
+
+    @Override
+    public void prepare(RniMethod method) {
+        method.getAdapters(this.gson);
+    }
+
+    /**
+     * Write the arguments for the given method to the stream. The stream is
+     * flushed but not closed.
+     *
+     * @param method the method being called
+     *
+     * @param args the arguments to the call, may be <code>null</code> for
+     *            methods without parameters
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void writeParams(RniMethod method, Object[] args, OutputStream out) throws IOException {
+        final MethodAdapters adapters = method.getAdapters(this.gson);
+
+        JsonWriter writer = this.newWriter(out);
+        writer.beginObject();
+
+        if(args != null) {
+            for(int index = 0; index < args.length; index++) {
+                Object arg = args[index];
+                if(arg == null) {
+                    continue;
+                }
+
+                writer.name(paramName(index));
+                adapters.paramWriter(index, arg).write(writer, arg);
+            }
+        }
+
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Read the arguments for the given method from the stream. Missing
+     * arguments, or an empty stream, result in <code>null</code> values.
+     *
+     * @param method the method being called
+     *
+     * @param in the stream to read from
+     *
+     * @return the arguments, one per method parameter
+     *
+     * @throws IOException if reading fails
+     *
+     * @throws JsonParseException if the body is not valid for the method
+     */
+    @Override
+    public Object[] readParams(RniMethod method, InputStream in) throws IOException {
+        final MethodAdapters adapters = method.getAdapters(this.gson);
+        final Object[] args = new Object[adapters.getParameterCount()];
+
+        JsonReader reader = this.newReader(in);
+        try {
+            if(reader.peek() == JsonToken.END_DOCUMENT) {
+                return args;
+            }
+        } catch(EOFException e) {
+            // empty body
+            return args;
+        }
+
+        reader.beginObject();
+        while(reader.hasNext()) {
+            int index = paramIndex(reader.nextName());
+            if(index < 0 || index >= args.length) {
+                reader.skipValue();
+                continue;
+            }
+
+            args[index] = adapters.paramReader(index).read(reader);
+        }
+        reader.endObject();
+
+        return args;
+    }
+
+    /**
+     * Write the result of a method call to the stream. The stream is flushed
+     * but not closed.
+     *
+     * @param method the method that was called
+     *
+     * @param result the non-<code>null</code> result
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void writeResult(RniMethod method, Object result, OutputStream out) throws IOException {
+        JsonWriter writer = this.newWriter(out);
+        method.getAdapters(this.gson).resultWriter(result).write(writer, result);
+        writer.flush();
+    }
+
+    /**
+     * Read the result of a method call from the stream.
+     *
+     * @param method the method that was called
+     *
+     * @param in the stream to read from
+     *
+     * @return the result
+     *
+     * @throws IOException if reading fails
+     *
+     * @throws JsonParseException if the body is not valid for the method
+     */
+    @Override
+    public Object readResult(RniMethod method, InputStream in) throws IOException {
+        final TypeAdapter<Object> adapter = method.getAdapters(this.gson).resultReader();
+        if(adapter == null) {
+            return null;
+        }
+
+        JsonReader reader = this.newReader(in);
+        try {
+            if(reader.peek() == JsonToken.END_DOCUMENT) {
+                return null;
+            }
+        } catch(EOFException e) {
+            // empty body
+            return null;
+        }
+
+        return adapter.read(reader);
+    }
+
+    /**
+     * Write the elements of a streamed result as a JSON array. The array is
+     * only closed once all elements have been written, so that a stream cut
+     * short cannot be read as a complete result.
+     *
+     * @param method the method that was called
+     *
+     * @param elements the elements to write
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void writeElements(RniMethod method, Iterator<?> elements, OutputStream out) throws IOException {
+        final MethodAdapters adapters = method.getAdapters(this.gson);
+
+        JsonWriter writer = this.newWriter(out);
+        writer.beginArray();
+        while(elements.hasNext()) {
+            Object element = elements.next();
+            if(element == null) {
+                writer.nullValue();
+                continue;
+            }
+
+            adapters.resultWriter(element).write(writer, element);
+        }
+
+        writer.endArray();
+        writer.flush();
+    }
+
+    /**
+     * Start reading the elements of a streamed result, as written by
+     * {@link #writeElements(RniMethod, Iterator, OutputStream)}.
+     *
+     * @param method the method that was called
+     *
+     * @param in the stream to read from
+     *
+     * @return the reader for the elements
+     *
+     * @throws IOException if reading fails
+     */
+    @Override
+    public ElementReader readElements(RniMethod method, InputStream in) throws IOException {
+        final TypeAdapter<Object> adapter = method.getAdapters(this.gson).resultReader();
+        final JsonReader reader = this.newReader(in);
+        reader.beginArray();
+
+        return new ElementReader() {
+
+            @Override
+            public boolean hasNext() throws IOException {
+                if(reader.hasNext()) {
+                    return true;
+                }
+
+                reader.endArray();
+                return false;
+            }
+
+            @Override
+            public Object next() throws IOException {
+                if(reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    return null;
+                }
+
+                return adapter.read(reader);
+            }
+
+        };
+    }
+
+    /**
+     * Create a writer configured the way {@link Gson} configures the writers
+     * it creates, as adapters are used directly.
+     *
+     * @param out the stream to write to
+     *
+     * @return the writer
+     */
+    private JsonWriter newWriter(OutputStream out) {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.setLenient(true);
+        writer.setHtmlSafe(this.gson.htmlSafe());
+        writer.setSerializeNulls(this.gson.serializeNulls());
+        return writer;
+    }
+
+    private JsonReader newReader(InputStream in) {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * Get the property name for the parameter at the given index.
+     *
+     * @param index the parameter index
+     *
+     * @return the property name
+     */
+    static String paramName(int index) {
+        if(index < PARAM_NAMES.length) {
+            return PARAM_NAMES[index];
+        }
+
+        return PARAM_PREFIX + index;
+    }
+
+    /**
+     * Parse the index out of a <code>param-N</code> name without allocating.
+     *
+     * @param name the property name
+     *
+     * @return the index, or <code>-1</code> if the name is not a parameter name
+     */
+    static int paramIndex(String name) {
+        final int digits = name.length() - PARAM_PREFIX.length();
+        if(digits < 1 || digits > 9 || !name.startsWith(PARAM_PREFIX)) {
+            return -1;
+        }
+
+        int index = 0;
+        for(int pos = PARAM_PREFIX.length(); pos < name.length(); pos++) {
+            char ch = name.charAt(pos);
+            if(ch < '0' || ch > '9') {
+                return -1;
+            }
+
+            index = index * 10 + (ch - '0');
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of
+ * HdrHistogram. Each power of two is split into 32 linear sub-buckets, so
+ * recorded values are kept within about 3% of their actual value. Values are
+ * in nanoseconds; values beyond about 68 seconds are recorded as 68 seconds.
+ *
+ * Recording is a single atomic increment plus two adders, and never
+ * allocates.
+ *
+ * @author sangupta
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_HALF_BITS = 5;
+
+    private static final int SUB_BUCKET_HALF = 1 << SUB_BUCKET_HALF_BITS;
+
+    /**
+     * Largest value tracked precisely, about 68 seconds
+     */
+    private static final long MAX_TRACKED = (1L << 36) - 1;
+
+    private static final int BUCKET_COUNT = indexFor(MAX_TRACKED) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     *
+     * @param nanos the latency in nanoseconds; negative values are ignored
+     */
+    void record(long nanos) {
+        if(nanos < 0) {
+            return;
+        }
+
+        this.counts.incrementAndGet(indexFor(Math.min(nanos, MAX_TRACKED)));
+        this.count.increment();
+        this.sum.add(nanos);
+
+        long current = this.max.get();
+        while(nanos > current && !this.max.compareAndSet(current, nanos)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * Find the bucket for a value: values below 64 map to themselves, larger
+     * values keep their 6 most significant bits.
+     *
+     * @param value the value, not negative
+     *
+     * @return the bucket index
+     */
+    private static int indexFor(long value) {
+        final int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_HALF_BITS);
+        return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Get the highest value that maps to the given bucket.
+     *
+     * @param index the bucket index
+     *
+     * @return the highest value in the bucket
+     */
+    private static long highestValueFor(int index) {
+        if(index < 2 * SUB_BUCKET_HALF) {
+            return index;
+        }
+
+        final int shift = (index >> SUB_BUCKET_HALF_BITS) - 1;
+        final long mantissa = index - ((long) shift << SUB_BUCKET_HALF_BITS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public long getMaxNanos() {
+        return this.max.get();
+    }
+
+    public double getMeanNanos() {
+        final long count = this.count.sum();
+        if(count == 0) {
+            return 0;
+        }
+
+        return (double) this.sum.sum() / count;
+    }
+
+    /**
+     * Get the value below which the given percentage of recorded values fall.
+     *
+     * @param percentile the percentile, between 0 and 100, such as 99.9
+     *
+     * @return the value in nanoseconds, or zero if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if(percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        long total = 0;
+        final long[] snapshot = new long[BUCKET_COUNT];
+        for(int index = 0; index < BUCKET_COUNT; index++) {
+            snapshot[index] = this.counts.get(index);
+            total += snapshot[index];
+        }
+
+        if(total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for(int index = 0; index < BUCKET_COUNT; index++) {
+            seen += snapshot[index];
+            if(seen >= rank) {
+                return Math.min(highestValueFor(index), this.max.get());
+            }
+        }
+
+        return this.max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + this.getCount() + ", p50=" + this.getPercentileNanos(50) + "ns, p99=" + this.getPercentileNanos(99) + "ns, max=" + this.getMaxNanos() + "ns";
+    }
+
+}
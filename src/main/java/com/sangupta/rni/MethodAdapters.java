@@ -0,0 +1,192 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Gson type adapters for the parameters and result of one method, resolved
+ * from the fully generic declared types once, when the interface is
+ * registered or the client is created. Codecs then read and write values
+ * without asking Gson to look up an adapter on every call.
+ *
+ * Values are read with the declared types. They are written with the declared
+ * type when the runtime class matches it, or the declared type is a collection
+ * or map interface; otherwise the adapter for the runtime class is used, so
+ * that fields of subclasses are not lost.
+ *
+ * Binary parameters and results are not encoded by the codecs, and stand as
+ * <code>null</code> in the encoded arguments.
+ *
+ * @author sangupta
+ *
+ */
+class MethodAdapters {
+
+    /**
+     * Stands in for binary parameters and results, which are sent as parts of
+     * their own
+     */
+    private static final TypeAdapter<Object> BINARY_PART = new TypeAdapter<Object>() {
+
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.nullValue();
+        }
+
+        @Override
+        public Object read(JsonReader in) throws IOException {
+            in.skipValue();
+            return null;
+        }
+
+    };
+
+    final Gson gson;
+
+    private final TypeAdapter<Object>[] params;
+
+    private final Class<?>[] rawParams;
+
+    /**
+     * Adapter for the result, <code>null</code> for <code>void</code> methods
+     */
+    private final TypeAdapter<Object> result;
+
+    private final Class<?> rawResult;
+
+    @SuppressWarnings("unchecked")
+    MethodAdapters(Gson gson, RniMethod method) {
+        this.gson = gson;
+
+        final Type[] types = method.getGenericParameterTypes();
+        this.params = newAdapters(types.length);
+        this.rawParams = new Class<?>[types.length];
+        for(int index = 0; index < types.length; index++) {
+            TypeToken<?> token = TypeToken.get(types[index]);
+            this.params[index] = method.isBinaryParam(index) ? BINARY_PART : (TypeAdapter<Object>) gson.getAdapter(token);
+            this.rawParams[index] = token.getRawType();
+        }
+
+        final Type resultType = method.getResultType();
+        if(method.isBinaryResult()) {
+            this.result = BINARY_PART;
+            this.rawResult = TypeToken.get(resultType).getRawType();
+        } else if(resultType == void.class || resultType == Void.class) {
+            this.result = null;
+            this.rawResult = null;
+        } else {
+            TypeToken<?> token = TypeToken.get(resultType);
+            this.result = (TypeAdapter<Object>) gson.getAdapter(token);
+            this.rawResult = token.getRawType();
+        }
+    }
+
+    int getParameterCount() {
+        return this.params.length;
+    }
+
+    /**
+     * Get the adapter to read the parameter at the given index with.
+     *
+     * @param index the parameter index
+     *
+     * @return the adapter
+     */
+    TypeAdapter<Object> paramReader(int index) {
+        return this.params[index];
+    }
+
+    /**
+     * Get the adapter to write an argument with.
+     *
+     * @param index the parameter index
+     *
+     * @param value the non-<code>null</code> argument
+     *
+     * @return the adapter
+     */
+    TypeAdapter<Object> paramWriter(int index, Object value) {
+        if(index < this.params.length && (this.params[index] == BINARY_PART || isDeclaredTypeFor(this.rawParams[index], value))) {
+            return this.params[index];
+        }
+
+        return this.runtimeAdapter(value);
+    }
+
+    /**
+     * Get the adapter to read the result with.
+     *
+     * @return the adapter, or <code>null</code> for <code>void</code> methods
+     */
+    TypeAdapter<Object> resultReader() {
+        return this.result;
+    }
+
+    /**
+     * Get the adapter to write a result with.
+     *
+     * @param value the non-<code>null</code> result
+     *
+     * @return the adapter
+     */
+    TypeAdapter<Object> resultWriter(Object value) {
+        if(this.result != null && (this.result == BINARY_PART || isDeclaredTypeFor(this.rawResult, value))) {
+            return this.result;
+        }
+
+        return this.runtimeAdapter(value);
+    }
+
+    /**
+     * Create an array for adapters, which cannot be created with a type
+     * argument other than a wildcard.
+     */
+    @SuppressWarnings("unchecked")
+    private static TypeAdapter<Object>[] newAdapters(int length) {
+        return (TypeAdapter<Object>[]) new TypeAdapter<?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private TypeAdapter<Object> runtimeAdapter(Object value) {
+        return (TypeAdapter<Object>) this.gson.getAdapter(value.getClass());
+    }
+
+    private static boolean isDeclaredTypeFor(Class<?> declared, Object value) {
+        if(declared == value.getClass()) {
+            return true;
+        }
+
+        // collection and map adapters write elements by their runtime type
+        return declared.isInterface() && (Collection.class.isAssignableFrom(declared) || Map.class.isAssignableFrom(declared));
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A precompiled invoker for a single interface method bound to its
+ * implementation instance. Invokers are built once when an interface is
+ * registered so that the per-call path does not go through
+ * {@link Method#invoke(Object, Object...)}.
+ *
+ * Exceptions thrown by the implementation are propagated as-is and are not
+ * wrapped inside an {@link InvocationTargetException}.
+ *
+ * @author sangupta
+ *
+ */
+abstract class MethodInvoker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodInvoker.class);
+
+    /**
+     * Invoke the method with the given arguments.
+     *
+     * @param args the arguments, one per method parameter
+     *
+     * @return the value returned by the method, boxed if primitive, or
+     *         <code>null</code> for <code>void</code> methods
+     *
+     * @throws Throwable anything thrown by the underlying implementation
+     */
+    abstract Object invoke(Object[] args) throws Throwable;
+
+    /**
+     * Build the fastest available invoker for the given method and instance.
+     * Falls back to reflection if a {@link MethodHandle} cannot be obtained.
+     *
+     * @param instance the instance over which the method is invoked
+     *
+     * @param method the method to invoke
+     *
+     * @return the invoker, never <code>null</code>
+     */
+    static MethodInvoker forMethod(Object instance, Method method) {
+        try {
+            return new MethodHandleInvoker(instance, method);
+        } catch (IllegalAccessException | RuntimeException e) {
+            LOGGER.warn("Unable to create method handle for {}, falling back to reflection", method, e);
+            return reflective(instance, method);
+        }
+    }
+
+    /**
+     * Build an invoker that uses plain {@link Method#invoke(Object, Object...)}.
+     *
+     * @param instance the instance over which the method is invoked
+     *
+     * @param method the method to invoke
+     *
+     * @return the invoker, never <code>null</code>
+     */
+    static MethodInvoker reflective(Object instance, Method method) {
+        return new ReflectiveInvoker(instance, method);
+    }
+
+    /**
+     * Invoker backed by a {@link MethodHandle} that is bound to the instance
+     * and adapted to take an <code>Object[]</code> and return an
+     * <code>Object</code>.
+     *
+     */
+    private static class MethodHandleInvoker extends MethodInvoker {
+
+        private static final MethodType GENERIC_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+        private final MethodHandle handle;
+
+        MethodHandleInvoker(Object instance, Method method) throws IllegalAccessException {
+            if(!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                method.setAccessible(true);
+            }
+
+            MethodHandle mh = MethodHandles.lookup().unreflect(method).bindTo(instance);
+            this.handle = mh.asSpreader(Object[].class, method.getParameterTypes().length).asType(GENERIC_TYPE);
+        }
+
+        @Override
+        Object invoke(Object[] args) throws Throwable {
+            return (Object) this.handle.invokeExact(args);
+        }
+
+    }
+
+    /**
+     * Invoker backed by core reflection. Kept as a fallback and as a baseline
+     * for benchmarking.
+     *
+     */
+    private static class ReflectiveInvoker extends MethodInvoker {
+
+        private final Object instance;
+
+        private final Method method;
+
+        ReflectiveInvoker(Object instance, Method method) {
+            this.instance = instance;
+            this.method = method;
+        }
+
+        @Override
+        Object invoke(Object[] args) throws Throwable {
+            try {
+                return this.method.invoke(this.instance, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+    }
+}
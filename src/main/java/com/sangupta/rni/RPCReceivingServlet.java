@@ -21,33 +21,37 @@
 
 package com.sangupta.rni;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.Charsets;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.sangupta.jerry.constants.HttpMimeType;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.MalformedJsonException;
 import com.sangupta.jerry.constants.HttpStatusCode;
 import com.sangupta.jerry.util.AssertUtils;
-import com.sangupta.jerry.util.GsonUtils;
-import com.sangupta.jerry.util.ResponseUtils;
 
 public class RPCReceivingServlet extends HttpServlet {
     
@@ -63,9 +67,59 @@ public class RPCReceivingServlet extends HttpServlet {
     
     /**
      * Holds all the currently valid end-points from all interfaces mapped to this
-     * class. The mapping is of the form: /class.getSimpleName()/class.getMethod().getName()
+     * class, keyed by the compact method ID computed from the interface simple
+     * name, the method name and the parameter types.
      */
-    private static final Map<String, Map<String, MappedInvocationMethod>> END_POINTS = new HashMap<>();
+    private static final Map<Integer, MappedInvocationMethod> END_POINTS = new ConcurrentHashMap<>();
+    
+    private static final int DRAIN_BUFFER_SIZE = 4 * 1024;
+    
+    private static final long MAX_DRAIN_BYTES = 64 * 1024;
+    
+    /**
+     * Maximum size a compressed request body may decompress to
+     */
+    static final long MAX_DECODED_BYTES = 64 * 1024 * 1024;
+    
+    /**
+     * Timeout for requests served in async mode, in milliseconds
+     */
+    private static volatile long asyncTimeout = 0;
+    
+    /**
+     * Executor to run the calls of a batch in parallel, <code>null</code> to
+     * run them one after the other on the request thread
+     */
+    private static volatile ExecutorService batchExecutor = null;
+    
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    
+    /**
+     * Minimum size in bytes of a result before it is compressed for clients
+     * that accept it, or a negative value to never compress
+     */
+    private static volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    
+    /**
+     * Whether metrics are served as JSON on <code>GET /rni/_metrics</code>
+     */
+    private static volatile boolean metricsEndpoint = false;
+    
+    /**
+     * How concurrency limits are adjusted, <code>null</code> when calls are
+     * never rejected for concurrency
+     */
+    private static volatile RniLimitAlgorithm limitAlgorithm = null;
+    
+    private static volatile int initialLimit = 20;
+    
+    private static volatile int maxLimit = 1_000;
+    
+    /**
+     * Seconds after which clients are told to retry calls rejected for
+     * concurrency
+     */
+    private static final String RETRY_AFTER_SECONDS = "1";
 
     /**
      * Register a new interface to be supported to receive calls.
@@ -77,6 +131,23 @@ public class RPCReceivingServlet extends HttpServlet {
      * @return
      */
     public static <T> boolean recieveCalls(Class<T> classOfT, T instance) {
+        return recieveCalls(classOfT, instance, null);
+    }
+    
+    /**
+     * Register a new interface to be supported to receive calls, running the
+     * calls as per the given policy rather than on the container thread.
+     * 
+     * @param classOfT the interface for which calls are to be supported
+     * 
+     * @param instance the actual implementation to use for working through RPC calls
+     * 
+     * @param policy where to run calls to the interface, or <code>null</code>
+     *            to run them on the container thread
+     * 
+     * @return <code>true</code> if any method was registered
+     */
+    public static <T> boolean recieveCalls(Class<T> classOfT, T instance, RniExecutionPolicy policy) {
         if(classOfT == null) {
             throw new IllegalArgumentException("ClassOfT cannot be null");
         }
@@ -105,104 +176,904 @@ public class RPCReceivingServlet extends HttpServlet {
                 continue;
             }
             
-            final String methodParams = RniUtils.getMethodParams(method);
+            final RniMethod rniMethod = new RniMethod(classOfT, method);
             
-            LOGGER.debug("Adding method for receiving calls: {}({})", methodName, methodParams);
+            LOGGER.debug("Adding method for receiving calls: {} with ID {}", rniMethod, rniMethod.getIdHeader());
             
-            String key = className + "/" + methodName;
-            
-            if(END_POINTS.containsKey(key)) {
-                END_POINTS.get(key).put(methodParams, new MappedInvocationMethod(instance, method, methodParams));
-            } else {
-                Map<String, MappedInvocationMethod> map = new HashMap<>();
-                map.put(methodParams, new MappedInvocationMethod(instance, method, methodParams));
-                END_POINTS.put(key, map);
+            MappedInvocationMethod existing = END_POINTS.get(rniMethod.getId());
+            if(existing != null && !existing.rniMethod.toString().equals(rniMethod.toString())) {
+                throw new IllegalStateException("Method ID collision between " + existing.rniMethod + " and " + rniMethod);
             }
+            
+            RniCodecs.prepare(rniMethod);
+            MappedInvocationMethod mappedMethod = new MappedInvocationMethod(instance, rniMethod);
+            mappedMethod.limiter = newLimiter(rniMethod);
+            mappedMethod.policy = policy;
+            END_POINTS.put(rniMethod.getId(), mappedMethod);
         }
         
         return true;
     }
     
+    /**
+     * Run calls to the given method of a registered interface as per the
+     * given policy, overriding the policy of the interface. All overloads of
+     * the method share the policy.
+     * 
+     * @param classOfT the registered interface
+     * 
+     * @param methodName the name of the method
+     * 
+     * @param policy where to run calls to the method, or <code>null</code> to
+     *            run them on the container thread
+     */
+    public static void setExecutionPolicy(Class<?> classOfT, String methodName, RniExecutionPolicy policy) {
+        if(classOfT == null) {
+            throw new IllegalArgumentException("ClassOfT cannot be null");
+        }
+        
+        if(methodName == null) {
+            throw new IllegalArgumentException("Method name cannot be null");
+        }
+        
+        boolean found = false;
+        for(MappedInvocationMethod mappedMethod : END_POINTS.values()) {
+            final RniMethod rniMethod = mappedMethod.rniMethod;
+            if(rniMethod.getServiceName().equals(classOfT.getSimpleName()) && rniMethod.getMethod().getName().equals(methodName)) {
+                mappedMethod.policy = policy;
+                found = true;
+            }
+        }
+        
+        if(!found) {
+            throw new IllegalArgumentException("No method registered for " + classOfT.getSimpleName() + "/" + methodName);
+        }
+    }
+    
     @Override
     protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-        final String uri = extractUri(request);
-
-        // check for rni header
-        final String methodParams = request.getHeader(RniUtils.REQUEST_HEADER_FOR_PARAMS);
-        if(methodParams == null) {
-            LOGGER.debug("No RNI header present: {}", uri);
-            response.sendError(HttpStatusCode.BAD_REQUEST);
+        handle(new ServletExchange(request, response));
+    }
+    
+    /**
+     * Serve a call, a batch of calls or the metrics, whether received by this
+     * servlet or by an {@link RniServer}.
+     * 
+     * @param exchange the exchange to serve
+     * 
+     * @throws IOException if the request cannot be read or the response
+     *             written
+     */
+    static void handle(final RniExchange exchange) throws IOException {
+        if(metricsEndpoint && isMetricsRequest(exchange)) {
+            sendMetrics(exchange);
             return;
         }
         
-        // extract method name
-        Map<String, MappedInvocationMethod> map = END_POINTS.get(uri);
-        if(map == null) {
-            LOGGER.debug("End point not mapped to any instance: {}", uri);
-            response.sendError(HttpStatusCode.NOT_FOUND);
+        if(RniUtils.isBatch(exchange.getContentType())) {
+            BatchCallHandler.handle(exchange, batchExecutor);
             return;
         }
         
-        // find the right method to be invoked
-        MappedInvocationMethod mappedMethod = map.get(methodParams);
+        final long start = System.nanoTime();
+        final MappedInvocationMethod mappedMethod = findMappedMethod(exchange);
         if(mappedMethod == null) {
-            LOGGER.debug("End point not initialized to any instance: {}", uri);
-            response.sendError(HttpStatusCode.INTERNAL_SERVER_ERROR);
             return;
         }
         
-        final int numArguments = RniUtils.count(methodParams, ',') + 1;
-        final String[] classArray = methodParams.split(",");
+        final RniMethod rniMethod = mappedMethod.rniMethod;
+        final RniEndpointMetrics metrics = mappedMethod.metrics;
         
-        // find number and type of arguments that have been sent in the payload
-        byte[] bytes = IOUtils.toByteArray(request.getInputStream());
-        String json = new String(bytes, Charsets.UTF_8);
+        // do not read the arguments of a call the caller has given up on
+        final long deadline = RniDeadline.parse(exchange.getHeader(RniUtils.REQUEST_HEADER_FOR_TIMEOUT));
+        if(rejectExpired(exchange, rniMethod, metrics, deadline, start)) {
+            return;
+        }
         
-        // parse the body
-        JsonParser parser = new JsonParser();
-        JsonElement jsonElement = parser.parse(json);
-        JsonObject jsonObject = jsonElement.getAsJsonObject();
+        // admit the call if the method has room for it
+        final ConcurrencyLimiter limiter = mappedMethod.limiter;
+        final ConcurrencyLimiter.Permit permit = limiter != null ? limiter.tryAcquire() : null;
+        if(limiter != null && permit == null) {
+            LOGGER.debug("Concurrency limit of {} reached for method: {}", limiter.getLimit(), rniMethod);
+            shed(exchange, metrics, start);
+            return;
+        }
         
-        // make a call to this method
-        Set<Entry<String, JsonElement>> set = jsonObject.entrySet();
-        Object[] args = new Object[set.size()];
-        Class<?>[] params = new Class[set.size()];
+        // run the call where its execution policy says
+        final RniExecutionPolicy policy = mappedMethod.policy;
+        if(policy != null && !policy.isCallerRuns() && exchange.isAsyncSupported()) {
+            dispatch(exchange, mappedMethod, deadline, start, permit, policy);
+            return;
+        }
         
-        for(int index = 0; index < numArguments; index++) {
-            JsonElement element = jsonObject.get("param-" + index);
-            
-            Class<?> clazz = null;
+        boolean completesLater = false;
+        try {
+            completesLater = serve(exchange, mappedMethod, deadline, start, permit, false);
+        } finally {
+            // calls that went async release their permit once complete
+            if(permit != null && !completesLater) {
+                permit.release(exchange.getStatus() >= HttpStatusCode.INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+    
+    /**
+     * Hand the call over to its execution policy, putting the request in
+     * async mode so that the container thread is released, unless the policy
+     * runs the call on it.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @param mappedMethod the method called
+     * 
+     * @param deadline the deadline sent with the call, or zero for none
+     * 
+     * @param start when the call started, in nanoseconds
+     * 
+     * @param permit the permit of the call, or <code>null</code> if calls are
+     *            not limited
+     * 
+     * @param policy the execution policy of the method
+     * 
+     * @throws IOException if the call is rejected and the response cannot be
+     *             written
+     */
+    private static void dispatch(final RniExchange exchange, final MappedInvocationMethod mappedMethod, final long deadline, final long start, final ConcurrencyLimiter.Permit permit, RniExecutionPolicy policy) throws IOException {
+        exchange.startAsync(asyncTimeout, releaseOnTimeout(permit));
+        
+        final boolean accepted = policy.execute(() -> {
+            boolean completesLater = false;
+            try {
+                completesLater = serve(exchange, mappedMethod, deadline, start, permit, true);
+            } catch(IOException | RuntimeException e) {
+                LOGGER.error("Error serving method: {}", mappedMethod.rniMethod, e);
+                if(!exchange.isCommitted()) {
+                    exchange.setStatus(HttpStatusCode.INTERNAL_SERVER_ERROR);
+                }
+            } finally {
+                if(!completesLater) {
+                    if(permit != null) {
+                        permit.release(exchange.getStatus() >= HttpStatusCode.INTERNAL_SERVER_ERROR);
+                    }
+                    
+                    exchange.complete();
+                }
+            }
+        });
+        
+        if(!accepted) {
+            LOGGER.debug("Execution policy is full for method: {}", mappedMethod.rniMethod);
             try {
-                clazz = Class.forName(classArray[index]);
-            } catch (ClassNotFoundException e) {
-                response.sendError(HttpStatusCode.INTERNAL_SERVER_ERROR);
-                return;
+                shed(exchange, mappedMethod.metrics, start);
+            } finally {
+                if(permit != null) {
+                    permit.release(false);
+                }
+                
+                exchange.complete();
+            }
+        }
+    }
+    
+    /**
+     * Get the action that releases the permit of a call as failed, once its
+     * exchange times out, as the call may never complete to release it.
+     * 
+     * @param permit the permit of the call, or <code>null</code> if calls are
+     *            not limited
+     * 
+     * @return the action, or <code>null</code> if there is no permit
+     */
+    private static Runnable releaseOnTimeout(final ConcurrencyLimiter.Permit permit) {
+        if(permit == null) {
+            return null;
+        }
+        
+        return () -> permit.release(true);
+    }
+    
+    /**
+     * Read the arguments, invoke the method and send the result, for a call
+     * that has been admitted.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @param mappedMethod the method called
+     * 
+     * @param deadline the deadline sent with the call, or zero for none
+     * 
+     * @param start when the call started, in nanoseconds
+     * 
+     * @param permit the permit of the call, or <code>null</code> if calls are
+     *            not limited
+     * 
+     * @param dispatched whether the call was dispatched in async mode by its
+     *            execution policy, rather than running on the container
+     *            thread
+     * 
+     * @return <code>true</code> if the call completes later, in which case
+     *         the permit is released and the exchange completed once it does
+     * 
+     * @throws IOException if the request cannot be read or the response
+     *             written
+     */
+    private static boolean serve(RniExchange exchange, MappedInvocationMethod mappedMethod, long deadline, long start, ConcurrencyLimiter.Permit permit, boolean dispatched) throws IOException {
+        final RniMethod rniMethod = mappedMethod.rniMethod;
+        final RniEndpointMetrics metrics = mappedMethod.metrics;
+        
+        // negotiate the codecs to use, calls with binary arguments naming
+        // the codec of the other arguments
+        final String contentType = exchange.getContentType();
+        final boolean parts = RniUtils.isParts(contentType);
+        final String codecType = parts ? RniUtils.getContentTypeParameter(contentType, RniUtils.BATCH_CODEC_PARAM) : contentType;
+        final RniCodec requestCodec = codecType == null ? RniCodecs.JSON : RniCodecs.forContentType(codecType);
+        if(requestCodec == null) {
+            LOGGER.debug("No codec for content type: {}", contentType);
+            sendError(exchange, HttpStatusCode.UNSUPPORTED_MEDIA_TYPE);
+            recordFailure(metrics, start);
+            return false;
+        }
+        
+        final RniCodec responseCodec = RniCodecs.forAccept(exchange.getHeader(RniUtils.HEADER_ACCEPT), requestCodec);
+        
+        // read the arguments straight off the request stream
+        final CountingInputStream raw = new CountingInputStream(exchange.getInputStream());
+        Object[] args;
+        try {
+            final InputStream stream = openRequestStream(exchange, raw);
+            if(stream == null) {
+                LOGGER.debug("Unsupported content encoding: {}", exchange.getHeader(RniUtils.HEADER_CONTENT_ENCODING));
+                sendError(exchange, HttpStatusCode.UNSUPPORTED_MEDIA_TYPE);
+                recordFailure(metrics, start);
+                return false;
             }
             
-            params[index] = clazz;
-            args[index++] = GsonUtils.getGson().fromJson(element, clazz);
+            if(parts) {
+                // binary arguments that run to the end of the body are read
+                // by the implementation, and the rest drained once it returns
+                args = BinaryParts.readParams(requestCodec, rniMethod, stream);
+            } else {
+                args = requestCodec.readParams(rniMethod, stream);
+                drain(stream);
+                drain(raw);
+            }
+        } catch(JsonParseException | IllegalStateException | MalformedJsonException | EOFException | ContentEncoding.DecodingException e) {
+            LOGGER.debug("Unable to read arguments for method: {}", rniMethod, e);
+            exchange.sendError(HttpStatusCode.BAD_REQUEST);
+            recordFailure(metrics, start);
+            return false;
+        } finally {
+            metrics.recordBytesIn(raw.getCount());
         }
         
         // invoke the method
+        final long invokeStart = System.nanoTime();
+        metrics.recordDecode(invokeStart - start);
+        if(rejectExpired(exchange, rniMethod, metrics, deadline, start)) {
+            return false;
+        }
+        
+        Object result;
+        final long readBeforeInvoke = raw.getCount();
+        final Long previousDeadline = RniDeadline.enter(deadline);
+        try {
+            result = mappedMethod.invoker.invoke(args);
+        } catch (Throwable t) {
+            LOGGER.error("Error invoking method: {}", rniMethod, t);
+            exchange.sendError(HttpStatusCode.INTERNAL_SERVER_ERROR);
+            recordFailure(metrics, start);
+            return false;
+        } finally {
+            RniDeadline.restore(previousDeadline);
+            if(parts) {
+                drainParts(raw, readBeforeInvoke, metrics);
+            }
+        }
+        
+        final String ifNoneMatch = rniMethod.isReadOnly() ? exchange.getHeader(RniUtils.HEADER_IF_NONE_MATCH) : null;
+        final ContentEncoding encoding = negotiateEncoding(exchange);
+        final CallContext call = new CallContext(rniMethod, responseCodec, ifNoneMatch, encoding, metrics, start, invokeStart);
+        
+        if(rniMethod.isAsync() && result != null) {
+            return completeAsync(exchange, call, (CompletionStage<?>) result, permit, dispatched);
+        }
+        
+        call.invoked();
+        sendResult(exchange, call, result);
+        return false;
+    }
+    
+    /**
+     * Drain the body of a call with binary arguments once the implementation
+     * has returned, and record the bytes it has read.
+     * 
+     * @param raw the request body as received
+     * 
+     * @param readBeforeInvoke the bytes read before the implementation was
+     *            invoked, and already recorded
+     * 
+     * @param metrics the metrics of the method called
+     */
+    private static void drainParts(CountingInputStream raw, long readBeforeInvoke, RniEndpointMetrics metrics) {
         try {
-            Object result = mappedMethod.method.invoke(mappedMethod.instance, args);
+            drain(raw);
+        } catch(IOException e) {
+            LOGGER.debug("Unable to drain request body", e);
+        } finally {
+            metrics.recordBytesIn(raw.getCount() - readBeforeInvoke);
+        }
+    }
+    
+    /**
+     * Send the response once the given stage completes. If the container
+     * supports it, the request is put in async mode so that the container
+     * thread is released while the implementation is working. Otherwise the
+     * current thread waits for the stage to complete.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @param call the call being served
+     * 
+     * @param stage the stage returned by the implementation
+     * 
+     * @param permit the permit of the call, or <code>null</code> if calls are
+     *            not limited
+     * 
+     * @param dispatched whether the exchange is in async mode already
+     * 
+     * @return <code>true</code> if the response is sent once the stage
+     *         completes, <code>false</code> if it has been sent already
+     * 
+     * @throws IOException if the response cannot be written
+     */
+    private static boolean completeAsync(RniExchange exchange, final CallContext call, CompletionStage<?> stage, final ConcurrencyLimiter.Permit permit, boolean dispatched) throws IOException {
+        if(!dispatched && !exchange.isAsyncSupported()) {
+            Object value;
+            try {
+                value = stage.toCompletableFuture().get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                call.fail(exchange, HttpStatusCode.SERVICE_UNAVAILABLE);
+                return false;
+            } catch(ExecutionException e) {
+                LOGGER.error("Error completing method: {}", call.rniMethod, e.getCause());
+                call.fail(exchange, HttpStatusCode.INTERNAL_SERVER_ERROR);
+                return false;
+            }
             
+            call.invoked();
+            sendResult(exchange, call, value);
+            return false;
+        }
+        
+        if(!dispatched) {
+            exchange.startAsync(asyncTimeout, releaseOnTimeout(permit));
+        }
+        
+        stage.whenComplete((value, error) -> {
+            try {
+                if(error != null) {
+                    LOGGER.error("Error completing method: {}", call.rniMethod, error);
+                    call.fail(exchange, HttpStatusCode.INTERNAL_SERVER_ERROR);
+                    return;
+                }
+                
+                call.invoked();
+                sendResult(exchange, call, value);
+            } catch(IOException | RuntimeException e) {
+                LOGGER.debug("Unable to send async response for method: {}", call.rniMethod, e);
+            } finally {
+                if(permit != null) {
+                    permit.release(error != null || exchange.getStatus() >= HttpStatusCode.INTERNAL_SERVER_ERROR);
+                }
+                
+                exchange.complete();
+            }
+        });
+        
+        return true;
+    }
+    
+    /**
+     * Write the result straight to the response stream, and record the call.
+     * Results of read-only methods are sent with an ETag, or as not modified
+     * if the ETag matches the one sent by the client.
+     * 
+     * @param exchange the exchange to write to
+     * 
+     * @param call the call being served
+     * 
+     * @param result the result, may be <code>null</code>
+     * 
+     * @throws IOException if the response cannot be written
+     */
+    private static void sendResult(final RniExchange exchange, CallContext call, Object result) throws IOException {
+        final long encodeStart = System.nanoTime();
+        try {
             if(result == null) {
-                response.setStatus(HttpStatusCode.NO_CONTENT);
-                return;
+                exchange.setStatus(HttpStatusCode.NO_CONTENT);
+            } else if(call.rniMethod.isReadOnly()) {
+                sendConditionalResult(exchange, call, result);
+            } else {
+                writeResult(exchange, call, result);
+            }
+        } catch(IOException | RuntimeException e) {
+            call.sent(encodeStart, true);
+            throw e;
+        }
+        
+        call.sent(encodeStart, false);
+    }
+    
+    private static void writeResult(final RniExchange exchange, CallContext call, Object result) throws IOException {
+        exchange.setStatus(HttpStatusCode.OK);
+        exchange.setContentType(call.getContentType());
+        
+        final ContentEncoding encoding = call.encoding;
+        if(encoding == null) {
+            write(call, result, call.output(exchange));
+            return;
+        }
+        
+        // the encoding header can still be set when the threshold is reached,
+        // as nothing has been written to the response until then
+        CompressingOutputStream out = new CompressingOutputStream(call.output(exchange), encoding, compressionThreshold, () -> exchange.setHeader(RniUtils.HEADER_CONTENT_ENCODING, encoding.getName()));
+        write(call, result, out);
+        out.finish();
+    }
+    
+    /**
+     * Encode the result to the given stream. Binary results are written as
+     * they are. The elements of streamed results are written as they are
+     * taken from the result, and a {@link Stream} is closed once written. A
+     * failure while taking elements is thrown on, so that the response is not
+     * ended as if the result were complete.
+     * 
+     * @param call the call being served
+     * 
+     * @param result the non-<code>null</code> result
+     * 
+     * @param out the stream to write to
+     * 
+     * @throws IOException if the result cannot be written
+     */
+    private static void write(CallContext call, Object result, OutputStream out) throws IOException {
+        if(call.rniMethod.isBinaryResult()) {
+            BinaryParts.writeResult(result, out);
+            return;
+        }
+        
+        if(!call.rniMethod.isStreaming()) {
+            call.responseCodec.writeResult(call.rniMethod, result, out);
+            return;
+        }
+        
+        final Iterator<?> elements;
+        if(result instanceof Stream) {
+            elements = ((Stream<?>) result).iterator();
+        } else if(result instanceof Iterable) {
+            elements = ((Iterable<?>) result).iterator();
+        } else {
+            elements = (Iterator<?>) result;
+        }
+        
+        try {
+            call.responseCodec.writeElements(call.rniMethod, elements, out);
+        } finally {
+            if(result instanceof Stream) {
+                ((Stream<?>) result).close();
+            }
+        }
+    }
+    
+    /**
+     * Encode the result in memory to compute its ETag, and send it only if it
+     * does not match the ETag sent by the client.
+     * 
+     * @param exchange the exchange to write to
+     * 
+     * @param call the call being served
+     * 
+     * @param result the non-<code>null</code> result
+     * 
+     * @throws IOException if the response cannot be written
+     */
+    private static void sendConditionalResult(RniExchange exchange, CallContext call, Object result) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(call, result, out);
+        
+        final byte[] body = out.toByteArray();
+        ContentEncoding encoding = call.encoding;
+        if(encoding != null && body.length < compressionThreshold) {
+            encoding = null;
+        }
+        
+        String etag = RniUtils.computeETag(body);
+        if(encoding != null) {
+            // each encoding is a different representation
+            etag = etag.substring(0, etag.length() - 1) + "-" + encoding.getName() + "\"";
+        }
+        
+        exchange.setHeader(RniUtils.HEADER_ETAG, etag);
+        
+        if(RniUtils.matchesETag(call.ifNoneMatch, etag)) {
+            exchange.setStatus(HttpStatusCode.NOT_MODIFIED);
+            return;
+        }
+        
+        exchange.setStatus(HttpStatusCode.OK);
+        exchange.setContentType(call.getContentType());
+        
+        if(encoding == null) {
+            exchange.setContentLength(body.length);
+            call.output(exchange).write(body);
+            return;
+        }
+        
+        exchange.setHeader(RniUtils.HEADER_CONTENT_ENCODING, encoding.getName());
+        OutputStream compressed = encoding.compress(call.output(exchange));
+        compressed.write(body);
+        compressed.close();
+    }
+    
+    /**
+     * Record a call that failed before it could be invoked, or while it was.
+     * 
+     * @param metrics the metrics of the method called
+     * 
+     * @param start when the call started, in nanoseconds
+     */
+    private static void recordFailure(RniEndpointMetrics metrics, long start) {
+        metrics.recordError();
+        metrics.recordCall(System.nanoTime() - start);
+    }
+    
+    /**
+     * Reject the call with <code>504 Gateway Timeout</code> if its deadline
+     * has passed.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @param rniMethod the method called
+     * 
+     * @param metrics the metrics of the method called
+     * 
+     * @param deadline the deadline sent with the call, or zero for none
+     * 
+     * @param start when the call started, in nanoseconds
+     * 
+     * @return <code>true</code> if the call was rejected
+     * 
+     * @throws IOException if the response cannot be written
+     */
+    private static boolean rejectExpired(RniExchange exchange, RniMethod rniMethod, RniEndpointMetrics metrics, long deadline, long start) throws IOException {
+        if(!RniDeadline.hasPassed(deadline)) {
+            return false;
+        }
+        
+        LOGGER.debug("Deadline passed before method could be invoked: {}", rniMethod);
+        sendError(exchange, HttpStatusCode.GATEWAY_TIMEOUT);
+        metrics.recordExpired();
+        recordFailure(metrics, start);
+        return true;
+    }
+    
+    /**
+     * Reject a call beyond the concurrency limit of its method with
+     * <code>503 Service Unavailable</code>, telling the client when to retry.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @param metrics the metrics of the method called
+     * 
+     * @param start when the call started, in nanoseconds
+     * 
+     * @throws IOException if the response cannot be written
+     */
+    static void shed(RniExchange exchange, RniEndpointMetrics metrics, long start) throws IOException {
+        exchange.setHeader(RniUtils.HEADER_RETRY_AFTER, RETRY_AFTER_SECONDS);
+        sendError(exchange, HttpStatusCode.SERVICE_UNAVAILABLE);
+        metrics.recordShed();
+        recordFailure(metrics, start);
+    }
+    
+    private static boolean isMetricsRequest(RniExchange exchange) {
+        return "GET".equals(exchange.getMethod()) && RniUtils.METRICS_PATH.equals(extractUri(exchange.getRequestURI()));
+    }
+    
+    private static void sendMetrics(RniExchange exchange) throws IOException {
+        exchange.setStatus(HttpStatusCode.OK);
+        exchange.setContentType("application/json; charset=UTF-8");
+        
+        Writer writer = new OutputStreamWriter(exchange.getOutputStream(), StandardCharsets.UTF_8);
+        RniMetrics.writeJson(writer);
+        writer.flush();
+    }
+    
+    /**
+     * Open the request body for reading, decompressing it as per its
+     * <code>Content-Encoding</code>, up to {@link #MAX_DECODED_BYTES}.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @param raw the request body as received
+     * 
+     * @return the stream to read the body from, or <code>null</code> if the
+     *         encoding is not supported
+     * 
+     * @throws ContentEncoding.DecodingException if the compressed stream
+     *             cannot be opened
+     */
+    static InputStream openRequestStream(RniExchange exchange, InputStream raw) throws IOException {
+        final String contentEncoding = exchange.getHeader(RniUtils.HEADER_CONTENT_ENCODING);
+        if(contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")) {
+            return raw;
+        }
+        
+        ContentEncoding encoding = ContentEncoding.forName(contentEncoding);
+        if(encoding == null) {
+            return null;
+        }
+        
+        return encoding.decompress(raw, MAX_DECODED_BYTES);
+    }
+    
+    /**
+     * Pick the encoding to compress the response with, as accepted by the
+     * client.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @return the encoding, or <code>null</code> to not compress
+     */
+    static ContentEncoding negotiateEncoding(RniExchange exchange) {
+        if(compressionThreshold < 0) {
+            return null;
+        }
+        
+        exchange.setHeader(RniUtils.HEADER_VARY, RniUtils.HEADER_ACCEPT_ENCODING);
+        return ContentEncoding.negotiate(exchange.getHeader(RniUtils.HEADER_ACCEPT_ENCODING));
+    }
+    
+    static int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+    
+    /**
+     * Set the minimum size of a result before it is compressed, for clients
+     * that accept <code>gzip</code> or <code>lz4</code>. Smaller results are
+     * sent as is, as compressing them costs more than it saves. The default is
+     * 1024 bytes.
+     * 
+     * @param minSizeBytes the threshold in bytes, or a negative value to never
+     *            compress results
+     */
+    public static void setCompressionThreshold(int minSizeBytes) {
+        compressionThreshold = minSizeBytes;
+    }
+    
+    /**
+     * Warm up all registered methods, so that the first call to each is not
+     * slowed down by class loading and type resolution: every registered
+     * codec reads and writes arguments for each method once. Call after all
+     * interfaces have been registered, before serving traffic.
+     */
+    public static void warmUp() {
+        for(MappedInvocationMethod mappedMethod : END_POINTS.values()) {
+            RniCodecs.warmUp(mappedMethod.rniMethod);
+        }
+    }
+    
+    /**
+     * Set the timeout for requests served in async mode. The default is zero,
+     * meaning the implementation alone decides when a call completes.
+     * 
+     * @param timeoutMillis the timeout in milliseconds, or zero for none
+     */
+    public static void setAsyncTimeout(long timeoutMillis) {
+        if(timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        
+        asyncTimeout = timeoutMillis;
+    }
+    
+    /**
+     * Limit the calls to each method that run at once, rejecting calls beyond
+     * the limit with <code>503 Service Unavailable</code> and a
+     * <code>Retry-After</code> header, instead of letting them queue up. The
+     * limit of each method starts at 20 and is adjusted from the latency of
+     * its calls, up to 1000, using the given algorithm. Methods annotated
+     * with {@link RniPriority} are shed sooner or later than others.
+     * 
+     * @param algorithm how limits are adjusted, or <code>null</code> to never
+     *            reject calls
+     */
+    public static void setConcurrencyLimit(RniLimitAlgorithm algorithm) {
+        setConcurrencyLimit(algorithm, 20, 1_000);
+    }
+    
+    /**
+     * Limit the calls to each method that run at once, as per
+     * {@link #setConcurrencyLimit(RniLimitAlgorithm)}, within the given
+     * limits. Limits of all registered methods start over.
+     * 
+     * @param algorithm how limits are adjusted, or <code>null</code> to never
+     *            reject calls
+     * 
+     * @param initial the limit each method starts at
+     * 
+     * @param max the highest limit a method can reach
+     */
+    public static void setConcurrencyLimit(RniLimitAlgorithm algorithm, int initial, int max) {
+        if(initial < ConcurrencyLimiter.MIN_LIMIT || max < initial) {
+            throw new IllegalArgumentException("Limits must be at least 1, with the initial limit not above the max");
+        }
+        
+        limitAlgorithm = algorithm;
+        initialLimit = initial;
+        maxLimit = max;
+        
+        for(MappedInvocationMethod mappedMethod : END_POINTS.values()) {
+            mappedMethod.limiter = newLimiter(mappedMethod.rniMethod);
+        }
+    }
+    
+    /**
+     * Get the current concurrency limit of every registered method.
+     * 
+     * @return the limits keyed by <code>Interface/method</code>, empty when
+     *         calls are not limited
+     */
+    public static Map<String, Integer> getConcurrencyLimits() {
+        Map<String, Integer> limits = new TreeMap<>();
+        for(MappedInvocationMethod mappedMethod : END_POINTS.values()) {
+            ConcurrencyLimiter limiter = mappedMethod.limiter;
+            if(limiter != null) {
+                limits.put(mappedMethod.rniMethod.getPath(), limiter.getLimit());
+            }
+        }
+        
+        return limits;
+    }
+    
+    private static ConcurrencyLimiter newLimiter(RniMethod rniMethod) {
+        final RniLimitAlgorithm algorithm = limitAlgorithm;
+        if(algorithm == null) {
+            return null;
+        }
+        
+        RniPriority priority = rniMethod.getMethod().getAnnotation(RniPriority.class);
+        return new ConcurrencyLimiter(algorithm, priority != null ? priority.value() : RniPriority.Level.NORMAL, initialLimit, maxLimit);
+    }
+    
+    /**
+     * Set the executor used to run the calls of a batch in parallel. Results
+     * are still sent back in the order of the calls. The default is
+     * <code>null</code>, which runs the calls one after the other on the
+     * request thread.
+     * 
+     * @param executor the executor to use, or <code>null</code>
+     */
+    public static void setBatchExecutor(ExecutorService executor) {
+        batchExecutor = executor;
+    }
+    
+    /**
+     * Serve the client and server metrics of this JVM as JSON on
+     * <code>GET _metrics</code> under the servlet, that is usually
+     * <code>/rni/_metrics</code>. Off by default, as the metrics reveal the
+     * registered interfaces; the metrics are collected either way and are
+     * always available via {@link RniMetrics}.
+     * 
+     * @param enabled <code>true</code> to serve the metrics
+     */
+    public static void setMetricsEndpoint(boolean enabled) {
+        metricsEndpoint = enabled;
+    }
+    
+    /**
+     * Get the method mapped to the given ID.
+     * 
+     * @param id the compact method ID
+     * 
+     * @return the mapped method, or <code>null</code> if none
+     */
+    static MappedInvocationMethod getMappedMethod(int id) {
+        return END_POINTS.get(id);
+    }
+    
+    /**
+     * Find the method to be invoked for the given request. The compact method
+     * ID header is preferred, with a fallback to the legacy parameter header.
+     * If no method is found, the error is sent back on the response.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @return the mapped method, or <code>null</code> if none was found
+     * 
+     * @throws IOException if the error cannot be sent
+     */
+    private static MappedInvocationMethod findMappedMethod(RniExchange exchange) throws IOException {
+        final String methodID = exchange.getHeader(RniUtils.REQUEST_HEADER_FOR_METHOD_ID);
+        if(methodID != null) {
+            int id;
+            try {
+                id = Integer.parseUnsignedInt(methodID, 16);
+            } catch(NumberFormatException e) {
+                LOGGER.debug("Invalid RNI method ID: {}", methodID);
+                sendError(exchange, HttpStatusCode.BAD_REQUEST);
+                return null;
+            }
+            
+            MappedInvocationMethod mappedMethod = END_POINTS.get(id);
+            if(mappedMethod == null) {
+                LOGGER.debug("Method ID not mapped to any instance: {}", methodID);
+                sendError(exchange, HttpStatusCode.NOT_FOUND);
             }
             
-            ResponseUtils.sendResponse(response, GsonUtils.getGson().toJson(result), HttpMimeType.JSON);
-        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            e.printStackTrace();
-            response.sendError(HttpStatusCode.INTERNAL_SERVER_ERROR);
-            return;        
+            return mappedMethod;
+        }
+        
+        // check for legacy rni header
+        final String methodParams = exchange.getHeader(RniUtils.REQUEST_HEADER_FOR_PARAMS);
+        if(methodParams == null) {
+            LOGGER.debug("No RNI header present: {}", exchange.getRequestURI());
+            sendError(exchange, HttpStatusCode.BAD_REQUEST);
+            return null;
+        }
+        
+        final String uri = extractUri(exchange.getRequestURI());
+        MappedInvocationMethod mappedMethod = END_POINTS.get(RniMethod.computeId(uri, methodParams));
+        if(mappedMethod == null || !mappedMethod.rniMethod.getPath().equals(uri)) {
+            LOGGER.debug("End point not mapped to any instance: {}", uri);
+            sendError(exchange, HttpStatusCode.NOT_FOUND);
+            return null;
+        }
+        
+        return mappedMethod;
+    }
+    
+    /**
+     * Send an error back before the request body has been read. The body is
+     * drained first so that a client streaming the body does not see a broken
+     * connection and retry the call.
+     * 
+     * @param exchange the exchange of the call
+     * 
+     * @param status the HTTP status code to send
+     * 
+     * @throws IOException if the error cannot be sent
+     */
+    static void sendError(RniExchange exchange, int status) throws IOException {
+        drain(exchange.getInputStream());
+        exchange.sendError(status);
+    }
+    
+    /**
+     * Read and discard whatever is left of the request body, up to a limit.
+     * This includes the terminating chunk of a chunked body, without which the
+     * container may not reuse the connection.
+     * 
+     * @param stream the request body stream
+     * 
+     * @throws IOException if reading fails
+     */
+    static void drain(InputStream stream) throws IOException {
+        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+        
+        long drained = 0;
+        int read;
+        while(drained < MAX_DRAIN_BYTES && (read = stream.read(buffer)) != -1) {
+            drained += read;
         }
     }
     
     public static String extractUri(HttpServletRequest request) {
-        // extract the URL
-        String url = request.getRequestURI();
+        return extractUri(request.getRequestURI());
+    }
+    
+    static String extractUri(String url) {
         if(url.startsWith("/rni")) {
             url = url.substring(4);
         }
@@ -219,7 +1090,7 @@ public class RPCReceivingServlet extends HttpServlet {
         return url;
     }
     
-    private static class MappedInvocationMethod {
+    static class MappedInvocationMethod {
         
         /**
          * The object instance over which the method will be invoked
@@ -227,18 +1098,154 @@ public class RPCReceivingServlet extends HttpServlet {
         final Object instance;
         
         /**
-         * Method that needs to be invoked
+         * Method that needs to be invoked, along with all its resolved types
+         */
+        final RniMethod rniMethod;
+        
+        /**
+         * Precompiled invoker for the method bound to the instance
+         */
+        final MethodInvoker invoker;
+        
+        /**
+         * Server-side metrics for the method
          */
-        final Method method;
+        final RniEndpointMetrics metrics;
         
-        final String methodParams;
+        /**
+         * Limit on the calls to the method that run at once,
+         * <code>null</code> when calls are not limited
+         */
+        volatile ConcurrencyLimiter limiter;
         
-        public MappedInvocationMethod(Object instance, Method method, String methodParams) {
+        /**
+         * Where calls to the method run, <code>null</code> to run them on the
+         * container thread
+         */
+        volatile RniExecutionPolicy policy;
+        
+        public MappedInvocationMethod(Object instance, RniMethod rniMethod) {
             this.instance = instance;
-            this.method = method;
-            this.methodParams = methodParams;
+            this.rniMethod = rniMethod;
+            this.invoker = MethodInvoker.forMethod(instance, rniMethod.getMethod());
+            this.metrics = RniMetrics.server().forMethod(rniMethod);
         }
 
     }
+    
+    /**
+     * Everything needed to send the result of a call once the method has been
+     * invoked, along with the timings recorded for the call.
+     * 
+     */
+    private static class CallContext {
+        
+        final RniMethod rniMethod;
+        
+        /**
+         * The codec to write the result with
+         */
+        final RniCodec responseCodec;
+        
+        /**
+         * The <code>If-None-Match</code> header of the request, may be
+         * <code>null</code>
+         */
+        final String ifNoneMatch;
+        
+        /**
+         * The encoding to compress the result with once it grows beyond the
+         * threshold, may be <code>null</code>
+         */
+        final ContentEncoding encoding;
+        
+        private final RniEndpointMetrics metrics;
+        
+        private final long start;
+        
+        private final long invokeStart;
+        
+        private CountingOutputStream out;
+        
+        CallContext(RniMethod rniMethod, RniCodec responseCodec, String ifNoneMatch, ContentEncoding encoding, RniEndpointMetrics metrics, long start, long invokeStart) {
+            this.rniMethod = rniMethod;
+            this.responseCodec = responseCodec;
+            this.ifNoneMatch = ifNoneMatch;
+            this.encoding = encoding;
+            this.metrics = metrics;
+            this.start = start;
+            this.invokeStart = invokeStart;
+        }
+        
+        /**
+         * @return the content type of the result
+         */
+        String getContentType() {
+            if(this.rniMethod.isBinaryResult()) {
+                return BinaryParts.RESULT_CONTENT_TYPE;
+            }
+            
+            return this.responseCodec.getContentType();
+        }
+        
+        /**
+         * Get the response stream, counting the bytes written to it.
+         * 
+         * @param exchange the exchange to write to
+         * 
+         * @return the stream to write the result to
+         * 
+         * @throws IOException if the stream cannot be obtained
+         */
+        OutputStream output(RniExchange exchange) throws IOException {
+            this.out = new CountingOutputStream(exchange.getOutputStream());
+            return this.out;
+        }
+        
+        /**
+         * Record that the implementation has returned, or that the stage it
+         * returned has completed.
+         */
+        void invoked() {
+            this.metrics.recordInvoke(System.nanoTime() - this.invokeStart);
+        }
+        
+        /**
+         * Record the call once the result has been sent, or failed to be.
+         * 
+         * @param encodeStart when sending the result started, in nanoseconds
+         * 
+         * @param failed whether sending the result failed
+         */
+        void sent(long encodeStart, boolean failed) {
+            final long end = System.nanoTime();
+            if(failed) {
+                this.metrics.recordError();
+            } else {
+                this.metrics.recordEncode(end - encodeStart);
+            }
+            
+            if(this.out != null) {
+                this.metrics.recordBytesOut(this.out.getCount());
+            }
+            
+            this.metrics.recordCall(end - this.start);
+        }
+        
+        /**
+         * Send an error for the call, and record it as failed.
+         * 
+         * @param exchange the exchange to send the error on
+         * 
+         * @param status the HTTP status code to send
+         * 
+         * @throws IOException if the error cannot be sent
+         */
+        void fail(RniExchange exchange, int status) throws IOException {
+            recordFailure(this.metrics, this.start);
+            exchange.sendError(status);
+        }
+        
+    }
 
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, least-recently-used cache of results for one method annotated with
+ * {@link RniCacheable}, keyed by the call arguments.
+ *
+ * @author sangupta
+ *
+ */
+class ResultCache {
+
+    private final long ttlNanos;
+
+    private final int maxEntries;
+
+    /**
+     * Entries in access order, guarded by <code>this</code>
+     */
+    private final LinkedHashMap<CallKey, Entry> entries;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long expirations;
+
+    ResultCache(RniMethod method, RniCacheable cacheable) {
+        if(cacheable.maxEntries() < 1) {
+            throw new IllegalArgumentException("Max entries must be positive for method: " + method);
+        }
+
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(cacheable.ttl());
+        this.maxEntries = cacheable.maxEntries();
+        this.entries = new LinkedHashMap<CallKey, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CallKey, ResultCache.Entry> eldest) {
+                if(this.size() > ResultCache.this.maxEntries) {
+                    ResultCache.this.evictions++;
+                    return true;
+                }
+
+                return false;
+            }
+
+        };
+    }
+
+    /**
+     * Get the cached result for the given key.
+     *
+     * @param key the key built from the call arguments
+     *
+     * @return the cached result, or <code>null</code> if none or expired
+     */
+    synchronized Object get(CallKey key) {
+        Entry entry = this.entries.get(key);
+        if(entry == null) {
+            this.misses++;
+            return null;
+        }
+
+        if(System.nanoTime() - entry.expiresAt >= 0) {
+            this.entries.remove(key);
+            this.expirations++;
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return entry.value;
+    }
+
+    /**
+     * Store the result of a call. <code>null</code> results are not stored.
+     *
+     * @param key the key built from the call arguments
+     *
+     * @param value the result of the call
+     */
+    synchronized void put(CallKey key, Object value) {
+        if(value == null) {
+            return;
+        }
+
+        this.entries.put(key, new Entry(value, System.nanoTime() + this.ttlNanos));
+    }
+
+    synchronized RniCacheStats getStats() {
+        return new RniCacheStats(this.hits, this.misses, this.evictions, this.expirations, this.entries.size());
+    }
+
+    private static class Entry {
+
+        final Object value;
+
+        final long expiresAt;
+
+        Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,105 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last result received for each set of arguments of a read-only
+ * method, along with its ETag, so that the next call can be revalidated
+ * instead of fetched again. See {@link RniReadOnly}.
+ *
+ * @author sangupta
+ *
+ */
+class RevalidationCache {
+
+    private final int maxEntries;
+
+    /**
+     * Entries in access order, guarded by <code>this</code>
+     */
+    private final LinkedHashMap<CallKey, Entry> entries;
+
+    RevalidationCache(RniMethod method, int maxEntries) {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException("Max entries must be positive for method: " + method);
+        }
+
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<CallKey, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CallKey, RevalidationCache.Entry> eldest) {
+                return this.size() > RevalidationCache.this.maxEntries;
+            }
+
+        };
+    }
+
+    /**
+     * Get the last result for the given key, along with its ETag.
+     *
+     * @param key the key built from the call arguments
+     *
+     * @return the entry, or <code>null</code> if there is no result
+     */
+    synchronized Entry get(CallKey key) {
+        return this.entries.get(key);
+    }
+
+    /**
+     * Keep the result of a call along with its ETag. A <code>null</code>
+     * result removes what was kept for the key.
+     *
+     * @param key the key built from the call arguments
+     *
+     * @param etag the quoted ETag sent by the server
+     *
+     * @param value the decoded result
+     */
+    synchronized void put(CallKey key, String etag, Object value) {
+        if(value == null) {
+            this.entries.remove(key);
+            return;
+        }
+
+        this.entries.put(key, new Entry(etag, value));
+    }
+
+    static class Entry {
+
+        final String etag;
+
+        final Object value;
+
+        Entry(String etag, Object value) {
+            this.etag = etag;
+            this.value = value;
+        }
+
+    }
+
+}
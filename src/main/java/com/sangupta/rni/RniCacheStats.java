@@ -0,0 +1,98 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * Snapshot of the statistics of the client-side result cache for one method
+ * annotated with {@link RniCacheable}.
+ *
+ * @author sangupta
+ *
+ */
+public class RniCacheStats {
+
+    private final long hits;
+
+    private final long misses;
+
+    /**
+     * Results removed to stay within the maximum number of entries
+     */
+    private final long evictions;
+
+    /**
+     * Results removed as they outlived their time to live
+     */
+    private final long expirations;
+
+    private final int size;
+
+    RniCacheStats(long hits, long misses, long evictions, long expirations, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.expirations = expirations;
+        this.size = size;
+    }
+
+    /**
+     * The ratio of calls answered from the cache.
+     *
+     * @return the hit ratio, between zero and one
+     */
+    public double getHitRatio() {
+        final long requests = this.hits + this.misses;
+        if(requests == 0) {
+            return 0;
+        }
+
+        return (double) this.hits / requests;
+    }
+
+    // Usual accessors follow
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getExpirations() {
+        return expirations;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + this.hits + ", misses=" + this.misses + ", evictions=" + this.evictions + ", expirations=" + this.expirations + ", size=" + this.size;
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface method whose result depends only on its arguments, such
+ * as a lookup by ID. Clients keep the results of such methods in a bounded
+ * cache, keyed by the encoded arguments, and answer repeated calls from it
+ * without going to the server.
+ *
+ * Cached results are shared between callers, and thus must not be modified.
+ * Calls that fail or return <code>null</code> are not cached.
+ *
+ * @author sangupta
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RniCacheable {
+
+    /**
+     * The time a result is kept for, in milliseconds.
+     *
+     * @return the time to live in milliseconds
+     */
+    long ttl() default 60_000;
+
+    /**
+     * The maximum number of results kept; the least recently used result is
+     * evicted when this is exceeded.
+     *
+     * @return the maximum number of results
+     */
+    int maxEntries() default 1_000;
+
+}
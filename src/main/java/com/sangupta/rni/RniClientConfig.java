@@ -0,0 +1,468 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * Configuration for clients created using {@link WebClientGenerator}. All
+ * setters return the same instance so that calls can be chained.
+ *
+ * @author sangupta
+ *
+ */
+public class RniClientConfig {
+
+    /**
+     * The codec used to encode arguments, and the preferred codec for results
+     */
+    private RniCodec codec = RniCodecs.JSON;
+
+    /**
+     * The transport to send calls with, <code>null</code> for the shared
+     * default {@link HttpTransport}, or {@link FramedTransport} if framed
+     */
+    private RniTransport transport;
+
+    /**
+     * Whether calls are sent over framed connections when no transport is set
+     */
+    private boolean framed;
+
+    /**
+     * Time to wait for responses in milliseconds, zero to use the transport
+     * default; can be overridden per method using {@link RniTimeout}
+     */
+    private int timeoutMillis;
+
+    /**
+     * Maximum number of calls sent in one batch, zero when batching is off
+     */
+    private int maxBatchSize;
+
+    /**
+     * Time to wait for more calls before a batch is sent, in milliseconds
+     */
+    private int batchWindowMillis;
+
+    /**
+     * Whether identical concurrent calls to read-only methods share one
+     * request
+     */
+    private boolean coalescing;
+
+    /**
+     * Minimum size in bytes of the encoded arguments before they are
+     * compressed, or a negative value when compression is off
+     */
+    private int compressionThreshold = -1;
+
+    /**
+     * The encoding arguments are compressed with
+     */
+    private String compressionEncoding = "gzip";
+
+    /**
+     * Whether the codec is run once for every method when the client is
+     * created
+     */
+    private boolean warmUp;
+
+    /**
+     * How calls are spread over endpoints, for clients sent to many
+     */
+    private RniLoadBalancer loadBalancer = RniLoadBalancer.POWER_OF_TWO_CHOICES;
+
+    /**
+     * Consecutive failures after which an endpoint is ejected
+     */
+    private int ejectionFailures = 5;
+
+    /**
+     * How many times slower than the median an endpoint may get before it is
+     * ejected, or zero to never eject for latency
+     */
+    private double ejectionLatencyFactor = 3;
+
+    /**
+     * Time an endpoint is ejected for the first time, in milliseconds
+     */
+    private int ejectionMillis = 10_000;
+
+    /**
+     * Time between two calls to the endpoint supplier, in milliseconds
+     */
+    private int endpointRefreshMillis = 5_000;
+
+    /**
+     * Percentile of the latency of a method after which a hedged request is
+     * sent, or zero when hedging is off
+     */
+    private double hedgePercentile;
+
+    /**
+     * Minimum time to wait before a hedged request is sent, in milliseconds
+     */
+    private int hedgeMinDelayMillis;
+
+    /**
+     * Collect calls made within a small window and send them to the server in
+     * one request. A batch is sent when it reaches the given size, or when the
+     * given time has passed since the first call in it was made, whichever
+     * happens first. Each caller still receives its own result.
+     * 
+     * @param maxBatchSize the maximum number of calls in a batch, at least 2
+     * 
+     * @param windowMillis the time to wait for more calls, in milliseconds
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setBatching(int maxBatchSize, int windowMillis) {
+        if(maxBatchSize < 2) {
+            throw new IllegalArgumentException("Batch size must be at least 2");
+        }
+
+        if(maxBatchSize > RniUtils.MAX_BATCH_CALLS) {
+            throw new IllegalArgumentException("Batch size cannot exceed " + RniUtils.MAX_BATCH_CALLS);
+        }
+
+        if(windowMillis < 0) {
+            throw new IllegalArgumentException("Batch window cannot be negative");
+        }
+
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindowMillis = windowMillis;
+        return this;
+    }
+
+    public boolean isBatching() {
+        return this.maxBatchSize > 0;
+    }
+
+    // Usual accessors follow
+
+    public RniCodec getCodec() {
+        return codec;
+    }
+
+    public RniClientConfig setCodec(RniCodec codec) {
+        if(codec == null) {
+            throw new IllegalArgumentException("Codec cannot be null");
+        }
+
+        this.codec = codec;
+        return this;
+    }
+
+    public RniTransport getTransport() {
+        return this.getTransport(false);
+    }
+
+    /**
+     * Get the transport to send calls with.
+     *
+     * @param framed whether the server serves framed connections, as per
+     *            the scheme of its URL
+     *
+     * @return the transport set, or the shared default one
+     */
+    RniTransport getTransport(boolean framed) {
+        if(this.transport != null) {
+            return this.transport;
+        }
+
+        if(framed || this.framed) {
+            return FramedTransport.getDefault();
+        }
+
+        return HttpTransport.getDefault();
+    }
+
+    public RniClientConfig setTransport(RniTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    public boolean isFramed() {
+        return framed;
+    }
+
+    /**
+     * Send calls over persistent TCP connections to a server started with
+     * {@link RniServerConfig#setFramed(boolean)}, using the shared default
+     * {@link FramedTransport}, unless a transport is set.
+     *
+     * @param framed whether to send calls over framed connections
+     *
+     * @return this instance
+     */
+    public RniClientConfig setFramed(boolean framed) {
+        this.framed = framed;
+        return this;
+    }
+
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public RniClientConfig setTimeoutMillis(int timeoutMillis) {
+        if(timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Let concurrent calls to the same read-only method, with equal arguments,
+     * share one outstanding request and all receive its result. Only methods
+     * annotated with {@link RniReadOnly} or {@link RniCacheable} are coalesced.
+     * 
+     * @param coalescing <code>true</code> to coalesce calls
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+
+    /**
+     * Compress arguments once they are larger than the given size, using
+     * <code>gzip</code>, and accept compressed results.
+     * 
+     * @param minSizeBytes the minimum size in bytes of the encoded arguments
+     *            for them to be compressed
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setCompression(int minSizeBytes) {
+        return this.setCompression(minSizeBytes, "gzip");
+    }
+
+    /**
+     * Compress arguments once they are larger than the given size, and accept
+     * compressed results. Results are compressed by the server using the best
+     * encoding both sides support, regardless of the encoding given here.
+     * 
+     * @param minSizeBytes the minimum size in bytes of the encoded arguments
+     *            for them to be compressed
+     * 
+     * @param encoding the encoding to compress arguments with, either
+     *            <code>gzip</code> or, if <code>lz4-java</code> is on the
+     *            classpath, <code>lz4</code>
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setCompression(int minSizeBytes, String encoding) {
+        if(minSizeBytes < 0) {
+            throw new IllegalArgumentException("Compression threshold cannot be negative");
+        }
+
+        if(ContentEncoding.forName(encoding) == null) {
+            throw new IllegalArgumentException("Unsupported compression encoding: " + encoding);
+        }
+
+        this.compressionThreshold = minSizeBytes;
+        this.compressionEncoding = encoding;
+        return this;
+    }
+
+    public boolean isCompression() {
+        return this.compressionThreshold >= 0;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public String getCompressionEncoding() {
+        return compressionEncoding;
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Run the codec once for every method when the client is created, so
+     * that the first real call is not slowed down by class loading and type
+     * resolution. Type adapters are resolved when the client is created in
+     * either case.
+     * 
+     * @param warmUp <code>true</code> to warm up
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+        return this;
+    }
+
+    public RniLoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    /**
+     * Set how calls are spread over endpoints, for clients created with many
+     * endpoints. The default is {@link RniLoadBalancer#POWER_OF_TWO_CHOICES}.
+     * 
+     * @param loadBalancer the balancing strategy
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setLoadBalancer(RniLoadBalancer loadBalancer) {
+        if(loadBalancer == null) {
+            throw new IllegalArgumentException("Load balancer cannot be null");
+        }
+
+        this.loadBalancer = loadBalancer;
+        return this;
+    }
+
+    /**
+     * Set when endpoints stop getting calls, for clients created with many
+     * endpoints. An endpoint is ejected after the given number of consecutive
+     * failures, where a failure is an I/O error or a 5xx status, or when its
+     * average latency grows beyond the given factor of the median across
+     * endpoints. It is ejected for the given time, and for a multiple of it
+     * if it is ejected again before a call to it succeeds. The defaults are
+     * 5 failures, a factor of 3 and 10 seconds.
+     * 
+     * @param consecutiveFailures the failures that eject an endpoint
+     * 
+     * @param latencyFactor the latency factor that ejects an endpoint, or
+     *            zero to never eject for latency
+     * 
+     * @param ejectionMillis the time to eject for, in milliseconds
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setEjection(int consecutiveFailures, double latencyFactor, int ejectionMillis) {
+        if(consecutiveFailures < 1) {
+            throw new IllegalArgumentException("Failures must be at least 1");
+        }
+
+        if(latencyFactor != 0 && latencyFactor <= 1) {
+            throw new IllegalArgumentException("Latency factor must be zero or above 1");
+        }
+
+        if(ejectionMillis < 0) {
+            throw new IllegalArgumentException("Ejection time cannot be negative");
+        }
+
+        this.ejectionFailures = consecutiveFailures;
+        this.ejectionLatencyFactor = latencyFactor;
+        this.ejectionMillis = ejectionMillis;
+        return this;
+    }
+
+    public int getEjectionFailures() {
+        return ejectionFailures;
+    }
+
+    public double getEjectionLatencyFactor() {
+        return ejectionLatencyFactor;
+    }
+
+    public int getEjectionMillis() {
+        return ejectionMillis;
+    }
+
+    public int getEndpointRefreshMillis() {
+        return endpointRefreshMillis;
+    }
+
+    /**
+     * Set how often the endpoint supplier of a client is asked for the
+     * current endpoints. The default is every 5 seconds.
+     * 
+     * @param refreshMillis the time between two calls, in milliseconds
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setEndpointRefreshMillis(int refreshMillis) {
+        if(refreshMillis < 0) {
+            throw new IllegalArgumentException("Refresh time cannot be negative");
+        }
+
+        this.endpointRefreshMillis = refreshMillis;
+        return this;
+    }
+
+    /**
+     * Send a second, hedged, request for calls to idempotent methods that
+     * have not completed within the given percentile of the latency of the
+     * method so far, and use whichever response comes first. Sending it to
+     * another endpoint is left to the balancer, for clients created with many
+     * endpoints. At most about one call in ten is hedged, so that a slow
+     * server does not get twice the load. Only methods annotated with
+     * {@link RniIdempotent}, {@link RniReadOnly} or {@link RniCacheable} are
+     * hedged, and never when batching.
+     * 
+     * @param percentile the percentile of latency after which to hedge, such
+     *            as 95
+     * 
+     * @param minDelayMillis the minimum time to wait before hedging, also
+     *            used until enough calls have been seen to know the latency
+     *            of the method
+     * 
+     * @return this instance
+     */
+    public RniClientConfig setHedging(double percentile, int minDelayMillis) {
+        if(percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        if(minDelayMillis < 0) {
+            throw new IllegalArgumentException("Hedging delay cannot be negative");
+        }
+
+        this.hedgePercentile = percentile;
+        this.hedgeMinDelayMillis = minDelayMillis;
+        return this;
+    }
+
+    public boolean isHedging() {
+        return this.hedgePercentile > 0;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public int getHedgeMinDelayMillis() {
+        return hedgeMinDelayMillis;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getBatchWindowMillis() {
+        return batchWindowMillis;
+    }
+
+}
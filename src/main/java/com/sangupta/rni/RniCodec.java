@@ -0,0 +1,183 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * Contract for encoding method arguments and results on the wire. The same
+ * codec implementations are used by the {@link WebClientGenerator} proxies and
+ * by the {@link RPCReceivingServlet}, and are selected using the
+ * <code>Content-Type</code> and <code>Accept</code> headers.
+ *
+ * Implementations must be thread-safe, and must not close the streams handed
+ * to them.
+ *
+ * @author sangupta
+ *
+ */
+public interface RniCodec {
+
+    /**
+     * The MIME type this codec reads and writes.
+     *
+     * @return the MIME type, without any parameters
+     */
+    public String getContentType();
+
+    /**
+     * Resolve whatever the codec needs to encode and decode values for the
+     * given method, such as type adapters. Called once when an interface is
+     * registered on the server or a client is created, so that the first call
+     * does not pay for it.
+     *
+     * @param method the method to prepare for
+     */
+    public default void prepare(RniMethod method) {
+        // nothing to resolve by default
+    }
+
+    /**
+     * Write the arguments for the given method to the stream.
+     *
+     * @param method the method being called
+     *
+     * @param args the arguments to the call, may be <code>null</code> for
+     *            methods without parameters
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    public void writeParams(RniMethod method, Object[] args, OutputStream out) throws IOException;
+
+    /**
+     * Read the arguments for the given method from the stream.
+     *
+     * @param method the method being called
+     *
+     * @param in the stream to read from
+     *
+     * @return the arguments, one per method parameter
+     *
+     * @throws IOException if reading fails
+     */
+    public Object[] readParams(RniMethod method, InputStream in) throws IOException;
+
+    /**
+     * Write the result of a method call to the stream.
+     *
+     * @param method the method that was called
+     *
+     * @param result the non-<code>null</code> result
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    public void writeResult(RniMethod method, Object result, OutputStream out) throws IOException;
+
+    /**
+     * Read the result of a method call from the stream.
+     *
+     * @param method the method that was called
+     *
+     * @param in the stream to read from
+     *
+     * @return the result
+     *
+     * @throws IOException if reading fails
+     */
+    public Object readResult(RniMethod method, InputStream in) throws IOException;
+
+    /**
+     * Write the elements of a streamed result to the stream, taking each from
+     * the iterator only once the previous one has been written. By default
+     * every element is written using
+     * {@link #writeResult(RniMethod, Object, OutputStream)} as a frame of its
+     * own, prefixed with its length as a 4-byte big-endian integer, a zero
+     * length standing for a <code>null</code> element. A length of
+     * <code>-1</code> marks the end, so that a truncated stream is told apart
+     * from a complete one.
+     *
+     * @param method the method that was called
+     *
+     * @param elements the elements to write
+     *
+     * @param out the stream to write to
+     *
+     * @throws IOException if writing fails
+     */
+    public default void writeElements(RniMethod method, Iterator<?> elements, OutputStream out) throws IOException {
+        FramedElements.write(this, method, elements, out);
+    }
+
+    /**
+     * Start reading the elements of a streamed result, as written by
+     * {@link #writeElements(RniMethod, Iterator, OutputStream)}. Elements are
+     * read from the stream only when asked for.
+     *
+     * @param method the method that was called
+     *
+     * @param in the stream to read from
+     *
+     * @return the reader for the elements
+     *
+     * @throws IOException if reading fails
+     */
+    public default ElementReader readElements(RniMethod method, InputStream in) throws IOException {
+        return new FramedElements.Reader(this, method, in);
+    }
+
+    /**
+     * Reads the elements of a streamed result one at a time.
+     *
+     */
+    public interface ElementReader {
+
+        /**
+         * Check if another element follows. Called once before each call to
+         * {@link #next()}.
+         *
+         * @return <code>true</code> if there is another element,
+         *         <code>false</code> at the end of the result
+         *
+         * @throws IOException if reading fails, or the stream ends before
+         *             the end of the result
+         */
+        public boolean hasNext() throws IOException;
+
+        /**
+         * Read the next element.
+         *
+         * @return the element, may be <code>null</code>
+         *
+         * @throws IOException if reading fails
+         */
+        public Object next() throws IOException;
+
+    }
+
+}
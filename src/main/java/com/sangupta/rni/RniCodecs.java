@@ -0,0 +1,175 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of all {@link RniCodec}s known to this JVM, along with helpers to
+ * negotiate the codec to use from HTTP headers. The JSON and binary codecs are
+ * always registered.
+ *
+ * @author sangupta
+ *
+ */
+public class RniCodecs {
+
+    /**
+     * The default JSON codec, handy for debugging
+     */
+    public static final RniCodec JSON = new JsonCodec();
+
+    /**
+     * The compact binary codec
+     */
+    public static final RniCodec BINARY = new BinaryCodec();
+
+    private static final CopyOnWriteArrayList<RniCodec> CODECS = new CopyOnWriteArrayList<>();
+
+    static {
+        CODECS.add(JSON);
+        CODECS.add(BINARY);
+    }
+
+    /**
+     * Register a new codec. A codec registered later for the same content
+     * type takes precedence.
+     *
+     * @param codec the codec to register
+     */
+    public static void register(RniCodec codec) {
+        if(codec == null) {
+            throw new IllegalArgumentException("Codec cannot be null");
+        }
+
+        CODECS.add(0, codec);
+    }
+
+    /**
+     * Find the codec for the given <code>Content-Type</code> header value.
+     *
+     * @param contentType the header value, may include parameters such as the
+     *            charset
+     *
+     * @return the matching codec, or <code>null</code> if none matches
+     */
+    public static RniCodec forContentType(String contentType) {
+        if(contentType == null) {
+            return null;
+        }
+
+        for(RniCodec codec : CODECS) {
+            final String type = codec.getContentType();
+            if(!contentType.regionMatches(true, 0, type, 0, type.length())) {
+                continue;
+            }
+
+            if(contentType.length() == type.length()) {
+                return codec;
+            }
+
+            char next = contentType.charAt(type.length());
+            if(next == ';' || next == ' ') {
+                return codec;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the codec to respond with for the given <code>Accept</code> header
+     * value. The codec whose content type appears first in the header wins;
+     * quality values are not considered.
+     *
+     * @param accept the header value
+     *
+     * @param defaultCodec the codec to use if the header is missing or matches
+     *            no registered codec
+     *
+     * @return the codec to respond with
+     */
+    public static RniCodec forAccept(String accept, RniCodec defaultCodec) {
+        if(accept == null) {
+            return defaultCodec;
+        }
+
+        RniCodec selected = defaultCodec;
+        int position = Integer.MAX_VALUE;
+        for(RniCodec codec : CODECS) {
+            int index = accept.indexOf(codec.getContentType());
+            if(index >= 0 && index < position) {
+                selected = codec;
+                position = index;
+            }
+        }
+
+        return selected;
+    }
+
+    /**
+     * Let every registered codec prepare for the given method.
+     *
+     * @param method the method to prepare for
+     */
+    static void prepare(RniMethod method) {
+        for(RniCodec codec : CODECS) {
+            codec.prepare(method);
+        }
+    }
+
+    /**
+     * Warm up every registered codec for the given method.
+     *
+     * @param method the method to warm up for
+     */
+    static void warmUp(RniMethod method) {
+        for(RniCodec codec : CODECS) {
+            warmUp(codec, method);
+        }
+    }
+
+    /**
+     * Run the given codec once over the given method with all arguments set
+     * to <code>null</code>, so that classes are loaded and code paths
+     * resolved before the first real call. Failures are ignored.
+     *
+     * @param codec the codec to warm up
+     *
+     * @param method the method to warm up for
+     */
+    static void warmUp(RniCodec codec, RniMethod method) {
+        codec.prepare(method);
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            codec.writeParams(method, new Object[method.getParameterCount()], out);
+            codec.readParams(method, new ByteArrayInputStream(out.toByteArray()));
+        } catch(IOException | RuntimeException e) {
+            // only a warm-up
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The deadline of RNI calls, that is the time by which the caller needs the
+ * result. Clients send the deadline with every call that has a timeout, as
+ * set using {@link RniTimeout}, {@link RniClientConfig#setTimeoutMillis(int)}
+ * or {@link #within(long, Supplier)}. The server rejects calls whose deadline
+ * has passed, before reading their arguments and again before invoking them,
+ * with <code>504 Gateway Timeout</code>.
+ *
+ * While a call is being invoked on the server, its deadline is available to
+ * the implementation via the static methods of this class, and applies to
+ * every RNI call the implementation makes in turn. For implementations that
+ * return a {@link java.util.concurrent.CompletionStage}, this only holds for
+ * the thread that invoked the method, until it returns.
+ *
+ * Deadlines are kept on the monotonic clock of {@link System#nanoTime()}, and
+ * sent as the time left until them. The server counts that time from when it
+ * receives the call, so clocks of clients and servers need not agree, while
+ * the time the call spends on the network is not taken off.
+ *
+ * @author sangupta
+ *
+ */
+public final class RniDeadline {
+
+    /**
+     * The deadline of the current thread, as returned by {@link #after(long)}
+     */
+    private static final ThreadLocal<Long> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Time deadlines are measured from, so that every deadline is positive
+     * and zero can stand for none
+     */
+    private static final long ORIGIN = System.nanoTime() - 1;
+
+    private RniDeadline() {
+        // no instances
+    }
+
+    /**
+     * Run the given calls with a deadline the given time from now, or the
+     * current deadline if that is earlier.
+     *
+     * @param timeoutMillis the time the calls may take, in milliseconds
+     *
+     * @param calls the calls to make
+     *
+     * @return the value returned by the calls
+     */
+    public static <T> T within(long timeoutMillis, Supplier<T> calls) {
+        if(timeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+
+        if(calls == null) {
+            throw new IllegalArgumentException("Calls cannot be null");
+        }
+
+        final Long previous = CURRENT.get();
+        final long deadline = earliest(previous == null ? 0 : previous.longValue(), after(timeoutMillis));
+        CURRENT.set(deadline);
+        try {
+            return calls.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the current thread runs under a deadline
+     */
+    public static boolean isSet() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * @return the time left until the deadline of the current thread, in
+     *         milliseconds, which is negative once it has passed, or
+     *         {@link Long#MAX_VALUE} if there is none
+     */
+    public static long getRemainingMillis() {
+        final Long deadline = CURRENT.get();
+        if(deadline == null) {
+            return Long.MAX_VALUE;
+        }
+
+        return remainingMillis(deadline.longValue());
+    }
+
+    /**
+     * @return <code>true</code> if the deadline of the current thread has
+     *         passed
+     */
+    public static boolean isExpired() {
+        return hasPassed(current());
+    }
+
+    /**
+     * @return the deadline of the current thread, as returned by
+     *         {@link #after(long)}, or zero if there is none
+     */
+    static long current() {
+        final Long deadline = CURRENT.get();
+        return deadline == null ? 0 : deadline.longValue();
+    }
+
+    /**
+     * Set the deadline of the current thread.
+     *
+     * @param deadline the deadline, or zero for none
+     *
+     * @return the deadline set before, to be restored with
+     *         {@link #restore(Long)}
+     */
+    static Long enter(long deadline) {
+        final Long previous = CURRENT.get();
+        if(deadline > 0) {
+            CURRENT.set(deadline);
+        } else {
+            CURRENT.remove();
+        }
+
+        return previous;
+    }
+
+    static void restore(Long previous) {
+        if(previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Get the deadline the given time from now.
+     *
+     * @param timeoutMillis the time until the deadline, in milliseconds
+     *
+     * @return the deadline, in nanoseconds since an arbitrary origin, which
+     *         is always positive
+     */
+    static long after(long timeoutMillis) {
+        final long now = now();
+        return now + Math.min(TimeUnit.MILLISECONDS.toNanos(timeoutMillis), Long.MAX_VALUE - now);
+    }
+
+    /**
+     * Get the time left until the given deadline.
+     *
+     * @param deadline the deadline, as returned by {@link #after(long)}
+     *
+     * @return the time left in milliseconds, which is negative once the
+     *         deadline has passed
+     */
+    static long remainingMillis(long deadline) {
+        return Math.floorDiv(deadline - now(), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * Check if the given deadline has passed.
+     *
+     * @param deadline the deadline, or zero for none
+     *
+     * @return <code>true</code> if there is a deadline and it has passed
+     */
+    static boolean hasPassed(long deadline) {
+        return deadline > 0 && now() > deadline;
+    }
+
+    /**
+     * @return the earlier of the given deadlines, either of which may be zero
+     *         for none
+     */
+    static long earliest(long first, long second) {
+        if(first <= 0) {
+            return second;
+        }
+
+        if(second <= 0) {
+            return first;
+        }
+
+        return Math.min(first, second);
+    }
+
+    /**
+     * Format the deadline of a call for sending, as the time left until it.
+     *
+     * @param deadline the deadline
+     *
+     * @return the header value
+     */
+    static String format(long deadline) {
+        return Long.toString(Math.max(0, remainingMillis(deadline)));
+    }
+
+    /**
+     * Parse the deadline sent with a call, counting the time left from now.
+     *
+     * @param header the header value, may be <code>null</code>
+     *
+     * @return the deadline, or zero if none was sent or it cannot be read
+     */
+    static long parse(String header) {
+        if(header == null) {
+            return 0;
+        }
+
+        try {
+            return after(Math.max(0, Long.parseLong(header.trim())));
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() - ORIGIN;
+    }
+
+}
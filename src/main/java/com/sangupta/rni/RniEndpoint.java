@@ -0,0 +1,83 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * One server, or replica, that a client can send calls to.
+ *
+ * @author sangupta
+ *
+ */
+public final class RniEndpoint {
+
+    private final String host;
+
+    private final int port;
+
+    public RniEndpoint(String host, int port) {
+        if(host == null || host.isEmpty()) {
+            throw new IllegalArgumentException("Host cannot be empty");
+        }
+
+        if(port <= 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid port: " + port);
+        }
+
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.host.hashCode() + this.port;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+
+        if(!(obj instanceof RniEndpoint)) {
+            return false;
+        }
+
+        RniEndpoint other = (RniEndpoint) obj;
+        return this.port == other.port && this.host.equals(other.host);
+    }
+
+    @Override
+    public String toString() {
+        return this.host + ":" + this.port;
+    }
+
+    // Usual accessors follow
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+}
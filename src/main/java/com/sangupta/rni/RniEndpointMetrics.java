@@ -0,0 +1,186 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live metrics for one endpoint, that is one <code>Interface/method</code>,
+ * on either the client or the server side. Latencies are split into phases:
+ *
+ * <ul>
+ * <li><b>decode</b> - reading the arguments on the server, or the result on
+ * the client</li>
+ * <li><b>invoke</b> - running the implementation on the server, or waiting for
+ * the server to respond on the client</li>
+ * <li><b>encode</b> - writing the result on the server, or the arguments on
+ * the client</li>
+ * <li><b>total</b> - the whole call, from start to end</li>
+ * </ul>
+ *
+ * Calls that fail early, and calls sent as part of a batch, may not record
+ * every phase.
+ *
+ * @author sangupta
+ *
+ */
+public class RniEndpointMetrics {
+
+    private final String name;
+
+    private final LongAdder calls = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder expired = new LongAdder();
+
+    private final LongAdder hedged = new LongAdder();
+
+    private final LongAdder shed = new LongAdder();
+
+    private final LongAdder bytesIn = new LongAdder();
+
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final LatencyHistogram decode = new LatencyHistogram();
+
+    private final LatencyHistogram invoke = new LatencyHistogram();
+
+    private final LatencyHistogram encode = new LatencyHistogram();
+
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    RniEndpointMetrics(String name) {
+        this.name = name;
+    }
+
+    void recordCall(long totalNanos) {
+        this.calls.increment();
+        this.total.record(totalNanos);
+    }
+
+    void recordError() {
+        this.errors.increment();
+    }
+
+    void recordExpired() {
+        this.expired.increment();
+    }
+
+    void recordHedged() {
+        this.hedged.increment();
+    }
+
+    void recordShed() {
+        this.shed.increment();
+    }
+
+    void recordDecode(long nanos) {
+        this.decode.record(nanos);
+    }
+
+    void recordInvoke(long nanos) {
+        this.invoke.record(nanos);
+    }
+
+    void recordEncode(long nanos) {
+        this.encode.record(nanos);
+    }
+
+    void recordBytesIn(long bytes) {
+        this.bytesIn.add(bytes);
+    }
+
+    void recordBytesOut(long bytes) {
+        this.bytesOut.add(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return this.name + ": calls=" + this.getCalls() + ", errors=" + this.getErrors() + ", total=[" + this.total + "]";
+    }
+
+    // Usual accessors follow
+
+    /**
+     * @return the endpoint name, as <code>Interface/method</code>
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return the calls rejected by the server because their deadline had
+     *         passed, or not sent by the client for the same reason
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * @return the calls for which the client sent a hedged request
+     */
+    public long getHedged() {
+        return hedged.sum();
+    }
+
+    /**
+     * @return the calls rejected by the server for being beyond the
+     *         concurrency limit of the method
+     */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public LatencyHistogram getDecode() {
+        return decode;
+    }
+
+    public LatencyHistogram getInvoke() {
+        return invoke;
+    }
+
+    public LatencyHistogram getEncode() {
+        return encode;
+    }
+
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A single HTTP request and its response, as served by the
+ * {@link RPCReceivingServlet} in a servlet container or by an
+ * {@link RniServer}. Response headers can be set until the first byte of the
+ * body has been written.
+ *
+ * @author sangupta
+ *
+ */
+interface RniExchange {
+
+    /**
+     * @return the HTTP method of the request
+     */
+    public String getMethod();
+
+    /**
+     * @return the path of the request, not decoded
+     */
+    public String getRequestURI();
+
+    /**
+     * Get the value of the given request header.
+     *
+     * @param name the header name, matched ignoring case
+     *
+     * @return the first value for the header, or <code>null</code>
+     */
+    public String getHeader(String name);
+
+    /**
+     * @return the content type of the request, or <code>null</code>
+     */
+    public String getContentType();
+
+    /**
+     * @return the request body
+     *
+     * @throws IOException if the body cannot be opened
+     */
+    public InputStream getInputStream() throws IOException;
+
+    public int getStatus();
+
+    public void setStatus(int status);
+
+    public void setHeader(String name, String value);
+
+    public void setContentType(String contentType);
+
+    public void setContentLength(long length);
+
+    /**
+     * Get the response body, sending the status and headers once the first
+     * byte is written.
+     *
+     * @return the response body
+     *
+     * @throws IOException if the body cannot be opened
+     */
+    public OutputStream getOutputStream() throws IOException;
+
+    /**
+     * @return <code>true</code> if the status and headers have been sent
+     */
+    public boolean isCommitted();
+
+    /**
+     * Send the given status without a body.
+     *
+     * @param status the HTTP status code
+     *
+     * @throws IOException if the response cannot be sent
+     */
+    public void sendError(int status) throws IOException;
+
+    /**
+     * @return <code>true</code> if the exchange can be completed from another
+     *         thread, once the current one has returned
+     */
+    public boolean isAsyncSupported();
+
+    /**
+     * Keep the exchange open once the current thread returns, until
+     * {@link #complete()} is called.
+     *
+     * @param timeoutMillis the time after which the exchange is ended if not
+     *            completed, or zero for none
+     *
+     * @param onTimeout run if the exchange is ended as it timed out or failed
+     *            before being completed, may be <code>null</code>
+     */
+    public void startAsync(long timeoutMillis, Runnable onTimeout);
+
+    /**
+     * End an exchange put in async mode, sending whatever is left of the
+     * response.
+     */
+    public void complete();
+
+}
@@ -0,0 +1,335 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where {@link RPCReceivingServlet} runs the calls to an interface, or to a
+ * single method of it. By default calls run on the container thread that
+ * received them, so one slow interface can hold up every thread of the
+ * container; giving it a policy of its own isolates it from the others.
+ *
+ * Each policy bounds the calls it accepts. Calls beyond the bound are either
+ * rejected with <code>503 Service Unavailable</code>, or run on the container
+ * thread, as per {@link Overflow}. A policy owns its threads, and may be
+ * shared by many interfaces to have them share the threads.
+ *
+ * @author sangupta
+ *
+ */
+public class RniExecutionPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RniExecutionPolicy.class);
+
+    /**
+     * What happens to calls once a policy has accepted as many as it can.
+     *
+     */
+    public enum Overflow {
+
+        /**
+         * Reject the call with <code>503 Service Unavailable</code>
+         */
+        REJECT,
+
+        /**
+         * Run the call on the container thread that received it
+         */
+        CALLER_RUNS;
+
+    }
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    /**
+     * The policy that runs calls on the container thread
+     */
+    private static final RniExecutionPolicy CALLER_RUNS = new RniExecutionPolicy(null, null, null, Overflow.CALLER_RUNS, "caller-runs");
+
+    private final ExecutorService executor;
+
+    /**
+     * Bounds the calls accepted by virtual threads, <code>null</code> for
+     * pools which are bounded by their queue
+     */
+    private final AtomicInteger accepted;
+
+    private final Semaphore running;
+
+    private final int maxAccepted;
+
+    private final Overflow overflow;
+
+    private final String description;
+
+    private RniExecutionPolicy(ExecutorService executor, Semaphore running, Integer maxAccepted, Overflow overflow, String description) {
+        this.executor = executor;
+        this.running = running;
+        this.accepted = running != null ? new AtomicInteger() : null;
+        this.maxAccepted = maxAccepted != null ? maxAccepted : 0;
+        this.overflow = overflow;
+        this.description = description;
+    }
+
+    /**
+     * Run calls on the container thread that received them, which is what
+     * happens when no policy is set.
+     *
+     * @return the policy
+     */
+    public static RniExecutionPolicy callerRuns() {
+        return CALLER_RUNS;
+    }
+
+    /**
+     * Run calls on a dedicated pool of threads, rejecting calls once all
+     * threads are busy and the queue is full.
+     *
+     * @param threads the number of threads
+     *
+     * @param queueSize the calls that may wait for a thread, or zero for none
+     *
+     * @return the policy
+     */
+    public static RniExecutionPolicy boundedPool(int threads, int queueSize) {
+        return boundedPool(threads, queueSize, Overflow.REJECT);
+    }
+
+    /**
+     * Run calls on a dedicated pool of threads.
+     *
+     * @param threads the number of threads
+     *
+     * @param queueSize the calls that may wait for a thread, or zero for none
+     *
+     * @param overflow what to do with calls once all threads are busy and the
+     *            queue is full
+     *
+     * @return the policy
+     */
+    public static RniExecutionPolicy boundedPool(int threads, int queueSize, Overflow overflow) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1");
+        }
+
+        if(queueSize < 0) {
+            throw new IllegalArgumentException("Queue size cannot be negative");
+        }
+
+        if(overflow == null) {
+            throw new IllegalArgumentException("Overflow cannot be null");
+        }
+
+        final String prefix = "rni-pool-" + POOL_NUMBER.incrementAndGet() + "-";
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) : new SynchronousQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        return new RniExecutionPolicy(executor, null, null, overflow, "pool of " + threads + " threads, queue of " + queueSize);
+    }
+
+    /**
+     * Run every call on a virtual thread of its own, on JDKs that support
+     * them, rejecting calls beyond the given bounds. On older JDKs a
+     * {@link #boundedPool(int, int, Overflow)} of the same bounds is used.
+     *
+     * @param maxRunning the calls that may run at once
+     *
+     * @param queueSize the calls that may wait for one to complete, or zero
+     *            for none
+     *
+     * @return the policy
+     */
+    public static RniExecutionPolicy virtualThreads(int maxRunning, int queueSize) {
+        return virtualThreads(maxRunning, queueSize, Overflow.REJECT);
+    }
+
+    /**
+     * Run every call on a virtual thread of its own, on JDKs that support
+     * them. On older JDKs a {@link #boundedPool(int, int, Overflow)} of the
+     * same bounds is used.
+     *
+     * @param maxRunning the calls that may run at once
+     *
+     * @param queueSize the calls that may wait for one to complete, or zero
+     *            for none
+     *
+     * @param overflow what to do with calls beyond the bounds
+     *
+     * @return the policy
+     */
+    public static RniExecutionPolicy virtualThreads(int maxRunning, int queueSize, Overflow overflow) {
+        if(maxRunning < 1) {
+            throw new IllegalArgumentException("Running calls must be at least 1");
+        }
+
+        if(queueSize < 0) {
+            throw new IllegalArgumentException("Queue size cannot be negative");
+        }
+
+        if(overflow == null) {
+            throw new IllegalArgumentException("Overflow cannot be null");
+        }
+
+        final ExecutorService executor = newVirtualThreadExecutor();
+        if(executor == null) {
+            LOGGER.warn("Virtual threads are not supported by this JDK, using a pool of {} threads", maxRunning);
+            return boundedPool(maxRunning, queueSize, overflow);
+        }
+
+        return new RniExecutionPolicy(executor, new Semaphore(maxRunning), maxRunning + queueSize, overflow, "virtual threads, " + maxRunning + " running, queue of " + queueSize);
+    }
+
+    /**
+     * @return <code>true</code> if this JDK supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VirtualThreads.FACTORY != null;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        if(VirtualThreads.FACTORY == null) {
+            return null;
+        }
+
+        try {
+            return (ExecutorService) VirtualThreads.FACTORY.invoke(null);
+        } catch(ReflectiveOperationException e) {
+            LOGGER.debug("Unable to create virtual thread executor", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stop the threads of this policy once the calls accepted so far have
+     * completed. Calls made later are treated as overflowing.
+     */
+    public void shutdown() {
+        if(this.executor != null) {
+            this.executor.shutdown();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if calls run on the container thread
+     */
+    boolean isCallerRuns() {
+        return this.executor == null;
+    }
+
+    /**
+     * Run the given call as per this policy.
+     *
+     * @param call the call to run
+     *
+     * @return <code>false</code> if the call was rejected and has not run
+     */
+    boolean execute(final Runnable call) {
+        if(this.executor == null) {
+            call.run();
+            return true;
+        }
+
+        try {
+            if(this.running == null) {
+                this.executor.execute(call);
+                return true;
+            }
+
+            if(this.accepted.incrementAndGet() > this.maxAccepted) {
+                this.accepted.decrementAndGet();
+                return this.overflow(call);
+            }
+
+            this.executor.execute(() -> {
+                try {
+                    this.running.acquireUninterruptibly();
+                    try {
+                        call.run();
+                    } finally {
+                        this.running.release();
+                    }
+                } finally {
+                    this.accepted.decrementAndGet();
+                }
+            });
+            return true;
+        } catch(RejectedExecutionException e) {
+            if(this.accepted != null) {
+                this.accepted.decrementAndGet();
+            }
+
+            return this.overflow(call);
+        }
+    }
+
+    private boolean overflow(Runnable call) {
+        if(this.overflow == Overflow.REJECT) {
+            return false;
+        }
+
+        call.run();
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return this.description + ", on overflow " + this.overflow;
+    }
+
+    /**
+     * Holds the factory for virtual thread executors, looked up once, so
+     * that the library runs on JDKs without them.
+     *
+     */
+    private static class VirtualThreads {
+
+        static final Method FACTORY = find();
+
+        private static Method find() {
+            try {
+                return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            } catch(NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * How {@link RPCReceivingServlet} adjusts the number of calls it lets run at
+ * once for each method, from the latency it observes. Each method starts at
+ * the initial limit, and calls beyond the current limit are rejected with
+ * <code>503 Service Unavailable</code> rather than queued. Limits only grow
+ * while at least half of the current limit is in use.
+ *
+ * @author sangupta
+ *
+ */
+public enum RniLimitAlgorithm {
+
+    /**
+     * Grow the limit by one for each call that completes in time, and shrink
+     * it by a tenth for each call that fails or takes more than twice the
+     * tolerated latency.
+     */
+    AIMD,
+
+    /**
+     * Estimate the calls queued from the ratio of the lowest latency seen to
+     * the current one, as TCP Vegas does, and grow the limit while few are
+     * queued and shrink it once too many are.
+     */
+    VEGAS,
+
+    /**
+     * Scale the limit by the ratio of the long-term average latency to the
+     * recent one, so that it shrinks as soon as latency rises beyond the
+     * tolerated ratio, while leaving room for a small queue.
+     */
+    GRADIENT;
+
+}
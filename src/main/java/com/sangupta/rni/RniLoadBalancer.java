@@ -0,0 +1,47 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * How a client sent to many endpoints picks the endpoint for each call.
+ * Ejected endpoints are skipped either way.
+ *
+ * @author sangupta
+ *
+ */
+public enum RniLoadBalancer {
+
+    /**
+     * Pick two endpoints at random and send to the one with the lower
+     * expected latency, that is its recent average latency scaled by the
+     * number of calls outstanding on it. Reacts to slow replicas while
+     * avoiding herding onto a single best one.
+     */
+    POWER_OF_TWO_CHOICES,
+
+    /**
+     * Send to the endpoint with the fewest calls outstanding, picking at
+     * random among ties.
+     */
+    LEAST_OUTSTANDING;
+
+}
@@ -0,0 +1,389 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+
+/**
+ * Describes a single remotely callable interface method. All values are
+ * resolved once, when an interface is registered on the server or when a
+ * client is created, so that nothing needs to be looked up per call.
+ *
+ * The method ID is derived only from the interface simple name, method name
+ * and parameter types, and thus is the same on both the client and the server.
+ *
+ * @author sangupta
+ *
+ */
+public class RniMethod {
+
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+
+    private static final int FNV_PRIME = 0x01000193;
+
+    /**
+     * The simple name of the interface this method belongs to
+     */
+    private final String serviceName;
+
+    /**
+     * The method as declared in the interface
+     */
+    private final Method method;
+
+    /**
+     * Comma separated parameter class names, as sent in legacy headers
+     */
+    private final String methodParams;
+
+    /**
+     * The path for this method relative to the RNI context,
+     * <code>serviceName/methodName</code>
+     */
+    private final String path;
+
+    /**
+     * The compact ID for this method overload
+     */
+    private final int id;
+
+    /**
+     * The ID as sent in the request header
+     */
+    private final String idHeader;
+
+    private final Class<?>[] parameterTypes;
+
+    private final Type[] genericParameterTypes;
+
+    /**
+     * The type of the value sent back; for async methods this is the type the
+     * returned stage completes with, and for streaming methods the type of
+     * the elements
+     */
+    private final Type resultType;
+
+    /**
+     * Whether the method returns a {@link CompletionStage}
+     */
+    private final boolean async;
+
+    /**
+     * The declared return type if it is one of {@link Iterator},
+     * {@link Iterable} or {@link Stream}, whose elements are then sent one at
+     * a time, or <code>null</code>
+     */
+    private final Class<?> streamType;
+
+    /**
+     * Whether the parameter at each index is binary, and thus sent as a part
+     * of its own rather than encoded by the codec
+     */
+    private final boolean[] binaryParams;
+
+    private final boolean hasBinaryParams;
+
+    /**
+     * Whether the result is binary, and thus sent as is rather than encoded by
+     * the codec
+     */
+    private final boolean binaryResult;
+
+    /**
+     * Whether calls can be sent in a batch, which needs all arguments and the
+     * result to be encoded by the codec
+     */
+    private final boolean batchable;
+
+    /**
+     * Whether the method is annotated as not changing server state, and thus
+     * its results can be revalidated using an ETag
+     */
+    private final boolean readOnly;
+
+    /**
+     * Whether the method can safely be run more than once for the same call
+     */
+    private final boolean idempotent;
+
+    /**
+     * Most {@link Gson} instances adapters are kept for; client and server
+     * normally share one, and each codec may have its own
+     */
+    private static final int MAX_CACHED_ADAPTERS = 8;
+
+    /**
+     * Adapters resolved for each {@link Gson} instance asked for, matched by
+     * identity, the most recently added last. Replaced as a whole when one is
+     * added, so that lookups do not lock.
+     */
+    private volatile MethodAdapters[] adapters = new MethodAdapters[0];
+
+    RniMethod(Class<?> serviceInterface, Method method) {
+        this.serviceName = serviceInterface.getSimpleName();
+        this.method = method;
+        this.methodParams = RniUtils.getMethodParams(method);
+        this.path = this.serviceName + "/" + method.getName();
+        this.id = computeId(this.path, this.methodParams);
+        this.idHeader = Integer.toHexString(this.id);
+        this.parameterTypes = method.getParameterTypes();
+        this.genericParameterTypes = method.getGenericParameterTypes();
+        this.async = CompletionStage.class.isAssignableFrom(method.getReturnType());
+        this.streamType = resolveStreamType(method.getReturnType());
+        if(this.async || this.streamType != null) {
+            this.resultType = resolveTypeArgument(method.getGenericReturnType());
+        } else {
+            this.resultType = method.getGenericReturnType();
+        }
+
+        this.binaryParams = new boolean[this.parameterTypes.length];
+        boolean hasBinary = false;
+        boolean hasStream = false;
+        for(int index = 0; index < this.parameterTypes.length; index++) {
+            this.binaryParams[index] = isBinary(this.parameterTypes[index]);
+            hasBinary |= this.binaryParams[index];
+            hasStream |= this.parameterTypes[index] == InputStream.class;
+        }
+
+        this.hasBinaryParams = hasBinary;
+        this.binaryResult = this.streamType == null && isBinary(this.resultType);
+        this.batchable = this.streamType == null && !this.hasBinaryParams && !this.binaryResult;
+
+        // streamed results and binary arguments are read once, and cannot be
+        // kept or revalidated
+        final boolean keepable = this.streamType == null && !this.hasBinaryParams && (!this.binaryResult || this.resultType == byte[].class);
+        this.readOnly = keepable && (method.isAnnotationPresent(RniReadOnly.class) || method.isAnnotationPresent(RniCacheable.class));
+
+        // a stream argument cannot be sent twice
+        this.idempotent = !hasStream && (this.readOnly || method.isAnnotationPresent(RniIdempotent.class));
+    }
+
+    /**
+     * Check if results of the given return type are streamed.
+     * 
+     * @param returnType the declared return type of the method
+     * 
+     * @return the return type if it is streamed, or <code>null</code>
+     */
+    private static Class<?> resolveStreamType(Class<?> returnType) {
+        if(returnType == Iterator.class || returnType == Iterable.class || returnType == Stream.class) {
+            return returnType;
+        }
+
+        return null;
+    }
+
+    /**
+     * Check if values of the given type are sent as raw bytes.
+     * 
+     * @param type the declared parameter or result type
+     * 
+     * @return <code>true</code> for <code>byte[]</code>, {@link ByteBuffer}
+     *         and {@link InputStream}
+     */
+    static boolean isBinary(Type type) {
+        return type == byte[].class || type == ByteBuffer.class || type == InputStream.class;
+    }
+
+    /**
+     * Find the value type of a {@link CompletionStage} return type, or the
+     * element type of a streamed return type.
+     * 
+     * @param returnType the generic return type of the method
+     * 
+     * @return the type argument of the return type, or {@link Object} if it
+     *         cannot be determined
+     */
+    private static Type resolveTypeArgument(Type returnType) {
+        if(returnType instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) returnType).getActualTypeArguments();
+            if(arguments.length == 1 && !(arguments[0] instanceof TypeVariable)) {
+                Type argument = arguments[0];
+                if(argument instanceof WildcardType) {
+                    return ((WildcardType) argument).getUpperBounds()[0];
+                }
+
+                return argument;
+            }
+        }
+
+        return Object.class;
+    }
+
+    /**
+     * Compute the method ID for the given path and parameter signature using
+     * the 32-bit FNV-1a hash.
+     *
+     * @param path the path in the form <code>serviceName/methodName</code>
+     *
+     * @param methodParams the comma separated parameter class names
+     *
+     * @return the method ID
+     */
+    static int computeId(String path, String methodParams) {
+        int hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, path);
+        hash = (hash ^ '(') * FNV_PRIME;
+        hash = hash(hash, methodParams);
+        hash = (hash ^ ')') * FNV_PRIME;
+        return hash;
+    }
+
+    private static int hash(int hash, String str) {
+        for(int index = 0; index < str.length(); index++) {
+            hash = (hash ^ str.charAt(index)) * FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Get the type adapters for this method's parameters and result, building
+     * them on first use for the given {@link Gson} instance. Adapters are kept
+     * for up to {@link #MAX_CACHED_ADAPTERS} instances, dropping the oldest.
+     *
+     * @param gson the instance to resolve adapters with
+     *
+     * @return the adapters
+     */
+    MethodAdapters getAdapters(Gson gson) {
+        MethodAdapters[] current = this.adapters;
+        for(MethodAdapters cached : current) {
+            if(cached.gson == gson) {
+                return cached;
+            }
+        }
+
+        final MethodAdapters created = new MethodAdapters(gson, this);
+        synchronized(this) {
+            current = this.adapters;
+            for(MethodAdapters cached : current) {
+                if(cached.gson == gson) {
+                    return cached;
+                }
+            }
+
+            final int kept = Math.min(current.length, MAX_CACHED_ADAPTERS - 1);
+            final MethodAdapters[] updated = new MethodAdapters[kept + 1];
+            System.arraycopy(current, current.length - kept, updated, 0, kept);
+            updated[kept] = created;
+            this.adapters = updated;
+        }
+
+        return created;
+    }
+
+    // Usual accessors follow
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public String getMethodParams() {
+        return methodParams;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getIdHeader() {
+        return idHeader;
+    }
+
+    public int getParameterCount() {
+        return parameterTypes.length;
+    }
+
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public Type[] getGenericParameterTypes() {
+        return genericParameterTypes;
+    }
+
+    public Type getResultType() {
+        return resultType;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public boolean isStreaming() {
+        return streamType != null;
+    }
+
+    public Class<?> getStreamType() {
+        return streamType;
+    }
+
+    public boolean isBinaryParam(int index) {
+        return binaryParams[index];
+    }
+
+    public boolean hasBinaryParams() {
+        return hasBinaryParams;
+    }
+
+    public boolean isBinaryResult() {
+        return binaryResult;
+    }
+
+    public boolean isBatchable() {
+        return batchable;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    @Override
+    public String toString() {
+        return this.path + "(" + this.methodParams + ")";
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Registry of the {@link RniEndpointMetrics} for all endpoints called or
+ * served by this JVM. There is one registry for the client proxies and one
+ * for {@link RPCReceivingServlet}. Metrics are always collected; recording a
+ * call costs a few atomic updates and no allocation.
+ *
+ * The server can also expose both registries as JSON, see
+ * {@link RPCReceivingServlet#setMetricsEndpoint(boolean)}.
+ *
+ * @author sangupta
+ *
+ */
+public class RniMetrics {
+
+    private static final RniMetrics CLIENT = new RniMetrics();
+
+    private static final RniMetrics SERVER = new RniMetrics();
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    private final ConcurrentMap<String, RniEndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    private RniMetrics() {
+        // use the shared instances
+    }
+
+    /**
+     * @return the metrics of calls made by client proxies
+     */
+    public static RniMetrics client() {
+        return CLIENT;
+    }
+
+    /**
+     * @return the metrics of calls served by {@link RPCReceivingServlet}
+     */
+    public static RniMetrics server() {
+        return SERVER;
+    }
+
+    /**
+     * Get the metrics for a method, creating them if needed. Overloaded
+     * methods share their metrics.
+     *
+     * @param method the method
+     *
+     * @return the metrics for the method
+     */
+    RniEndpointMetrics forMethod(RniMethod method) {
+        return this.endpoints.computeIfAbsent(method.getPath(), RniEndpointMetrics::new);
+    }
+
+    /**
+     * Get the metrics of one endpoint.
+     *
+     * @param name the endpoint, as <code>Interface/method</code>
+     *
+     * @return the metrics, or <code>null</code> if the endpoint was never
+     *         called or registered
+     */
+    public RniEndpointMetrics getEndpoint(String name) {
+        return this.endpoints.get(name);
+    }
+
+    /**
+     * @return the metrics of all endpoints, sorted by name
+     */
+    public Map<String, RniEndpointMetrics> getEndpoints() {
+        return Collections.unmodifiableMap(new TreeMap<>(this.endpoints));
+    }
+
+    /**
+     * Write the metrics of all endpoints as a JSON object keyed by endpoint
+     * name. Latencies are in microseconds.
+     *
+     * @param json the writer to write to
+     *
+     * @throws IOException if writing fails
+     */
+    void writeJson(JsonWriter json) throws IOException {
+        json.beginObject();
+        for(RniEndpointMetrics metrics : this.getEndpoints().values()) {
+            json.name(metrics.getName()).beginObject();
+            json.name("calls").value(metrics.getCalls());
+            json.name("errors").value(metrics.getErrors());
+            json.name("expired").value(metrics.getExpired());
+            json.name("hedged").value(metrics.getHedged());
+            json.name("shed").value(metrics.getShed());
+            json.name("bytesIn").value(metrics.getBytesIn());
+            json.name("bytesOut").value(metrics.getBytesOut());
+            writeHistogram(json, "decode", metrics.getDecode());
+            writeHistogram(json, "invoke", metrics.getInvoke());
+            writeHistogram(json, "encode", metrics.getEncode());
+            writeHistogram(json, "total", metrics.getTotal());
+            json.endObject();
+        }
+        json.endObject();
+    }
+
+    private static void writeHistogram(JsonWriter json, String name, LatencyHistogram histogram) throws IOException {
+        json.name(name).beginObject();
+        json.name("count").value(histogram.getCount());
+        json.name("mean").value(Math.round(histogram.getMeanNanos() / 1000));
+        for(int index = 0; index < PERCENTILES.length; index++) {
+            json.name(PERCENTILE_NAMES[index]).value(histogram.getPercentileNanos(PERCENTILES[index]) / 1000);
+        }
+        json.name("max").value(histogram.getMaxNanos() / 1000);
+        json.endObject();
+    }
+
+    /**
+     * Write the client and server metrics as one JSON object.
+     *
+     * @param writer the writer to write to
+     *
+     * @throws IOException if writing fails
+     */
+    public static void writeJson(Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name("client");
+        CLIENT.writeJson(json);
+        json.name("server");
+        SERVER.writeJson(json);
+        json.endObject();
+        json.flush();
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sets how readily calls to an interface method are shed when the server is
+ * overloaded, once concurrency limits are turned on using
+ * {@link RPCReceivingServlet#setConcurrencyLimit(RniLimitAlgorithm)}. The
+ * priority sets how much the latency of the method may rise before its limit
+ * shrinks: as the server slows down, the limits of sheddable methods shrink
+ * first and those of critical methods last. Methods without this annotation
+ * are {@link Level#NORMAL}.
+ *
+ * @author sangupta
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RniPriority {
+
+    /**
+     * The priority of the method.
+     *
+     * @return the priority
+     */
+    Level value();
+
+    public enum Level {
+
+        /**
+         * Shed last: latency may double before the limit shrinks
+         */
+        CRITICAL(2.0),
+
+        /**
+         * Latency may rise by half before the limit shrinks
+         */
+        NORMAL(1.5),
+
+        /**
+         * Shed first: the limit shrinks as soon as latency rises
+         */
+        SHEDDABLE(1.0);
+
+        /**
+         * The ratio of recent to long-term latency tolerated
+         */
+        final double tolerance;
+
+        private Level(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+    }
+
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface method that does not change any state on the server.
+ * Results of such methods, and of methods annotated with {@link RniCacheable},
+ * are sent with an <code>ETag</code> computed from the encoded result.
+ *
+ * Clients keep the last result for each set of arguments and send its ETag
+ * with the next call. If the result has not changed, the server answers with
+ * <code>304 Not Modified</code> and no body, and the client returns the result
+ * it already has. Such results may thus be returned to more than one caller,
+ * and must not be modified.
+ *
+ * @author sangupta
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RniReadOnly {
+
+    /**
+     * The maximum number of results a client keeps for revalidation; the
+     * least recently used result is dropped when this is exceeded.
+     *
+     * @return the maximum number of results
+     */
+    int maxEntries() default 1_000;
+
+}
@@ -0,0 +1,249 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single call to be sent by an {@link RniTransport}.
+ *
+ * @author sangupta
+ *
+ */
+public class RniRequest {
+
+    /**
+     * Writes the request body when the request is sent.
+     *
+     */
+    public interface Body {
+
+        /**
+         * The MIME type of the body.
+         *
+         * @return the MIME type
+         */
+        public String getContentType();
+
+        /**
+         * The <code>Content-Encoding</code> the body is compressed with.
+         *
+         * @return the encoding name, or <code>null</code> if not compressed
+         */
+        public default String getContentEncoding() {
+            return null;
+        }
+
+        /**
+         * Check if the body can be written more than once.
+         *
+         * @return <code>false</code> if the body can only be written once,
+         *         such as when it is read from a stream
+         */
+        public default boolean isRepeatable() {
+            return true;
+        }
+
+        /**
+         * Write the body. May be called more than once if the request is
+         * retried and the body is repeatable.
+         *
+         * @param out the stream to write to, which must not be closed
+         *
+         * @throws IOException if writing fails
+         */
+        public void writeTo(OutputStream out) throws IOException;
+
+    }
+
+    /**
+     * The method being called, <code>null</code> for a batch of calls
+     */
+    private final RniMethod method;
+
+    private final URI uri;
+
+    /**
+     * Headers shared by all calls to the method, as name and value pairs
+     */
+    private final String[] baseHeaders;
+
+    /**
+     * Headers specific to this call, as name and value pairs
+     */
+    private List<String> headers;
+
+    private final Body body;
+
+    private final int timeoutMillis;
+
+    /**
+     * The result kept for the ETag sent in <code>If-None-Match</code>, if any
+     */
+    private Object revalidated;
+
+    public RniRequest(RniMethod method, URI uri, String[] baseHeaders, Body body, int timeoutMillis) {
+        this.method = method;
+        this.uri = uri;
+        this.baseHeaders = baseHeaders;
+        this.body = body;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Copy a request, sending it to a different URI.
+     *
+     * @param request the request to copy
+     *
+     * @param uri the URI to send the copy to
+     */
+    RniRequest(RniRequest request, URI uri) {
+        this(request.method, uri, request.baseHeaders, request.body, request.timeoutMillis);
+        this.revalidated = request.revalidated;
+        if(request.headers != null) {
+            this.headers = new ArrayList<>(request.headers);
+        }
+    }
+
+    /**
+     * Add a header specific to this call.
+     *
+     * @param name the header name
+     *
+     * @param value the header value
+     */
+    public void addHeader(String name, String value) {
+        if(this.headers == null) {
+            this.headers = new ArrayList<>(4);
+        }
+
+        this.headers.add(name);
+        this.headers.add(value);
+    }
+
+    /**
+     * Get the number of headers.
+     *
+     * @return the number of headers
+     */
+    public int getHeaderCount() {
+        return (this.baseHeaders.length + (this.headers == null ? 0 : this.headers.size())) / 2;
+    }
+
+    /**
+     * Get the name of the header at the given index.
+     *
+     * @param index the index, less than {@link #getHeaderCount()}
+     *
+     * @return the header name
+     */
+    public String getHeaderName(int index) {
+        return this.headerPart(index * 2);
+    }
+
+    /**
+     * Get the value of the header at the given index.
+     *
+     * @param index the index, less than {@link #getHeaderCount()}
+     *
+     * @return the header value
+     */
+    public String getHeaderValue(int index) {
+        return this.headerPart(index * 2 + 1);
+    }
+
+    /**
+     * Get the value of the given header.
+     *
+     * @param name the header name, matched ignoring case
+     *
+     * @return the value, or <code>null</code> if the header is not present
+     */
+    public String getHeader(String name) {
+        final int count = this.getHeaderCount();
+        for(int index = 0; index < count; index++) {
+            if(this.getHeaderName(index).equalsIgnoreCase(name)) {
+                return this.getHeaderValue(index);
+            }
+        }
+
+        return null;
+    }
+
+    private String headerPart(int position) {
+        if(position < this.baseHeaders.length) {
+            return this.baseHeaders[position];
+        }
+
+        return this.headers.get(position - this.baseHeaders.length);
+    }
+
+    /**
+     * Send the ETag of a kept result in <code>If-None-Match</code>, keeping
+     * the result with the request in case the server answers that it has not
+     * been modified.
+     *
+     * @param etag the quoted ETag of the result
+     *
+     * @param value the result kept for the ETag
+     */
+    void revalidate(String etag, Object value) {
+        this.addHeader(RniUtils.HEADER_IF_NONE_MATCH, etag);
+        this.revalidated = value;
+    }
+
+    /**
+     * @return the result kept for the ETag sent with this request, or
+     *         <code>null</code> if none was sent
+     */
+    Object getRevalidated() {
+        return this.revalidated;
+    }
+
+    // Usual accessors follow
+
+    public RniMethod getMethod() {
+        return method;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    public Body getBody() {
+        return body;
+    }
+
+    /**
+     * The time to wait for the response, in milliseconds.
+     *
+     * @return the timeout, or zero to use the transport default
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+}
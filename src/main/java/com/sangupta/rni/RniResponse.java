@@ -0,0 +1,73 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A response received by an {@link RniTransport}. Closing the response
+ * releases the underlying connection.
+ *
+ * @author sangupta
+ *
+ */
+public interface RniResponse extends Closeable {
+
+    /**
+     * The status code, as in HTTP.
+     *
+     * @return the status code
+     */
+    public int getStatus();
+
+    /**
+     * Get the value of the given response header.
+     *
+     * @param name the header name, matched ignoring case
+     *
+     * @return the first value for the header, or <code>null</code>
+     */
+    public String getHeader(String name);
+
+    /**
+     * Get the response body.
+     *
+     * @return the body stream, or <code>null</code> if there is no body
+     *
+     * @throws IOException if the body cannot be opened
+     */
+    public InputStream getBody() throws IOException;
+
+    /**
+     * Close the response without reading the rest of the body, such as when
+     * a streamed result is closed before its end. The connection may then not
+     * be reused.
+     *
+     * @throws IOException if the response cannot be closed
+     */
+    public default void abort() throws IOException {
+        this.close();
+    }
+
+}
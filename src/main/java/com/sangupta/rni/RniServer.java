@@ -0,0 +1,250 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A standalone server for RNI calls, for services that do not run in a
+ * servlet container. All interfaces registered with
+ * {@link RPCReceivingServlet#recieveCalls(Class, Object)} are served, along
+ * with batches and the metrics endpoint, exactly as by the servlet.
+ *
+ * The server is built on the non-blocking HTTP server of the JDK, and starts
+ * in a few milliseconds. A single selector thread accepts connections and
+ * parses requests, which are served on a pool of worker threads. Calls with
+ * an execution policy, or that return a stage, release their worker thread
+ * while they run. Calls can also be served over the {@link FramedProtocol}
+ * instead, as per {@link RniServerConfig#setFramed(boolean)}.
+ *
+ * <pre>
+ * RPCReceivingServlet.recieveCalls(PersonService.class, new PersonServiceImpl());
+ * RniServer server = RniServer.start(8080);
+ * </pre>
+ *
+ * @author sangupta
+ *
+ */
+public class RniServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RniServer.class);
+
+    private static final AtomicInteger SERVER_NUMBER = new AtomicInteger();
+
+    /**
+     * The HTTP server, <code>null</code> if calls are served over framed
+     * connections
+     */
+    private final HttpServer httpServer;
+
+    /**
+     * The framed server, <code>null</code> if calls are served over HTTP
+     */
+    private final FramedServer framedServer;
+
+    private final ExecutorService workers;
+
+    private RniServer(HttpServer httpServer, FramedServer framedServer, ExecutorService workers) {
+        this.httpServer = httpServer;
+        this.framedServer = framedServer;
+        this.workers = workers;
+    }
+
+    /**
+     * Start a server on the given port, with the default configuration.
+     *
+     * @param port the port to listen on, or zero for any free port
+     *
+     * @return the running server
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public static RniServer start(int port) throws IOException {
+        return start(port, new RniServerConfig());
+    }
+
+    /**
+     * Start a server at the given URL, with the default configuration. See
+     * {@link #start(String, RniServerConfig)}.
+     *
+     * @param url the URL to serve calls at
+     *
+     * @return the running server
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public static RniServer start(String url) throws IOException {
+        return start(url, new RniServerConfig());
+    }
+
+    /**
+     * Start a server at the given URL, such as
+     * <code>http://0.0.0.0:8080/rni</code> to serve calls over HTTP, or
+     * <code>rni://0.0.0.0:9090/rni</code> to serve them over framed
+     * connections. The host, port, context and protocol set in the
+     * configuration are replaced by those of the URL, leaving the given
+     * configuration as it is.
+     *
+     * @param url the URL to serve calls at
+     *
+     * @param config the configuration of the server
+     *
+     * @return the running server
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public static RniServer start(String url, RniServerConfig config) throws IOException {
+        if(url == null) {
+            throw new IllegalArgumentException("URL cannot be null");
+        }
+
+        if(config == null) {
+            throw new IllegalArgumentException("Server config cannot be null");
+        }
+
+        final URI uri = URI.create(url);
+        final boolean framed = FramedTransport.isFramedScheme(uri.getScheme());
+        if(!framed && !"http".equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("Unsupported scheme: " + uri.getScheme());
+        }
+
+        if(uri.getPort() == -1) {
+            throw new IllegalArgumentException("Port missing in URL: " + url);
+        }
+
+        String context = uri.getPath() == null ? "" : uri.getPath();
+        if(context.startsWith("/")) {
+            context = context.substring(1);
+        }
+
+        if(context.endsWith("/")) {
+            context = context.substring(0, context.length() - 1);
+        }
+
+        // the URL wins over the given config, which is left as it is
+        return start(uri.getPort(), config.copy().setHost(uri.getHost()).setContext(context).setFramed(framed));
+    }
+
+    /**
+     * Start a server on the given port.
+     *
+     * @param port the port to listen on, or zero for any free port
+     *
+     * @param config the configuration of the server
+     *
+     * @return the running server
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public static RniServer start(int port, RniServerConfig config) throws IOException {
+        if(config == null) {
+            throw new IllegalArgumentException("Server config cannot be null");
+        }
+
+        final InetSocketAddress address = config.getHost() == null ? new InetSocketAddress(port) : new InetSocketAddress(config.getHost(), port);
+        final String contextPath = config.getContext().isEmpty() ? "" : "/" + config.getContext();
+
+        // the queue is not bounded, as calls are shed by the concurrency
+        // limits and execution policies instead
+        final String prefix = "rni-server-" + SERVER_NUMBER.incrementAndGet() + "-";
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final int threads = config.getWorkerThreads();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
+
+        final RniServer server;
+        try {
+            if(config.isFramed()) {
+                server = new RniServer(null, new FramedServer(address, config.getBacklog(), contextPath, workers), workers);
+            } else {
+                HttpServer httpServer = HttpServer.create(address, config.getBacklog());
+                httpServer.createContext(contextPath.isEmpty() ? "/" : contextPath, exchange -> new HttpServerExchange(exchange, contextPath).serve());
+                httpServer.setExecutor(workers);
+                httpServer.start();
+
+                server = new RniServer(httpServer, null, workers);
+            }
+        } catch(IOException | RuntimeException e) {
+            workers.shutdown();
+            throw e;
+        }
+
+        LOGGER.info("RNI server listening on: {}", server.getAddress());
+        return server;
+    }
+
+    /**
+     * Stop accepting calls and close all connections. Calls still running
+     * are not waited for.
+     */
+    public void stop() {
+        if(this.httpServer != null) {
+            this.httpServer.stop(0);
+        } else {
+            this.framedServer.stop();
+        }
+
+        this.workers.shutdown();
+        LOGGER.info("RNI server stopped: {}", this.getAddress());
+    }
+
+    // Usual accessors follow
+
+    /**
+     * @return the address the server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return this.httpServer != null ? this.httpServer.getAddress() : this.framedServer.getAddress();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return this.getAddress().getPort();
+    }
+
+    /**
+     * @return <code>true</code> if calls are served over framed connections
+     *         rather than HTTP
+     */
+    public boolean isFramed() {
+        return this.framedServer != null;
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+/**
+ * Configuration for an {@link RniServer}. All setters return the same
+ * instance so that calls can be chained.
+ *
+ * @author sangupta
+ *
+ */
+public class RniServerConfig {
+
+    /**
+     * The address to listen on, or <code>null</code> for all addresses
+     */
+    private String host = null;
+
+    /**
+     * Number of threads serving calls. Connections are accepted and requests
+     * parsed by a single selector thread of the server, which hands each
+     * request to one of these threads.
+     */
+    private int workerThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Maximum number of connections waiting to be accepted, or zero for the
+     * system default
+     */
+    private int backlog = 0;
+
+    /**
+     * The context calls are served under, as passed to the clients
+     */
+    private String context = "rni";
+
+    /**
+     * Whether calls are served over the {@link FramedProtocol} rather than
+     * HTTP
+     */
+    private boolean framed = false;
+
+    /**
+     * @return a copy of this configuration, that can be changed without
+     *         affecting this one
+     */
+    RniServerConfig copy() {
+        RniServerConfig copy = new RniServerConfig();
+        copy.host = this.host;
+        copy.workerThreads = this.workerThreads;
+        copy.backlog = this.backlog;
+        copy.context = this.context;
+        copy.framed = this.framed;
+        return copy;
+    }
+
+    // Usual accessors follow
+
+    public String getHost() {
+        return host;
+    }
+
+    public RniServerConfig setHost(String host) {
+        this.host = host;
+        return this;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public RniServerConfig setWorkerThreads(int workerThreads) {
+        if(workerThreads < 1) {
+            throw new IllegalArgumentException("Worker threads must be at least 1");
+        }
+
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public RniServerConfig setBacklog(int backlog) {
+        if(backlog < 0) {
+            throw new IllegalArgumentException("Backlog cannot be negative");
+        }
+
+        this.backlog = backlog;
+        return this;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    /**
+     * Set the context calls are served under, the same as the one the
+     * clients are created with. The default is <code>rni</code>.
+     *
+     * @param context the context, or an empty string to serve calls at the
+     *            root
+     *
+     * @return this instance
+     */
+    public RniServerConfig setContext(String context) {
+        if(context == null) {
+            throw new IllegalArgumentException("Context cannot be null");
+        }
+
+        this.context = context;
+        return this;
+    }
+
+    public boolean isFramed() {
+        return framed;
+    }
+
+    /**
+     * Serve calls over persistent TCP connections, each carrying many calls
+     * at once, rather than HTTP. Clients then need a {@link FramedTransport},
+     * see {@link RniClientConfig#setFramed(boolean)}. The metrics endpoint is
+     * served over the same protocol.
+     *
+     * @param framed whether to serve calls over framed connections
+     *
+     * @return this instance
+     */
+    public RniServerConfig setFramed(boolean framed) {
+        this.framed = framed;
+        return this;
+    }
+
+}
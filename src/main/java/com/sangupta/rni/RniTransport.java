@@ -0,0 +1,64 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Contract for sending calls from client proxies created by
+ * {@link WebClientGenerator} to the server. Implementations own connection
+ * management, pooling and timeouts.
+ *
+ * Implementations must be thread-safe.
+ *
+ * @author sangupta
+ *
+ */
+public interface RniTransport extends Closeable {
+
+    /**
+     * Send the request and wait for the response. The caller must close the
+     * returned response once the body has been read.
+     *
+     * @param request the request to send
+     *
+     * @return the response, never <code>null</code>
+     *
+     * @throws IOException if the request cannot be sent or no response is
+     *             received
+     */
+    public RniResponse execute(RniRequest request) throws IOException;
+
+    /**
+     * Send the request without blocking the calling thread. The response body
+     * of the returned response is fully buffered.
+     *
+     * @param request the request to send
+     *
+     * @return a future that completes with the response, or exceptionally if
+     *         the request cannot be sent
+     */
+    public CompletableFuture<RniResponse> executeAsync(RniRequest request);
+
+}
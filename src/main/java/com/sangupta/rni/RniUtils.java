@@ -23,6 +23,8 @@ package com.sangupta.rni;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import com.sangupta.jerry.util.AssertUtils;
 import com.sangupta.jerry.util.StringUtils;
@@ -30,6 +32,59 @@ import com.sangupta.jerry.util.StringUtils;
 public class RniUtils {
 
     protected static final String REQUEST_HEADER_FOR_PARAMS = "X-RNI-Params";
+    
+    protected static final String REQUEST_HEADER_FOR_METHOD_ID = "X-RNI-Method";
+    
+    /**
+     * Time left until the caller needs the result, in milliseconds
+     */
+    protected static final String REQUEST_HEADER_FOR_TIMEOUT = "X-RNI-Timeout";
+    
+    protected static final String HEADER_ACCEPT = "Accept";
+    
+    protected static final String HEADER_CONTENT_TYPE = "Content-Type";
+    
+    protected static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    
+    protected static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    
+    protected static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    
+    protected static final String HEADER_VARY = "Vary";
+    
+    protected static final String HEADER_ETAG = "ETag";
+    
+    protected static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    
+    protected static final String HEADER_RETRY_AFTER = "Retry-After";
+    
+    /**
+     * Content type for batched calls; the codec used for each call is sent as
+     * the <code>codec</code> parameter
+     */
+    protected static final String BATCH_CONTENT_TYPE = "application/x-rni-batch";
+    
+    protected static final String BATCH_CODEC_PARAM = "codec";
+    
+    protected static final String BATCH_PATH = "_batch";
+    
+    /**
+     * Content type for calls with binary arguments; the codec of the other
+     * arguments is sent as the <code>codec</code> parameter
+     */
+    protected static final String PARTS_CONTENT_TYPE = "application/x-rni-parts";
+    
+    /**
+     * Path, under the servlet, at which metrics are served when enabled
+     */
+    protected static final String METRICS_PATH = "_metrics";
+    
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    
+    /**
+     * Maximum number of calls accepted in one batch
+     */
+    protected static final int MAX_BATCH_CALLS = 1_000;
 
     public static String getMethodParams(Method method) {
         if(method == null) {
@@ -57,6 +112,123 @@ public class RniUtils {
         return builder.toString();
     }
 
+    /**
+     * Check if the given content type is that of a batch of calls.
+     * 
+     * @param contentType the content type header value, may be <code>null</code>
+     * 
+     * @return <code>true</code> if it is a batch
+     */
+    public static boolean isBatch(String contentType) {
+        return contentType != null && contentType.regionMatches(true, 0, BATCH_CONTENT_TYPE, 0, BATCH_CONTENT_TYPE.length());
+    }
+    
+    /**
+     * Check if the given content type is that of a call with binary arguments.
+     * 
+     * @param contentType the content type header value, may be <code>null</code>
+     * 
+     * @return <code>true</code> if the arguments are sent as parts
+     */
+    public static boolean isParts(String contentType) {
+        return contentType != null && contentType.regionMatches(true, 0, PARTS_CONTENT_TYPE, 0, PARTS_CONTENT_TYPE.length());
+    }
+    
+    /**
+     * Extract the value of a parameter from a content type header value, such
+     * as the <code>charset</code> in <code>text/plain; charset=utf-8</code>.
+     * 
+     * @param contentType the content type header value
+     * 
+     * @param name the parameter name
+     * 
+     * @return the parameter value, or <code>null</code> if not present
+     */
+    public static String getContentTypeParameter(String contentType, String name) {
+        if(AssertUtils.isEmpty(contentType)) {
+            return null;
+        }
+        
+        String[] tokens = contentType.split(";");
+        for(int index = 1; index < tokens.length; index++) {
+            String token = tokens[index].trim();
+            int equals = token.indexOf('=');
+            if(equals <= 0 || !token.substring(0, equals).trim().equalsIgnoreCase(name)) {
+                continue;
+            }
+            
+            String value = token.substring(equals + 1).trim();
+            if(value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+                value = value.substring(1, value.length() - 1);
+            }
+            
+            return value;
+        }
+        
+        return null;
+    }
+
+    /**
+     * Compute a strong ETag for the given encoded result, from its MD5 digest.
+     * 
+     * @param body the encoded result
+     * 
+     * @return the quoted ETag
+     */
+    public static String computeETag(byte[] body) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch(NoSuchAlgorithmException e) {
+            // every JVM is required to support MD5
+            throw new IllegalStateException(e);
+        }
+        
+        final byte[] hash = digest.digest(body);
+        final char[] chars = new char[hash.length * 2 + 2];
+        chars[0] = '"';
+        for(int index = 0; index < hash.length; index++) {
+            chars[index * 2 + 1] = HEX_CHARS[(hash[index] >> 4) & 0x0f];
+            chars[index * 2 + 2] = HEX_CHARS[hash[index] & 0x0f];
+        }
+        chars[chars.length - 1] = '"';
+        
+        return new String(chars);
+    }
+    
+    /**
+     * Check if an <code>If-None-Match</code> header value matches the given
+     * ETag. Weak comparison is used, as is required for this header.
+     * 
+     * @param ifNoneMatch the header value, may be <code>null</code>
+     * 
+     * @param etag the quoted ETag of the current result
+     * 
+     * @return <code>true</code> if the header lists the ETag, or is <code>*</code>
+     */
+    public static boolean matchesETag(String ifNoneMatch, String etag) {
+        if(AssertUtils.isEmpty(ifNoneMatch)) {
+            return false;
+        }
+        
+        for(String token : ifNoneMatch.split(",")) {
+            token = token.trim();
+            if(token.equals("*")) {
+                return true;
+            }
+            
+            if(token.startsWith("W/")) {
+                token = token.substring(2);
+            }
+            
+            if(token.equals(etag)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+
     public static int count(String str, char c) {
         if(AssertUtils.isEmpty(str)) {
             return 0;
@@ -0,0 +1,183 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.constants.HttpStatusCode;
+
+/**
+ * Base of the exchanges served by an {@link RniServer}, which end once the
+ * call has been served unless put in async mode, in which case they end once
+ * completed or timed out.
+ *
+ * @author sangupta
+ *
+ */
+abstract class ServerExchange implements RniExchange {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerExchange.class);
+
+    /**
+     * Set once the exchange has been ended, when served, on completion or on
+     * timeout
+     */
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    private volatile int status = HttpStatusCode.OK;
+
+    private volatile boolean async;
+
+    private ScheduledFuture<?> timeout;
+
+    private Runnable onTimeout;
+
+    /**
+     * Serve the call, batch or metrics request, ending the exchange unless it
+     * completes later.
+     */
+    void serve() {
+        try {
+            RPCReceivingServlet.handle(this);
+        } catch(IOException | RuntimeException e) {
+            LOGGER.error("Error serving request: {}", this.getRequestURI(), e);
+            if(!this.async && !this.isCommitted()) {
+                this.sendInternalError();
+            }
+        } finally {
+            if(!this.async) {
+                this.finish();
+            }
+        }
+    }
+
+    /**
+     * End the exchange with <code>503 Service Unavailable</code> without
+     * serving it, such as when no worker thread can take it.
+     */
+    void reject() {
+        if(this.discard()) {
+            this.setStatus(HttpStatusCode.SERVICE_UNAVAILABLE);
+        }
+
+        this.finish();
+    }
+
+    /**
+     * End the exchange, sending whatever is left of the response. Only the
+     * first call has any effect.
+     */
+    void finish() {
+        if(!this.finished.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.end();
+        } catch(IOException e) {
+            LOGGER.debug("Unable to end response", e);
+        }
+    }
+
+    /**
+     * Send whatever is left of the response, and release the exchange.
+     *
+     * @throws IOException if the response cannot be sent
+     */
+    protected abstract void end() throws IOException;
+
+    /**
+     * Discard whatever has been written of the response body, if it has not
+     * been sent yet.
+     *
+     * @return <code>false</code> if the response has been sent already
+     */
+    protected abstract boolean discard();
+
+    @Override
+    public int getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public void setStatus(int status) {
+        if(!this.isCommitted()) {
+            this.status = status;
+        }
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void startAsync(long timeoutMillis, Runnable onTimeout) {
+        this.async = true;
+        this.onTimeout = onTimeout;
+        if(timeoutMillis > 0) {
+            this.timeout = RniTimer.SCHEDULER.schedule(this::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void complete() {
+        if(this.timeout != null) {
+            this.timeout.cancel(false);
+        }
+
+        this.finish();
+    }
+
+    private void sendInternalError() {
+        try {
+            this.sendError(HttpStatusCode.INTERNAL_SERVER_ERROR);
+        } catch(IOException | IllegalStateException e) {
+            LOGGER.debug("Unable to send error", e);
+        }
+    }
+
+    /**
+     * End an async exchange not completed in time with
+     * <code>503 Service Unavailable</code>, unless the response has been
+     * started already, after running the action given when it went async.
+     */
+    private void expire() {
+        if(this.finished.get()) {
+            return;
+        }
+
+        LOGGER.debug("Async exchange timed out: {}", this.getRequestURI());
+        if(this.onTimeout != null) {
+            this.onTimeout.run();
+        }
+
+        this.reject();
+    }
+
+}
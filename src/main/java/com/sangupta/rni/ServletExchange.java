@@ -0,0 +1,269 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sangupta.jerry.constants.HttpStatusCode;
+
+/**
+ * An {@link RniExchange} over a servlet request and its response, as
+ * received by the {@link RPCReceivingServlet}.
+ * 
+ * Once an exchange in async mode has timed out or failed it is ended with
+ * <code>503 Service Unavailable</code>, unless the response has been started
+ * already, and whatever the call writes later is refused, as the container
+ * may have recycled the response by then. Writes to the response and ending
+ * the exchange hold the lock of the exchange, so that nothing is written
+ * once it has ended.
+ *
+ * @author sangupta
+ *
+ */
+class ServletExchange implements RniExchange {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServletExchange.class);
+
+    private final HttpServletRequest request;
+
+    private final HttpServletResponse response;
+
+    private AsyncContext asyncContext;
+
+    private Runnable onTimeout;
+
+    /**
+     * Set once an exchange in async mode has been completed, timed out or
+     * failed, guarded by the lock of the exchange
+     */
+    private boolean finished;
+
+    ServletExchange(HttpServletRequest request, HttpServletResponse response) {
+        this.request = request;
+        this.response = response;
+    }
+
+    @Override
+    public String getMethod() {
+        return this.request.getMethod();
+    }
+
+    @Override
+    public String getRequestURI() {
+        return this.request.getRequestURI();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return this.request.getHeader(name);
+    }
+
+    @Override
+    public String getContentType() {
+        return this.request.getContentType();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return this.request.getInputStream();
+    }
+
+    @Override
+    public int getStatus() {
+        return this.response.getStatus();
+    }
+
+    @Override
+    public synchronized void setStatus(int status) {
+        if(!this.finished) {
+            this.response.setStatus(status);
+        }
+    }
+
+    @Override
+    public synchronized void setHeader(String name, String value) {
+        if(!this.finished) {
+            this.response.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public synchronized void setContentType(String contentType) {
+        if(!this.finished) {
+            this.response.setContentType(contentType);
+        }
+    }
+
+    @Override
+    public synchronized void setContentLength(long length) {
+        if(!this.finished) {
+            this.response.setContentLengthLong(length);
+        }
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        this.checkNotFinished();
+        if(this.asyncContext == null) {
+            return this.response.getOutputStream();
+        }
+
+        return new FilterOutputStream(this.response.getOutputStream()) {
+
+            @Override
+            public void write(int value) throws IOException {
+                synchronized(ServletExchange.this) {
+                    checkNotFinished();
+                    this.out.write(value);
+                }
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                synchronized(ServletExchange.this) {
+                    checkNotFinished();
+                    this.out.write(buffer, offset, length);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                synchronized(ServletExchange.this) {
+                    checkNotFinished();
+                    this.out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                // the response is ended by completing the exchange
+                this.flush();
+            }
+
+        };
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return this.response.isCommitted();
+    }
+
+    @Override
+    public synchronized void sendError(int status) throws IOException {
+        this.checkNotFinished();
+        this.response.sendError(status);
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return this.request.isAsyncSupported();
+    }
+
+    @Override
+    public void startAsync(long timeoutMillis, Runnable onTimeout) {
+        this.onTimeout = onTimeout;
+        this.asyncContext = this.request.startAsync(this.request, this.response);
+        this.asyncContext.setTimeout(timeoutMillis);
+        this.asyncContext.addListener(new AsyncListener() {
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                LOGGER.debug("Async request timed out: {}", getRequestURI());
+                expire();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                LOGGER.debug("Async request failed: {}", getRequestURI(), event.getThrowable());
+                expire();
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                synchronized(ServletExchange.this) {
+                    finished = true;
+                }
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                // not restarted
+            }
+
+        });
+    }
+
+    @Override
+    public synchronized void complete() {
+        if(!this.finished) {
+            this.finished = true;
+            this.asyncContext.complete();
+        }
+    }
+
+    /**
+     * End an exchange that has timed out or failed, with
+     * <code>503 Service Unavailable</code> unless the response has been
+     * started already, after running the action given when it went async.
+     * Only the first call to this or {@link #complete()} has any effect.
+     */
+    private synchronized void expire() {
+        if(this.finished) {
+            return;
+        }
+
+        this.finished = true;
+        if(this.onTimeout != null) {
+            this.onTimeout.run();
+        }
+
+        try {
+            if(!this.response.isCommitted()) {
+                this.response.reset();
+                this.response.setStatus(HttpStatusCode.SERVICE_UNAVAILABLE);
+            }
+
+            this.asyncContext.complete();
+        } catch(IllegalStateException e) {
+            LOGGER.debug("Unable to end async request", e);
+        }
+    }
+
+    private void checkNotFinished() throws IOException {
+        if(this.finished) {
+            throw new IOException("Exchange has already ended");
+        }
+    }
+
+}
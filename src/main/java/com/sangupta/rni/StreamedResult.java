@@ -0,0 +1,224 @@
+/**
+ *
+ * rni - rpc negotiable interfaces
+ * Copyright (c) 2016, Sandeep Gupta
+ * 
+ * http://sangupta.com/projects/rni
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ */
+
+package com.sangupta.rni;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The result of a streaming method as seen by the client: elements are read
+ * from the response only as they are asked for, so that no more than the one
+ * being decoded and what the connection buffers are held in memory, however
+ * long the result. The server is held back by the connection when the
+ * caller does not keep up.
+ *
+ * The response is released once the last element has been read. Results
+ * not read to the end should be closed, which drops the connection rather
+ * than reading the rest of the result.
+ *
+ * @author sangupta
+ *
+ */
+class StreamedResult implements Iterator<Object>, Iterable<Object>, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamedResult.class);
+
+    private final RniMethod method;
+
+    private final RniResponse response;
+
+    private final CountingInputStream counting;
+
+    private final RniCodec.ElementReader reader;
+
+    private final RniEndpointMetrics metrics;
+
+    /**
+     * Whether the next element has been announced by the reader but not yet
+     * read
+     */
+    private boolean ready;
+
+    private boolean closed;
+
+    private boolean iterated;
+
+    private long decodeNanos;
+
+    StreamedResult(RniMethod method, RniResponse response, CountingInputStream counting, RniCodec.ElementReader reader, RniEndpointMetrics metrics) {
+        this.method = method;
+        this.response = response;
+        this.counting = counting;
+        this.reader = reader;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Open the streamed result of a call.
+     *
+     * @param method the method that was called
+     *
+     * @param codec the codec the result is encoded with
+     *
+     * @param response the response, owned by the result from now on
+     *
+     * @param body the body of the response
+     *
+     * @param metrics the metrics to record bytes and decoding time in
+     *
+     * @return the result as declared by the method, that is an
+     *         {@link Iterator}, an {@link Iterable} or a {@link Stream}
+     *
+     * @throws IOException if the response cannot be read
+     */
+    static Object open(RniMethod method, RniCodec codec, RniResponse response, InputStream body, RniEndpointMetrics metrics) throws IOException {
+        final CountingInputStream counting = new CountingInputStream(body);
+        final InputStream stream = ContentEncoding.decompress(counting, response.getHeader(RniUtils.HEADER_CONTENT_ENCODING));
+        final StreamedResult result = new StreamedResult(method, response, counting, codec.readElements(method, stream), metrics);
+
+        if(method.getStreamType() != Stream.class) {
+            return result;
+        }
+
+        Spliterator<Object> spliterator = Spliterators.spliteratorUnknownSize(result, Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false).onClose(result::close);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(this.ready) {
+            return true;
+        }
+
+        if(this.closed) {
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            this.ready = this.reader.hasNext();
+        } catch(IOException e) {
+            this.fail();
+            throw new UncheckedIOException("Unable to read streamed result of method: " + this.method, e);
+        } catch(RuntimeException e) {
+            this.fail();
+            throw e;
+        } finally {
+            this.decodeNanos += System.nanoTime() - start;
+        }
+
+        if(!this.ready) {
+            this.finish(false);
+        }
+
+        return this.ready;
+    }
+
+    @Override
+    public Object next() {
+        if(!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        this.ready = false;
+        final long start = System.nanoTime();
+        try {
+            return this.reader.next();
+        } catch(IOException e) {
+            this.fail();
+            throw new UncheckedIOException("Unable to read streamed result of method: " + this.method, e);
+        } catch(RuntimeException e) {
+            this.fail();
+            throw e;
+        } finally {
+            this.decodeNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Get the elements, for methods declared to return an {@link Iterable}.
+     * As elements are read only once, the result can only be iterated once.
+     */
+    @Override
+    public Iterator<Object> iterator() {
+        if(this.iterated) {
+            throw new IllegalStateException("Streamed result can only be iterated once");
+        }
+
+        this.iterated = true;
+        return this;
+    }
+
+    /**
+     * Stop reading the result, dropping the connection unless the result has
+     * been read to the end.
+     */
+    @Override
+    public void close() {
+        this.ready = false;
+        this.finish(true);
+    }
+
+    private void fail() {
+        this.metrics.recordError();
+        this.ready = false;
+        this.finish(true);
+    }
+
+    /**
+     * Release the response and record what has been read.
+     *
+     * @param abort <code>true</code> to drop the connection,
+     *            <code>false</code> when the result has been fully read
+     */
+    private void finish(boolean abort) {
+        if(this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.metrics.recordBytesIn(this.counting.getCount());
+        this.metrics.recordDecode(this.decodeNanos);
+
+        try {
+            if(abort) {
+                this.response.abort();
+            } else {
+                this.response.close();
+            }
+        } catch(IOException e) {
+            LOGGER.debug("Unable to release response for method: {}", this.method, e);
+        }
+    }
+
+}
@@ -21,90 +21,633 @@
 
 package com.sangupta.rni;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sangupta.jerry.constants.HttpMimeType;
-import com.sangupta.jerry.http.WebInvoker;
-import com.sangupta.jerry.http.WebRequest;
-import com.sangupta.jerry.http.WebResponse;
-import com.sangupta.jerry.util.AssertUtils;
-import com.sangupta.jerry.util.GsonUtils;
-import com.sangupta.jerry.util.UriUtils;
-import com.sangupta.jerry.util.UrlManipulator;
+import com.sangupta.jerry.constants.HttpStatusCode;
 
 public class WebClientGenerator {
     
     private static final Logger LOGGER = LoggerFactory.getLogger(WebClientGenerator.class);
+    
+    /**
+     * Marks a hedged attempt that got a non-successful response
+     */
+    private static final Object UNSUCCESSFUL = new Object();
 
     public static <T> T createWebClient(final Class<T> classOfT, final String host, final int port, final String context) {
-        Object instance = Proxy.newProxyInstance(classOfT.getClassLoader(), new Class[] { classOfT }, new InvocationHandler() {
+        return createWebClient(classOfT, host, port, context, new RniClientConfig());
+    }
+    
+    public static <T> T createWebClient(final Class<T> classOfT, final String host, final int port, final String context, final RniClientConfig config) {
+        return createProxy(classOfT, classOfT, host, port, context, config, null);
+    }
+    
+    public static <T> T createWebClient(final Class<T> classOfT, final String url) {
+        return createWebClient(classOfT, url, new RniClientConfig());
+    }
+    
+    /**
+     * Create a client for the server at the given URL, such as
+     * <code>http://localhost:8080/rni</code>. Servers started with
+     * {@link RniServerConfig#setFramed(boolean)} are called over framed
+     * connections by giving the <code>rni</code> scheme instead, as in
+     * <code>rni://localhost:9090/rni</code>, using the shared default
+     * {@link FramedTransport} unless the config sets a transport.
+     * 
+     * @param classOfT the interface to create the client for
+     * 
+     * @param url the URL of the server, the path being the context at which
+     *            the RNI servlet is mapped
+     * 
+     * @param config the client configuration
+     * 
+     * @return the client
+     */
+    public static <T> T createWebClient(final Class<T> classOfT, final String url, final RniClientConfig config) {
+        if(url == null) {
+            throw new IllegalArgumentException("URL cannot be null");
+        }
+        
+        if(config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
+        }
+        
+        final URI uri = URI.create(url);
+        final boolean framed = FramedTransport.isFramedScheme(uri.getScheme());
+        if(!framed && !"http".equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("Unsupported scheme: " + uri.getScheme());
+        }
+        
+        if(uri.getHost() == null || uri.getPort() == -1) {
+            throw new IllegalArgumentException("Host and port are needed in URL: " + url);
+        }
+        
+        return createProxy(classOfT, classOfT, uri.getHost(), uri.getPort(), uri.getPath(), config, config.getTransport(framed));
+    }
+    
+    /**
+     * Create a client that spreads calls over many servers, each serving the
+     * interface under the same context. See
+     * {@link #createWebClient(Class, Supplier, String, RniClientConfig)}.
+     * 
+     * @param classOfT the interface to create the client for
+     * 
+     * @param endpoints the servers to send calls to
+     * 
+     * @param context the context at which the RNI servlet is mapped
+     * 
+     * @param config the client configuration
+     * 
+     * @return the client
+     */
+    public static <T> T createWebClient(final Class<T> classOfT, final Collection<RniEndpoint> endpoints, final String context, final RniClientConfig config) {
+        if(endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("Endpoints cannot be empty");
+        }
+        
+        final List<RniEndpoint> copy = new ArrayList<>(endpoints);
+        return createWebClient(classOfT, () -> copy, context, config);
+    }
+    
+    /**
+     * Create a client that spreads calls over many servers, each serving the
+     * interface under the same context. Calls are balanced as per
+     * {@link RniClientConfig#setLoadBalancer(RniLoadBalancer)}, and servers
+     * that fail or slow down stop getting calls for a while, as per
+     * {@link RniClientConfig#setEjection(int, double, int)}.
+     * 
+     * @param classOfT the interface to create the client for
+     * 
+     * @param endpoints supplies the current servers; called when the client
+     *            is created, and then periodically as per
+     *            {@link RniClientConfig#setEndpointRefreshMillis(int)} from a
+     *            calling thread, so it should return quickly
+     * 
+     * @param context the context at which the RNI servlet is mapped
+     * 
+     * @param config the client configuration
+     * 
+     * @return the client
+     */
+    public static <T> T createWebClient(final Class<T> classOfT, final Supplier<? extends Collection<RniEndpoint>> endpoints, final String context, final RniClientConfig config) {
+        if(endpoints == null) {
+            throw new IllegalArgumentException("Endpoints cannot be null");
+        }
+        
+        if(config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
+        }
+        
+        final RniTransport transport = new BalancingTransport(config.getTransport(), endpoints, config);
+        return createProxy(classOfT, classOfT, BalancingTransport.PLACEHOLDER_HOST, BalancingTransport.PLACEHOLDER_PORT, context, config, transport);
+    }
+    
+    /**
+     * Create a client for an interface whose methods return a
+     * {@link CompletableFuture} or {@link CompletionStage}. Calls to such
+     * methods are sent using a non-blocking HTTP client and return
+     * immediately. The returned future completes with the result, or
+     * completes exceptionally if the call could not be made.
+     * 
+     * Clients created via {@link #createWebClient(Class, String, int, String)}
+     * behave the same for such methods; this variant exists for symmetry.
+     * 
+     * @param classOfT the interface to create the client for
+     * 
+     * @param host the server host
+     * 
+     * @param port the server port
+     * 
+     * @param context the context at which the RNI servlet is mapped
+     * 
+     * @return the client
+     */
+    public static <T> T createAsyncWebClient(final Class<T> classOfT, final String host, final int port, final String context) {
+        return createProxy(classOfT, classOfT, host, port, context, new RniClientConfig(), null);
+    }
+    
+    /**
+     * Create a client using a companion async interface. The companion
+     * interface declares the same methods, by name and parameter types, as the
+     * service interface registered on the server, but returns a
+     * {@link CompletableFuture} of the original return type. This allows
+     * non-blocking calls without changing the service interface.
+     * 
+     * @param asyncInterface the companion interface to create the client for
+     * 
+     * @param serviceInterface the interface registered on the server
+     * 
+     * @param host the server host
+     * 
+     * @param port the server port
+     * 
+     * @param context the context at which the RNI servlet is mapped
+     * 
+     * @return the client
+     */
+    public static <A> A createAsyncWebClient(final Class<A> asyncInterface, final Class<?> serviceInterface, final String host, final int port, final String context) {
+        return createAsyncWebClient(asyncInterface, serviceInterface, host, port, context, new RniClientConfig());
+    }
+    
+    public static <A> A createAsyncWebClient(final Class<A> asyncInterface, final Class<?> serviceInterface, final String host, final int port, final String context, final RniClientConfig config) {
+        return createProxy(asyncInterface, serviceInterface, host, port, context, config, null);
+    }
+    
+    private static <T> T createProxy(final Class<T> classOfT, final Class<?> serviceInterface, final String host, final int port, final String context, final RniClientConfig config, RniTransport transport) {
+        if(config == null) {
+            throw new IllegalArgumentException("Config cannot be null");
+        }
+        
+        if(transport == null) {
+            transport = config.getTransport();
+        }
+        
+        // resolve the plan for every method once
+        final Map<Method, InvocationPlan> plans = new HashMap<>();
+        for(Method method : classOfT.getMethods()) {
+            RniMethod rniMethod = new RniMethod(serviceInterface, method);
+            plans.put(method, new InvocationPlan(rniMethod, config, host, port, context));
             
-            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                String methodName = method.getName();
-                Class<?>[] classes = method.getParameterTypes();
-                
-                UrlManipulator urlManipulator = new UrlManipulator(host, port, context);
-                String url = urlManipulator.constructURL();
-                url = UriUtils.addWebPaths(url, classOfT.getSimpleName(), methodName);
-                
-                LOGGER.debug("Invoking the web-service at URL: {}", url);
-                
-                // let's make the request
-                WebRequest request;
-                if(AssertUtils.isEmpty(classes)) {
-                    // GET request
-                    request = WebRequest.get(url);
-                } else {
-                    // POST request
-                    request = WebRequest.post(url);
+            if(config.isWarmUp()) {
+                RniCodecs.warmUp(config.getCodec(), rniMethod);
+            }
+        }
+        
+        final CallBatcher batcher = config.isBatching() ? new CallBatcher(config, transport, host, port, context) : null;
+        
+        Object instance = Proxy.newProxyInstance(classOfT.getClassLoader(), new Class<?>[] { classOfT }, new ClientInvocationHandler(plans, transport, batcher));
+        return classOfT.cast(instance);
+    }
+    
+    /**
+     * Get the statistics of the result caches of a client, for each method
+     * annotated with {@link RniCacheable}.
+     * 
+     * @param client a client created by this class
+     * 
+     * @return the statistics keyed by method, as <code>Service/method(params)</code>
+     */
+    public static Map<String, RniCacheStats> getCacheStats(Object client) {
+        if(client == null || !Proxy.isProxyClass(client.getClass()) || !(Proxy.getInvocationHandler(client) instanceof ClientInvocationHandler)) {
+            throw new IllegalArgumentException("Not a client created by WebClientGenerator");
+        }
+        
+        ClientInvocationHandler handler = (ClientInvocationHandler) Proxy.getInvocationHandler(client);
+        
+        Map<String, RniCacheStats> stats = new TreeMap<>();
+        for(InvocationPlan plan : handler.plans.values()) {
+            if(plan.cache != null) {
+                stats.put(plan.rniMethod.toString(), plan.cache.getStats());
+            }
+        }
+        
+        return stats;
+    }
+    
+    /**
+     * Execute the call and decode the result straight from the response
+     * stream. Any failure results in a <code>null</code> value.
+     * 
+     * @param transport the transport to send the call with
+     * 
+     * @param plan the plan for the method being called
+     * 
+     * @param args the call arguments
+     * 
+     * @param key the key for the call, may be <code>null</code>
+     * 
+     * @return the decoded result, or <code>null</code>
+     */
+    private static Object execute(RniTransport transport, InvocationPlan plan, Object[] args, CallKey key) {
+        final long start = System.nanoTime();
+        try {
+            final RniRequest request = plan.newRequest(args, key);
+            try(RniResponse response = transport.execute(request)) {
+                plan.recordInvoke(request, start);
+                return plan.decode(request, response, key);
+            }
+        } catch(IOException | RuntimeException e) {
+            LOGGER.debug("Unable to invoke the web-service at URL: {}", plan.uri, e);
+            plan.metrics.recordError();
+            return null;
+        }
+    }
+    
+    /**
+     * Execute a call whose result is streamed. The response is handed over to
+     * the returned result, which reads it as the caller asks for it, or
+     * dropped if the result cannot be opened. Streamed calls are never
+     * batched, hedged or coalesced.
+     * 
+     * @param transport the transport to send the call with
+     * 
+     * @param plan the plan for the method being called
+     * 
+     * @param args the call arguments
+     * 
+     * @return the result, or <code>null</code> on failure
+     */
+    private static Object executeStreaming(RniTransport transport, InvocationPlan plan, Object[] args) {
+        final long start = System.nanoTime();
+        RniResponse response = null;
+        try {
+            final RniRequest request = plan.newRequest(args);
+            response = transport.execute(request);
+            plan.recordInvoke(request, start);
+            return plan.openStream(response);
+        } catch(IOException | RuntimeException e) {
+            LOGGER.debug("Unable to invoke the web-service at URL: {}", plan.uri, e);
+            plan.metrics.recordError();
+            if(response != null) {
+                try {
+                    response.abort();
+                } catch(IOException abortError) {
+                    // already failed
                 }
-                
-                request.addHeader(RniUtils.REQUEST_HEADER_FOR_PARAMS, RniUtils.getMethodParams(method));
-                
-                // add the params body if needed
-                if(AssertUtils.isNotEmpty(classes)) {
-                    Map<String, Object> map = new HashMap<String, Object>();
-                    for(int index = 0; index < classes.length; index++) {
-                        map.put("param-" + index, args[index]);
-                    }
-                    
-                    String json = GsonUtils.getGson().toJson(map);
-                    
-                    LOGGER.debug("JSON post body for parameters: {}", json);
-                    request.bodyString(json, HttpMimeType.JSON, "utf-8");
+            }
+            
+            return null;
+        }
+    }
+    
+    /**
+     * Wait for a batched call to complete. Any failure results in a
+     * <code>null</code> value.
+     * 
+     * @param future the future for the batched call
+     * 
+     * @param plan the plan for the method being called
+     * 
+     * @return the decoded result, or <code>null</code>
+     */
+    private static Object await(CompletableFuture<Object> future, InvocationPlan plan) {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch(ExecutionException e) {
+            LOGGER.debug("Unable to invoke the web-service at URL: {}", plan.uri, e.getCause());
+            return null;
+        }
+    }
+    
+    /**
+     * Handles the calls made on a client proxy.
+     * 
+     */
+    private static class ClientInvocationHandler implements InvocationHandler {
+        
+        final Map<Method, InvocationPlan> plans;
+        
+        private final RniTransport transport;
+        
+        private final CallBatcher batcher;
+        
+        ClientInvocationHandler(Map<Method, InvocationPlan> plans, RniTransport transport, CallBatcher batcher) {
+            this.plans = plans;
+            this.transport = transport;
+            this.batcher = batcher;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final InvocationPlan plan = this.plans.get(method);
+            if(plan == null) {
+                // methods from java.lang.Object
+                return method.invoke(this, args);
+            }
+            
+            final CallKey key = plan.keyFor(args);
+            final ResultCache cache = plan.cache;
+            if(cache == null || key == null) {
+                return this.coalesce(plan, args, key);
+            }
+            
+            Object cached = cache.get(key);
+            if(cached != null) {
+                return plan.rniMethod.isAsync() ? CompletableFuture.completedFuture(cached) : cached;
+            }
+            
+            Object result = this.coalesce(plan, args, key);
+            if(!plan.rniMethod.isAsync()) {
+                cache.put(key, result);
+                return result;
+            }
+            
+            @SuppressWarnings("unchecked")
+            CompletableFuture<Object> future = (CompletableFuture<Object>) result;
+            return future.whenComplete((value, error) -> {
+                if(error == null) {
+                    cache.put(key, value);
                 }
-                
-                // TODO: remove timing thing
-                final long start = System.currentTimeMillis();
-                WebResponse response = WebInvoker.executeSilently(request);
-                final long end = System.currentTimeMillis();
-                
-                System.out.println("Call to uri took " + (end - start) + " millis: " + url);
-                
-                if(response == null) {
-                    return null;
+            });
+        }
+        
+        /**
+         * Make the call, or join an identical call already in flight if calls
+         * to the method are coalesced.
+         * 
+         * @param plan the plan for the method being called
+         * 
+         * @param args the call arguments
+         * 
+         * @param key the key for the call, may be <code>null</code>
+         * 
+         * @return the result, or a future for it for async methods
+         */
+        private Object coalesce(InvocationPlan plan, Object[] args, final CallKey key) {
+            final ConcurrentMap<CallKey, CompletableFuture<Object>> inFlight = plan.inFlight;
+            if(inFlight == null || key == null) {
+                return this.call(plan, args, key);
+            }
+            
+            final CompletableFuture<Object> shared = new CompletableFuture<>();
+            final CompletableFuture<Object> existing = inFlight.putIfAbsent(key, shared);
+            if(existing != null) {
+                // callers get their own future so that they cannot complete the shared one
+                return plan.rniMethod.isAsync() ? existing.thenApply(value -> value) : await(existing, plan);
+            }
+            
+            if(plan.rniMethod.isAsync()) {
+                @SuppressWarnings("unchecked")
+                CompletableFuture<Object> future = (CompletableFuture<Object>) this.call(plan, args, key);
+                return future.whenComplete((value, error) -> {
+                    // remove first so that later calls are not answered with this result
+                    inFlight.remove(key, shared);
+                    if(error != null) {
+                        shared.completeExceptionally(error);
+                    } else {
+                        shared.complete(value);
+                    }
+                });
+            }
+            
+            Object result = null;
+            try {
+                result = this.call(plan, args, key);
+            } finally {
+                inFlight.remove(key, shared);
+                shared.complete(result);
+            }
+            
+            return result;
+        }
+        
+        private Object call(InvocationPlan plan, Object[] args, CallKey key) {
+            final long start = System.nanoTime();
+            if(plan.isStreamed()) {
+                Object result = executeStreaming(this.transport, plan, args);
+                plan.metrics.recordCall(System.nanoTime() - start);
+                return result;
+            }
+            
+            if(this.batcher != null && plan.rniMethod.isBatchable()) {
+                CompletableFuture<Object> future = plan.track(this.batcher.submit(plan, args), start);
+                return plan.rniMethod.isAsync() ? future : await(future, plan);
+            }
+            
+            if(plan.isHedged()) {
+                CompletableFuture<Object> future = plan.track(executeHedged(this.transport, plan, args, key), start);
+                return plan.rniMethod.isAsync() ? future : await(future, plan);
+            }
+            
+            if(plan.rniMethod.isAsync()) {
+                return plan.track(executeAsync(this.transport, plan, args, key, plan.deadline()), start);
+            }
+            
+            Object result = execute(this.transport, plan, args, key);
+            plan.metrics.recordCall(System.nanoTime() - start);
+            return result;
+        }
+        
+    }
+    
+    /**
+     * Execute the call without blocking the calling thread.
+     * 
+     * @param transport the transport to send the call with
+     * 
+     * @param plan the plan for the method being called
+     * 
+     * @param args the call arguments
+     * 
+     * @param key the key for the call, may be <code>null</code>
+     * 
+     * @param deadline the deadline of the call, or zero for none
+     * 
+     * @return a future that completes with the decoded result, with
+     *         <code>null</code> on a non-successful response, or exceptionally
+     *         if the call fails
+     */
+    private static CompletableFuture<Object> executeAsync(RniTransport transport, final InvocationPlan plan, Object[] args, final CallKey key, long deadline) {
+        return executeAsync(transport, plan, args, key, deadline, null);
+    }
+    
+    /**
+     * Execute the call without blocking the calling thread.
+     * 
+     * @param transport the transport to send the call with
+     * 
+     * @param plan the plan for the method being called
+     * 
+     * @param args the call arguments
+     * 
+     * @param key the key for the call, may be <code>null</code>
+     * 
+     * @param deadline the deadline of the call, or zero for none
+     * 
+     * @param unsuccessful the value to complete with on a non-successful
+     *            response, may be <code>null</code>
+     * 
+     * @return a future that completes with the decoded result, with
+     *         <code>unsuccessful</code> on a non-successful response, or
+     *         exceptionally if the call fails
+     */
+    private static CompletableFuture<Object> executeAsync(RniTransport transport, final InvocationPlan plan, Object[] args, final CallKey key, long deadline, final Object unsuccessful) {
+        final long start = System.nanoTime();
+        final RniRequest request;
+        try {
+            request = plan.newRequest(args, key, deadline);
+        } catch(IOException | RuntimeException e) {
+            CompletableFuture<Object> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        
+        return transport.executeAsync(request).thenApply(response -> {
+            plan.recordInvoke(request, start);
+            try(RniResponse closeable = response) {
+                final Object value = plan.decode(request, closeable, key);
+                if(unsuccessful != null && !isSuccess(closeable.getStatus(), key)) {
+                    return unsuccessful;
                 }
                 
-                if(!response.isSuccess()) {
-                    return null;
+                return value;
+            } catch(IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+    
+    /**
+     * Check if a response carries the result of the call: any 2xx response,
+     * or a 304 when the call is revalidated.
+     * 
+     * @param status the HTTP status of the response
+     * 
+     * @param key the key for the call, may be <code>null</code>
+     * 
+     * @return <code>true</code> if the call succeeded
+     */
+    private static boolean isSuccess(int status, CallKey key) {
+        if(status == HttpStatusCode.NOT_MODIFIED) {
+            return key != null;
+        }
+        
+        return status >= 200 && status < 300;
+    }
+    
+    /**
+     * Execute the call without blocking the calling thread, and send the same
+     * call again if it has not completed once the hedging delay of the method
+     * has passed, or as soon as the first request fails. The future completes
+     * with the first successful response. Once both requests have failed it
+     * completes as the last one did: with <code>null</code> on a
+     * non-successful response, or exceptionally. The slower response is read
+     * and discarded.
+     * 
+     * @param transport the transport to send the call with
+     * 
+     * @param plan the plan for the method being called
+     * 
+     * @param args the call arguments
+     * 
+     * @param key the key for the call, may be <code>null</code>
+     * 
+     * @return a future that completes with the decoded result
+     */
+    private static CompletableFuture<Object> executeHedged(final RniTransport transport, final InvocationPlan plan, final Object[] args, final CallKey key) {
+        final long deadline = plan.deadline();
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        
+        // the hedge counts as pending until it is sent or given up
+        final AtomicInteger pending = new AtomicInteger(2);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Runnable failed = () -> {
+            if(pending.decrementAndGet() == 0) {
+                Throwable error = failure.get();
+                if(error == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(error);
                 }
-                
-                // get return type of method
-                Class<?> returnType = method.getReturnType();
-                String responseBody = response.getContent();
-                return GsonUtils.getGson().fromJson(responseBody, returnType);
             }
-
+        };
+        
+        final BiConsumer<Object, Throwable> complete = (value, error) -> {
+            if(error == null && value != UNSUCCESSFUL) {
+                result.complete(value);
+                return;
+            }
+            
+            failure.set(error);
+            failed.run();
+        };
+        
+        final AtomicBoolean hedged = new AtomicBoolean();
+        final Runnable hedge = () -> {
+            if(!hedged.compareAndSet(false, true)) {
+                return;
+            }
+            
+            if(result.isDone() || RniDeadline.hasPassed(deadline) || !plan.tryHedge()) {
+                failed.run();
+                return;
+            }
+            
+            executeAsync(transport, plan, args, key, deadline, UNSUCCESSFUL).whenComplete(complete);
+        };
+        
+        executeAsync(transport, plan, args, key, deadline, UNSUCCESSFUL).whenComplete((value, error) -> {
+            complete.accept(value, error);
+            if(!result.isDone()) {
+                hedge.run();
+            }
         });
         
-        return classOfT.cast(instance);
+        if(result.isDone()) {
+            return result;
+        }
+        
+        final ScheduledFuture<?> scheduled = RniTimer.SCHEDULER.schedule(hedge, plan.hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+        result.whenComplete((value, error) -> scheduled.cancel(false));
+        return result;
     }
     
 }
\ No newline at end of file
@@ -22,15 +22,20 @@
 package com.sangupta.rni;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface PersonInterface {
     
+    @RniCacheable(ttl = 60_000, maxEntries = 16)
     public Person getPerson(String id);
     
     public String getPerson(Person person);
 
     public String createPerson(Person person);
     
+    @RniReadOnly
     public Map<String, String> getProperties();
+    
+    public CompletableFuture<Person> getPersonAsync(String id);
 
 }
\ No newline at end of file
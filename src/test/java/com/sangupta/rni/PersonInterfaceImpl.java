@@ -24,12 +24,18 @@ package com.sangupta.rni;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sangupta.jerry.util.AssertUtils;
 
 public class PersonInterfaceImpl implements PersonInterface {
     
     private Map<String, Person> persons = new HashMap<>();
+    
+    final AtomicInteger propertiesCalls = new AtomicInteger();
+    
+    volatile long propertiesDelayMillis = 0;
 
     @Override
     public Person getPerson(String id) {
@@ -64,8 +70,22 @@ public class PersonInterfaceImpl implements PersonInterface {
 
     @Override
     public Map<String, String> getProperties() {
+        propertiesCalls.incrementAndGet();
+        if(propertiesDelayMillis > 0) {
+            try {
+                Thread.sleep(propertiesDelayMillis);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
         Map<String, String> map = new HashMap<>();
         map.put("a1", "v1");
         return map;
     }
+
+    @Override
+    public CompletableFuture<Person> getPersonAsync(final String id) {
+        return CompletableFuture.supplyAsync(() -> getPerson(id));
+    }
 }
\ No newline at end of file
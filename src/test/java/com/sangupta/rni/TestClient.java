@@ -21,9 +21,36 @@
 
 package com.sangupta.rni;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -43,6 +70,7 @@ import org.junit.runners.MethodSorters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.Gson;
 import com.sangupta.jerry.constants.HttpStatusCode;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -76,7 +104,7 @@ public class TestClient {
     
     private static PersonInterface PERSON_CLIENT_IMPL = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT);
     
-    private static PersonInterface PERSON_SERVER_IMPL = new PersonInterfaceImpl();
+    private static PersonInterfaceImpl PERSON_SERVER_IMPL = new PersonInterfaceImpl();
 
     @BeforeClass
     public static void setupJettyServer() throws IOException {
@@ -153,7 +181,1263 @@ public class TestClient {
         Map<String, String> map = PERSON_CLIENT_IMPL.getProperties();
         System.out.println(map);
     }
+    
+    @Test
+    public void test003BinaryCodec() {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, new RniClientConfig().setCodec(RniCodecs.BINARY));
+        
+        Person person = new Person();
+        person.name = "rni-binary";
+        person.age = -42;
+        person.address = "github \u2603";
+        
+        String created = client.createPerson(person);
+        Assert.assertNotNull(created);
+        
+        Person fetched = client.getPerson(created);
+        Assert.assertNotNull(fetched);
+        Assert.assertEquals(created, fetched.id);
+        Assert.assertEquals(person.name, fetched.name);
+        Assert.assertEquals(person.age, fetched.age);
+        Assert.assertEquals(person.address, fetched.address);
+        
+        Map<String, String> map = client.getProperties();
+        Assert.assertEquals("v1", map.get("a1"));
+    }
+    
+    @Test
+    public void test003BinaryCodecRejectsForgedBodies() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        final RniMethod method = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("getPerson", String.class));
+        
+        // a string claiming to be 2 GB long
+        byte[] huge = new byte[] { 1, BinaryCodec.TAG_STRING, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'r', 'n', 'i' };
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST, postBody(method, BinaryCodec.CONTENT_TYPE, null, huge));
+        
+        // as many arguments
+        byte[] count = new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, BinaryCodec.TAG_NULL };
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST, postBody(method, BinaryCodec.CONTENT_TYPE, null, count));
+        
+        // arrays nested deeper than allowed
+        byte[] nested = new byte[BinaryReader.MAX_DEPTH + 2];
+        nested[0] = 1;
+        Arrays.fill(nested, 1, nested.length, (byte) BinaryCodec.TAG_BEGIN_ARRAY);
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST, postBody(method, BinaryCodec.CONTENT_TYPE, null, nested));
+    }
+    
+    private static int postBody(RniMethod method, String contentType, String contentEncoding, byte[] body) throws IOException {
+        URL url = new URL("http://localhost:" + SERVER_PORT + SERVER_CONTEXT_URI_PIECE + method.getPath());
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty(RniUtils.HEADER_CONTENT_TYPE, contentType);
+        connection.setRequestProperty(RniUtils.REQUEST_HEADER_FOR_METHOD_ID, method.getIdHeader());
+        if(contentEncoding != null) {
+            connection.setRequestProperty(RniUtils.HEADER_CONTENT_ENCODING, contentEncoding);
+        }
+        
+        connection.getOutputStream().write(body);
+        return connection.getResponseCode();
+    }
+    
+    @Test
+    public void test004AsyncServerMethod() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        Person person = new Person();
+        person.name = "rni-async";
+        
+        String created = PERSON_CLIENT_IMPL.createPerson(person);
+        Assert.assertNotNull(created);
+        
+        Person fetched = PERSON_CLIENT_IMPL.getPersonAsync(created).get();
+        Assert.assertNotNull(fetched);
+        Assert.assertEquals(person.name, fetched.name);
+        
+        Assert.assertNull(PERSON_CLIENT_IMPL.getPersonAsync("does-not-exist").get());
+    }
+    
+    @Test
+    public void test004AsyncServerTimeout() throws Exception {
+        final CompletableFuture<String> late = new CompletableFuture<>();
+        RPCReceivingServlet.recieveCalls(SlowInterface.class, () -> late);
+        RPCReceivingServlet.setAsyncTimeout(200);
+        try {
+            final RniMethod method = new RniMethod(SlowInterface.class, SlowInterface.class.getMethod("later"));
+            URL url = new URL("http://localhost:" + SERVER_PORT + SERVER_CONTEXT_URI_PIECE + method.getPath());
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty(RniUtils.REQUEST_HEADER_FOR_METHOD_ID, method.getIdHeader());
+            Assert.assertEquals(HttpStatusCode.SERVICE_UNAVAILABLE, connection.getResponseCode());
+            
+            // completing afterwards writes nothing to the ended response
+            late.complete("rni");
+            
+            Person person = new Person();
+            person.name = "rni-async";
+            Assert.assertNotNull(PERSON_CLIENT_IMPL.createPerson(person));
+        } finally {
+            RPCReceivingServlet.setAsyncTimeout(0);
+        }
+    }
+    
+    @Test
+    public void test005AsyncCompanionClient() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        PersonInterfaceAsync client = WebClientGenerator.createAsyncWebClient(PersonInterfaceAsync.class, PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT);
+        
+        Person person = new Person();
+        person.name = "rni-companion";
+        
+        String created = client.createPerson(person).get();
+        Assert.assertNotNull(created);
+        
+        Person fetched = client.getPerson(created).get();
+        Assert.assertNotNull(fetched);
+        Assert.assertEquals(person.name, fetched.name);
+        
+        Assert.assertEquals("v1", client.getProperties().get().get("a1"));
+    }
+    
+    @Test
+    public void test006CustomTransport() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        HttpTransportConfig transportConfig = new HttpTransportConfig().setMaxConnections(2)
+                                                                       .setMaxConnectionsPerRoute(1)
+                                                                       .setReadTimeoutMillis(5000);
+        
+        try(HttpTransport transport = new HttpTransport(transportConfig)) {
+            PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, new RniClientConfig().setTransport(transport));
+            
+            for(int index = 0; index < 10; index++) {
+                Person person = new Person();
+                person.name = "rni-" + index;
+                
+                String created = client.createPerson(person);
+                Assert.assertNotNull(created);
+                Assert.assertEquals(person.name, client.getPerson(created).name);
+            }
+        }
+    }
+
+    @Test
+    public void test007BatchedCalls() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        RniClientConfig config = new RniClientConfig().setBatching(8, 20);
+        PersonInterfaceAsync client = WebClientGenerator.createAsyncWebClient(PersonInterfaceAsync.class, PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, config);
+        
+        List<CompletableFuture<String>> created = new ArrayList<>();
+        for(int index = 0; index < 20; index++) {
+            Person person = new Person();
+            person.name = "rni-batch-" + index;
+            created.add(client.createPerson(person));
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        RPCReceivingServlet.setBatchExecutor(executor);
+        try {
+            List<CompletableFuture<Person>> fetched = new ArrayList<>();
+            for(CompletableFuture<String> future : created) {
+                fetched.add(client.getPerson(future.get()));
+            }
+            fetched.add(client.getPerson("does-not-exist"));
+            
+            for(int index = 0; index < 20; index++) {
+                Assert.assertEquals("rni-batch-" + index, fetched.get(index).get().name);
+            }
+            Assert.assertNull(fetched.get(20).get());
+        } finally {
+            RPCReceivingServlet.setBatchExecutor(null);
+            executor.shutdown();
+        }
+        
+        // calls the executor rejects fail on their own
+        RPCReceivingServlet.setBatchExecutor(executor);
+        try {
+            final int methodId = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("getProperties")).getId();
+            Assert.assertArrayEquals(new int[] { HttpStatusCode.SERVICE_UNAVAILABLE, HttpStatusCode.SERVICE_UNAVAILABLE }, postBatch(methodId, 2));
+        } finally {
+            RPCReceivingServlet.setBatchExecutor(null);
+        }
+        
+        // blocking calls through a batching client
+        PersonInterface blocking = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, config);
+        Assert.assertEquals("v1", blocking.getProperties().get("a1"));
+    }
+    
+    /**
+     * Send a batch of calls without arguments to the given method, and return
+     * the status of each call.
+     */
+    private static int[] postBatch(int methodId, int count) throws IOException {
+        URL url = new URL("http://localhost:" + SERVER_PORT + SERVER_CONTEXT_URI_PIECE + RniUtils.BATCH_PATH);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty(RniUtils.HEADER_CONTENT_TYPE, RniUtils.BATCH_CONTENT_TYPE);
+        try(DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
+            out.writeInt(count);
+            for(int index = 0; index < count; index++) {
+                out.writeInt(methodId);
+                out.writeInt(0);
+            }
+        }
+        
+        Assert.assertEquals(HttpStatusCode.OK, connection.getResponseCode());
+        try(DataInputStream in = new DataInputStream(connection.getInputStream())) {
+            Assert.assertEquals(count, in.readInt());
+            int[] statuses = new int[count];
+            for(int index = 0; index < count; index++) {
+                statuses[index] = in.readInt();
+                in.skipBytes(in.readInt());
+            }
+            
+            return statuses;
+        }
+    }
 
+    @Test
+    public void test008CachedResults() {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT);
+        
+        List<String> ids = new ArrayList<>();
+        for(int index = 0; index < 20; index++) {
+            Person person = new Person();
+            person.name = "rni-cache-" + index;
+            ids.add(client.createPerson(person));
+        }
+        
+        Person first = client.getPerson(ids.get(0));
+        Assert.assertSame(first, client.getPerson(ids.get(0)));
+        
+        // missing values are never cached
+        Assert.assertNull(client.getPerson("does-not-exist"));
+        Assert.assertNull(client.getPerson("does-not-exist"));
+        
+        for(String id : ids) {
+            Assert.assertNotNull(client.getPerson(id));
+        }
+        
+        RniCacheStats stats = WebClientGenerator.getCacheStats(client).get("PersonInterface/getPerson(java.lang.String)");
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(2, stats.getHits());
+        Assert.assertEquals(22, stats.getMisses());
+        Assert.assertEquals(16, stats.getSize());
+        Assert.assertEquals(4, stats.getEvictions());
+    }
+
+    @Test
+    public void test009RevalidatedResults() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT);
+        
+        Map<String, String> first = client.getProperties();
+        Assert.assertEquals("v1", first.get("a1"));
+        
+        // unchanged result is answered with 304 and the kept result is returned
+        Assert.assertSame(first, client.getProperties());
+        
+        // a client sending a stale ETag gets the full result
+        HttpTransport transport = HttpTransport.getDefault();
+        RniMethod method = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("getProperties"));
+        InvocationPlan plan = new InvocationPlan(method, new RniClientConfig(), "localhost", SERVER_PORT, SERVER_CONTEXT);
+        
+        RniRequest request = plan.newRequest(null);
+        request.addHeader(RniUtils.HEADER_IF_NONE_MATCH, "\"stale\"");
+        try(RniResponse response = transport.execute(request)) {
+            Assert.assertEquals(HttpStatusCode.OK, response.getStatus());
+            Assert.assertNotNull(response.getHeader(RniUtils.HEADER_ETAG));
+        }
+        
+        // the kept result is returned even if evicted while revalidating
+        final CallKey key = plan.keyFor(null);
+        request = plan.newRequest(null, key);
+        try(RniResponse response = transport.execute(request)) {
+            Assert.assertEquals("v1", ((Map<?, ?>) plan.decode(request, response, key)).get("a1"));
+        }
+        
+        request = plan.newRequest(null, key);
+        Assert.assertNotNull(request.getHeader(RniUtils.HEADER_IF_NONE_MATCH));
+        
+        // a result-less response drops the kept result meanwhile
+        plan.decode(request, new RniResponse() {
+            
+            @Override
+            public int getStatus() {
+                return HttpStatusCode.OK;
+            }
+            
+            @Override
+            public String getHeader(String name) {
+                return RniUtils.HEADER_ETAG.equals(name) ? "\"empty\"" : null;
+            }
+            
+            @Override
+            public InputStream getBody() {
+                return null;
+            }
+            
+            @Override
+            public void close() {
+                // nothing to release
+            }
+            
+        }, key);
+        
+        try(RniResponse response = transport.execute(request)) {
+            Assert.assertEquals(HttpStatusCode.NOT_MODIFIED, response.getStatus());
+            Assert.assertEquals("v1", ((Map<?, ?>) plan.decode(request, response, key)).get("a1"));
+        }
+    }
+
+    @Test
+    public void test010CoalescedCalls() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        final PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, new RniClientConfig().setCoalescing(true));
+        
+        final int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        PERSON_SERVER_IMPL.propertiesDelayMillis = 200;
+        try {
+            final int before = PERSON_SERVER_IMPL.propertiesCalls.get();
+            
+            List<Future<Map<String, String>>> results = new ArrayList<>();
+            for(int index = 0; index < threads; index++) {
+                results.add(executor.submit(() -> client.getProperties()));
+            }
+            
+            for(Future<Map<String, String>> result : results) {
+                Assert.assertEquals("v1", result.get().get("a1"));
+            }
+            
+            int calls = PERSON_SERVER_IMPL.propertiesCalls.get() - before;
+            Assert.assertTrue("Expected calls to be coalesced, server saw " + calls, calls < threads);
+        } finally {
+            PERSON_SERVER_IMPL.propertiesDelayMillis = 0;
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test011CompressedCalls() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        StringBuilder builder = new StringBuilder();
+        for(int index = 0; index < 1000; index++) {
+            builder.append("rni-compressed-").append(index).append(' ');
+        }
+        
+        for(String encoding : new String[] { "gzip", "lz4" }) {
+            RniClientConfig config = new RniClientConfig().setCompression(64, encoding);
+            PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, config);
+            
+            Person person = new Person();
+            person.name = builder.toString();
+            
+            String created = client.createPerson(person);
+            Assert.assertNotNull(created);
+            Assert.assertEquals(person.name, client.getPerson(created).name);
+            Assert.assertEquals(person.name, client.getPersonAsync(created).get().name);
+            
+            // the server compresses with the best encoding the client accepts
+            RniMethod method = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("getPersonAsync", String.class));
+            InvocationPlan plan = new InvocationPlan(method, config, "localhost", SERVER_PORT, SERVER_CONTEXT);
+            try(RniResponse response = HttpTransport.getDefault().execute(plan.newRequest(new Object[] { created }))) {
+                Assert.assertEquals(HttpStatusCode.OK, response.getStatus());
+                Assert.assertEquals("lz4", response.getHeader(RniUtils.HEADER_CONTENT_ENCODING));
+            }
+        }
+        
+        // small results are not compressed
+        RniClientConfig config = new RniClientConfig().setCompression(64);
+        RniMethod method = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("getProperties"));
+        InvocationPlan plan = new InvocationPlan(method, config, "localhost", SERVER_PORT, SERVER_CONTEXT);
+        try(RniResponse response = HttpTransport.getDefault().execute(plan.newRequest(null))) {
+            Assert.assertEquals(HttpStatusCode.OK, response.getStatus());
+            Assert.assertNull(response.getHeader(RniUtils.HEADER_CONTENT_ENCODING));
+        }
+    }
+
+    @Test
+    public void test011CorruptCompressedBodies() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        final RniMethod method = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("getPerson", String.class));
+        final String json = RniCodecs.JSON.getContentType();
+        
+        byte[] gzip = new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0, 'r', 'n', 'i', 'r', 'n', 'i' };
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST, postBody(method, json, "gzip", gzip));
+        
+        byte[] lz4 = new byte[] { 0x04, 0x22, 0x4d, 0x18, 'r', 'n', 'i', 'r', 'n', 'i', 'r', 'n', 'i' };
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST, postBody(method, json, "lz4", lz4));
+        
+        // a small body that decompresses to more than allowed
+        ByteArrayOutputStream bomb = new ByteArrayOutputStream();
+        try(OutputStream out = ContentEncoding.GZIP.compress(bomb)) {
+            out.write("[\"".getBytes(StandardCharsets.UTF_8));
+            byte[] chunk = new byte[1024 * 1024];
+            Arrays.fill(chunk, (byte) 'a');
+            for(long written = 0; written <= RPCReceivingServlet.MAX_DECODED_BYTES; written += chunk.length) {
+                out.write(chunk);
+            }
+        }
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST, postBody(method, json, "gzip", bomb.toByteArray()));
+    }
+    
+    @Test
+    public void test012GenericTypeAdapters() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        RPCReceivingServlet.warmUp();
+        
+        // results are read with the full generic type, not as a raw map
+        RniMethod method = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("getProperties"));
+        RniCodecs.JSON.prepare(method);
+        
+        Object result = RniCodecs.JSON.readResult(method, new ByteArrayInputStream("{\"a1\":1}".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("1", ((Map<?, ?>) result).get("a1"));
+        
+        PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, new RniClientConfig().setCodec(RniCodecs.BINARY).setWarmUp(true));
+        Map<String, String> map = client.getProperties();
+        Assert.assertEquals("v1", map.get("a1"));
+        
+        // adapters are kept for each Gson instance in use
+        Gson first = new Gson();
+        Gson second = new Gson();
+        MethodAdapters adapters = method.getAdapters(first);
+        Assert.assertNotSame(adapters, method.getAdapters(second));
+        Assert.assertSame(adapters, method.getAdapters(first));
+    }
+
+    @Test
+    public void test013Metrics() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        final String name = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("createPerson", Person.class)).getPath();
+        final long clientCalls = RniMetrics.client().getEndpoint(name).getCalls();
+        final long serverCalls = RniMetrics.server().getEndpoint(name).getCalls();
+        final long clientBytesOut = RniMetrics.client().getEndpoint(name).getBytesOut();
+        final long serverBytesIn = RniMetrics.server().getEndpoint(name).getBytesIn();
+        
+        Person person = new Person();
+        person.name = "rni";
+        person.age = 30;
+        for(int index = 0; index < 5; index++) {
+            Assert.assertNotNull(PERSON_CLIENT_IMPL.createPerson(person));
+        }
+        
+        RniEndpointMetrics client = RniMetrics.client().getEndpoint(name);
+        Assert.assertEquals(clientCalls + 5, client.getCalls());
+        Assert.assertTrue(client.getBytesOut() > 0);
+        Assert.assertTrue(client.getBytesIn() > 0);
+        Assert.assertTrue(client.getTotal().getPercentileNanos(99) > 0);
+        Assert.assertTrue(client.getTotal().getPercentileNanos(50) <= client.getTotal().getMaxNanos());
+        
+        RniEndpointMetrics server = RniMetrics.server().getEndpoint(name);
+        Assert.assertEquals(serverCalls + 5, server.getCalls());
+        Assert.assertEquals(serverCalls + 5, server.getDecode().getCount());
+        Assert.assertEquals(serverCalls + 5, server.getInvoke().getCount());
+        Assert.assertEquals(serverCalls + 5, server.getEncode().getCount());
+        Assert.assertEquals(client.getBytesOut() - clientBytesOut, server.getBytesIn() - serverBytesIn);
+        
+        // served as JSON only when enabled
+        URL url = new URL("http://localhost:" + SERVER_PORT + SERVER_CONTEXT_URI_PIECE + RniUtils.METRICS_PATH);
+        Assert.assertEquals(HttpStatusCode.BAD_REQUEST, ((HttpURLConnection) url.openConnection()).getResponseCode());
+        
+        RPCReceivingServlet.setMetricsEndpoint(true);
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(HttpStatusCode.OK, connection.getResponseCode());
+            
+            String json;
+            try(Scanner scanner = new Scanner(connection.getInputStream(), "UTF-8")) {
+                json = scanner.useDelimiter("\\A").next();
+            }
+            
+            Assert.assertTrue(json.startsWith("{\"client\":{"));
+            Assert.assertTrue(json.contains("\"" + name + "\":{\"calls\":"));
+        } finally {
+            RPCReceivingServlet.setMetricsEndpoint(false);
+        }
+    }
+    
+    @Test
+    public void test014MultipleEndpoints() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        final int deadPort;
+        try(ServerSocket socket = new ServerSocket(RANDOM_PORT)) {
+            deadPort = socket.getLocalPort();
+        }
+        
+        final String name = new RniMethod(PersonInterface.class, PersonInterface.class.getMethod("createPerson", Person.class)).getPath();
+        final long served = RniMetrics.server().getEndpoint(name).getCalls();
+        
+        Person person = new Person();
+        person.name = "rni";
+        
+        // calls that cannot connect go to another endpoint
+        List<RniEndpoint> endpoints = new ArrayList<>();
+        endpoints.add(new RniEndpoint("127.0.0.1", deadPort));
+        endpoints.add(new RniEndpoint("localhost", SERVER_PORT));
+        endpoints.add(new RniEndpoint("127.0.0.1", SERVER_PORT));
+        
+        for(RniLoadBalancer balancer : RniLoadBalancer.values()) {
+            RniClientConfig config = new RniClientConfig().setLoadBalancer(balancer).setEjection(2, 3, 60_000);
+            PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, endpoints, SERVER_CONTEXT, config);
+            for(int index = 0; index < 20; index++) {
+                Assert.assertNotNull(client.createPerson(person));
+            }
+        }
+        
+        Assert.assertEquals(served + 40, RniMetrics.server().getEndpoint(name).getCalls());
+        
+        // endpoints are picked up from the supplier
+        final List<RniEndpoint> current = new CopyOnWriteArrayList<>();
+        current.add(new RniEndpoint("127.0.0.1", deadPort));
+        
+        PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, () -> current, SERVER_CONTEXT, new RniClientConfig().setEndpointRefreshMillis(0));
+        Assert.assertNull(client.createPerson(person));
+        
+        current.add(new RniEndpoint("localhost", SERVER_PORT));
+        current.remove(0);
+        Assert.assertNotNull(client.createPerson(person));
+    }
+    
+    @Test
+    public void test015DeadlinesAndHedging() throws Exception {
+        final AtomicInteger echoes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        RPCReceivingServlet.recieveCalls(DeadlineInterface.class, new DeadlineInterface() {
+            
+            @Override
+            public Long getRemainingMillis() {
+                return RniDeadline.getRemainingMillis();
+            }
+            
+            @Override
+            public String echo(String value) {
+                // only the first failing call fails
+                if("fail".equals(value) && failures.incrementAndGet() == 1) {
+                    throw new IllegalStateException("failing once");
+                }
+                
+                // only the first call is slow
+                if(echoes.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(3_000);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                
+                return value;
+            }
+            
+        });
+        
+        // the deadline reaches the implementation
+        DeadlineInterface client = WebClientGenerator.createWebClient(DeadlineInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, new RniClientConfig().setTimeoutMillis(5_000));
+        long remaining = client.getRemainingMillis();
+        Assert.assertTrue(remaining > 0 && remaining <= 5_000);
+        
+        remaining = RniDeadline.within(1_000, () -> client.getRemainingMillis());
+        Assert.assertTrue(remaining > 0 && remaining <= 1_000);
+        
+        DeadlineInterface noDeadline = WebClientGenerator.createWebClient(DeadlineInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT);
+        Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), noDeadline.getRemainingMillis());
+        
+        // calls whose deadline has passed are not sent
+        final String name = new RniMethod(DeadlineInterface.class, DeadlineInterface.class.getMethod("getRemainingMillis")).getPath();
+        final long clientExpired = RniMetrics.client().getEndpoint(name).getExpired();
+        Assert.assertNull(RniDeadline.within(0, () -> {
+            try {
+                Thread.sleep(5);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            
+            return noDeadline.getRemainingMillis();
+        }));
+        Assert.assertEquals(clientExpired + 1, RniMetrics.client().getEndpoint(name).getExpired());
+        
+        // and are rejected by the server if they get there
+        final long serverExpired = RniMetrics.server().getEndpoint(name).getExpired();
+        URL url = new URL("http://localhost:" + SERVER_PORT + SERVER_CONTEXT_URI_PIECE + name);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty(RniUtils.REQUEST_HEADER_FOR_METHOD_ID, new RniMethod(DeadlineInterface.class, DeadlineInterface.class.getMethod("getRemainingMillis")).getIdHeader());
+        connection.setRequestProperty(RniUtils.REQUEST_HEADER_FOR_TIMEOUT, "0");
+        Assert.assertEquals(HttpStatusCode.GATEWAY_TIMEOUT, connection.getResponseCode());
+        Assert.assertEquals(serverExpired + 1, RniMetrics.server().getEndpoint(name).getExpired());
+        
+        // a slow call to an idempotent method is hedged
+        DeadlineInterface hedging = WebClientGenerator.createWebClient(DeadlineInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, new RniClientConfig().setHedging(95, 100));
+        final String echo = new RniMethod(DeadlineInterface.class, DeadlineInterface.class.getMethod("echo", String.class)).getPath();
+        final long hedged = RniMetrics.client().getEndpoint(echo).getHedged();
+        
+        final long start = System.currentTimeMillis();
+        Assert.assertEquals("rni", hedging.echo("rni"));
+        Assert.assertTrue(System.currentTimeMillis() - start < 2_000);
+        Assert.assertEquals(hedged + 1, RniMetrics.client().getEndpoint(echo).getHedged());
+        Assert.assertEquals(2, echoes.get());
+        
+        // and a fast one is not
+        Assert.assertEquals("rni", hedging.echo("rni"));
+        Assert.assertEquals(hedged + 1, RniMetrics.client().getEndpoint(echo).getHedged());
+        
+        // a failed response is not taken as the result, the hedge is
+        Assert.assertEquals("fail", hedging.echo("fail"));
+        Assert.assertEquals(hedged + 2, RniMetrics.client().getEndpoint(echo).getHedged());
+        Assert.assertEquals(2, failures.get());
+    }
+    
+    @Test
+    public void test016ConcurrencyLimits() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RPCReceivingServlet.recieveCalls(LimitedInterface.class, new LimitedInterface() {
+            
+            @Override
+            public String hold(String value) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                
+                return value;
+            }
+            
+        });
+        
+        final LimitedInterface client = WebClientGenerator.createWebClient(LimitedInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT);
+        final String name = new RniMethod(LimitedInterface.class, LimitedInterface.class.getMethod("hold", String.class)).getPath();
+        
+        RPCReceivingServlet.setConcurrencyLimit(RniLimitAlgorithm.GRADIENT, 1, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertEquals(Integer.valueOf(1), RPCReceivingServlet.getConcurrencyLimits().get(name));
+            
+            Future<String> held = executor.submit(() -> client.hold("first"));
+            Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+            
+            // calls beyond the limit are rejected at once, with a retry hint
+            final long shed = RniMetrics.server().getEndpoint(name).getShed();
+            URL url = new URL("http://localhost:" + SERVER_PORT + SERVER_CONTEXT_URI_PIECE + name);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty(RniUtils.REQUEST_HEADER_FOR_METHOD_ID, new RniMethod(LimitedInterface.class, LimitedInterface.class.getMethod("hold", String.class)).getIdHeader());
+            Assert.assertEquals(HttpStatusCode.SERVICE_UNAVAILABLE, connection.getResponseCode());
+            Assert.assertEquals("1", connection.getHeaderField(RniUtils.HEADER_RETRY_AFTER));
+            Assert.assertEquals(shed + 1, RniMetrics.server().getEndpoint(name).getShed());
+            Assert.assertNull(client.hold("second"));
+            
+            // and admitted again once the running call completes
+            release.countDown();
+            Assert.assertEquals("first", held.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("third", client.hold("third"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            RPCReceivingServlet.setConcurrencyLimit(null);
+        }
+        
+        Assert.assertTrue(RPCReceivingServlet.getConcurrencyLimits().isEmpty());
+    }
+    
+    @Test
+    public void test016ConcurrencyLimitsOnTimeout() throws Exception {
+        RPCReceivingServlet.recieveCalls(SlowInterface.class, () -> new CompletableFuture<>());
+        final SlowInterface client = WebClientGenerator.createWebClient(SlowInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT);
+        final String name = new RniMethod(SlowInterface.class, SlowInterface.class.getMethod("later")).getPath();
+        
+        RPCReceivingServlet.setConcurrencyLimit(RniLimitAlgorithm.GRADIENT, 1, 1);
+        RPCReceivingServlet.setAsyncTimeout(100);
+        try {
+            // calls that never complete give up their slot once timed out
+            final long shed = RniMetrics.server().getEndpoint(name).getShed();
+            for(int index = 0; index < 3; index++) {
+                Assert.assertNull(client.later().get());
+            }
+            Assert.assertEquals(shed, RniMetrics.server().getEndpoint(name).getShed());
+        } finally {
+            RPCReceivingServlet.setAsyncTimeout(0);
+            RPCReceivingServlet.setConcurrencyLimit(null);
+        }
+    }
+    
+    @Test
+    public void test017ExecutionPolicies() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RniExecutionPolicy pool = RniExecutionPolicy.boundedPool(1, 0);
+        RPCReceivingServlet.recieveCalls(IsolatedInterface.class, new IsolatedInterface() {
+            
+            @Override
+            public String getThreadName() {
+                return Thread.currentThread().getName();
+            }
+            
+            @Override
+            public String hold(String value) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                
+                return value;
+            }
+            
+        }, pool);
+        
+        final IsolatedInterface client = WebClientGenerator.createWebClient(IsolatedInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT);
+        Assert.assertTrue(client.getThreadName().startsWith("rni-pool-"));
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> held = executor.submit(() -> {
+                // the pool thread may still be handing back the last call
+                String value;
+                while((value = client.hold("first")) == null) {
+                    Thread.sleep(10);
+                }
+                
+                return value;
+            });
+            Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+            
+            // the pool is busy, while other interfaces are not held up
+            Assert.assertNull(client.getThreadName());
+            
+            // batched calls are held to the same policy
+            final int methodId = new RniMethod(IsolatedInterface.class, IsolatedInterface.class.getMethod("getThreadName")).getId();
+            Assert.assertArrayEquals(new int[] { HttpStatusCode.SERVICE_UNAVAILABLE, HttpStatusCode.SERVICE_UNAVAILABLE }, postBatch(methodId, 2));
+            RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+            Person person = new Person();
+            person.name = "rni";
+            Assert.assertNotNull(PERSON_CLIENT_IMPL.createPerson(person));
+            
+            // unless the method has a policy of its own
+            RPCReceivingServlet.setExecutionPolicy(IsolatedInterface.class, "getThreadName", RniExecutionPolicy.callerRuns());
+            Assert.assertFalse(client.getThreadName().startsWith("rni-pool-"));
+            
+            RPCReceivingServlet.setExecutionPolicy(IsolatedInterface.class, "getThreadName", RniExecutionPolicy.virtualThreads(4, 4));
+            Assert.assertNotNull(client.getThreadName());
+            
+            release.countDown();
+            Assert.assertEquals("first", held.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void test018StreamingResults() throws Exception {
+        final AtomicInteger produced = new AtomicInteger();
+        RPCReceivingServlet.recieveCalls(StreamingInterface.class, new StreamingInterface() {
+            
+            @Override
+            public Iterator<Integer> range(final int count) {
+                return new Iterator<Integer>() {
+                    
+                    private int next;
+                    
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < count;
+                    }
+                    
+                    @Override
+                    public Integer next() {
+                        produced.incrementAndGet();
+                        return this.next++;
+                    }
+                    
+                };
+            }
+            
+            @Override
+            public Stream<String> words(String text) {
+                return Stream.of(text.split(" "));
+            }
+            
+            @Override
+            public Iterable<Person> people(int count) {
+                List<Person> people = new ArrayList<>();
+                for(int index = 0; index < count; index++) {
+                    Person person = new Person();
+                    person.id = String.valueOf(index);
+                    person.age = index;
+                    people.add(index % 10 == 9 ? null : person);
+                }
+                
+                return people;
+            }
+            
+        });
+        
+        for(RniCodec codec : new RniCodec[] { RniCodecs.JSON, RniCodecs.BINARY }) {
+            StreamingInterface client = WebClientGenerator.createWebClient(StreamingInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, new RniClientConfig().setCodec(codec).setCompression(1024));
+            
+            long sum = 0;
+            Iterator<Integer> range = client.range(100_000);
+            while(range.hasNext()) {
+                sum += range.next();
+            }
+            Assert.assertEquals(100_000L * 99_999 / 2, sum);
+            Assert.assertFalse(range.hasNext());
+            
+            try(Stream<String> words = client.words("streamed one element at a time")) {
+                Assert.assertEquals("streamed,one,element,at,a,time", words.collect(Collectors.joining(",")));
+            }
+            
+            Iterable<Person> people = client.people(25);
+            int count = 0;
+            for(Person person : people) {
+                if(count % 10 == 9) {
+                    Assert.assertNull(person);
+                } else {
+                    Assert.assertEquals(count, person.age);
+                }
+                count++;
+            }
+            Assert.assertEquals(25, count);
+            
+            try {
+                people.iterator();
+                Assert.fail("Streamed result iterated twice");
+            } catch(IllegalStateException e) {
+                // expected
+            }
+            
+            // an endless result is only produced as far as the connection
+            // buffers allow, and stops once closed
+            produced.set(0);
+            range = client.range(Integer.MAX_VALUE);
+            for(int index = 0; index < 10; index++) {
+                Assert.assertEquals(Integer.valueOf(index), range.next());
+            }
+            ((Closeable) range).close();
+            Assert.assertFalse(range.hasNext());
+            
+            Assert.assertEquals(Arrays.asList("still", "working"), client.words("still working").collect(Collectors.toList()));
+            Assert.assertTrue(produced.get() < 10_000_000);
+        }
+    }
+    
+    @Test
+    public void test019BinaryParts() throws Exception {
+        RPCReceivingServlet.recieveCalls(BlobInterface.class, new BlobInterface() {
+            
+            @Override
+            public String upload(String name, InputStream data) throws IOException {
+                long count = 0;
+                int sum = 0;
+                int read;
+                while((read = data.read()) != -1) {
+                    sum += read;
+                    count++;
+                }
+                
+                return name + ":" + count + ":" + sum;
+            }
+            
+            @Override
+            public byte[] concat(byte[] first, ByteBuffer second, String suffix) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if(first != null) {
+                    out.write(first, 0, first.length);
+                }
+                
+                if(second != null) {
+                    while(second.hasRemaining()) {
+                        out.write(second.get());
+                    }
+                }
+                
+                byte[] bytes = suffix.getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                return out.toByteArray();
+            }
+            
+            @Override
+            public InputStream download(int size) {
+                byte[] bytes = new byte[size];
+                for(int index = 0; index < size; index++) {
+                    bytes[index] = (byte) index;
+                }
+                
+                return new ByteArrayInputStream(bytes);
+            }
+            
+            @Override
+            public ByteBuffer echo(ByteBuffer buffer) {
+                return buffer;
+            }
+            
+        });
+        
+        final byte[] data = new byte[3 * 1024 * 1024];
+        int sum = 0;
+        for(int index = 0; index < data.length; index++) {
+            data[index] = (byte) (index * 31);
+            sum += data[index] & 0xff;
+        }
+        
+        for(RniCodec codec : new RniCodec[] { RniCodecs.JSON, RniCodecs.BINARY }) {
+            BlobInterface client = WebClientGenerator.createWebClient(BlobInterface.class, "localhost", SERVER_PORT, SERVER_CONTEXT, new RniClientConfig().setCodec(codec));
+            
+            Assert.assertEquals("blob:" + data.length + ":" + sum, client.upload("blob", new ByteArrayInputStream(data)));
+            Assert.assertEquals("empty:0:0", client.upload("empty", new ByteArrayInputStream(new byte[0])));
+            
+            ByteBuffer direct = ByteBuffer.allocateDirect(3);
+            direct.put(new byte[] { 4, 5, 6 }).flip();
+            Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, '!' }, client.concat(new byte[] { 1, 2, 3 }, direct, "!"));
+            Assert.assertEquals(3, direct.remaining());
+            Assert.assertArrayEquals(new byte[] { 7, 8, '?' }, client.concat(null, ByteBuffer.wrap(new byte[] { 0, 7, 8 }, 1, 2), "?"));
+            Assert.assertArrayEquals(new byte[] { '.' }, client.concat(null, null, "."));
+            
+            ByteBuffer echoed = client.echo(ByteBuffer.wrap(data));
+            Assert.assertEquals(ByteBuffer.wrap(data), echoed);
+            
+            try(InputStream stream = client.download(data.length)) {
+                int index = 0;
+                int read;
+                while((read = stream.read()) != -1) {
+                    Assert.assertEquals((byte) index++, (byte) read);
+                }
+                Assert.assertEquals(data.length, index);
+            }
+            
+            // a download closed part way does not hold up the next call
+            try(InputStream stream = client.download(data.length)) {
+                Assert.assertEquals(0, stream.read());
+            }
+            Assert.assertArrayEquals(new byte[] { 'x' }, client.concat(null, null, "x"));
+        }
+    }
+    
+    @Test
+    public void test020StandaloneServer() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        RPCReceivingServlet.recieveCalls(RepeatInterface.class, (value, times) -> {
+            StringBuilder builder = new StringBuilder();
+            for(int index = 0; index < times; index++) {
+                builder.append(value);
+            }
+            
+            return builder.toString();
+        });
+        
+        final long start = System.nanoTime();
+        RniServer server = RniServer.start(0, new RniServerConfig().setWorkerThreads(2));
+        LOGGER.debug("Standalone server started in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        try {
+            final int port = server.getPort();
+            Assert.assertTrue(port > 0);
+            
+            PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", port, SERVER_CONTEXT);
+            
+            Person person = new Person();
+            person.name = "rni-standalone";
+            
+            String created = client.createPerson(person);
+            Assert.assertNotNull(created);
+            Assert.assertEquals(person.name, client.getPerson(created).name);
+            Assert.assertEquals(person.name, client.getPersonAsync(created).get().name);
+            Assert.assertNull(client.getPersonAsync("does-not-exist").get());
+            
+            PersonInterface binary = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", port, SERVER_CONTEXT, new RniClientConfig().setCodec(RniCodecs.BINARY));
+            Assert.assertEquals("v1", binary.getProperties().get("a1"));
+            
+            // small results are sent with their length, large ones chunked
+            RepeatInterface repeat = WebClientGenerator.createWebClient(RepeatInterface.class, "localhost", port, SERVER_CONTEXT);
+            Assert.assertEquals("ab", repeat.repeat("ab", 1));
+            Assert.assertEquals(200_000, repeat.repeat("ab", 100_000).length());
+            
+            PersonInterfaceAsync batched = WebClientGenerator.createAsyncWebClient(PersonInterfaceAsync.class, PersonInterface.class, "localhost", port, SERVER_CONTEXT, new RniClientConfig().setBatching(8, 20));
+            List<CompletableFuture<Person>> fetched = new ArrayList<>();
+            for(int index = 0; index < 10; index++) {
+                fetched.add(batched.getPerson(created));
+            }
+            
+            for(CompletableFuture<Person> future : fetched) {
+                Assert.assertEquals(person.name, future.get().name);
+            }
+            
+            // the metrics endpoint is off by default
+            URL url = new URL("http://localhost:" + port + SERVER_CONTEXT_URI_PIECE + RniUtils.METRICS_PATH);
+            Assert.assertEquals(HttpStatusCode.BAD_REQUEST, ((HttpURLConnection) url.openConnection()).getResponseCode());
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test
+    public void test021FramedTransport() throws Exception {
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        
+        final RniServerConfig serverConfig = new RniServerConfig();
+        RniServer server = RniServer.start(FramedTransport.SCHEME + "://localhost:0/" + SERVER_CONTEXT, serverConfig);
+        
+        // the URL applies to the server, not to the config passed in
+        Assert.assertFalse(serverConfig.isFramed());
+        Assert.assertNull(serverConfig.getHost());
+        final int port = server.getPort();
+        
+        // the client connects through a relay, so that the server can be
+        // restarted on another port
+        final Relay relay = new Relay(port);
+        final String url = FramedTransport.SCHEME + "://localhost:" + relay.getPort() + "/" + SERVER_CONTEXT;
+        
+        PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, url);
+        try {
+            Assert.assertTrue(server.isFramed());
+            
+            Person person = new Person();
+            person.name = "rni-framed";
+            
+            String created = client.createPerson(person);
+            Assert.assertNotNull(created);
+            Assert.assertEquals(person.name, client.getPerson(created).name);
+            Assert.assertEquals(person.name, client.getPersonAsync(created).get().name);
+            Assert.assertNull(client.getPersonAsync("does-not-exist").get());
+            
+            // many calls in flight on a single connection
+            try(FramedTransport transport = new FramedTransport(new FramedTransportConfig().setConnectionsPerServer(1))) {
+                final PersonInterface binary = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", port, SERVER_CONTEXT, new RniClientConfig().setCodec(RniCodecs.BINARY).setTransport(transport));
+                
+                ExecutorService executor = Executors.newFixedThreadPool(8);
+                try {
+                    List<Future<String>> futures = new ArrayList<>();
+                    for(int index = 0; index < 200; index++) {
+                        final Person pipelined = new Person();
+                        pipelined.name = "rni-pipelined-" + index;
+                        futures.add(executor.submit(() -> binary.getPerson(binary.createPerson(pipelined)).name));
+                    }
+                    
+                    for(int index = 0; index < futures.size(); index++) {
+                        Assert.assertEquals("rni-pipelined-" + index, futures.get(index).get());
+                    }
+                } finally {
+                    executor.shutdown();
+                }
+            }
+            
+            // selected by an option rather than the URL, with batching
+            RniClientConfig config = new RniClientConfig().setFramed(true).setBatching(8, 20);
+            PersonInterfaceAsync batched = WebClientGenerator.createAsyncWebClient(PersonInterfaceAsync.class, PersonInterface.class, "localhost", port, SERVER_CONTEXT, config);
+            List<CompletableFuture<Person>> fetched = new ArrayList<>();
+            for(int index = 0; index < 10; index++) {
+                fetched.add(batched.getPerson(created));
+            }
+            
+            for(CompletableFuture<Person> future : fetched) {
+                Assert.assertEquals(person.name, future.get().name);
+            }
+            Assert.assertEquals("v1", batched.getProperties().get().get("a1"));
+        } finally {
+            server.stop();
+        }
+        
+        // calls fail once the server is gone, and reconnect once it is back
+        try {
+            Assert.assertNull(client.getProperties());
+            
+            server = RniServer.start(RANDOM_PORT, new RniServerConfig().setFramed(true));
+            relay.target = server.getPort();
+            try {
+                // each connection kept open to the stopped server fails
+                // its next call before being replaced
+                Map<String, String> properties = client.getProperties();
+                for(int attempt = 0; properties == null && attempt < new FramedTransportConfig().getConnectionsPerServer(); attempt++) {
+                    properties = client.getProperties();
+                }
+                
+                Assert.assertEquals("v1", properties.get("a1"));
+            } finally {
+                server.stop();
+            }
+        } finally {
+            relay.close();
+        }
+    }
+    
+    @Test
+    public void test021FramedAsyncTimeout() throws Exception {
+        final List<CompletableFuture<String>> pending = new CopyOnWriteArrayList<>();
+        RPCReceivingServlet.recieveCalls(SlowInterface.class, () -> {
+            CompletableFuture<String> late = new CompletableFuture<>();
+            pending.add(late);
+            return late;
+        });
+        RPCReceivingServlet.recieveCalls(PersonInterface.class, PERSON_SERVER_IMPL);
+        RPCReceivingServlet.setAsyncTimeout(100);
+        
+        RniServer server = RniServer.start(RANDOM_PORT, new RniServerConfig().setFramed(true));
+        try(FramedTransport transport = new FramedTransport(new FramedTransportConfig().setConnectionsPerServer(1))) {
+            RniClientConfig config = new RniClientConfig().setTransport(transport);
+            SlowInterface slow = WebClientGenerator.createWebClient(SlowInterface.class, "localhost", server.getPort(), SERVER_CONTEXT, config);
+            PersonInterface client = WebClientGenerator.createWebClient(PersonInterface.class, "localhost", server.getPort(), SERVER_CONTEXT, config);
+            
+            StringBuilder builder = new StringBuilder();
+            for(int index = 0; index < 10_000; index++) {
+                builder.append("rni-late-").append(index);
+            }
+            
+            // results written once timed out do not corrupt the connection
+            for(int round = 0; round < 5; round++) {
+                Assert.assertNull(slow.later().get());
+                for(CompletableFuture<String> late : pending) {
+                    late.complete(builder.toString());
+                }
+                
+                Assert.assertEquals("v1", client.getProperties().get("a1"));
+            }
+        } finally {
+            RPCReceivingServlet.setAsyncTimeout(0);
+            server.stop();
+        }
+    }
+    
+    /**
+     * Forwards each connection it accepts to a new connection to the target
+     * port, closing both once either side is closed.
+     */
+    private static class Relay implements Closeable {
+        
+        private final ServerSocket serverSocket = new ServerSocket(RANDOM_PORT);
+        
+        volatile int target;
+        
+        Relay(int target) throws IOException {
+            this.target = target;
+            
+            Thread acceptor = new Thread(() -> {
+                while(!this.serverSocket.isClosed()) {
+                    try {
+                        Socket client = this.serverSocket.accept();
+                        try {
+                            Socket server = new Socket("localhost", this.target);
+                            pipe(client, server);
+                            pipe(server, client);
+                        } catch(IOException e) {
+                            client.close();
+                        }
+                    } catch(IOException e) {
+                        // relay closed
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        
+        int getPort() {
+            return this.serverSocket.getLocalPort();
+        }
+        
+        private static void pipe(Socket from, Socket to) {
+            Thread thread = new Thread(() -> {
+                try {
+                    byte[] buffer = new byte[8 * 1024];
+                    int read;
+                    while((read = from.getInputStream().read(buffer)) != -1) {
+                        to.getOutputStream().write(buffer, 0, read);
+                    }
+                } catch(IOException e) {
+                    // either side closed
+                } finally {
+                    try {
+                        from.close();
+                        to.close();
+                    } catch(IOException e) {
+                        // eat up
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            this.serverSocket.close();
+        }
+        
+    }
+    
+    public interface SlowInterface {
+        
+        public CompletableFuture<String> later();
+        
+    }
+    
+    public interface RepeatInterface {
+        
+        public String repeat(String value, int times);
+        
+    }
+    
+    public interface BlobInterface {
+        
+        public String upload(String name, InputStream data) throws IOException;
+        
+        public byte[] concat(byte[] first, ByteBuffer second, String suffix);
+        
+        public InputStream download(int size);
+        
+        public ByteBuffer echo(ByteBuffer buffer);
+        
+    }
+    
+    public interface StreamingInterface {
+        
+        public Iterator<Integer> range(int count);
+        
+        public Stream<String> words(String text);
+        
+        public Iterable<Person> people(int count);
+        
+    }
+    
+    public interface IsolatedInterface {
+        
+        public String getThreadName();
+        
+        public String hold(String value);
+        
+    }
+    
+    public interface LimitedInterface {
+        
+        @RniPriority(RniPriority.Level.SHEDDABLE)
+        public String hold(String value);
+        
+    }
+    
+    public interface DeadlineInterface {
+        
+        public Long getRemainingMillis();
+        
+        @RniIdempotent
+        public String echo(String value);
+        
+    }
+    
     private static class JettyProxyToRniServlet extends AbstractHandler {
 
         @Override